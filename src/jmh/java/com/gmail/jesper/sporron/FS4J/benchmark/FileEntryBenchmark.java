@@ -0,0 +1,48 @@
+package com.gmail.jesper.sporron.FS4J.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gmail.jesper.sporron.FS4J.util.FileEntry;
+
+/** Benchmarks for splitting paths into {@link FileEntry}s and joining them back together.
+ *
+ * @author Jesper Sporron */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileEntryBenchmark {
+	@Param({ "stone.png", "textures/stone.png", "mods/extra/textures/blocks/stone/mossy.png" })
+	public String text;
+
+	private FileEntry[] entries;
+
+	@Setup
+	public void setUp() {
+		entries = FileEntry.from(text);
+	}
+
+	@Benchmark
+	public FileEntry[] from() {
+		return FileEntry.from(text);
+	}
+
+	@Benchmark
+	public String join() {
+		return FileEntry.join(entries);
+	}
+}
@@ -0,0 +1,88 @@
+package com.gmail.jesper.sporron.FS4J.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FileEntry;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Benchmarks for creating, minimizing, combining, hashing and comparing {@link FilePath}s.
+ *
+ * @author Jesper Sporron */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilePathBenchmark {
+	@Param({ "textures/stone.png", "mods/base/../extra/./textures/blocks/stone/mossy.png" })
+	public String text;
+
+	private FilePath path;
+	private FilePath minimized;
+	private FilePath equalPath;
+	private FilePath suffix;
+	private FileEntry entry;
+
+	@Setup
+	public void setUp() {
+		path = FilePath.from(text);
+		minimized = path.minimize();
+		equalPath = FilePath.from(text);
+		suffix = FilePath.from("sub/file.txt");
+		entry = new FileEntry("file.txt");
+	}
+
+	@Benchmark
+	public FilePath from() {
+		return FilePath.from(text);
+	}
+
+	@Benchmark
+	public FilePath minimize() {
+		return path.minimize();
+	}
+
+	@Benchmark
+	public FilePath appendEntry() {
+		return path.append(entry);
+	}
+
+	@Benchmark
+	public FilePath appendPath() {
+		return path.append(suffix);
+	}
+
+	@Benchmark
+	public int hash() {
+		return path.hashCode();
+	}
+
+	@Benchmark
+	public boolean equalPath() {
+		return path.equals(equalPath);
+	}
+
+	@Benchmark
+	public boolean equalString() {
+		return path.equals(text);
+	}
+
+	@Benchmark
+	public boolean isSafePath() {
+		return FSUtils.isSafePath(minimized);
+	}
+}
@@ -0,0 +1,152 @@
+package com.gmail.jesper.sporron.FS4J.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gmail.jesper.sporron.FS4J.FileAccessType;
+import com.gmail.jesper.sporron.FS4J.FileLocation;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+import com.gmail.jesper.sporron.FS4J.util.PathHash;
+
+/** Benchmarks for looking up files with {@link NIOFileSystem#open(FilePath, FileAccessType)} on
+ * search paths of different lengths. Every registration holds a few files of its own, so a lookup
+ * for a file in the last registration has to miss in all the others first. The lookups by hash
+ * and by name include everything from the caller's string or hash to the file, while the
+ * {@link FilePath} lookups start from a path that was built before.
+ *
+ * @author Jesper Sporron */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NIOFileSystemBenchmark {
+	private static final int FILES_PER_REGISTRATION = 16;
+
+	/** The number of registrations on the search path. */
+	@Param({ "1", "8", "32" })
+	public int registrations;
+
+	/** <code>directory</code>, <code>zip</code>, or <code>mixed</code> for alternating both. */
+	@Param({ "directory", "zip", "mixed" })
+	public String type;
+
+	private Path root;
+	private NIOFileSystem fs;
+	private FilePath first;
+	private FilePath last;
+	private FilePath missing;
+	private String lastName;
+	private long lastHash;
+
+	@Setup
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("fs4j-bench");
+		fs = new NIOFileSystem();
+		for (int i = 0; i < registrations; i++) {
+			final boolean zip = type.equals("zip") || type.equals("mixed") && i % 2 == 1;
+			final Path registration = zip ? createZip(i) : createDirectory(i);
+			if (!fs.addToSearchPath(registration.toString(), FileLocation.EXTERNAL))
+				throw new IllegalStateException("Could not register " + registration);
+		}
+		first = FilePath.from(fileName(0, 0));
+		last = FilePath.from(fileName(registrations - 1, FILES_PER_REGISTRATION - 1));
+		missing = FilePath.from("assets/missing.txt");
+		lastName = last.toString();
+		lastHash = PathHash.hash(lastName);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public Optional<NIOFSFile> openFirst() {
+		return fs.open(first, FileAccessType.READ);
+	}
+
+	@Benchmark
+	public Optional<NIOFSFile> openLast() {
+		return fs.open(last, FileAccessType.READ);
+	}
+
+	@Benchmark
+	public Optional<NIOFSFile> openMissing() {
+		return fs.open(missing, FileAccessType.READ);
+	}
+
+	/** Only finds the file if the last registration is an archive. */
+	@Benchmark
+	public Optional<NIOFSFile> openLastByHash() {
+		return fs.open(lastHash, FileAccessType.READ);
+	}
+
+	@Benchmark
+	public Optional<NIOFSFile> openLastByName() {
+		return fs.open(lastName);
+	}
+
+	@Benchmark
+	public Optional<NIOFSFile> openLastByFilePath() {
+		return fs.open(FilePath.from(lastName), FileAccessType.READ);
+	}
+
+	private Path createDirectory(final int registration) throws IOException {
+		final Path dir = root.resolve("dir" + registration);
+		for (int i = 0; i < FILES_PER_REGISTRATION; i++) {
+			final Path file = dir.resolve(fileName(registration, i));
+			Files.createDirectories(file.getParent());
+			Files.write(file, content(registration, i));
+		}
+		return dir;
+	}
+
+	private Path createZip(final int registration) throws IOException {
+		final Path zipPath = root.resolve("archive" + registration + ".zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < FILES_PER_REGISTRATION; i++) {
+				zip.putNextEntry(new ZipEntry(fileName(registration, i)));
+				zip.write(content(registration, i));
+				zip.closeEntry();
+			}
+		}
+		return zipPath;
+	}
+
+	private static String fileName(final int registration, final int file) {
+		return String.format("assets/r%d/file%d.txt", registration, file);
+	}
+
+	private static byte[] content(final int registration, final int file) {
+		return String.format("content %d/%d", registration, file).getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,458 @@
+package com.gmail.jesper.sporron.FS4J.loadtest;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.FileAccessType;
+import com.gmail.jesper.sporron.FS4J.FileLocation;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.metrics.FSOperation;
+import com.gmail.jesper.sporron.FS4J.metrics.LatencyHistogram;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Drives a {@link NIOFileSystem} on a {@link SyntheticSearchPath} with several threads and
+ * reports throughput, latency percentiles and allocation rate.
+ *
+ * <p>
+ * Every thread mixes three kinds of operations. Most are reads of a single file, picked with a
+ * Zipf distribution so that a few files are read far more often than the rest. Some are bursts
+ * that read a run of consecutive files, like a program loading all files of a level or a mod at
+ * once. The rest are writes that overwrite one of the thread's own files in the write directory.
+ * A read is measured from the open to the last byte read.
+ * </p>
+ *
+ * The harness runs offline in a temporary directory that is deleted afterwards, see
+ * {@link LoadTest#main(String[])}.
+ *
+ * @author Jesper Sporron */
+public class LoadTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+	private static final int BURST_LENGTH = 16;
+	private static final int FILES_PER_THREAD = 32;
+	private static final int[] WRITE_SIZES = { 1024, 4 * 1024, 16 * 1024, 64 * 1024 };
+
+	private int threads;
+	private long warmupMillis;
+	private long durationMillis;
+	private double writeRatio;
+	private double burstRatio;
+	private double zipfExponent;
+	private boolean cacheArchiveContent;
+	private long seed;
+
+	private volatile boolean running;
+	private volatile boolean measuring;
+	private final LatencyHistogram readLatency;
+	private final LatencyHistogram writeLatency;
+	private final LongAdder bytesRead;
+	private final LongAdder bytesWritten;
+	private final LongAdder failures;
+
+	public LoadTest() {
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.warmupMillis = TimeUnit.SECONDS.toMillis(5);
+		this.durationMillis = TimeUnit.SECONDS.toMillis(20);
+		this.writeRatio = 0.05;
+		this.burstRatio = 0.05;
+		this.zipfExponent = 1.0;
+		this.seed = 42;
+		this.readLatency = new LatencyHistogram();
+		this.writeLatency = new LatencyHistogram();
+		this.bytesRead = new LongAdder();
+		this.bytesWritten = new LongAdder();
+		this.failures = new LongAdder();
+	}
+
+	public void setThreads(final int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be > 0");
+		this.threads = threads;
+	}
+
+	public void setWarmup(final long time, final TimeUnit unit) {
+		this.warmupMillis = unit.toMillis(time);
+	}
+
+	public void setDuration(final long time, final TimeUnit unit) {
+		if (time <= 0) throw new IllegalArgumentException("time must be > 0");
+		this.durationMillis = unit.toMillis(time);
+	}
+
+	/** @param writeRatio
+	 *            the fraction of operations that are writes
+	 * @param burstRatio
+	 *            the fraction of operations that are bursts of sequential reads */
+	public void setMix(final double writeRatio, final double burstRatio) {
+		if (writeRatio < 0 || burstRatio < 0 || writeRatio + burstRatio > 1)
+			throw new IllegalArgumentException("ratios must be >= 0 and add up to at most 1");
+		this.writeRatio = writeRatio;
+		this.burstRatio = burstRatio;
+	}
+
+	/** @param zipfExponent
+	 *            how skewed file popularity is, 0 reads all files equally often */
+	public void setZipfExponent(final double zipfExponent) {
+		if (zipfExponent < 0) throw new IllegalArgumentException("zipfExponent must be >= 0");
+		this.zipfExponent = zipfExponent;
+	}
+
+	/** @see NIOFileSystem#setCacheArchiveContent(boolean) */
+	public void setCacheArchiveContent(final boolean cacheArchiveContent) {
+		this.cacheArchiveContent = cacheArchiveContent;
+	}
+
+	public void setSeed(final long seed) {
+		this.seed = seed;
+	}
+
+	/** Runs the load test.
+	 *
+	 * @param searchPath
+	 *            the generated search path to read from
+	 * @param writeDirectory
+	 *            an existing directory to write to
+	 * @return the report */
+	public synchronized String run(final SyntheticSearchPath.Generated searchPath,
+			final Path writeDirectory) throws InterruptedException {
+		requireNonNull(searchPath, "searchPath must not be null");
+		requireNonNull(writeDirectory, "writeDirectory must not be null");
+
+		final NIOFileSystem fs = new NIOFileSystem();
+		final FSMetrics metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+		fs.setCacheArchiveContent(cacheArchiveContent);
+		for (final Path registration : searchPath.getRegistrations()) {
+			if (!fs.addToSearchPath(registration.toString(), FileLocation.EXTERNAL))
+				throw new IllegalStateException("Could not register " + registration);
+		}
+		fs.setWriteDirectory(FilePath.from(writeDirectory.toString()));
+
+		final List<FilePath> paths = new ArrayList<>();
+		for (final String path : searchPath.getPaths())
+			paths.add(FilePath.from(path));
+		final double[] popularity = popularity(paths.size());
+		final List<Integer> ranks = new ArrayList<>(paths.size());
+		for (int i = 0; i < paths.size(); i++)
+			ranks.add(i);
+		Collections.shuffle(ranks, new Random(seed));
+
+		running = true;
+		measuring = false;
+		final List<Thread> workers = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			final Worker worker = new Worker(fs, i, paths, ranks, popularity, new Random(seed
+					+ i));
+			final Thread thread = new Thread(worker, "fs4j-load-" + (i + 1));
+			workers.add(thread);
+			thread.start();
+		}
+
+		LOGGER.info("Warming up for {} ms", warmupMillis);
+		Thread.sleep(warmupMillis);
+		metrics.reset();
+		readLatency.reset();
+		writeLatency.reset();
+		bytesRead.reset();
+		bytesWritten.reset();
+		failures.reset();
+		final long[] allocatedBefore = allocatedBytes(workers);
+		final long gcCountBefore = gcCount();
+		final long gcTimeBefore = gcTime();
+		final long start = System.nanoTime();
+		measuring = true;
+
+		LOGGER.info("Measuring for {} ms", durationMillis);
+		Thread.sleep(durationMillis);
+		measuring = false;
+		final long elapsed = System.nanoTime() - start;
+		final long[] allocatedAfter = allocatedBytes(workers);
+		final long gcCount = gcCount() - gcCountBefore;
+		final long gcTime = gcTime() - gcTimeBefore;
+		running = false;
+		for (final Thread worker : workers)
+			worker.join();
+
+		long allocated = -1;
+		if (allocatedBefore != null && allocatedAfter != null) {
+			allocated = 0;
+			for (int i = 0; i < workers.size(); i++)
+				allocated += allocatedAfter[i] - allocatedBefore[i];
+		}
+		return report(elapsed, allocated, gcCount, gcTime, metrics);
+	}
+
+	private String report(final long elapsedNanos, final long allocated, final long gcCount,
+			final long gcTime, final FSMetrics metrics) {
+		final double seconds = elapsedNanos / 1e9;
+		final long operations = readLatency.getCount() + writeLatency.getCount();
+		final StringBuilder report = new StringBuilder();
+		report.append(String.format("Threads:     %d, %.1f s measured%n", threads, seconds));
+		report.append(String.format("Throughput:  %.0f ops/s (%.0f reads/s, %.0f writes/s), "
+				+ "%d failures%n", operations / seconds, readLatency.getCount() / seconds,
+				writeLatency.getCount() / seconds, failures.sum()));
+		report.append(String.format("Bandwidth:   %.1f MB/s read, %.1f MB/s written%n", bytesRead
+				.sum() / seconds / 1e6, bytesWritten.sum() / seconds / 1e6));
+		report.append(latencyLine("Read", readLatency));
+		report.append(latencyLine("Write", writeLatency));
+		if (allocated < 0) {
+			report.append(String.format("Allocation:  not supported by this JVM%n"));
+		} else {
+			report.append(String.format("Allocation:  %.1f MB/s, %d bytes/op%n", allocated
+					/ seconds / 1e6, operations == 0 ? 0 : allocated / operations));
+		}
+		report.append(String.format("GC:          %d collections, %d ms%n", gcCount, gcTime));
+		for (final FSOperation operation : FSOperation.values())
+			report.append(String.format("%-18s %s%n", operation, metrics.getSnapshot(operation)));
+		return report.toString();
+	}
+
+	private static String latencyLine(final String name, final LatencyHistogram latency) {
+		return String.format("%-12s p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus%n", name
+				+ ":", micros(latency.getPercentile(50)), micros(latency.getPercentile(90)),
+				micros(latency.getPercentile(99)), micros(latency.getPercentile(99.9)), micros(
+						latency.getMax()));
+	}
+
+	private static long micros(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	/** @return the cumulative Zipf distribution over the popularity ranks */
+	private double[] popularity(final int count) {
+		final double[] cumulative = new double[count];
+		double sum = 0;
+		for (int rank = 0; rank < count; rank++) {
+			sum += 1 / Math.pow(rank + 1, zipfExponent);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < count; rank++)
+			cumulative[rank] /= sum;
+		return cumulative;
+	}
+
+	/** @return the bytes allocated by each thread so far, or null if the JVM can not tell */
+	private static long[] allocatedBytes(final List<Thread> threads) {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+		final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		if (!threadBean.isThreadAllocatedMemorySupported()
+				|| !threadBean.isThreadAllocatedMemoryEnabled()) return null;
+		final long[] ids = threads.stream().mapToLong(Thread::getId).toArray();
+		return threadBean.getThreadAllocatedBytes(ids);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+
+	private final class Worker implements Runnable {
+		private final NIOFileSystem fs;
+		private final List<FilePath> paths;
+		private final List<Integer> ranks;
+		private final double[] popularity;
+		private final Random random;
+		private final FilePath ownDirectory;
+		private final List<FilePath> ownFiles;
+		private final byte[][] writeContent;
+
+		private Worker(final NIOFileSystem fs, final int id, final List<FilePath> paths,
+				final List<Integer> ranks, final double[] popularity, final Random random) {
+			this.fs = fs;
+			this.paths = paths;
+			this.ranks = ranks;
+			this.popularity = popularity;
+			this.random = random;
+			this.ownDirectory = FilePath.from(String.format("loadtest/t%02d", id));
+			this.ownFiles = new ArrayList<>(FILES_PER_THREAD);
+			for (int i = 0; i < FILES_PER_THREAD; i++)
+				ownFiles.add(ownDirectory.append(FilePath.from(String.format("file%02d.dat",
+						i))));
+			this.writeContent = new byte[WRITE_SIZES.length][];
+			for (int i = 0; i < WRITE_SIZES.length; i++) {
+				writeContent[i] = new byte[WRITE_SIZES[i]];
+				random.nextBytes(writeContent[i]);
+			}
+		}
+
+		@Override
+		public void run() {
+			if (!fs.createDirectory(ownDirectory))
+				LOGGER.warn("Could not create the write directory of {}", Thread.currentThread()
+						.getName());
+			for (final FilePath file : ownFiles)
+				fs.createFile(file);
+
+			while (running) {
+				final double operation = random.nextDouble();
+				if (operation < writeRatio) {
+					write();
+				} else if (operation < writeRatio + burstRatio) {
+					final int first = pick();
+					for (int i = 0; i < BURST_LENGTH; i++)
+						read(paths.get((first + i) % paths.size()));
+				} else {
+					read(paths.get(pick()));
+				}
+			}
+		}
+
+		/** @return the index of a path, popular paths are picked more often */
+		private int pick() {
+			int rank = Arrays.binarySearch(popularity, random.nextDouble());
+			if (rank < 0) rank = -rank - 1;
+			return ranks.get(Math.min(rank, ranks.size() - 1));
+		}
+
+		private void read(final FilePath path) {
+			final long start = System.nanoTime();
+			final Optional<NIOFSFile> file = fs.open(path, FileAccessType.READ);
+			final int length = file.isPresent() ? file.get().readBytes().length : 0;
+			final long latency = System.nanoTime() - start;
+			if (!measuring) return;
+			readLatency.record(latency);
+			bytesRead.add(length);
+			if (!file.isPresent() || length == 0) failures.increment();
+		}
+
+		private void write() {
+			final FilePath path = ownFiles.get(random.nextInt(ownFiles.size()));
+			final byte[] content = writeContent[random.nextInt(writeContent.length)];
+			final long start = System.nanoTime();
+			final Optional<NIOFSFile> file = fs.open(path, FileAccessType.WRITE);
+			final boolean success = file.isPresent() && file.get().writeBytes(content, false);
+			final long latency = System.nanoTime() - start;
+			if (!measuring) return;
+			writeLatency.record(latency);
+			if (success) {
+				bytesWritten.add(content.length);
+			} else {
+				failures.increment();
+			}
+		}
+	}
+
+	/** Generates a synthetic search path in a temporary directory, runs the load test on it and
+	 * prints the report.
+	 *
+	 * <pre>
+	 * LoadTest [options]
+	 *   --directories &lt;n&gt;     directory registrations (4)
+	 *   --archives &lt;n&gt;        zip archive registrations (4)
+	 *   --files &lt;n&gt;           files per registration (256)
+	 *   --median-size &lt;bytes&gt;  median file size (4096)
+	 *   --size-sigma &lt;s&gt;      spread of file sizes (1.5)
+	 *   --overlap &lt;f&gt;         fraction of files shared between registrations (0.2)
+	 *   --threads &lt;n&gt;         worker threads (number of processors)
+	 *   --warmup &lt;seconds&gt;    warmup time (5)
+	 *   --duration &lt;seconds&gt;  measurement time (20)
+	 *   --writes &lt;f&gt;          fraction of operations that are writes (0.05)
+	 *   --bursts &lt;f&gt;          fraction of operations that are sequential bursts (0.05)
+	 *   --zipf &lt;s&gt;            skew of file popularity (1.0)
+	 *   --cache              cache archive content
+	 *   --seed &lt;n&gt;            random seed (42)
+	 * </pre>
+	 *
+	 * With Gradle: <code>gradlew loadTest --args="--threads 8 --archives 16"</code> */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final SyntheticSearchPath generator = new SyntheticSearchPath();
+		final LoadTest loadTest = new LoadTest();
+		int medianSize = 4 * 1024;
+		double sizeSigma = 1.5;
+		double writes = 0.05;
+		double bursts = 0.05;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--directories":
+				generator.setDirectories(Integer.parseInt(args[++i]));
+				break;
+			case "--archives":
+				generator.setArchives(Integer.parseInt(args[++i]));
+				break;
+			case "--files":
+				generator.setFilesPerRegistration(Integer.parseInt(args[++i]));
+				break;
+			case "--median-size":
+				medianSize = Integer.parseInt(args[++i]);
+				break;
+			case "--size-sigma":
+				sizeSigma = Double.parseDouble(args[++i]);
+				break;
+			case "--overlap":
+				generator.setOverlap(Double.parseDouble(args[++i]));
+				break;
+			case "--threads":
+				loadTest.setThreads(Integer.parseInt(args[++i]));
+				break;
+			case "--warmup":
+				loadTest.setWarmup(Long.parseLong(args[++i]), TimeUnit.SECONDS);
+				break;
+			case "--duration":
+				loadTest.setDuration(Long.parseLong(args[++i]), TimeUnit.SECONDS);
+				break;
+			case "--writes":
+				writes = Double.parseDouble(args[++i]);
+				break;
+			case "--bursts":
+				bursts = Double.parseDouble(args[++i]);
+				break;
+			case "--zipf":
+				loadTest.setZipfExponent(Double.parseDouble(args[++i]));
+				break;
+			case "--cache":
+				loadTest.setCacheArchiveContent(true);
+				break;
+			case "--seed":
+				final long seed = Long.parseLong(args[++i]);
+				generator.setSeed(seed);
+				loadTest.setSeed(seed);
+				break;
+			default:
+				System.err.println("Unknown option " + args[i] + ", see the LoadTest Javadoc");
+				System.exit(1);
+			}
+		}
+		generator.setSizeDistribution(medianSize, sizeSigma);
+		loadTest.setMix(writes, bursts);
+
+		final Path root = Files.createTempDirectory("fs4j-load");
+		try {
+			final SyntheticSearchPath.Generated searchPath = generator.generate(Files
+					.createDirectory(root.resolve("read")));
+			System.out.print(loadTest.run(searchPath, Files.createDirectory(root.resolve(
+					"write"))));
+		} finally {
+			try (Stream<Path> files = Files.walk(root)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+}
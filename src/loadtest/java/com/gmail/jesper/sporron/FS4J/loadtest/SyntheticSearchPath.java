@@ -0,0 +1,208 @@
+package com.gmail.jesper.sporron.FS4J.loadtest;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Generates a search path that looks like a program with a base directory and a set of mods:
+ * directories and <code>.zip</code> archives with many small files, a few large ones, and some
+ * paths that several registrations provide so that earlier registrations shadow later ones.
+ *
+ * <p>
+ * File sizes are log-normally distributed around a median. A fraction of the files in every
+ * registration are drawn from a pool of shared paths, the rest are unique to the registration.
+ * Generation is deterministic for a given seed.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public class SyntheticSearchPath {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SyntheticSearchPath.class);
+	private static final int FILES_PER_DIRECTORY = 16;
+
+	private int directories;
+	private int archives;
+	private int filesPerRegistration;
+	private int medianSize;
+	private double sizeSigma;
+	private double overlap;
+	private long seed;
+
+	public SyntheticSearchPath() {
+		this.directories = 4;
+		this.archives = 4;
+		this.filesPerRegistration = 256;
+		this.medianSize = 4 * 1024;
+		this.sizeSigma = 1.5;
+		this.overlap = 0.2;
+		this.seed = 42;
+	}
+
+	/** @param directories
+	 *            the number of directory registrations */
+	public void setDirectories(final int directories) {
+		if (directories < 0) throw new IllegalArgumentException("directories must be >= 0");
+		this.directories = directories;
+	}
+
+	/** @param archives
+	 *            the number of <code>.zip</code> archive registrations */
+	public void setArchives(final int archives) {
+		if (archives < 0) throw new IllegalArgumentException("archives must be >= 0");
+		this.archives = archives;
+	}
+
+	/** @param filesPerRegistration
+	 *            the number of files in every registration */
+	public void setFilesPerRegistration(final int filesPerRegistration) {
+		if (filesPerRegistration <= 0)
+			throw new IllegalArgumentException("filesPerRegistration must be > 0");
+		this.filesPerRegistration = filesPerRegistration;
+	}
+
+	/** @param medianSize
+	 *            the median file size in bytes
+	 * @param sigma
+	 *            the standard deviation of the logarithm of the file size, larger values give
+	 *            more very small and very large files */
+	public void setSizeDistribution(final int medianSize, final double sigma) {
+		if (medianSize <= 0) throw new IllegalArgumentException("medianSize must be > 0");
+		if (sigma < 0) throw new IllegalArgumentException("sigma must be >= 0");
+		this.medianSize = medianSize;
+		this.sizeSigma = sigma;
+	}
+
+	/** @param overlap
+	 *            the fraction of the files in every registration that are drawn from the shared
+	 *            paths, between 0 and 1 */
+	public void setOverlap(final double overlap) {
+		if (overlap < 0 || overlap > 1)
+			throw new IllegalArgumentException("overlap must be between 0 and 1");
+		this.overlap = overlap;
+	}
+
+	public void setSeed(final long seed) {
+		this.seed = seed;
+	}
+
+	/** Writes the registrations to a directory. Directories and archives are interleaved on the
+	 * search path.
+	 *
+	 * @param root
+	 *            an existing, empty directory
+	 * @return the generated search path */
+	public Generated generate(final Path root) throws IOException {
+		requireNonNull(root, "root must not be null");
+		final Random random = new Random(seed);
+		final List<Path> registrations = new ArrayList<>();
+		final Set<String> paths = new TreeSet<>();
+		long bytes = 0;
+
+		int remainingDirectories = directories;
+		int remainingArchives = archives;
+		for (int i = 0; remainingDirectories > 0 || remainingArchives > 0; i++) {
+			final boolean archive = remainingArchives > 0 && (remainingDirectories == 0 || i
+					% 2 == 1);
+			final List<String> names = names(i, random);
+			paths.addAll(names);
+			if (archive) {
+				remainingArchives--;
+				final Path zipPath = root.resolve(String.format("mod%03d.zip", i));
+				try (OutputStream out = Files.newOutputStream(zipPath);
+						ZipOutputStream zip = new ZipOutputStream(out)) {
+					for (final String name : names) {
+						final byte[] content = content(random);
+						zip.putNextEntry(new ZipEntry(name));
+						zip.write(content);
+						zip.closeEntry();
+						bytes += content.length;
+					}
+				}
+				registrations.add(zipPath);
+			} else {
+				remainingDirectories--;
+				final Path dir = root.resolve(String.format("mod%03d", i));
+				for (final String name : names) {
+					final Path file = dir.resolve(name);
+					Files.createDirectories(file.getParent());
+					final byte[] content = content(random);
+					Files.write(file, content);
+					bytes += content.length;
+				}
+				registrations.add(dir);
+			}
+		}
+		LOGGER.info("Generated {} registrations with {} distinct paths ({} bytes)", registrations
+				.size(), paths.size(), bytes);
+		return new Generated(registrations, new ArrayList<>(paths), bytes);
+	}
+
+	private List<String> names(final int registration, final Random random) {
+		final List<String> names = new ArrayList<>(filesPerRegistration);
+		final int shared = (int) Math.round(filesPerRegistration * overlap);
+		final Set<Integer> picked = new TreeSet<>();
+		while (picked.size() < shared)
+			picked.add(random.nextInt(filesPerRegistration));
+		for (final int k : picked)
+			names.add(name("common", k));
+		for (int k = 0; names.size() < filesPerRegistration; k++)
+			names.add(name(String.format("mod%03d", registration), k));
+		return names;
+	}
+
+	private static String name(final String prefix, final int k) {
+		return String.format("%s/dir%03d/file%04d.dat", prefix, k / FILES_PER_DIRECTORY, k);
+	}
+
+	private byte[] content(final Random random) {
+		final double size = medianSize * Math.exp(sizeSigma * random.nextGaussian());
+		final byte[] content = new byte[(int) Math.min(size, 64L * medianSize)];
+		// Half random, half zeros, so that archive entries compress like typical assets.
+		final byte[] noise = new byte[content.length / 2];
+		random.nextBytes(noise);
+		System.arraycopy(noise, 0, content, 0, noise.length);
+		return content;
+	}
+
+	/** The result of {@link SyntheticSearchPath#generate(Path)}. */
+	public static final class Generated {
+		private final List<Path> registrations;
+		private final List<String> paths;
+		private final long bytes;
+
+		private Generated(final List<Path> registrations, final List<String> paths,
+				final long bytes) {
+			this.registrations = Collections.unmodifiableList(registrations);
+			this.paths = Collections.unmodifiableList(paths);
+			this.bytes = bytes;
+		}
+
+		/** @return the registrations in search path order */
+		public List<Path> getRegistrations() {
+			return registrations;
+		}
+
+		/** @return every distinct path on the search path, sorted */
+		public List<String> getPaths() {
+			return paths;
+		}
+
+		/** @return the total size of all generated files */
+		public long getBytes() {
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.gmail.jesper.sporron.FS4J;
+
+/** The algorithms {@link FileChecksum}s can be computed with.
+ *
+ * @author Jesper Sporron */
+public enum ChecksumAlgorithm {
+	/** The CRC-32 zip archives record for every entry. Cheap, and free for archive entries. */
+	CRC32("CRC-32", 4),
+	/** CRC-32C, which is faster to compute than CRC-32 on most processors. */
+	CRC32C("CRC-32C", 4),
+	/** SHA-256, for when the content must not be forgeable. */
+	SHA_256("SHA-256", 32);
+
+	private final String displayName;
+	private final int length;
+
+	private ChecksumAlgorithm(final String displayName, final int length) {
+		this.displayName = displayName;
+		this.length = length;
+	}
+
+	/** @return the standard name of the algorithm, e.g. "SHA-256" */
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/** @return the number of bytes in a checksum */
+	public int getLength() {
+		return length;
+	}
+}
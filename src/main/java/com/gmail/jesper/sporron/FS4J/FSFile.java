@@ -1,12 +1,32 @@
 package com.gmail.jesper.sporron.FS4J;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.gmail.jesper.sporron.FS4J.util.ByteBufferChannel;
+import com.gmail.jesper.sporron.FS4J.util.ChannelOutputStream;
+import com.gmail.jesper.sporron.FS4J.util.ChannelWriter;
+import com.gmail.jesper.sporron.FS4J.util.RecordReader;
 
 /** Class representing a file in the abstract file system. Writing to the file is prohibited unless
  * it is in the write directory.
  *
  * @author Jesper Sporron */
 public abstract class FSFile {
+	/** The buffer size of streams and writers opened without one. */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
 	private final boolean isInWriteDirectory;
 
 	public FSFile(final boolean isInWriteDirectory) {
@@ -19,8 +39,108 @@ public abstract class FSFile {
 	 * @return the read bytes */
 	public abstract byte[] readBytes();
 
+	/** Reads the content of the file as a read-only {@link ByteBuffer}. Files that keep their
+	 * content outside of the heap return a view of that content instead of copying it. The
+	 * default implementation wraps {@link FSFile#readBytes()}.
+	 *
+	 * @return the content of the file, positioned at 0 */
+	public ByteBuffer readBuffer() {
+		return ByteBuffer.wrap(readBytes()).asReadOnlyBuffer();
+	}
+
+	/** Opens a channel that reads the content of this file from the start, for content that is too
+	 * large to read with {@link FSFile#readBytes()} in one go. The channel must be closed.
+	 *
+	 * <p>
+	 * The default implementation reads from {@link FSFile#readBuffer()}, implementations are
+	 * encouraged to stream the content instead.
+	 * </p>
+	 *
+	 * @return an optional containing the channel, or an empty optional if the file could not be
+	 *         opened */
+	public Optional<ReadableByteChannel> openReadableChannel() {
+		return Optional.of(new ByteBufferChannel(readBuffer()));
+	}
+
+	/** @see FSFile#lines(Charset, int) */
+	public Optional<Stream<String>> lines(final Charset charset) {
+		return lines(charset, DEFAULT_BUFFER_SIZE);
+	}
+
+	/** Returns a lazy stream of the lines of this file, decoded as they are read from
+	 * {@link FSFile#openReadableChannel()}. The stream must be closed, preferably with
+	 * try-with-resources. See {@link RecordReader#lines(ReadableByteChannel, Charset, int)} for
+	 * how the content is split into lines.
+	 *
+	 * @param charset
+	 *            the charset to decode the content with
+	 * @param bufferSize
+	 *            the number of bytes to read at a time
+	 * @return an optional containing the stream, or an empty optional if the file could not be
+	 *         opened */
+	public Optional<Stream<String>> lines(final Charset charset, final int bufferSize) {
+		Objects.requireNonNull(charset, "charset must not be null");
+		return openReadableChannel().map(channel -> RecordReader.lines(channel, charset,
+				bufferSize).stream());
+	}
+
+	/** @see FSFile#openRecordReader(Charset, String, int) */
+	public Optional<RecordReader> openRecordReader(final Charset charset,
+			final String delimiter) {
+		return openRecordReader(charset, delimiter, DEFAULT_BUFFER_SIZE);
+	}
+
+	/** Opens a reader that splits the content of this file into records on a delimiter, decoding
+	 * them as they are read from {@link FSFile#openReadableChannel()}. The reader must be closed.
+	 *
+	 * @param charset
+	 *            the charset to decode the content with
+	 * @param delimiter
+	 *            the text between two records
+	 * @param bufferSize
+	 *            the number of bytes to read at a time
+	 * @return an optional containing the reader, or an empty optional if the file could not be
+	 *         opened */
+	public Optional<RecordReader> openRecordReader(final Charset charset, final String delimiter,
+			final int bufferSize) {
+		Objects.requireNonNull(charset, "charset must not be null");
+		Objects.requireNonNull(delimiter, "delimiter must not be null");
+		return openReadableChannel().map(channel -> new RecordReader(channel, charset, delimiter,
+				bufferSize));
+	}
+
+	/** Reads part of the content of the file. The default implementation reads the whole file and
+	 * copies the range out of it, implementations are encouraged to only read the range.
+	 *
+	 * @param offset
+	 *            the offset of the first byte to read
+	 * @param length
+	 *            the maximum number of bytes to read
+	 * @return the bytes in the range, fewer than <code>length</code> if the range goes past the
+	 *         end of the file */
+	public byte[] readRange(final long offset, final int length) {
+		checkRange(offset, length);
+		final byte[] bytes = readBytes();
+		if (offset >= bytes.length) return new byte[0];
+		return Arrays.copyOfRange(bytes, (int) offset, (int) Math.min(bytes.length, offset
+				+ length));
+	}
+
+	/** @throws IllegalArgumentException
+	 *             if the offset or length of a range is negative */
+	protected static void checkRange(final long offset, final int length) {
+		if (offset < 0) throw new IllegalArgumentException("offset must be >= 0");
+		if (length < 0) throw new IllegalArgumentException("length must be >= 0");
+	}
+
+	/** Releases any content this file keeps in memory. The file can still be read afterwards but
+	 * may have to read its content again. The default implementation does nothing. */
+	public void release() {
+	}
+
 	/** Writes the byte array to this file. It is guaranteed that calls to this method will not
-	 * modify the input <code>bytes</code> array.
+	 * modify the input <code>bytes</code> array. The file must exist, see
+	 * {@link FSFile#openWritableChannel(boolean)}.
 	 *
 	 * @param bytes
 	 *            the bytes to write
@@ -43,6 +163,73 @@ public abstract class FSFile {
 		return writeBytes(stringToWrite.getBytes(), append);
 	}
 
+	/** Opens a channel that writes to this file, for content that is too large to write with
+	 * {@link FSFile#writeBytes(byte[], boolean)} in one go. The content is only guaranteed to be
+	 * written once the channel has been closed.
+	 *
+	 * <p>
+	 * The default implementation collects the content in memory and writes it with
+	 * {@link FSFile#writeBytes(byte[], boolean)} when the channel is closed, implementations are
+	 * encouraged to stream it instead.
+	 * </p>
+	 *
+	 * <p>
+	 * No write creates a file. This method, {@link FSFile#writeBytes(byte[], boolean)} and the
+	 * streams and writers opened on top of them all fail if the file does not exist, create it
+	 * with {@link FileSystem#createFile} first.
+	 * </p>
+	 *
+	 * @param append
+	 *            if the content should be appended to the file instead of replacing it
+	 * @return an optional containing the channel, or an empty optional if this file can not be
+	 *         written to */
+	public Optional<WritableByteChannel> openWritableChannel(final boolean append) {
+		if (!isWriteable()) return Optional.empty();
+		return Optional.of(new CollectingChannel(this, append));
+	}
+
+	/** @see FSFile#openOutputStream(boolean, int) */
+	public Optional<OutputStream> openOutputStream(final boolean append) {
+		return openOutputStream(append, DEFAULT_BUFFER_SIZE);
+	}
+
+	/** Opens a buffered stream that writes to this file, see
+	 * {@link FSFile#openWritableChannel(boolean)}.
+	 *
+	 * @param append
+	 *            if the content should be appended to the file instead of replacing it
+	 * @param bufferSize
+	 *            the number of bytes to collect before writing them to the file
+	 * @return an optional containing the stream, or an empty optional if this file can not be
+	 *         written to */
+	public Optional<OutputStream> openOutputStream(final boolean append, final int bufferSize) {
+		return openWritableChannel(append).map(channel -> new ChannelOutputStream(channel,
+				bufferSize));
+	}
+
+	/** @see FSFile#openWriter(boolean, Charset, int) */
+	public Optional<Writer> openWriter(final boolean append, final Charset charset) {
+		return openWriter(append, charset, DEFAULT_BUFFER_SIZE);
+	}
+
+	/** Opens a writer that encodes text straight into the buffer of a channel to this file, see
+	 * {@link FSFile#openWritableChannel(boolean)}.
+	 *
+	 * @param append
+	 *            if the text should be appended to the file instead of replacing it
+	 * @param charset
+	 *            the charset to encode the text with
+	 * @param bufferSize
+	 *            the number of encoded bytes to collect before writing them to the file
+	 * @return an optional containing the writer, or an empty optional if this file can not be
+	 *         written to */
+	public Optional<Writer> openWriter(final boolean append, final Charset charset,
+			final int bufferSize) {
+		Objects.requireNonNull(charset, "charset must not be null");
+		return openWritableChannel(append).map(channel -> new ChannelWriter(channel, charset,
+				bufferSize));
+	}
+
 	/** Reads this files byte contents as a string.
 	 *
 	 * @return the file contents */
@@ -57,4 +244,47 @@ public abstract class FSFile {
 	public boolean isWriteable() {
 		return isInWriteDirectory;
 	}
+
+	/** Collects the content written to it and writes it to the file when closed. */
+	private static final class CollectingChannel implements WritableByteChannel {
+		private final FSFile file;
+		private final boolean append;
+		private final ByteArrayOutputStream content;
+		private boolean open;
+
+		private CollectingChannel(final FSFile file, final boolean append) {
+			this.file = file;
+			this.append = append;
+			this.content = new ByteArrayOutputStream();
+			this.open = true;
+		}
+
+		@Override
+		public int write(final ByteBuffer source) throws IOException {
+			if (!open) throw new ClosedChannelException();
+			final int length = source.remaining();
+			if (source.hasArray()) {
+				content.write(source.array(), source.arrayOffset() + source.position(), length);
+				source.position(source.limit());
+			} else {
+				final byte[] bytes = new byte[length];
+				source.get(bytes);
+				content.write(bytes, 0, length);
+			}
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!open) return;
+			open = false;
+			if (!file.writeBytes(content.toByteArray(), append))
+				throw new IOException("Failed to write to file");
+		}
+	}
 }
@@ -0,0 +1,142 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/** The checksum of the content of a file, see
+ * {@link FileSystem#checksum(com.gmail.jesper.sporron.FS4J.util.FilePath, ChecksumAlgorithm)}.
+ *
+ * @author Jesper Sporron */
+public final class FileChecksum {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final ChecksumAlgorithm algorithm;
+	private final byte[] value;
+	private final long size;
+
+	private FileChecksum(final ChecksumAlgorithm algorithm, final byte[] value, final long size) {
+		this.algorithm = algorithm;
+		this.value = value;
+		this.size = size;
+	}
+
+	/** Creates the checksum of content whose CRC-32 is already known, e.g. from a zip archive.
+	 *
+	 * @param crc
+	 *            the CRC-32 of the content
+	 * @param size
+	 *            the size of the content in bytes
+	 * @return the checksum */
+	public static FileChecksum ofCrc32(final long crc, final long size) {
+		return new FileChecksum(ChecksumAlgorithm.CRC32, toBytes(crc), size);
+	}
+
+	/** Computes the checksum of everything that is left in a channel, a buffer at a time.
+	 *
+	 * @param algorithm
+	 *            the algorithm to use
+	 * @param channel
+	 *            the channel to read, not closed by this method
+	 * @return the checksum
+	 * @throws IOException
+	 *             if the channel could not be read */
+	public static FileChecksum compute(final ChecksumAlgorithm algorithm,
+			final ReadableByteChannel channel) throws IOException {
+		requireNonNull(algorithm, "algorithm must not be null");
+		requireNonNull(channel, "channel must not be null");
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		long size = 0;
+		switch (algorithm) {
+		case CRC32:
+		case CRC32C:
+			final Checksum checksum = algorithm == ChecksumAlgorithm.CRC32 ? new CRC32()
+					: new CRC32C();
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				size += buffer.remaining();
+				checksum.update(buffer);
+				buffer.clear();
+			}
+			return new FileChecksum(algorithm, toBytes(checksum.getValue()), size);
+		case SHA_256:
+			final MessageDigest digest = newDigest(algorithm);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				size += buffer.remaining();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			return new FileChecksum(algorithm, digest.digest(), size);
+		default:
+			throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+		}
+	}
+
+	public ChecksumAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/** @return a copy of the checksum, most significant byte first */
+	public byte[] getValue() {
+		return value.clone();
+	}
+
+	/** @return the size of the content in bytes */
+	public long getSize() {
+		return size;
+	}
+
+	/** @return the checksum as lower case hexadecimal, e.g. "cbf43926" */
+	public String toHex() {
+		final char[] chars = new char[value.length * 2];
+		for (int i = 0; i < value.length; i++) {
+			chars[i * 2] = HEX[(value[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[value[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/** @return the algorithm and checksum, e.g. "CRC-32:cbf43926" */
+	@Override
+	public String toString() {
+		return algorithm.getDisplayName() + ":" + toHex();
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * algorithm.hashCode() + Arrays.hashCode(value)) + Long.hashCode(size);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) return true;
+		if (obj == null) return false;
+		if (getClass() != obj.getClass()) return false;
+		final FileChecksum other = (FileChecksum) obj;
+		return algorithm == other.algorithm && size == other.size && Arrays.equals(value,
+				other.value);
+	}
+
+	private static byte[] toBytes(final long crc) {
+		return ByteBuffer.allocate(4).putInt((int) crc).array();
+	}
+
+	private static MessageDigest newDigest(final ChecksumAlgorithm algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm.getDisplayName());
+		} catch (final NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,7 +1,14 @@
 package com.gmail.jesper.sporron.FS4J;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
 import com.gmail.jesper.sporron.FS4J.util.FilePath;
 
 /** Interface that represents an abstract file system that restricts reading / writing to only
@@ -30,6 +37,34 @@ public interface FileSystem<T extends FSFile> {
 	 * @see FilePath */
 	boolean addToSearchPath(FilePath path, FileLocation location);
 
+	/** Adds a directory or archive to the search path under a virtual directory instead of at the
+	 * root. E.g. with <code>"sfx.zip"</code> mounted at <code>"audio/sfx"</code>, the entry
+	 * <code>"jump.ogg"</code> of the archive is opened as <code>"audio/sfx/jump.ogg"</code>, and
+	 * the archive is never consulted for files outside of <code>"audio/sfx"</code>.
+	 *
+	 * <p>
+	 * The default implementation only supports mounting at the root.
+	 * </p>
+	 *
+	 * @param path
+	 *            the path to add
+	 * @param location
+	 *            where the file resides
+	 * @param mountPoint
+	 *            the virtual directory to place the content under, an empty path or
+	 *            <code>"."</code> for the root
+	 * @return <code>true</code> if path was added to the search path, <code>false</code> otherwise.
+	 * @throws UnsupportedOperationException
+	 *             if the file system can not mount below the root
+	 * @see FileSystem#addToSearchPath(FilePath, FileLocation) */
+	default boolean addToSearchPath(final FilePath path, final FileLocation location,
+			final FilePath mountPoint) {
+		Objects.requireNonNull(mountPoint, "mountPoint must not be null");
+		if (!FSUtils.toRelativeString(mountPoint.minimize()).isEmpty())
+			throw new UnsupportedOperationException("Mount points are not supported");
+		return addToSearchPath(path, location);
+	}
+
 	/** Returns true if and only if the {@link FilePath} is on the search path. False otherwise.
 	 *
 	 * @param path
@@ -136,6 +171,117 @@ public interface FileSystem<T extends FSFile> {
 	 * @see FileSystem#delete(FilePath) */
 	boolean forceDelete(FilePath path);
 
+	/** Copies a file on the search path to the write directory, replacing the destination if it
+	 * exists. The source is found the same way {@link FileSystem#open(FilePath, FileAccessType)}
+	 * finds files for reading, so it may be inside an archive. The directory of the destination
+	 * must exist.
+	 *
+	 * <p>
+	 * The default implementation reads the whole file into memory, implementations are encouraged
+	 * to copy without doing so.
+	 * </p>
+	 *
+	 * @param from
+	 *            the path of the file on the search path
+	 * @param to
+	 *            the path of the copy in the write directory
+	 * @return true if the file was copied, false otherwise */
+	default boolean copy(final FilePath from, final FilePath to) {
+		final Optional<T> source = open(from, FileAccessType.READ);
+		if (!source.isPresent()) return false;
+		final Optional<T> target = createFile(to);
+		return target.isPresent() && target.get().writeBytes(source.get().readBytes(), false);
+	}
+
+	/** Moves a file or directory within the write directory, replacing the destination if it is a
+	 * file. The directory of the destination must exist.
+	 *
+	 * <p>
+	 * The default implementation only moves files, by copying the content and deleting the
+	 * source. Implementations are encouraged to rename instead.
+	 * </p>
+	 *
+	 * @param from
+	 *            the path in the write directory to move
+	 * @param to
+	 *            the new path in the write directory
+	 * @return true if the file was moved, false otherwise */
+	default boolean move(final FilePath from, final FilePath to) {
+		final Optional<T> source = open(from, FileAccessType.WRITE);
+		if (!source.isPresent() || !source.get().isWriteable()) return false;
+		final Optional<T> target = createFile(to);
+		if (!target.isPresent() || !target.get().writeBytes(source.get().readBytes(), false))
+			return false;
+		return delete(from);
+	}
+
+	/** @see FileSystem#checksum(FilePath, ChecksumAlgorithm) */
+	default Optional<FileChecksum> checksum(final FilePath path) {
+		return checksum(path, ChecksumAlgorithm.CRC32);
+	}
+
+	/** Returns the checksum of a file on the search path, found the same way
+	 * {@link FileSystem#open(FilePath, FileAccessType)} finds files for reading. Implementations
+	 * may answer from checksums they already know instead of reading the file, e.g. the CRC-32 a
+	 * zip archive records for its entries, so a checksum only proves what the content is meant to
+	 * be. Use {@link FileSystem#verify(Collection, ChecksumAlgorithm)} to check the content
+	 * itself.
+	 *
+	 * <p>
+	 * The default implementation streams the content through the algorithm.
+	 * </p>
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @param algorithm
+	 *            the algorithm to use
+	 * @return an optional containing the checksum, or an empty optional if the file could not be
+	 *         found or read */
+	default Optional<FileChecksum> checksum(final FilePath path,
+			final ChecksumAlgorithm algorithm) {
+		Objects.requireNonNull(algorithm, "algorithm must not be null");
+		final Optional<ReadableByteChannel> channel = open(path, FileAccessType.READ).flatMap(
+				FSFile::openReadableChannel);
+		if (!channel.isPresent()) return Optional.empty();
+		try (ReadableByteChannel in = channel.get()) {
+			return Optional.of(FileChecksum.compute(algorithm, in));
+		} catch (final IOException e) {
+			return Optional.empty();
+		}
+	}
+
+	/** @see FileSystem#verify(Collection, ChecksumAlgorithm) */
+	default Map<FilePath, FileVerification> verify(final Collection<FilePath> paths) {
+		return verify(paths, ChecksumAlgorithm.CRC32);
+	}
+
+	/** Computes the checksums of the content of files on the search path. Unlike
+	 * {@link FileSystem#checksum(FilePath, ChecksumAlgorithm)} the content is always checked.
+	 * Files in archives whose content does not match the checksum the archive recorded for them
+	 * are reported as {@link FileVerification.Status#MISMATCH}, files that can not be found or
+	 * read as {@link FileVerification.Status#MISSING}.
+	 *
+	 * <p>
+	 * The default implementation checks one file after the other and knows no recorded
+	 * checksums, so it never reports a mismatch. Implementations are encouraged to check files in
+	 * parallel and to remember the checksums of files that have not changed.
+	 * </p>
+	 *
+	 * @param paths
+	 *            the paths of the files
+	 * @param algorithm
+	 *            the algorithm to use
+	 * @return the outcome for every path, in the order of <code>paths</code> */
+	default Map<FilePath, FileVerification> verify(final Collection<FilePath> paths,
+			final ChecksumAlgorithm algorithm) {
+		Objects.requireNonNull(paths, "paths must not be null");
+		final Map<FilePath, FileVerification> verifications = new LinkedHashMap<>();
+		for (final FilePath path : paths)
+			verifications.put(path, checksum(path, algorithm).map(FileVerification::ok).orElse(
+					FileVerification.missing()));
+		return verifications;
+	}
+
 	/** Convenience function that converts a string to a {@link FilePath} then calls
 	 * {@link FileSystem#delete(FilePath)}.
 	 *
@@ -168,6 +314,15 @@ public interface FileSystem<T extends FSFile> {
 		return addToSearchPath(FilePath.from(path), location);
 	}
 
+	/** Convenience function that converts strings to {@link FilePath}s then calls
+	 * {@link FileSystem#addToSearchPath(FilePath, FileLocation, FilePath)}.
+	 *
+	 * @see FileSystem#addToSearchPath(FilePath, FileLocation, FilePath) */
+	default boolean addToSearchPath(final String path, final FileLocation location,
+			final String mountPoint) {
+		return addToSearchPath(FilePath.from(path), location, FilePath.from(mountPoint));
+	}
+
 	/** Convenience function that converts a string to a {@link FilePath} then calls
 	 * {@link FileSystem#addAllArchivesToSearchPath(FilePath, FileLocation)}.
 	 *
@@ -0,0 +1,87 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/** The outcome of verifying one file, see
+ * {@link FileSystem#verify(java.util.Collection, ChecksumAlgorithm)}.
+ *
+ * @author Jesper Sporron */
+public final class FileVerification {
+	private static final FileVerification MISSING = new FileVerification(Status.MISSING, null);
+
+	public enum Status {
+		/** The content was read and matches what is known about it. */
+		OK,
+		/** The content was read but does not match the checksum its archive recorded for it. */
+		MISMATCH,
+		/** The file could not be found or read. */
+		MISSING;
+	}
+
+	private final Status status;
+	private final FileChecksum checksum;
+
+	private FileVerification(final Status status, final FileChecksum checksum) {
+		this.status = status;
+		this.checksum = checksum;
+	}
+
+	/** @param checksum
+	 *            the checksum of the content
+	 * @return a verification of content that could be read and matches */
+	public static FileVerification ok(final FileChecksum checksum) {
+		return new FileVerification(Status.OK, requireNonNull(checksum,
+				"checksum must not be null"));
+	}
+
+	/** @param checksum
+	 *            the checksum of the content as it was read
+	 * @return a verification of content that does not match its recorded checksum */
+	public static FileVerification mismatch(final FileChecksum checksum) {
+		return new FileVerification(Status.MISMATCH, requireNonNull(checksum,
+				"checksum must not be null"));
+	}
+
+	/** @return a verification of a file that could not be found or read */
+	public static FileVerification missing() {
+		return MISSING;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/** @return true if the status is {@link Status#OK} */
+	public boolean isOk() {
+		return status == Status.OK;
+	}
+
+	/** @return an optional containing the checksum of the content as it was read, or an empty
+	 *         optional if the file is {@link Status#MISSING} */
+	public Optional<FileChecksum> getChecksum() {
+		return Optional.ofNullable(checksum);
+	}
+
+	/** @return the status and checksum, e.g. "OK CRC-32:cbf43926" */
+	@Override
+	public String toString() {
+		return checksum == null ? status.toString() : status + " " + checksum;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * status.hashCode() + Objects.hashCode(checksum);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) return true;
+		if (obj == null) return false;
+		if (getClass() != obj.getClass()) return false;
+		final FileVerification other = (FileVerification) obj;
+		return status == other.status && Objects.equals(checksum, other.checksum);
+	}
+}
@@ -0,0 +1,382 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** An indexed archive file, e.g. a <code>.zip</code> archive or an FS4J pack. The index is read
+ * once when the archive is opened, after that looking up an entry costs no I/O and content is only
+ * read from disk when {@link Archive#readEntry(ArchiveEntry)} is called.
+ *
+ * @author Jesper Sporron */
+public abstract class Archive {
+	private static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+	private final Path path;
+	private final ArchiveStatistics statistics;
+
+	protected Archive(final Path path) {
+		this.path = requireNonNull(path, "path must not be null");
+		this.statistics = new ArchiveStatistics();
+	}
+
+	/** Opens the archive at the given path, picking the format from the content of the file.
+	 *
+	 * @param path
+	 *            the path to the archive
+	 * @return the indexed archive
+	 * @throws IOException
+	 *             if the archive could not be read or is not a valid archive */
+	public static Archive open(final Path path) throws IOException {
+		requireNonNull(path, "path must not be null");
+		if (PackArchive.isPack(path)) return PackArchive.open(path);
+		return ZipArchive.open(path);
+	}
+
+	/** @return the path to the archive */
+	public Path getPath() {
+		return path;
+	}
+
+	/** @return the read counters of this archive */
+	public ArchiveStatistics getStatistics() {
+		return statistics;
+	}
+
+	/** Looks up the entry at the given path. Directories are never returned.
+	 *
+	 * @param filePath
+	 *            the path of the entry inside the archive
+	 * @return an optional containing the entry, or an empty optional if it does not exist */
+	public abstract Optional<ArchiveEntry> getEntry(FilePath filePath);
+
+	/** @return all file entries in this archive */
+	public abstract Collection<ArchiveEntry> getEntries();
+
+	/** @return the number of file entries in this archive */
+	public abstract int numEntries();
+
+	/** Finds where the (possibly compressed) content of the entry starts.
+	 *
+	 * @param channel
+	 *            an open channel to the archive
+	 * @param entry
+	 *            the entry
+	 * @return the offset of the first content byte
+	 * @throws IOException
+	 *             if the offset could not be read */
+	protected abstract long getDataOffset(FileChannel channel, ArchiveEntry entry)
+			throws IOException;
+
+	/** Maps the content of an entry into memory without copying it. Only possible for entries that
+	 * are not compressed and in formats that lay out their content for mapping.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @return an optional containing a read-only view of the content, or an empty optional if the
+	 *         entry can not be mapped
+	 * @throws IOException
+	 *             if the entry could not be mapped */
+	public Optional<ByteBuffer> mapEntry(final ArchiveEntry entry) throws IOException {
+		return Optional.empty();
+	}
+
+	/** Reads and, if needed, inflates the content of the entry.
+	 *
+	 * @param entry
+	 *            the entry to read
+	 * @return the uncompressed content of the entry
+	 * @throws IOException
+	 *             if the content could not be read */
+	public byte[] readEntry(final ArchiveEntry entry) throws IOException {
+		requireNonNull(entry, "entry must not be null");
+		if (entry.getSize() > Integer.MAX_VALUE)
+			throw new IOException(String.format("Entry '%s' is too large to be read", entry));
+		final byte[] content = new byte[(int) entry.getSize()];
+		readEntry(entry, ByteBuffer.wrap(content));
+		return content;
+	}
+
+	/** Reads and, if needed, inflates the content of the entry into <code>destination</code>. The
+	 * destination must have at least {@link ArchiveEntry#getSize()} bytes remaining, its position
+	 * is advanced by the number of bytes written. Passing a direct buffer keeps the uncompressed
+	 * content off the heap.
+	 *
+	 * @param entry
+	 *            the entry to read
+	 * @param destination
+	 *            where to put the uncompressed content
+	 * @throws IOException
+	 *             if the content could not be read */
+	public void readEntry(final ArchiveEntry entry, final ByteBuffer destination)
+			throws IOException {
+		requireNonNull(entry, "entry must not be null");
+		requireNonNull(destination, "destination must not be null");
+		if (entry.getCompressedSize() > Integer.MAX_VALUE)
+			throw new IOException(String.format("Entry '%s' is too large to be read", entry));
+		if (destination.remaining() < entry.getSize())
+			throw new IllegalArgumentException("destination is too small");
+
+		final long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long dataOffset = getDataOffset(channel, entry);
+			switch (entry.getMethod()) {
+			case ArchiveEntry.STORED: {
+				final ByteBuffer target = destination.duplicate();
+				target.limit(target.position() + (int) entry.getSize());
+				readFully(channel, target, dataOffset);
+				destination.position(target.position());
+				break;
+			}
+			case ArchiveEntry.DEFLATED: {
+				final ByteBuffer data = ByteBuffer.allocate((int) entry.getCompressedSize());
+				readFully(channel, data, dataOffset);
+				data.flip();
+				inflate(data, destination, entry);
+				break;
+			}
+			default:
+				throw new IOException(String.format("Entry '%s' uses unsupported compression %d",
+						entry, entry.getMethod()));
+			}
+		}
+		statistics.record(entry, System.nanoTime() - start);
+	}
+
+	/** Reads part of the uncompressed content of the entry. Stored content is read straight from
+	 * its offset in the archive. Compressed content has to be inflated from the start, but only up
+	 * to the end of the range, and none of the skipped content is kept.
+	 *
+	 * @param entry
+	 *            the entry to read
+	 * @param offset
+	 *            the offset of the first byte to read in the uncompressed content
+	 * @param length
+	 *            the maximum number of bytes to read
+	 * @return the bytes in the range, fewer than <code>length</code> if the range goes past the
+	 *         end of the content
+	 * @throws IOException
+	 *             if the content could not be read */
+	public byte[] readEntryRange(final ArchiveEntry entry, final long offset, final int length)
+			throws IOException {
+		requireNonNull(entry, "entry must not be null");
+		if (offset < 0) throw new IllegalArgumentException("offset must be >= 0");
+		if (length < 0) throw new IllegalArgumentException("length must be >= 0");
+		final int count = (int) Math.max(0, Math.min(length, entry.getSize() - offset));
+		final byte[] content = new byte[count];
+		if (count == 0) return content;
+
+		final long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long dataOffset = getDataOffset(channel, entry);
+			final ByteBuffer destination = ByteBuffer.wrap(content);
+			switch (entry.getMethod()) {
+			case ArchiveEntry.STORED:
+				readFully(channel, destination, dataOffset + offset);
+				statistics.record(count, 0, count, System.nanoTime() - start);
+				break;
+			case ArchiveEntry.DEFLATED:
+				final long read = inflate(channel, dataOffset, entry, offset + count, (chunk,
+						chunkOffset) -> {
+					final long skip = offset - chunkOffset;
+					if (skip >= chunk.remaining()) return;
+					if (skip > 0) chunk.position(chunk.position() + (int) skip);
+					destination.put(chunk);
+				});
+				statistics.record(read, offset + count, count, System.nanoTime() - start);
+				break;
+			default:
+				throw new IOException(String.format("Entry '%s' uses unsupported compression %d",
+						entry, entry.getMethod()));
+			}
+		}
+		return content;
+	}
+
+	/** Opens a channel that streams the uncompressed content of the entry. Only as much of the
+	 * archive is read and inflated as is read from the channel, so entries of any size can be
+	 * read without holding their content in memory. The channel must be closed.
+	 *
+	 * @param entry
+	 *            the entry to read
+	 * @return a channel positioned at the start of the content
+	 * @throws IOException
+	 *             if the archive could not be opened or the entry uses an unsupported compression
+	 *             method */
+	public ReadableByteChannel openEntry(final ArchiveEntry entry) throws IOException {
+		requireNonNull(entry, "entry must not be null");
+		if (entry.getMethod() != ArchiveEntry.STORED && entry.getMethod() != ArchiveEntry.DEFLATED)
+			throw new IOException(String.format("Entry '%s' uses unsupported compression %d",
+					entry, entry.getMethod()));
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new EntryChannel(channel, getDataOffset(channel, entry), entry, statistics,
+					TRANSFER_CHUNK_SIZE);
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Writes the uncompressed content of the entry to a channel without holding all of it in
+	 * memory. Stored content is transferred straight from the archive file, which lets the
+	 * operating system copy it without passing it through the JVM, compressed content is inflated
+	 * in small chunks.
+	 *
+	 * @param entry
+	 *            the entry to read
+	 * @param target
+	 *            where to write the uncompressed content
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             if the content could not be read or written */
+	public long transferEntry(final ArchiveEntry entry, final WritableByteChannel target)
+			throws IOException {
+		requireNonNull(entry, "entry must not be null");
+		requireNonNull(target, "target must not be null");
+
+		final long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long dataOffset = getDataOffset(channel, entry);
+			switch (entry.getMethod()) {
+			case ArchiveEntry.STORED:
+				long transferred = 0;
+				while (transferred < entry.getSize()) {
+					final long n = channel.transferTo(dataOffset + transferred, entry.getSize()
+							- transferred, target);
+					if (n <= 0) throw new EOFException("Unexpected end of archive");
+					transferred += n;
+				}
+				break;
+			case ArchiveEntry.DEFLATED:
+				inflate(channel, dataOffset, entry, entry.getSize(), (chunk, chunkOffset) -> {
+					while (chunk.hasRemaining())
+						target.write(chunk);
+				});
+				break;
+			default:
+				throw new IOException(String.format("Entry '%s' uses unsupported compression %d",
+						entry, entry.getMethod()));
+			}
+		}
+		statistics.record(entry, System.nanoTime() - start);
+		return entry.getSize();
+	}
+
+	@Override
+	public String toString() {
+		return path.toString();
+	}
+
+	/** Inflates the content of an entry in chunks, stopping as soon as <code>limit</code> bytes
+	 * have been inflated.
+	 *
+	 * @return the number of compressed bytes that were read */
+	private static long inflate(final FileChannel channel, final long dataOffset,
+			final ArchiveEntry entry, final long limit, final ChunkSink sink) throws IOException {
+		final Inflater inflater = CodecPool.shared().acquireInflater();
+		try {
+			final ByteBuffer input = ByteBuffer.allocate(TRANSFER_CHUNK_SIZE);
+			final ByteBuffer output = ByteBuffer.allocate(TRANSFER_CHUNK_SIZE);
+			long position = dataOffset;
+			long remainingInput = entry.getCompressedSize();
+			long written = 0;
+			boolean paddingAdded = false;
+			while (written < limit && !inflater.finished()) {
+				if (inflater.needsInput()) {
+					if (remainingInput > 0) {
+						input.clear();
+						input.limit((int) Math.min(input.capacity(), remainingInput));
+						readFully(channel, input, position);
+						input.flip();
+						position += input.remaining();
+						remainingInput -= input.remaining();
+						inflater.setInput(input);
+					} else {
+						// Raw deflate streams may need one extra dummy byte to finish.
+						if (paddingAdded) break;
+						inflater.setInput(new byte[1]);
+						paddingAdded = true;
+					}
+				}
+				output.clear();
+				output.limit((int) Math.min(output.capacity(), limit - written));
+				inflater.inflate(output);
+				output.flip();
+				final long chunkOffset = written;
+				written += output.remaining();
+				if (output.hasRemaining()) sink.accept(output, chunkOffset);
+			}
+			if (written != limit) throw new IOException(String.format(
+					"Entry '%s' inflated to %d bytes, expected %d", entry, written, limit));
+			return position - dataOffset;
+		} catch (final DataFormatException e) {
+			throw new IOException(String.format("Entry '%s' is corrupt", entry), e);
+		} finally {
+			CodecPool.shared().release(inflater);
+		}
+	}
+
+	/** Receives inflated content from {@link Archive#inflate(FileChannel, long, ArchiveEntry, long,
+	 * ChunkSink)}. */
+	@FunctionalInterface
+	private interface ChunkSink {
+		/** @param chunk
+		 *            the inflated bytes, only valid during the call
+		 * @param chunkOffset
+		 *            the offset of the first byte of the chunk in the uncompressed content */
+		void accept(ByteBuffer chunk, long chunkOffset) throws IOException;
+	}
+
+	static void inflate(final ByteBuffer compressed, final ByteBuffer destination,
+			final ArchiveEntry entry) throws IOException {
+		final Inflater inflater = CodecPool.shared().acquireInflater();
+		try {
+			inflater.setInput(compressed);
+			final int start = destination.position();
+			final ByteBuffer target = destination.duplicate();
+			target.limit(start + (int) entry.getSize());
+			boolean paddingAdded = false;
+			while (target.hasRemaining() && !inflater.finished()) {
+				final int n = inflater.inflate(target);
+				if (n == 0 && inflater.needsInput()) {
+					// Raw deflate streams may need one extra dummy byte to finish.
+					if (paddingAdded) break;
+					inflater.setInput(new byte[1]);
+					paddingAdded = true;
+				}
+			}
+			final int read = target.position() - start;
+			if (read != entry.getSize()) throw new IOException(String.format(
+					"Entry '%s' inflated to %d bytes, expected %d", entry, read, entry.getSize()));
+			destination.position(target.position());
+		} catch (final DataFormatException e) {
+			throw new IOException(String.format("Entry '%s' is corrupt", entry), e);
+		} finally {
+			CodecPool.shared().release(inflater);
+		}
+	}
+
+	static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+		long pos = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, pos);
+			if (read < 0) throw new EOFException("Unexpected end of archive");
+			pos += read;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static java.util.Objects.requireNonNull;
+
+/** Describes a single file stored inside an archive. An entry only records <i>where</i> the data
+ * is located and how it is stored, it never holds the content itself.
+ *
+ * @author Jesper Sporron */
+public final class ArchiveEntry {
+	/** Compression method for entries that are stored as-is. */
+	public static final int STORED = 0;
+	/** Compression method for entries that are compressed using raw deflate. */
+	public static final int DEFLATED = 8;
+
+	private final String name;
+	private final int method;
+	private final long crc;
+	private final long compressedSize;
+	private final long size;
+	private final long headerOffset;
+
+	public ArchiveEntry(final String name, final int method, final long crc,
+			final long compressedSize, final long size, final long headerOffset) {
+		this.name = requireNonNull(name, "name must not be null");
+		this.method = method;
+		this.crc = crc;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.headerOffset = headerOffset;
+	}
+
+	/** @return the name of the entry inside the archive, e.g. <code>"music/theme.ogg"</code> */
+	public String getName() {
+		return name;
+	}
+
+	/** @return the compression method, e.g. {@link ArchiveEntry#STORED} or
+	 *         {@link ArchiveEntry#DEFLATED} */
+	public int getMethod() {
+		return method;
+	}
+
+	/** @return the CRC-32 of the uncompressed content as recorded by the archive */
+	public long getCrc() {
+		return crc;
+	}
+
+	/** @return the number of bytes the entry occupies inside the archive */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/** @return the number of bytes of the uncompressed content */
+	public long getSize() {
+		return size;
+	}
+
+	/** @return the offset of the entry header inside the archive */
+	public long getHeaderOffset() {
+		return headerOffset;
+	}
+
+	/** @return true if and only if the entry is stored without compression */
+	public boolean isStored() {
+		return method == STORED;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
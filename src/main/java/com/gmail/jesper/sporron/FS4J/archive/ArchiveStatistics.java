@@ -0,0 +1,71 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Read counters of a single {@link Archive}. Counters are updated by every thread that reads
+ * from the archive without any locking, so a snapshot taken while reads are in flight may be
+ * slightly inconsistent.
+ *
+ * @author Jesper Sporron */
+public final class ArchiveStatistics {
+	private final LongAdder entriesRead = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesInflated = new LongAdder();
+	private final LongAdder bytesDelivered = new LongAdder();
+	private final LongAdder readNanos = new LongAdder();
+
+	void record(final ArchiveEntry entry, final long nanos) {
+		record(entry.getCompressedSize(), entry.isStored() ? 0 : entry.getSize(), entry.getSize(),
+				nanos);
+	}
+
+	/** Records a read of only part of an entry. */
+	void record(final long read, final long inflated, final long delivered, final long nanos) {
+		entriesRead.increment();
+		bytesRead.add(read);
+		bytesInflated.add(inflated);
+		bytesDelivered.add(delivered);
+		readNanos.add(nanos);
+	}
+
+	/** @return the number of entries that have been read */
+	public long getEntriesRead() {
+		return entriesRead.sum();
+	}
+
+	/** @return the number of (possibly compressed) bytes read from disk */
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/** @return the number of bytes produced by inflating compressed entries */
+	public long getBytesInflated() {
+		return bytesInflated.sum();
+	}
+
+	/** @return the number of uncompressed bytes handed to readers */
+	public long getBytesDelivered() {
+		return bytesDelivered.sum();
+	}
+
+	/** @return the time spent reading and inflating entries, summed over all threads */
+	public long getReadTime(final TimeUnit unit) {
+		return unit.convert(readNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	/** @return the average number of uncompressed bytes delivered per second of read time, or 0
+	 *         if nothing has been read. With several threads reading at once the archive as a
+	 *         whole delivers more than this. */
+	public double getThroughput() {
+		final long nanos = readNanos.sum();
+		if (nanos == 0) return 0;
+		return bytesDelivered.sum() * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d bytes read, %d bytes inflated, %.1f MB/s",
+				getEntriesRead(), getBytesRead(), getBytesInflated(), getThroughput() / 1e6);
+	}
+}
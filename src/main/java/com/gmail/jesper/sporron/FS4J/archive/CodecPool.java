@@ -0,0 +1,74 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A pool of raw (<code>nowrap</code>) {@link Inflater}s and {@link Deflater}s. Creating either
+ * allocates native zlib state that is only freed when {@link Inflater#end()} is called or the
+ * object is finalized, so reading many small archive entries with fresh instances wastes both
+ * time and native memory. Instances are reset when they are returned to the pool, instances that
+ * do not fit in the pool are ended right away.
+ *
+ * @author Jesper Sporron */
+public final class CodecPool {
+	private static final CodecPool SHARED = new CodecPool(Runtime.getRuntime()
+			.availableProcessors() * 2);
+
+	private final BlockingQueue<Inflater> inflaters;
+	private final BlockingQueue<Deflater> deflaters;
+
+	/** @param maxPooled
+	 *            the maximum number of idle inflaters, and idle deflaters, to keep */
+	public CodecPool(final int maxPooled) {
+		if (maxPooled <= 0) throw new IllegalArgumentException("maxPooled must be > 0");
+		this.inflaters = new ArrayBlockingQueue<>(maxPooled);
+		this.deflaters = new ArrayBlockingQueue<>(maxPooled);
+	}
+
+	/** @return the pool used by all archives */
+	public static CodecPool shared() {
+		return SHARED;
+	}
+
+	/** @return an inflater for raw deflate data, to be given back with
+	 *         {@link CodecPool#release(Inflater)} */
+	public Inflater acquireInflater() {
+		final Inflater inflater = inflaters.poll();
+		return inflater == null ? new Inflater(true) : inflater;
+	}
+
+	/** @return a deflater producing raw deflate data at the default compression level, to be
+	 *         given back with {@link CodecPool#release(Deflater)} */
+	public Deflater acquireDeflater() {
+		final Deflater deflater = deflaters.poll();
+		return deflater == null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : deflater;
+	}
+
+	/** Returns the inflater to the pool. It must not be used by the caller afterwards. */
+	public void release(final Inflater inflater) {
+		requireNonNull(inflater, "inflater must not be null");
+		inflater.reset();
+		if (!inflaters.offer(inflater)) inflater.end();
+	}
+
+	/** Returns the deflater to the pool. It must not be used by the caller afterwards. */
+	public void release(final Deflater deflater) {
+		requireNonNull(deflater, "deflater must not be null");
+		deflater.reset();
+		if (!deflaters.offer(deflater)) deflater.end();
+	}
+
+	/** @return the number of idle inflaters in the pool */
+	public int numIdleInflaters() {
+		return inflaters.size();
+	}
+
+	/** @return the number of idle deflaters in the pool */
+	public int numIdleDeflaters() {
+		return deflaters.size();
+	}
+}
@@ -0,0 +1,126 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** Streams the uncompressed content of an entry, reading and inflating only as much of the archive
+ * as the reader asks for. Opened by {@link Archive#openEntry(ArchiveEntry)}.
+ *
+ * @author Jesper Sporron */
+final class EntryChannel implements ReadableByteChannel {
+	private final FileChannel channel;
+	private final ArchiveEntry entry;
+	private final ArchiveStatistics statistics;
+	private final long dataOffset;
+	/** The inflater of a compressed entry, or null if the entry is stored. */
+	private Inflater inflater;
+	private final ByteBuffer input;
+	private long position;
+	private long remainingInput;
+	private long produced;
+	private boolean paddingAdded;
+	private long nanos;
+
+	EntryChannel(final FileChannel channel, final long dataOffset, final ArchiveEntry entry,
+			final ArchiveStatistics statistics, final int chunkSize) {
+		this.channel = channel;
+		this.entry = entry;
+		this.statistics = statistics;
+		this.dataOffset = dataOffset;
+		this.position = dataOffset;
+		this.remainingInput = entry.getCompressedSize();
+		if (entry.getMethod() == ArchiveEntry.DEFLATED) {
+			this.inflater = CodecPool.shared().acquireInflater();
+			this.input = ByteBuffer.allocate(chunkSize);
+		} else {
+			this.input = null;
+		}
+	}
+
+	@Override
+	public int read(final ByteBuffer destination) throws IOException {
+		if (!channel.isOpen()) throw new ClosedChannelException();
+		if (produced == entry.getSize()) return -1;
+		if (!destination.hasRemaining()) return 0;
+
+		final long start = System.nanoTime();
+		try {
+			final ByteBuffer target = destination.duplicate();
+			target.limit(target.position() + (int) Math.min(target.remaining(), entry.getSize()
+					- produced));
+			final int count = inflater == null ? readStored(target) : inflate(target);
+			destination.position(target.position());
+			produced += count;
+			return count;
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	private int readStored(final ByteBuffer target) throws IOException {
+		final int count = channel.read(target, position);
+		if (count < 0) throw new EOFException("Unexpected end of archive");
+		position += count;
+		return count;
+	}
+
+	private int inflate(final ByteBuffer target) throws IOException {
+		try {
+			int count = 0;
+			while (count == 0) {
+				if (inflater.finished() || inflater.needsDictionary())
+					throw new EOFException(String.format(
+							"Entry '%s' inflated to %d bytes, expected %d", entry, produced, entry
+									.getSize()));
+				if (inflater.needsInput()) fillInput();
+				count = inflater.inflate(target);
+			}
+			return count;
+		} catch (final DataFormatException e) {
+			throw new IOException(String.format("Entry '%s' is corrupt", entry), e);
+		}
+	}
+
+	private void fillInput() throws IOException {
+		if (remainingInput == 0) {
+			// Raw deflate streams may need one extra dummy byte to finish.
+			if (paddingAdded) throw new EOFException("Unexpected end of archive");
+			inflater.setInput(new byte[1]);
+			paddingAdded = true;
+			return;
+		}
+		input.clear();
+		input.limit((int) Math.min(input.capacity(), remainingInput));
+		Archive.readFully(channel, input, position);
+		input.flip();
+		position += input.remaining();
+		remainingInput -= input.remaining();
+		inflater.setInput(input);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) return;
+		try {
+			channel.close();
+		} finally {
+			if (inflater != null) {
+				CodecPool.shared().release(inflater);
+				inflater = null;
+			}
+			final long read = position - dataOffset;
+			statistics.record(read, entry.isStored() ? 0 : produced, produced, nanos);
+		}
+	}
+}
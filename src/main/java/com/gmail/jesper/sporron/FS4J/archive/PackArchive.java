@@ -0,0 +1,298 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+import com.gmail.jesper.sporron.FS4J.util.PathHash;
+
+/**
+ * <p>
+ * Reader for FS4J packs (<code>.fpk</code>), an archive format built for lookups. The index of a
+ * pack is a hash table stored right after the header, so finding an entry is a hash of the path
+ * and, almost always, a single probe into the memory mapped table. Opening a pack only checks
+ * the bounds of the table, nothing is parsed or copied.
+ * </p>
+ *
+ * <p>
+ * All numbers are little-endian. A pack consists of:
+ * </p>
+ *
+ * <pre>
+ * Header (64 bytes)
+ *   0  "FS4JPACK"
+ *   8  u16 version
+ *   10 u16 reserved
+ *   12 u32 page size, the alignment of all entry data
+ *   16 u32 number of slots in the hash table, a power of two
+ *   20 u32 number of entries
+ *   24 u64 offset of the name table
+ *   32 u64 size of the name table
+ *   40 u64 offset of the data section
+ *   48 16 bytes reserved
+ * Hash table (48 bytes per slot)
+ *   0  u64 path hash, see {@link PathHash}, or 0 if the slot is empty
+ *   8  u64 offset of the entry data, page aligned
+ *   16 u64 compressed size
+ *   24 u64 uncompressed size
+ *   32 u32 offset of the name in the name table
+ *   36 u16 length of the name
+ *   38 u8  compression, {@link ArchiveEntry#STORED} or {@link ArchiveEntry#DEFLATED}
+ *   39 u8  reserved
+ *   40 u32 CRC-32 of the uncompressed data
+ *   44 u32 reserved
+ * Name table
+ *   UTF-8 encoded entry names, e.g. "music/theme.ogg"
+ * Data section
+ *   The (raw deflate compressed) content of every entry, each starting on a page boundary.
+ * </pre>
+ *
+ * <p>
+ * A path hash of 0 is stored as 1 since 0 marks empty slots. Collisions are resolved with linear
+ * probing and confirmed by comparing names. Packs are written by {@link PackWriter}.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class PackArchive extends Archive {
+	/** File extension of FS4J packs. */
+	public static final String EXTENSION = ".fpk";
+
+	static final byte[] MAGIC = "FS4JPACK".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int SLOT_SIZE = 48;
+
+	static final int HEADER_VERSION = 8;
+	static final int HEADER_PAGE_SIZE = 12;
+	static final int HEADER_SLOTS = 16;
+	static final int HEADER_ENTRIES = 20;
+	static final int HEADER_NAMES_OFFSET = 24;
+	static final int HEADER_NAMES_SIZE = 32;
+	static final int HEADER_DATA_OFFSET = 40;
+
+	static final int SLOT_HASH = 0;
+	static final int SLOT_OFFSET = 8;
+	static final int SLOT_COMPRESSED_SIZE = 16;
+	static final int SLOT_SIZE_FIELD = 24;
+	static final int SLOT_NAME_OFFSET = 32;
+	static final int SLOT_NAME_LENGTH = 36;
+	static final int SLOT_METHOD = 38;
+	static final int SLOT_CRC = 40;
+
+	private final ByteBuffer index;
+	private final int numSlots;
+	private final int numEntries;
+	private final int namesOffset;
+
+	private PackArchive(final Path path, final ByteBuffer index, final long fileSize)
+			throws IOException {
+		super(path);
+		this.index = index;
+		this.numSlots = index.getInt(HEADER_SLOTS);
+		this.numEntries = index.getInt(HEADER_ENTRIES);
+		final long tableEnd = HEADER_SIZE + (long) numSlots * SLOT_SIZE;
+		final long names = index.getLong(HEADER_NAMES_OFFSET);
+		final long namesSize = index.getLong(HEADER_NAMES_SIZE);
+		if (Integer.bitCount(numSlots) != 1 || numEntries < 0 || numEntries > numSlots
+				|| tableEnd > index.capacity() || names < tableEnd || namesSize < 0
+				|| namesSize > index.capacity() - names)
+			throw new IOException(String.format("Invalid pack header in '%s'", path));
+		this.namesOffset = (int) names;
+		for (int slot = 0; slot < numSlots; slot++)
+			checkSlot(slot, namesSize, fileSize);
+	}
+
+	/** Checks that the name and the data of a slot lie within the name table and the data section,
+	 * so that corrupt packs fail to open instead of failing on the first lookup. */
+	private void checkSlot(final int slot, final long namesSize, final long fileSize)
+			throws IOException {
+		final int pos = slotPosition(slot);
+		if (index.getLong(pos + SLOT_HASH) == 0) return;
+		final long nameOffset = Integer.toUnsignedLong(index.getInt(pos + SLOT_NAME_OFFSET));
+		final int nameLength = Short.toUnsignedInt(index.getShort(pos + SLOT_NAME_LENGTH));
+		final long offset = index.getLong(pos + SLOT_OFFSET);
+		final long compressedSize = index.getLong(pos + SLOT_COMPRESSED_SIZE);
+		final long size = index.getLong(pos + SLOT_SIZE_FIELD);
+		final int method = Byte.toUnsignedInt(index.get(pos + SLOT_METHOD));
+		if (nameOffset + nameLength > namesSize || offset < index.capacity() || offset > fileSize
+				|| compressedSize < 0 || compressedSize > fileSize - offset || size < 0
+				|| (method != ArchiveEntry.STORED && method != ArchiveEntry.DEFLATED)
+				|| (method == ArchiveEntry.STORED && size != compressedSize))
+			throw new IOException(String.format("Invalid slot %d in pack '%s'", slot, getPath()));
+	}
+
+	/** Checks if the file at the given path starts like an FS4J pack.
+	 *
+	 * @param path
+	 *            the path to the file
+	 * @return true if the file is an FS4J pack, false otherwise
+	 * @throws IOException
+	 *             if the file could not be read */
+	public static boolean isPack(final Path path) throws IOException {
+		requireNonNull(path, "path must not be null");
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) return false;
+			final ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+			readFully(channel, magic, 0);
+			return ByteBuffer.wrap(MAGIC).equals(magic.flip());
+		}
+	}
+
+	/** Opens the pack at the given path by mapping its header, hash table and name table.
+	 *
+	 * @param path
+	 *            the path to the pack
+	 * @return the pack
+	 * @throws IOException
+	 *             if the pack could not be read or is not a valid pack */
+	public static PackArchive open(final Path path) throws IOException {
+		requireNonNull(path, "path must not be null");
+		if (!isPack(path)) throw new IOException(String.format("'%s' is not an FS4J pack", path));
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			final int version = Short.toUnsignedInt(header.getShort(HEADER_VERSION));
+			if (version != VERSION) throw new IOException(
+					String.format("Unsupported pack version %d in '%s'", version, path));
+			final long dataOffset = header.getLong(HEADER_DATA_OFFSET);
+			if (dataOffset < HEADER_SIZE || dataOffset > Integer.MAX_VALUE
+					|| dataOffset > channel.size())
+				throw new IOException(String.format("Invalid pack header in '%s'", path));
+
+			// The mapping stays valid after the channel has been closed.
+			final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataOffset)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			return new PackArchive(path, index, channel.size());
+		}
+	}
+
+	@Override
+	public Optional<ArchiveEntry> getEntry(final FilePath filePath) {
+		requireNonNull(filePath, "filePath must not be null");
+		final String name = FSUtils.toRelativeString(filePath);
+		final int slot = findSlot(slotHash(PathHash.hash(name)), name);
+		return slot < 0 ? Optional.empty() : Optional.of(readSlot(slot));
+	}
+
+	/** Looks up an entry by the {@link PathHash} of its name in the hash table of the pack,
+	 * without building or comparing names. Two names with the same 64-bit hash can not be told
+	 * apart, the first one in the table is returned.
+	 *
+	 * @param pathHash
+	 *            the case-sensitive hash of the name, see {@link PathHash#hash(CharSequence)}
+	 * @return an optional containing the entry, or an empty optional if no entry has the hash */
+	public Optional<ArchiveEntry> getEntry(final long pathHash) {
+		final int slot = findSlot(slotHash(pathHash), null);
+		return slot < 0 ? Optional.empty() : Optional.of(readSlot(slot));
+	}
+
+	/** Looks up an entry by the {@link PathHash} of its name in the hash table of the pack, then
+	 * compares the name to the path to rule out collisions, see {@link PathHash#matches}.
+	 *
+	 * @param pathHash
+	 *            the case-sensitive hash of the path, see
+	 *            {@link PathHash#hash(CharSequence, boolean)}
+	 * @param path
+	 *            the path that was hashed, in any string form
+	 * @return an optional containing the entry, or an empty optional if there is none */
+	public Optional<ArchiveEntry> getEntry(final long pathHash, final CharSequence path) {
+		requireNonNull(path, "path must not be null");
+		final int slot = findSlot(slotHash(pathHash), path);
+		return slot < 0 ? Optional.empty() : Optional.of(readSlot(slot));
+	}
+
+	@Override
+	public Collection<ArchiveEntry> getEntries() {
+		final List<ArchiveEntry> entries = new ArrayList<>(numEntries);
+		for (int slot = 0; slot < numSlots; slot++)
+			if (index.getLong(slotPosition(slot) + SLOT_HASH) != 0) entries.add(readSlot(slot));
+		return Collections.unmodifiableList(entries);
+	}
+
+	@Override
+	public int numEntries() {
+		return numEntries;
+	}
+
+	/** @return the alignment of the entry data in this pack */
+	public int getPageSize() {
+		return index.getInt(HEADER_PAGE_SIZE);
+	}
+
+	@Override
+	protected long getDataOffset(final FileChannel channel, final ArchiveEntry entry) {
+		return entry.getHeaderOffset();
+	}
+
+	@Override
+	public Optional<ByteBuffer> mapEntry(final ArchiveEntry entry) throws IOException {
+		requireNonNull(entry, "entry must not be null");
+		if (!entry.isStored()) return Optional.empty();
+		try (FileChannel channel = FileChannel.open(getPath(), StandardOpenOption.READ)) {
+			return Optional.of(channel
+					.map(FileChannel.MapMode.READ_ONLY, entry.getHeaderOffset(), entry.getSize())
+					.asReadOnlyBuffer());
+		}
+	}
+
+	/** Pack hashes reserve 0 for empty slots. */
+	static long slotHash(final long pathHash) {
+		return pathHash == 0 ? 1 : pathHash;
+	}
+
+	static int firstSlot(final long hash, final int numSlots) {
+		return (int) (hash ^ (hash >>> 32)) & (numSlots - 1);
+	}
+
+	/** @param path
+	 *            the path to compare names to, or null to only compare hashes */
+	private int findSlot(final long hash, final CharSequence path) {
+		final int mask = numSlots - 1;
+		int slot = firstSlot(hash, numSlots);
+		for (int probe = 0; probe < numSlots; probe++) {
+			final long slotHash = index.getLong(slotPosition(slot) + SLOT_HASH);
+			if (slotHash == 0) return -1;
+			if (slotHash == hash && (path == null || PathHash.matches(path, readName(slot), true)))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private ArchiveEntry readSlot(final int slot) {
+		final int pos = slotPosition(slot);
+		return new ArchiveEntry(readName(slot), Byte.toUnsignedInt(index.get(pos + SLOT_METHOD)),
+				Integer.toUnsignedLong(index.getInt(pos + SLOT_CRC)),
+				index.getLong(pos + SLOT_COMPRESSED_SIZE), index.getLong(pos + SLOT_SIZE_FIELD),
+				index.getLong(pos + SLOT_OFFSET));
+	}
+
+	private String readName(final int slot) {
+		final int pos = slotPosition(slot);
+		final int offset = namesOffset + index.getInt(pos + SLOT_NAME_OFFSET);
+		final int length = Short.toUnsignedInt(index.getShort(pos + SLOT_NAME_LENGTH));
+		final byte[] name = new byte[length];
+		final ByteBuffer view = index.duplicate();
+		view.position(offset);
+		view.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	private static int slotPosition(final int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+}
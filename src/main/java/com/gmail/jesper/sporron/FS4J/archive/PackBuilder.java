@@ -0,0 +1,334 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.FileLocation;
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Builds an FS4J pack from directories and existing archives. Files with identical content are
+ * stored once, entries listed in an access-order manifest are laid out first and in manifest order
+ * so that a program reading them in that order reads the pack sequentially, and content is read
+ * and compressed on several threads.
+ *
+ * <code>
+ * <pre>
+ * PackBuilder builder = new PackBuilder();
+ * builder.addSource(Paths.get("mods/base"), FilePath.from(""));
+ * builder.addSource(Paths.get("mods/extra.zip"), FilePath.from("extra"));
+ * builder.setManifest(Paths.get("startup.manifest"));
+ * builder.build(Paths.get("game.fpk"));
+ * </pre>
+ * </code>
+ *
+ * The builder can also be run from the command line, see {@link PackBuilder#main(String[])}.
+ *
+ * @author Jesper Sporron */
+public class PackBuilder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PackBuilder.class);
+
+	private final List<Source> sources;
+	private List<String> manifest;
+	private boolean compress;
+	private int threads;
+	private int pageSize;
+
+	public PackBuilder() {
+		this.sources = new ArrayList<>();
+		this.manifest = Collections.emptyList();
+		this.compress = true;
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.pageSize = PackWriter.DEFAULT_PAGE_SIZE;
+	}
+
+	/** Adds a directory or archive to the pack. If several sources contain the same path, the
+	 * source that was added first wins, just like on a search path.
+	 *
+	 * @param source
+	 *            a directory, <code>.zip</code> archive, or pack on disk
+	 * @param root
+	 *            the path inside the pack to put the content of the source under
+	 * @throws IllegalArgumentException
+	 *             if the root is not a safe path */
+	public void addSource(final Path source, final FilePath root) {
+		requireNonNull(source, "source must not be null");
+		requireNonNull(root, "root must not be null");
+		final FilePath minimized = root.minimize();
+		if (!FSUtils.isSafePath(minimized, LOGGER))
+			throw new IllegalArgumentException(String.format("'%s' is not a safe path", root));
+		sources.add(new Source(source, FSUtils.toRelativeString(minimized)));
+	}
+
+	/** @see PackBuilder#addSource(Path, FilePath)
+	 * @throws URISyntaxException
+	 *             if the source could not be resolved */
+	public void addSource(final FilePath source, final FileLocation location, final FilePath root)
+			throws URISyntaxException {
+		requireNonNull(source, "source must not be null");
+		addSource(FSUtils.constructNIOPath(source.minimize(), location), root);
+	}
+
+	/** Sets the order to lay out entries in. Entries that are not in the manifest are put after
+	 * the ones that are, sorted by path.
+	 *
+	 * @param manifest
+	 *            entry paths in the order they are expected to be read */
+	public void setManifest(final List<String> manifest) {
+		requireNonNull(manifest, "manifest must not be null");
+		this.manifest = manifest.stream().map(name -> FSUtils.toRelativeString(FilePath.from(name)
+				.minimize())).collect(Collectors.toList());
+	}
+
+	/** Reads the manifest from a text file with one entry path per line. Anything after a tab is
+	 * ignored, so a recorded access trace can be used as a manifest as-is. Blank lines and lines
+	 * starting with <code>#</code> are ignored.
+	 *
+	 * @see PackBuilder#setManifest(List) */
+	public void setManifest(final Path manifestFile) throws IOException {
+		requireNonNull(manifestFile, "manifestFile must not be null");
+		setManifest(Files.readAllLines(manifestFile, StandardCharsets.UTF_8).stream()
+				.map(line -> line.split("\t", 2)[0].trim())
+				.filter(line -> !line.isEmpty() && !line.startsWith("#"))
+				.collect(Collectors.toList()));
+	}
+
+	/** @param compress
+	 *            true if content should be compressed, the default */
+	public void setCompress(final boolean compress) {
+		this.compress = compress;
+	}
+
+	/** @param threads
+	 *            the number of threads to read and compress content on, defaults to the number
+	 *            of processors */
+	public void setThreads(final int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+		this.threads = threads;
+	}
+
+	/** @param pageSize
+	 *            the alignment of entry data, see {@link PackWriter#PackWriter(Path, int)} */
+	public void setPageSize(final int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/** Builds the pack. If building fails the output is left as it was.
+	 *
+	 * @param output
+	 *            where to write the pack
+	 * @return the number of entries in the pack
+	 * @throws IOException
+	 *             if a source could not be read or the pack could not be written */
+	public int build(final Path output) throws IOException {
+		requireNonNull(output, "output must not be null");
+		final List<Input> inputs = order(collectInputs());
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (PackWriter writer = new PackWriter(output, pageSize)) {
+			try {
+				write(writer, inputs, executor);
+			} catch (final Throwable e) {
+				try {
+					writer.abort();
+				} catch (final IOException abortFailure) {
+					e.addSuppressed(abortFailure);
+				}
+				throw e;
+			}
+
+			LOGGER.info("Built '{}' with {} entries, {} distinct ({} bytes deduplicated)", output,
+					writer.numEntries(), writer.numContents(), writer.getDedupedBytes());
+			return writer.numEntries();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void write(final PackWriter writer, final List<Input> inputs,
+			final ExecutorService executor) throws IOException {
+		// Content is prepared in parallel but written in order. The window bounds how much
+		// prepared content is held in memory at once.
+		final int window = threads * 4;
+		final Deque<Future<PackWriter.Content>> pending = new ArrayDeque<>(window);
+		int next = 0;
+		for (final Input input : inputs) {
+			while (pending.size() >= window)
+				writer.add(inputs.get(next++).name, await(pending.removeFirst()));
+			pending.addLast(executor.submit(() -> PackWriter.Content.prepare(input.read(),
+					compress)));
+		}
+		while (!pending.isEmpty())
+			writer.add(inputs.get(next++).name, await(pending.removeFirst()));
+	}
+
+	private Map<String, Input> collectInputs() throws IOException {
+		final Map<String, Input> inputs = new LinkedHashMap<>();
+		for (final Source source : sources) {
+			switch (FSUtils.getFileType(source.path)) {
+			case DIRECTORY:
+				try (Stream<Path> files = Files.walk(source.path)) {
+					final Iterable<Path> regularFiles = files.filter(Files::isRegularFile)::iterator;
+					for (final Path file : regularFiles)
+						putInput(inputs, source.resolve(source.path.relativize(file)), () -> Files
+								.readAllBytes(file));
+				}
+				break;
+			case ARCHIVE:
+				final Archive archive = Archive.open(source.path);
+				for (final ArchiveEntry entry : archive.getEntries())
+					putInput(inputs, source.resolve(entry.getName()), () -> archive.readEntry(
+							entry));
+				break;
+			case FILE:
+			default:
+				putInput(inputs, source.resolve(source.path.getFileName().toString()), () -> Files
+						.readAllBytes(source.path));
+				break;
+			}
+		}
+		return inputs;
+	}
+
+	private static void putInput(final Map<String, Input> inputs, final String name,
+			final Reader reader) {
+		final Input existing = inputs.putIfAbsent(name, new Input(name, reader));
+		if (existing != null) LOGGER.debug("'{}' is shadowed by an earlier source", name);
+	}
+
+	private List<Input> order(final Map<String, Input> inputs) {
+		final List<Input> ordered = new ArrayList<>(inputs.size());
+		final Map<String, Input> remaining = new HashMap<>(inputs);
+		for (final String name : manifest) {
+			final Input input = remaining.remove(name);
+			if (input != null) ordered.add(input);
+		}
+		final int manifested = ordered.size();
+		remaining.values().stream().sorted((a, b) -> a.name.compareTo(b.name)).forEach(
+				ordered::add);
+		LOGGER.debug("{} of {} entries ordered by manifest", manifested, ordered.size());
+		return ordered;
+	}
+
+	private static PackWriter.Content await(final Future<PackWriter.Content> future)
+			throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while building pack", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Failed to prepare content", e.getCause());
+		}
+	}
+
+	/** Builds a pack from the command line.
+	 *
+	 * <pre>
+	 * PackBuilder [options] &lt;output&gt; &lt;source&gt;[=&lt;root&gt;]...
+	 *   --manifest &lt;file&gt;   lay out entries in the order listed in the file
+	 *   --store             do not compress content
+	 *   --threads &lt;n&gt;      number of threads to use
+	 * </pre>
+	 *
+	 * With Gradle: <code>gradlew buildPack --args="game.fpk mods/base mods/extra.zip=extra"</code> */
+	public static void main(final String[] args) throws IOException {
+		final PackBuilder builder = new PackBuilder();
+		Path output = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--manifest":
+				builder.setManifest(Paths.get(args[++i]));
+				break;
+			case "--store":
+				builder.setCompress(false);
+				break;
+			case "--threads":
+				builder.setThreads(Integer.parseInt(args[++i]));
+				break;
+			default:
+				if (output == null) {
+					output = Paths.get(args[i]);
+				} else {
+					final int split = args[i].indexOf('=');
+					final String source = split < 0 ? args[i] : args[i].substring(0, split);
+					final String root = split < 0 ? "" : args[i].substring(split + 1);
+					builder.addSource(Paths.get(source), FilePath.from(root));
+				}
+				break;
+			}
+		}
+		if (output == null || builder.sources.isEmpty()) {
+			System.err.println("Usage: PackBuilder [--manifest <file>] [--store] [--threads <n>] "
+					+ "<output> <source>[=<root>]...");
+			System.exit(1);
+		}
+		builder.build(output);
+	}
+
+	@FunctionalInterface
+	private interface Reader {
+		byte[] read() throws IOException;
+	}
+
+	private static final class Input {
+		private final String name;
+		private final Reader reader;
+
+		private Input(final String name, final Reader reader) {
+			this.name = name;
+			this.reader = reader;
+		}
+
+		private byte[] read() throws IOException {
+			return reader.read();
+		}
+	}
+
+	private static final class Source {
+		private final Path path;
+		private final String root;
+
+		private Source(final Path path, final String root) {
+			this.path = path;
+			this.root = root;
+		}
+
+		private String resolve(final Path relative) {
+			final StringBuilder builder = new StringBuilder();
+			for (final Path part : relative) {
+				if (builder.length() > 0) builder.append('/');
+				builder.append(part.toString());
+			}
+			return resolve(builder.toString());
+		}
+
+		private String resolve(final String name) {
+			return root.isEmpty() ? name : root + "/" + name;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static com.gmail.jesper.sporron.FS4J.archive.PackArchive.*;
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+import com.gmail.jesper.sporron.FS4J.util.PathHash;
+
+/** Writes an FS4J pack, see {@link PackArchive} for the format. Entry data is written to a
+ * temporary file next to the output while entries are added, the index is written in front of it
+ * when the writer is closed. The pack is assembled in another temporary file and only moved over
+ * the output once it is complete, so an existing pack is never left half written. Entries are laid
+ * out in the order they are added, entries with identical content share the same data.
+ *
+ * <code>
+ * <pre>
+ * try (PackWriter writer = new PackWriter(Paths.get("graphics.fpk"))) {
+ *     writer.add("textures/grass.png", grassBytes, false);
+ *     writer.add("shaders/water.glsl", shaderBytes, true);
+ * }
+ * </pre>
+ * </code>
+ *
+ * @author Jesper Sporron */
+public final class PackWriter implements Closeable {
+	/** Default alignment of entry data, the page size of most platforms. */
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	private final Path output;
+	private final Path dataPath;
+	private final FileChannel data;
+	private final int pageSize;
+	private final List<Record> records;
+	private final Set<String> names;
+	private final Map<ByteBuffer, Record> contents;
+	private long dataSize;
+	private long dedupedBytes;
+	private boolean closed;
+
+	public PackWriter(final Path output) throws IOException {
+		this(output, DEFAULT_PAGE_SIZE);
+	}
+
+	/** @param output
+	 *            where to write the pack
+	 * @param pageSize
+	 *            the alignment of entry data, a power of two
+	 * @throws IOException
+	 *             if the temporary data file could not be created */
+	public PackWriter(final Path output, final int pageSize) throws IOException {
+		this.output = requireNonNull(output, "output must not be null").toAbsolutePath();
+		if (pageSize <= 0 || Integer.bitCount(pageSize) != 1)
+			throw new IllegalArgumentException("pageSize must be a power of two");
+		this.pageSize = pageSize;
+		this.dataPath = Files.createTempFile(this.output.getParent(), "fs4j", ".tmp");
+		this.data = FileChannel.open(dataPath, StandardOpenOption.WRITE);
+		this.records = new ArrayList<>();
+		this.names = new HashSet<>();
+		this.contents = new HashMap<>();
+	}
+
+	/** Adds an entry to the pack. If an entry with the exact same content has already been added
+	 * the new entry points at the existing data instead of storing it again.
+	 *
+	 * @param name
+	 *            the path of the entry inside the pack, e.g. "music/theme.ogg"
+	 * @param content
+	 *            the content of the entry
+	 * @param compress
+	 *            true if the content should be compressed. Content that does not get smaller
+	 *            is stored as-is regardless.
+	 * @throws IOException
+	 *             if the content could not be written
+	 * @throws IllegalArgumentException
+	 *             if the name is unsafe or has already been added */
+	public void add(final String name, final byte[] content, final boolean compress)
+			throws IOException, IllegalArgumentException {
+		requireNonNull(name, "name must not be null");
+		add(name, Content.prepare(content, compress));
+	}
+
+	/** Adds an entry whose content has already been prepared, see
+	 * {@link PackWriter#add(String, byte[], boolean)}. Preparing content is the expensive part of
+	 * adding an entry and can be done on any thread. */
+	synchronized void add(final String name, final Content content)
+			throws IOException, IllegalArgumentException {
+		requireNonNull(name, "name must not be null");
+		requireNonNull(content, "content must not be null");
+		if (closed) throw new IllegalStateException("Writer has been closed");
+
+		final String entryName = toEntryName(name);
+		if (names.contains(entryName))
+			throw new IllegalArgumentException(String.format("'%s' has already been added", name));
+
+		final Record existing = contents.get(content.key);
+		final long offset;
+		if (existing != null) {
+			offset = existing.offset;
+			dedupedBytes += content.stored.length;
+		} else {
+			offset = align(dataSize);
+			final ByteBuffer buffer = ByteBuffer.wrap(content.stored);
+			long pos = offset;
+			while (buffer.hasRemaining())
+				pos += data.write(buffer, pos);
+			dataSize = pos;
+		}
+
+		final Record record = existing != null ? new Record(entryName, existing)
+				: new Record(entryName, offset, content.stored.length, content.size, content.method,
+						content.crc);
+		names.add(entryName);
+		records.add(record);
+		if (existing == null) contents.put(content.key, record);
+	}
+
+	/** @return the number of entries added so far */
+	public synchronized int numEntries() {
+		return records.size();
+	}
+
+	/** @return the number of distinct contents stored so far, less than
+	 *         {@link PackWriter#numEntries()} if some entries share content */
+	public synchronized int numContents() {
+		return contents.size();
+	}
+
+	/** @return the number of bytes that were not written because the content was already stored */
+	public synchronized long getDedupedBytes() {
+		return dedupedBytes;
+	}
+
+	/** Writes the index and data to a temporary file, moves it over the output and removes the
+	 * temporary data file. If writing fails the output is left as it was. Does nothing if the
+	 * writer has already been closed or aborted. */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			data.close();
+			final Path packPath = Files.createTempFile(output.getParent(), "fs4j", ".tmp");
+			try {
+				writePack(packPath);
+				moveOver(packPath);
+			} finally {
+				Files.deleteIfExists(packPath);
+			}
+		} finally {
+			Files.deleteIfExists(dataPath);
+		}
+	}
+
+	/** Discards everything added so far and removes the temporary data file without touching the
+	 * output. Closing the writer afterwards does nothing.
+	 *
+	 * @throws IOException
+	 *             if the temporary data file could not be removed */
+	public synchronized void abort() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			data.close();
+		} finally {
+			Files.deleteIfExists(dataPath);
+		}
+	}
+
+	private void moveOver(final Path packPath) throws IOException {
+		try {
+			Files.move(packPath, output, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(packPath, output, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void writePack(final Path packPath) throws IOException {
+		int numSlots = 1;
+		while (numSlots < records.size() * 2)
+			numSlots <<= 1;
+
+		final List<byte[]> encodedNames = new ArrayList<>(records.size());
+		long namesSize = 0;
+		for (final Record record : records) {
+			final byte[] encoded = record.name.getBytes(StandardCharsets.UTF_8);
+			if (encoded.length > 0xFFFF) throw new IOException(
+					String.format("Entry name '%s' is too long", record.name));
+			encodedNames.add(encoded);
+			namesSize += encoded.length;
+		}
+
+		final long namesOffset = HEADER_SIZE + (long) numSlots * SLOT_SIZE;
+		final long dataOffset = align(namesOffset + namesSize);
+		if (dataOffset > Integer.MAX_VALUE) throw new IOException("Pack index is too large");
+
+		final ByteBuffer index = ByteBuffer.allocate((int) dataOffset)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		index.put(MAGIC);
+		index.putShort(HEADER_VERSION, (short) VERSION);
+		index.putInt(HEADER_PAGE_SIZE, pageSize);
+		index.putInt(HEADER_SLOTS, numSlots);
+		index.putInt(HEADER_ENTRIES, records.size());
+		index.putLong(HEADER_NAMES_OFFSET, namesOffset);
+		index.putLong(HEADER_NAMES_SIZE, namesSize);
+		index.putLong(HEADER_DATA_OFFSET, dataOffset);
+
+		int nameOffset = 0;
+		for (int i = 0; i < records.size(); i++) {
+			final Record record = records.get(i);
+			final byte[] encoded = encodedNames.get(i);
+			final long hash = slotHash(PathHash.hash(record.name));
+
+			int slot = firstSlot(hash, numSlots);
+			while (index.getLong(HEADER_SIZE + slot * SLOT_SIZE + SLOT_HASH) != 0)
+				slot = (slot + 1) & (numSlots - 1);
+
+			final int pos = HEADER_SIZE + slot * SLOT_SIZE;
+			index.putLong(pos + SLOT_HASH, hash);
+			index.putLong(pos + SLOT_OFFSET, dataOffset + record.offset);
+			index.putLong(pos + SLOT_COMPRESSED_SIZE, record.compressedSize);
+			index.putLong(pos + SLOT_SIZE_FIELD, record.size);
+			index.putInt(pos + SLOT_NAME_OFFSET, nameOffset);
+			index.putShort(pos + SLOT_NAME_LENGTH, (short) encoded.length);
+			index.put(pos + SLOT_METHOD, (byte) record.method);
+			index.putInt(pos + SLOT_CRC, (int) record.crc);
+
+			final ByteBuffer names = index.duplicate();
+			names.position((int) namesOffset + nameOffset);
+			names.put(encoded);
+			nameOffset += encoded.length;
+		}
+		index.clear();
+
+		try (FileChannel out = FileChannel.open(packPath, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+				FileChannel in = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+			while (index.hasRemaining())
+				out.write(index);
+			long transferred = 0;
+			while (transferred < dataSize)
+				transferred += in.transferTo(transferred, dataSize - transferred, out);
+		}
+	}
+
+	private long align(final long offset) {
+		return (offset + pageSize - 1) & -pageSize;
+	}
+
+	private static String toEntryName(final String name) {
+		final FilePath path = FilePath.from(name).minimize();
+		if (!FSUtils.isSafePath(path))
+			throw new IllegalArgumentException(String.format("'%s' is not a safe path", name));
+		final String entryName = FSUtils.toRelativeString(path);
+		if (entryName.isEmpty()) throw new IllegalArgumentException("name must not be empty");
+		return entryName;
+	}
+
+	/** Content that has been hashed and, if requested, compressed, ready to be written. */
+	static final class Content {
+		private final ByteBuffer key;
+		private final byte[] stored;
+		private final long size;
+		private final int method;
+		private final long crc;
+
+		private Content(final ByteBuffer key, final byte[] stored, final long size,
+				final int method, final long crc) {
+			this.key = key;
+			this.stored = stored;
+			this.size = size;
+			this.method = method;
+			this.crc = crc;
+		}
+
+		static Content prepare(final byte[] content, final boolean compress) {
+			requireNonNull(content, "content must not be null");
+			final CRC32 crc = new CRC32();
+			crc.update(content);
+			final ByteBuffer key = ByteBuffer.wrap(digest(content));
+			if (compress) {
+				final byte[] deflated = deflate(content);
+				if (deflated != null) return new Content(key, deflated, content.length,
+						ArchiveEntry.DEFLATED, crc.getValue());
+			}
+			return new Content(key, content, content.length, ArchiveEntry.STORED, crc.getValue());
+		}
+
+		/** @return the compressed content, or null if compressing did not make it smaller */
+		private static byte[] deflate(final byte[] content) {
+			final Deflater deflater = CodecPool.shared().acquireDeflater();
+			try {
+				deflater.setInput(content);
+				deflater.finish();
+				final byte[] buffer = new byte[content.length];
+				int length = 0;
+				while (!deflater.finished() && length < buffer.length)
+					length += deflater.deflate(buffer, length, buffer.length - length);
+				if (!deflater.finished()) return null;
+				return Arrays.copyOf(buffer, length);
+			} finally {
+				CodecPool.shared().release(deflater);
+			}
+		}
+
+		private static byte[] digest(final byte[] content) {
+			try {
+				return MessageDigest.getInstance("SHA-256").digest(content);
+			} catch (final NoSuchAlgorithmException e) {
+				// Every Java platform is required to support SHA-256.
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static final class Record {
+		private final String name;
+		private final long offset;
+		private final long compressedSize;
+		private final long size;
+		private final int method;
+		private final long crc;
+
+		private Record(final String name, final long offset, final long compressedSize,
+				final long size, final int method, final long crc) {
+			this.name = name;
+			this.offset = offset;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.method = method;
+			this.crc = crc;
+		}
+
+		private Record(final String name, final Record content) {
+			this(name, content.offset, content.compressedSize, content.size, content.method,
+					content.crc);
+		}
+	}
+}
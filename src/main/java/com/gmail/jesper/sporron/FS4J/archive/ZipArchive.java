@@ -0,0 +1,185 @@
+package com.gmail.jesper.sporron.FS4J.archive;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Index over the central directory of a <code>.zip</code> archive. The central directory is read
+ * once when the archive is opened, after that looking up an entry is a single hash lookup and
+ * content is only read from disk when {@link ZipArchive#readEntry(ArchiveEntry)} is called.
+ *
+ * @author Jesper Sporron */
+public final class ZipArchive extends Archive {
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+
+	private static final int LOC_HEADER_SIZE = 30;
+	private static final int CEN_HEADER_SIZE = 46;
+	private static final int END_HEADER_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_END_SIZE = 56;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+	private static final int FLAG_ENCRYPTED = 1;
+	private static final long MAGIC_32 = 0xFFFFFFFFL;
+
+	private final Map<String, ArchiveEntry> entries;
+
+	private ZipArchive(final Path path, final Map<String, ArchiveEntry> entries) {
+		super(path);
+		this.entries = entries;
+	}
+
+	/** Opens the archive at the given path and reads its central directory.
+	 *
+	 * @param path
+	 *            the path to the archive
+	 * @return the indexed archive
+	 * @throws IOException
+	 *             if the archive could not be read or is not a valid zip archive */
+	public static ZipArchive open(final Path path) throws IOException {
+		requireNonNull(path, "path must not be null");
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new ZipArchive(path, readCentralDirectory(channel));
+		}
+	}
+
+	@Override
+	public Optional<ArchiveEntry> getEntry(final FilePath filePath) {
+		requireNonNull(filePath, "filePath must not be null");
+		return Optional.ofNullable(entries.get(FSUtils.toRelativeString(filePath)));
+	}
+
+	/** @return an unmodifiable view of all file entries in this archive */
+	@Override
+	public Collection<ArchiveEntry> getEntries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	@Override
+	public int numEntries() {
+		return entries.size();
+	}
+
+	@Override
+	protected long getDataOffset(final FileChannel channel, final ArchiveEntry entry)
+			throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(LOC_HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header, entry.getHeaderOffset());
+		if (header.getInt(0) != LOC_SIG)
+			throw new IOException(String.format("Invalid local header for entry '%s'", entry));
+		final int nameLength = Short.toUnsignedInt(header.getShort(26));
+		final int extraLength = Short.toUnsignedInt(header.getShort(28));
+		return entry.getHeaderOffset() + LOC_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	private static Map<String, ArchiveEntry> readCentralDirectory(final FileChannel channel)
+			throws IOException {
+		final long fileSize = channel.size();
+		final int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+		final ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, tail, fileSize - tailSize);
+
+		int endPos = -1;
+		for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIG) {
+				endPos = i;
+				break;
+			}
+		}
+		if (endPos < 0) throw new IOException("Could not find end of central directory");
+
+		long numEntries = Short.toUnsignedInt(tail.getShort(endPos + 10));
+		long cenSize = Integer.toUnsignedLong(tail.getInt(endPos + 12));
+		long cenOffset = Integer.toUnsignedLong(tail.getInt(endPos + 16));
+
+		final long endOffset = fileSize - tailSize + endPos;
+		if (endOffset >= ZIP64_LOCATOR_SIZE) {
+			final ByteBuffer locator = ByteBuffer.allocate(ZIP64_LOCATOR_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, locator, endOffset - ZIP64_LOCATOR_SIZE);
+			if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+				final ByteBuffer end64 = ByteBuffer.allocate(ZIP64_END_SIZE)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				readFully(channel, end64, locator.getLong(8));
+				if (end64.getInt(0) != ZIP64_END_SIG)
+					throw new IOException("Invalid zip64 end of central directory");
+				numEntries = end64.getLong(32);
+				cenSize = end64.getLong(40);
+				cenOffset = end64.getLong(48);
+			}
+		}
+		if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > fileSize)
+			throw new IOException("Invalid central directory size");
+
+		final ByteBuffer cen = ByteBuffer.allocate((int) cenSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, cen, cenOffset);
+
+		final Map<String, ArchiveEntry> entries = new HashMap<>((int) (numEntries / 0.75f) + 1);
+		int pos = 0;
+		for (long i = 0; i < numEntries; i++) {
+			if (pos + CEN_HEADER_SIZE > cenSize || cen.getInt(pos) != CEN_SIG)
+				throw new IOException("Invalid central directory header");
+			final int flags = Short.toUnsignedInt(cen.getShort(pos + 8));
+			final int method = Short.toUnsignedInt(cen.getShort(pos + 10));
+			final long crc = Integer.toUnsignedLong(cen.getInt(pos + 16));
+			long compressedSize = Integer.toUnsignedLong(cen.getInt(pos + 20));
+			long size = Integer.toUnsignedLong(cen.getInt(pos + 24));
+			final int nameLength = Short.toUnsignedInt(cen.getShort(pos + 28));
+			final int extraLength = Short.toUnsignedInt(cen.getShort(pos + 30));
+			final int commentLength = Short.toUnsignedInt(cen.getShort(pos + 32));
+			long headerOffset = Integer.toUnsignedLong(cen.getInt(pos + 42));
+
+			final String name = new String(cen.array(), pos + CEN_HEADER_SIZE, nameLength,
+					StandardCharsets.UTF_8);
+
+			// Sizes and offsets that did not fit in 32 bits are stored in the zip64 extra field,
+			// in this exact order.
+			int extraPos = pos + CEN_HEADER_SIZE + nameLength;
+			final int extraEnd = extraPos + extraLength;
+			while (extraPos + 4 <= extraEnd) {
+				final int id = Short.toUnsignedInt(cen.getShort(extraPos));
+				final int length = Short.toUnsignedInt(cen.getShort(extraPos + 2));
+				if (id == ZIP64_EXTRA_ID) {
+					int fieldPos = extraPos + 4;
+					if (size == MAGIC_32) {
+						size = cen.getLong(fieldPos);
+						fieldPos += 8;
+					}
+					if (compressedSize == MAGIC_32) {
+						compressedSize = cen.getLong(fieldPos);
+						fieldPos += 8;
+					}
+					if (headerOffset == MAGIC_32) headerOffset = cen.getLong(fieldPos);
+					break;
+				}
+				extraPos += 4 + length;
+			}
+
+			pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+			if (name.endsWith("/") || (flags & FLAG_ENCRYPTED) != 0) continue;
+			entries.put(name, new ArchiveEntry(name, method, crc, compressedSize, size,
+					headerOffset));
+		}
+		return entries;
+	}
+}
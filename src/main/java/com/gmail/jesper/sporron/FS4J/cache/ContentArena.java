@@ -0,0 +1,116 @@
+package com.gmail.jesper.sporron.FS4J.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Hands out {@link ContentSegment}s stored in direct memory, outside of the Java heap, while
+ * keeping the total size of all live segments below a fixed capacity. A segment counts towards
+ * the capacity until its last reference is released.
+ *
+ * <p>
+ * The capacity is a soft budget for what the cache keeps, not a bound on the direct memory in
+ * use. Releasing a segment only returns its size to the arena. The memory itself is freed by the
+ * JVM once nothing refers to the segment's buffer anymore, so buffers handed out by a segment
+ * stay valid, and keep their memory, after the segment has been released. While such views are
+ * alive the direct memory in use may exceed the capacity; size
+ * <code>-XX:MaxDirectMemorySize</code> with that in mind.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class ContentArena {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContentArena.class);
+
+	private final long capacity;
+	private final AtomicLong used;
+
+	/** @param capacity
+	 *            the maximum number of bytes that may be stored at once */
+	public ContentArena(final long capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("capacity must be >= 0");
+		this.capacity = capacity;
+		this.used = new AtomicLong();
+	}
+
+	/** Copies the bytes into a new segment.
+	 *
+	 * @param bytes
+	 *            the bytes to store
+	 * @return an optional containing the segment, or an empty optional if the arena is full */
+	public Optional<ContentSegment> store(final byte[] bytes) {
+		requireNonNull(bytes, "bytes must not be null");
+		final Optional<ContentSegment> segment = allocate(bytes.length);
+		segment.ifPresent(s -> s.fill(ByteBuffer.wrap(bytes)));
+		return segment;
+	}
+
+	/** Copies the remaining bytes of the buffer into a new segment. The position of the buffer is
+	 * not modified.
+	 *
+	 * @param buffer
+	 *            the bytes to store
+	 * @return an optional containing the segment, or an empty optional if the arena is full */
+	public Optional<ContentSegment> store(final ByteBuffer buffer) {
+		requireNonNull(buffer, "buffer must not be null");
+		final Optional<ContentSegment> segment = allocate(buffer.remaining());
+		segment.ifPresent(s -> s.fill(buffer.duplicate()));
+		return segment;
+	}
+
+	/** Reserves a new, writable segment of the given size. The segment must be filled through
+	 * {@link ContentSegment#fill(ByteBuffer)} or {@link ContentSegment#writableBuffer()} before it
+	 * is read.
+	 *
+	 * @param size
+	 *            the size of the segment in bytes
+	 * @return an optional containing the segment, or an empty optional if the arena is full */
+	public Optional<ContentSegment> allocate(final int size) {
+		if (size < 0) throw new IllegalArgumentException("size must be >= 0");
+		if (!reserve(size)) {
+			LOGGER.debug("Could not allocate {} bytes, {} of {} bytes are in use", size,
+					used.get(), capacity);
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(new ContentSegment(this, ByteBuffer.allocateDirect(size)));
+		} catch (final OutOfMemoryError e) {
+			free(size);
+			LOGGER.warn("Could not allocate {} bytes of direct memory: {}", size, e.toString());
+			return Optional.empty();
+		}
+	}
+
+	/** @return the maximum number of bytes that live segments may hold at once */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/** @return the number of bytes held by segments that have not been released, which does not
+	 *         include buffers still referenced after their segment was released */
+	public long getUsed() {
+		return used.get();
+	}
+
+	/** @return the number of bytes that can still be allocated */
+	public long getAvailable() {
+		return capacity - used.get();
+	}
+
+	void free(final long size) {
+		used.addAndGet(-size);
+	}
+
+	private boolean reserve(final long size) {
+		long current;
+		do {
+			current = used.get();
+			if (current + size > capacity) return false;
+		} while (!used.compareAndSet(current, current + size));
+		return true;
+	}
+}
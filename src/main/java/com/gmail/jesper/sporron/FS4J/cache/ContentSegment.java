@@ -0,0 +1,105 @@
+package com.gmail.jesper.sporron.FS4J.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Reference counted block of file content allocated by a {@link ContentArena}. A segment starts
+ * out with one reference. Every holder that wants to keep the segment beyond the lifetime of the
+ * reference it was given calls {@link ContentSegment#retain()}, and every holder calls
+ * {@link ContentSegment#release()} exactly once when it is done. The size of the segment is
+ * returned to the arena when the last reference is released.
+ *
+ * @author Jesper Sporron */
+public final class ContentSegment {
+	private final ContentArena arena;
+	private final ByteBuffer buffer;
+	private final AtomicInteger references;
+
+	ContentSegment(final ContentArena arena, final ByteBuffer buffer) {
+		this.arena = arena;
+		this.buffer = buffer;
+		this.references = new AtomicInteger(1);
+	}
+
+	/** Adds a reference to this segment.
+	 *
+	 * @return this segment
+	 * @throws IllegalStateException
+	 *             if the segment has already been released */
+	public ContentSegment retain() throws IllegalStateException {
+		if (!tryRetain()) throw new IllegalStateException("Segment has already been released");
+		return this;
+	}
+
+	/** Adds a reference to this segment unless it has already been released.
+	 *
+	 * @return true if a reference was added, false if the segment has been released */
+	public boolean tryRetain() {
+		int current;
+		do {
+			current = references.get();
+			if (current <= 0) return false;
+		} while (!references.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/** Removes a reference from this segment. When the last reference is removed the size of the
+	 * segment is returned to its arena.
+	 *
+	 * @throws IllegalStateException
+	 *             if the segment has already been released */
+	public void release() throws IllegalStateException {
+		final int remaining = references.decrementAndGet();
+		if (remaining < 0) {
+			references.incrementAndGet();
+			throw new IllegalStateException("Segment has already been released");
+		}
+		if (remaining == 0) arena.free(buffer.capacity());
+	}
+
+	/** @return true if the last reference to this segment has been released */
+	public boolean isReleased() {
+		return references.get() <= 0;
+	}
+
+	/** @return the number of references to this segment */
+	public int getReferenceCount() {
+		return Math.max(0, references.get());
+	}
+
+	/** @return the size of the segment in bytes */
+	public int size() {
+		return buffer.capacity();
+	}
+
+	/** Returns a read-only view of the content. The view stays valid after the segment has been
+	 * released, but then no longer counts towards the capacity of the arena. Holders that keep a
+	 * view for long should keep their reference until they are done with it.
+	 *
+	 * @return a read-only view of the content */
+	public ByteBuffer asReadOnlyBuffer() {
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/** Copies the content into a new array.
+	 *
+	 * @return the content */
+	public byte[] toArray() {
+		final byte[] bytes = new byte[buffer.capacity()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/** Returns a writable view of the content, used to fill a segment that was allocated with
+	 * {@link ContentArena#allocate(int)}.
+	 *
+	 * @return a writable view of the content, positioned at 0 */
+	public ByteBuffer writableBuffer() {
+		return buffer.duplicate();
+	}
+
+	/** Copies the remaining bytes of <code>source</code> into the start of this segment. */
+	void fill(final ByteBuffer source) {
+		buffer.duplicate().put(source);
+	}
+}
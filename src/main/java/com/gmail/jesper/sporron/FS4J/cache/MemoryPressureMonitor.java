@@ -0,0 +1,232 @@
+package com.gmail.jesper.sporron.FS4J.cache;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.metrics.CacheShrinkEvent;
+
+/** Shrinks caches when the heap runs full, instead of letting them hold on to a fixed budget
+ * while the program heads for a full collection. Once started, the monitor sets a usage threshold
+ * on every heap memory pool that supports one, and a collection usage threshold where supported.
+ * When the JVM reports that a pool crossed its threshold, every registered
+ * {@link ShrinkableCache} is shrunk, least recently used content first, until all of them
+ * together cache no more than the low-water mark.
+ *
+ * <p>
+ * Every shrink is logged, counted and reported as a {@link CacheShrinkEvent}. The thresholds are
+ * global to the JVM, so the monitor restores the previous ones when it is closed.
+ * </p>
+ *
+ * <code>
+ * <pre>
+ * MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 16 * 1024 * 1024);
+ * monitor.register(fileSystem);
+ * monitor.start();
+ * </pre>
+ * </code>
+ *
+ * @author Jesper Sporron */
+public final class MemoryPressureMonitor implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemoryPressureMonitor.class);
+	/** The reason given for shrinks through {@link MemoryPressureMonitor#shrink()}. */
+	public static final String REQUESTED = "requested";
+
+	private final double usageThreshold;
+	private final long lowWaterMark;
+	private final List<ShrinkableCache> caches;
+	private final List<Threshold> installed;
+	private final NotificationListener listener;
+	private final AtomicLong shrinks;
+	private final AtomicLong releasedBytes;
+	private boolean started;
+
+	/** @param usageThreshold
+	 *            the fraction of the maximum size of a heap pool at which caches are shrunk,
+	 *            between 0 and 1
+	 * @param lowWaterMark
+	 *            the number of bytes all registered caches together may keep when they are
+	 *            shrunk */
+	public MemoryPressureMonitor(final double usageThreshold, final long lowWaterMark) {
+		if (!(usageThreshold > 0 && usageThreshold <= 1))
+			throw new IllegalArgumentException("usageThreshold must be > 0 and <= 1");
+		if (lowWaterMark < 0) throw new IllegalArgumentException("lowWaterMark must be >= 0");
+		this.usageThreshold = usageThreshold;
+		this.lowWaterMark = lowWaterMark;
+		this.caches = new CopyOnWriteArrayList<>();
+		this.installed = new ArrayList<>();
+		this.listener = this::onNotification;
+		this.shrinks = new AtomicLong();
+		this.releasedBytes = new AtomicLong();
+	}
+
+	/** Adds a cache to shrink. Caches are shrunk in the order they were registered. */
+	public void register(final ShrinkableCache cache) {
+		requireNonNull(cache, "cache must not be null");
+		caches.add(cache);
+	}
+
+	/** @return true if the cache was registered */
+	public boolean unregister(final ShrinkableCache cache) {
+		requireNonNull(cache, "cache must not be null");
+		return caches.remove(cache);
+	}
+
+	/** Sets the thresholds and starts listening for the JVM to report that they were crossed.
+	 * Does nothing if the monitor has already been started.
+	 *
+	 * @return true if at least one heap pool supports a threshold */
+	public synchronized boolean start() {
+		if (started) return !installed.isEmpty();
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP || !pool.isValid()) continue;
+			final long max = pool.getUsage().getMax();
+			if (max <= 0) continue;
+			final long threshold = (long) (max * usageThreshold);
+			if (pool.isUsageThresholdSupported()) {
+				installed.add(new Threshold(pool, false, pool.getUsageThreshold()));
+				pool.setUsageThreshold(threshold);
+			}
+			if (pool.isCollectionUsageThresholdSupported()) {
+				installed.add(new Threshold(pool, true, pool.getCollectionUsageThreshold()));
+				pool.setCollectionUsageThreshold(threshold);
+			}
+		}
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+				listener, null, null);
+		started = true;
+		if (installed.isEmpty()) LOGGER.warn("No heap pool supports usage thresholds, caches "
+				+ "are only shrunk on request");
+		else LOGGER.info("Shrinking caches to {} bytes once a heap pool is {}% full",
+				lowWaterMark, Math.round(usageThreshold * 100));
+		return !installed.isEmpty();
+	}
+
+	/** Stops listening and restores the thresholds that were set before the monitor started. */
+	@Override
+	public synchronized void close() {
+		if (!started) return;
+		started = false;
+		try {
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+					.removeNotificationListener(listener);
+		} catch (final ListenerNotFoundException e) {
+			LOGGER.debug("Listener was already removed", e);
+		}
+		for (final Threshold threshold : installed)
+			threshold.restore();
+		installed.clear();
+	}
+
+	/** Shrinks the registered caches to the low-water mark right away, e.g. before a level
+	 * transition that is known to need a lot of heap.
+	 *
+	 * @return the number of bytes released */
+	public long shrink() {
+		return shrink(REQUESTED);
+	}
+
+	private synchronized long shrink(final String reason) {
+		final CacheShrinkEvent event = new CacheShrinkEvent();
+		event.begin();
+		long before = 0;
+		for (final ShrinkableCache cache : caches)
+			before += cache.getCachedBytes();
+		long cached = before;
+		long released = 0;
+		for (final ShrinkableCache cache : caches) {
+			if (cached <= lowWaterMark) break;
+			final long size = cache.getCachedBytes();
+			final long freed = cache.shrinkTo(Math.max(0, size - (cached - lowWaterMark)));
+			cached -= freed;
+			released += freed;
+		}
+		final long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		shrinks.incrementAndGet();
+		releasedBytes.addAndGet(released);
+		LOGGER.info("Shrunk caches from {} to {} bytes ({}), {} bytes of heap in use", before,
+				cached, reason, heapUsed);
+		if (event.shouldCommit()) {
+			event.reason = reason;
+			event.before = before;
+			event.after = cached;
+			event.heapUsed = heapUsed;
+			event.commit();
+		}
+		return released;
+	}
+
+	private void onNotification(final Notification notification, final Object handback) {
+		final String type = notification.getType();
+		if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+				&& !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type))
+			return;
+		final MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData) notification
+				.getUserData());
+		final MemoryUsage usage = info.getUsage();
+		LOGGER.debug("Pool '{}' crossed its threshold with {} of {} bytes used", info
+				.getPoolName(), usage.getUsed(), usage.getMax());
+		try {
+			shrink(info.getPoolName());
+		} catch (final RuntimeException e) {
+			LOGGER.error("Failed to shrink caches", e);
+		}
+	}
+
+	/** @return the low-water mark caches are shrunk to */
+	public long getLowWaterMark() {
+		return lowWaterMark;
+	}
+
+	/** @return the fraction of a heap pool at which caches are shrunk */
+	public double getUsageThreshold() {
+		return usageThreshold;
+	}
+
+	/** @return the number of times the caches have been shrunk */
+	public long getShrinkCount() {
+		return shrinks.get();
+	}
+
+	/** @return the number of bytes released by all shrinks together */
+	public long getReleasedBytes() {
+		return releasedBytes.get();
+	}
+
+	/** A threshold set by the monitor and the value it replaced. */
+	private static final class Threshold {
+		private final MemoryPoolMXBean pool;
+		private final boolean collection;
+		private final long previous;
+
+		private Threshold(final MemoryPoolMXBean pool, final boolean collection,
+				final long previous) {
+			this.pool = pool;
+			this.collection = collection;
+			this.previous = previous;
+		}
+
+		private void restore() {
+			if (collection) pool.setCollectionUsageThreshold(previous);
+			else pool.setUsageThreshold(previous);
+		}
+	}
+}
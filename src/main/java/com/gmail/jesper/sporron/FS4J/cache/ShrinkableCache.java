@@ -0,0 +1,19 @@
+package com.gmail.jesper.sporron.FS4J.cache;
+
+/** A cache that can give back heap memory on request, see {@link MemoryPressureMonitor}. Only
+ * content kept on the heap counts, content kept in a {@link ContentArena} has its own budget and
+ * is neither counted nor released.
+ *
+ * @author Jesper Sporron */
+public interface ShrinkableCache {
+	/** @return the number of bytes of content currently cached on the heap */
+	long getCachedBytes();
+
+	/** Releases content cached on the heap, least recently used first, until at most the given
+	 * number of bytes is cached there. Released content is read again on its next use.
+	 *
+	 * @param targetBytes
+	 *            the number of bytes that may stay cached
+	 * @return the number of bytes released */
+	long shrinkTo(long targetBytes);
+}
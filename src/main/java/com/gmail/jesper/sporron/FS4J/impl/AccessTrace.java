@@ -0,0 +1,162 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** The order in which files were read from a {@link NIOFileSystem}, see
+ * {@link NIOFileSystem#startTraceRecording()}. Only the first read of every path is part of the
+ * trace.
+ *
+ * <p>
+ * A trace is stored as UTF-8 text with one access per line: the path, the registration the file
+ * was found in, the size of the file in bytes, and the number of milliseconds since recording
+ * started, separated by tabs. Lines starting with <code>#</code> are comments. Since the path
+ * comes first, a trace can also be used as an access-order manifest for a pack.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class AccessTrace {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AccessTrace.class);
+	private static final String HEADER = "# FS4J access trace";
+
+	private final List<Access> accesses;
+
+	public AccessTrace(final List<Access> accesses) {
+		requireNonNull(accesses, "accesses must not be null");
+		this.accesses = Collections.unmodifiableList(new ArrayList<>(accesses));
+	}
+
+	/** @return the accesses in the order they happened */
+	public List<Access> getAccesses() {
+		return accesses;
+	}
+
+	/** @return the number of accesses in the trace */
+	public int size() {
+		return accesses.size();
+	}
+
+	/** @return the trace in its text format */
+	public String format() {
+		final StringBuilder builder = new StringBuilder(HEADER).append('\n');
+		for (final Access access : accesses) {
+			builder.append(FSUtils.toRelativeString(access.path)).append('\t');
+			builder.append(access.registration).append('\t');
+			builder.append(access.size).append('\t');
+			builder.append(access.time).append('\n');
+		}
+		return builder.toString();
+	}
+
+	/** Parses a trace from its text format. Lines that can not be parsed, and paths that would
+	 * reach outside the search path, e.g. <code>"../x"</code>, are skipped.
+	 *
+	 * @param text
+	 *            the trace, as written by {@link AccessTrace#format()}
+	 * @return the parsed trace */
+	public static AccessTrace parse(final String text) {
+		requireNonNull(text, "text must not be null");
+		final List<Access> accesses = new ArrayList<>();
+		for (final String line : text.split("\n")) {
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			final String[] fields = line.split("\t");
+			if (fields.length != 4) continue;
+			try {
+				final FilePath minimized = FilePath.from(fields[0]).minimize();
+				if (!FSUtils.isSafePath(minimized, LOGGER)) continue;
+				final FilePath path = FilePath.from(FSUtils.toRelativeString(minimized));
+				accesses.add(new Access(path, fields[1], Long.parseLong(fields[2]), Long
+						.parseLong(fields[3])));
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+		}
+		return new AccessTrace(accesses);
+	}
+
+	/** A single read of a file. */
+	public static final class Access {
+		private final FilePath path;
+		private final String registration;
+		private final long size;
+		private final long time;
+
+		/** @param path
+		 *            the path that was opened, minimized and without "." entries
+		 * @param registration
+		 *            the search path entry the file was found in
+		 * @param size
+		 *            the size of the file in bytes, or -1 if unknown
+		 * @param time
+		 *            milliseconds since recording started */
+		public Access(final FilePath path, final String registration, final long size,
+				final long time) {
+			this.path = requireNonNull(path, "path must not be null");
+			this.registration = requireNonNull(registration, "registration must not be null");
+			this.size = size;
+			this.time = time;
+		}
+
+		public FilePath getPath() {
+			return path;
+		}
+
+		public String getRegistration() {
+			return registration;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s (%s, %d bytes, %d ms)", path, registration, size, time);
+		}
+	}
+
+	/** Collects accesses while a trace is being recorded. */
+	static final class Recorder {
+		private final long start;
+		private final Set<FilePath> seen;
+		private final Queue<Access> accesses;
+
+		Recorder() {
+			this.start = System.nanoTime();
+			this.seen = ConcurrentHashMap.newKeySet();
+			this.accesses = new ConcurrentLinkedQueue<>();
+		}
+
+		boolean isRecorded(final FilePath path) {
+			return seen.contains(path);
+		}
+
+		void record(final FilePath path, final String registration, final long size) {
+			if (!seen.add(path)) return;
+			final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			accesses.add(new Access(path, registration, size, time));
+		}
+
+		AccessTrace toTrace() {
+			return new AccessTrace(new ArrayList<>(accesses));
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+import com.gmail.jesper.sporron.FS4J.cache.ContentSegment;
+import com.gmail.jesper.sporron.FS4J.metrics.CacheEvent;
+import com.gmail.jesper.sporron.FS4J.metrics.FSOperation;
+import com.gmail.jesper.sporron.FS4J.metrics.ReadEvent;
+import com.gmail.jesper.sporron.FS4J.util.ByteBufferChannel;
+
+/** A read-only file that lives inside an archive. Creating the file costs no I/O, the content is
+ * only read and inflated the first time {@link ArchiveNIOFSFile#readBytes()} is called. If
+ * caching is enabled the inflated content is kept for subsequent reads, either on the heap or, if
+ * the file was given a {@link ContentArena}, in direct memory allocated from that arena.
+ *
+ * @author Jesper Sporron */
+public class ArchiveNIOFSFile extends NIOFSFile {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveNIOFSFile.class);
+
+	private final Archive archive;
+	private final ArchiveEntry entry;
+	private final EntryCache cache;
+
+	public ArchiveNIOFSFile(final Archive archive, final ArchiveEntry entry,
+			final boolean cacheContent) {
+		this(archive, entry, cacheContent, null);
+	}
+
+	/** @param archive
+	 *            the archive the file is in
+	 * @param entry
+	 *            the entry of the file
+	 * @param cacheContent
+	 *            if the content should be kept after it has been read once
+	 * @param arena
+	 *            where to keep cached content, or null to keep it on the heap */
+	public ArchiveNIOFSFile(final Archive archive, final ArchiveEntry entry,
+			final boolean cacheContent, final ContentArena arena) {
+		this(new EntryCache(archive, entry, cacheContent, arena, true));
+	}
+
+	/** Creates a file that reads through a cache, which may be shared with other files. */
+	ArchiveNIOFSFile(final EntryCache cache) {
+		super(null, false);
+		this.cache = requireNonNull(cache, "cache must not be null");
+		this.archive = cache.getArchive();
+		this.entry = cache.getEntry();
+	}
+
+	@Override
+	public byte[] readBytes() {
+		final long start = System.nanoTime();
+		final ReadEvent event = new ReadEvent();
+		event.begin();
+		final byte[] bytes = readContent();
+		if (bytes == null) {
+			commitRead(event, false, 0);
+			recordOperation(FSOperation.READ, false, 0, start);
+			return new byte[0];
+		}
+		commitRead(event, true, bytes.length);
+		recordOperation(FSOperation.READ, true, bytes.length, start);
+		return bytes;
+	}
+
+	/** Returns a view of the content cached off the heap, without copying it. The view does not
+	 * hold a reference to the cached segment, so it stays readable after the cache is released
+	 * but its memory is then no longer counted by the {@link ContentArena}. Use
+	 * {@link ArchiveNIOFSFile#openReadableChannel()} to read under a reference instead. */
+	@Override
+	public ByteBuffer readBuffer() {
+		final long start = System.nanoTime();
+		final ReadEvent event = new ReadEvent();
+		final CacheEvent cacheEvent = new CacheEvent();
+		event.begin();
+		cacheEvent.begin();
+		final boolean hit = isCached();
+		final ContentSegment cached = cache.retainSegment();
+		if (cached != null) {
+			try {
+				final ByteBuffer buffer = cached.asReadOnlyBuffer();
+				commitCache(cacheEvent, hit, buffer.remaining());
+				commitRead(event, true, buffer.remaining());
+				recordOperation(FSOperation.READ, true, buffer.remaining(), start);
+				return buffer;
+			} finally {
+				cached.release();
+			}
+		}
+		if (cache.heap() == null) {
+			try {
+				final Optional<ByteBuffer> mapped = archive.mapEntry(entry);
+				if (mapped.isPresent()) {
+					commitRead(event, true, mapped.get().remaining());
+					recordOperation(FSOperation.READ, true, mapped.get().remaining(), start);
+					return mapped.get();
+				}
+			} catch (final IOException e) {
+				LOGGER.debug("Failed to map entry '{}', reading it instead", entry, e);
+			}
+		}
+		return super.readBuffer();
+	}
+
+	/** Reads from the cached content if there is any. Otherwise the entry is inflated as it is read
+	 * from the channel, see {@link Archive#openEntry(ArchiveEntry)}, and nothing is cached. */
+	@Override
+	public Optional<ReadableByteChannel> openReadableChannel() {
+		final ContentSegment cached = cache.retainCached();
+		if (cached != null)
+			return Optional.of(trackReads(new ByteBufferChannel(cached.asReadOnlyBuffer(),
+					cached::release)));
+		final byte[] heap = cache.heap();
+		if (heap != null) return Optional.of(trackReads(new ByteBufferChannel(ByteBuffer.wrap(
+				heap))));
+		try {
+			return Optional.of(trackReads(archive.openEntry(entry)));
+		} catch (final IOException e) {
+			LOGGER.error("Failed to open entry '{}' in archive '{}'", entry, archive.getPath(), e);
+			return Optional.empty();
+		}
+	}
+
+	/** Copies the range out of the cached content if there is any. Otherwise only the range is
+	 * read from the archive, see {@link Archive#readEntryRange(ArchiveEntry, long, int)}, and
+	 * nothing is cached. */
+	@Override
+	public byte[] readRange(final long offset, final int length) {
+		checkRange(offset, length);
+		final long start = System.nanoTime();
+		final ReadEvent event = new ReadEvent();
+		event.begin();
+		byte[] bytes = cachedRange(offset, length);
+		if (bytes == null) {
+			try {
+				bytes = archive.readEntryRange(entry, offset, length);
+			} catch (final IOException e) {
+				LOGGER.error("Failed to read a range of entry '{}' from archive '{}'", entry,
+						archive.getPath(), e);
+				commitRead(event, false, 0);
+				recordOperation(FSOperation.READ, false, 0, start);
+				return new byte[0];
+			}
+		}
+		commitRead(event, true, bytes.length);
+		recordOperation(FSOperation.READ, true, bytes.length, start);
+		return bytes;
+	}
+
+	/** @return the range copied out of the cached content, or null if nothing is cached */
+	private byte[] cachedRange(final long offset, final int length) {
+		final ContentSegment cached = cache.retainCached();
+		if (cached != null) {
+			try {
+				final ByteBuffer buffer = cached.asReadOnlyBuffer();
+				if (offset >= buffer.remaining()) return new byte[0];
+				buffer.position(buffer.position() + (int) offset);
+				final byte[] bytes = new byte[Math.min(length, buffer.remaining())];
+				buffer.get(bytes);
+				return bytes;
+			} finally {
+				cached.release();
+			}
+		}
+		final byte[] heap = cache.heap();
+		if (heap == null) return null;
+		if (offset >= heap.length) return new byte[0];
+		return Arrays.copyOfRange(heap, (int) offset, (int) Math.min(heap.length, offset
+				+ length));
+	}
+
+	/** @return a copy of the content, or null if it could not be read */
+	private byte[] readContent() {
+		final CacheEvent cacheEvent = new CacheEvent();
+		cacheEvent.begin();
+		final boolean hit = isCached();
+		final ContentSegment cached = cache.retainSegment();
+		if (cached != null) {
+			try {
+				final byte[] bytes = cached.toArray();
+				commitCache(cacheEvent, hit, bytes.length);
+				return bytes;
+			} finally {
+				cached.release();
+			}
+		}
+
+		byte[] bytes = cache.heap();
+		if (bytes == null) {
+			bytes = cache.readEntry();
+			if (bytes == null || !cache.keep(bytes)) return bytes;
+		}
+		commitCache(cacheEvent, hit, bytes.length);
+		final byte[] newBytes = new byte[bytes.length];
+		System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+		return newBytes;
+	}
+
+	private void commitCache(final CacheEvent event, final boolean hit, final long bytes) {
+		if (!event.shouldCommit()) return;
+		event.path = describe();
+		event.hit = hit;
+		event.offHeap = isCachedOffHeap();
+		event.bytes = bytes;
+		event.commit();
+	}
+
+	@Override
+	String describe() {
+		return archive.getPath() + "!" + entry.getName();
+	}
+
+	@Override
+	public boolean writeBytes(final byte[] bytes, final boolean append) {
+		return false;
+	}
+
+	@Override
+	public boolean isWriteable() {
+		return false;
+	}
+
+	@Override
+	public void release() {
+		cache.release();
+	}
+
+	EntryCache getCache() {
+		return cache;
+	}
+
+	/** Stops caching content and releases what is cached, for files whose archive is no longer on
+	 * the search path. The file can still be read. */
+	void retire() {
+		cache.retire();
+	}
+
+	/** Reads the content into the cache right away instead of on the first read. Does nothing if
+	 * caching is disabled or the content is already cached.
+	 *
+	 * @return true if the content is cached after the call */
+	public boolean load() {
+		return cache.load();
+	}
+
+	/** @return the uncompressed size of the file, as recorded by the archive */
+	public long getSize() {
+		return entry.getSize();
+	}
+
+	/** @return true if the content of this file has been read and cached */
+	public boolean isCached() {
+		return cache.isCached();
+	}
+
+	/** @return true if the content of this file is cached outside of the heap */
+	public boolean isCachedOffHeap() {
+		return cache.isCachedOffHeap();
+	}
+
+	public ArchiveEntry getEntry() {
+		return entry;
+	}
+
+	public Archive getArchive() {
+		return archive;
+	}
+}
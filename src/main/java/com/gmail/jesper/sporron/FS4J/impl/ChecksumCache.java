@@ -0,0 +1,60 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.gmail.jesper.sporron.FS4J.ChecksumAlgorithm;
+import com.gmail.jesper.sporron.FS4J.FileChecksum;
+
+/** Remembers computed checksums for as long as the file on disk they were computed from keeps its
+ * size and modification time. For files inside archives that file is the archive.
+ *
+ * @author Jesper Sporron */
+final class ChecksumCache {
+	private final Map<String, Cached> checksums = new ConcurrentHashMap<>();
+
+	/** @param source
+	 *            names the content, e.g. the path of a file or an entry in an archive
+	 * @param attributes
+	 *            the current attributes of the file on disk
+	 * @return an optional containing the checksum, or an empty optional if it is not known or the
+	 *         file has changed since */
+	Optional<FileChecksum> get(final String source, final ChecksumAlgorithm algorithm,
+			final BasicFileAttributes attributes) {
+		final Cached cached = checksums.get(key(source, algorithm));
+		if (cached == null || !cached.matches(attributes)) return Optional.empty();
+		return Optional.of(cached.checksum);
+	}
+
+	void put(final String source, final BasicFileAttributes attributes,
+			final FileChecksum checksum) {
+		checksums.put(key(source, checksum.getAlgorithm()), new Cached(attributes, checksum));
+	}
+
+	void clear() {
+		checksums.clear();
+	}
+
+	private static String key(final String source, final ChecksumAlgorithm algorithm) {
+		return algorithm.name() + ":" + source;
+	}
+
+	private static final class Cached {
+		private final long size;
+		private final long modified;
+		private final FileChecksum checksum;
+
+		private Cached(final BasicFileAttributes attributes, final FileChecksum checksum) {
+			this.size = attributes.size();
+			this.modified = attributes.lastModifiedTime().toMillis();
+			this.checksum = checksum;
+		}
+
+		private boolean matches(final BasicFileAttributes attributes) {
+			return size == attributes.size() && modified == attributes.lastModifiedTime()
+					.toMillis();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Loads archive files on a pool of worker threads, so that a batch of compressed entries is
+ * inflated in parallel instead of one after the other on the thread that needs them. Workers are
+ * daemon threads and do not keep the program alive.
+ *
+ * @author Jesper Sporron */
+public class DecompressionPipeline implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DecompressionPipeline.class);
+	private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+	private final ExecutorService workers;
+
+	/** Creates a pipeline with one worker per processor. */
+	public DecompressionPipeline() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** @param threads
+	 *            the number of worker threads */
+	public DecompressionPipeline(final int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be > 0");
+		final int pool = POOL_COUNT.incrementAndGet();
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ThreadFactory factory = runnable -> {
+			final Thread thread = new Thread(runnable, String.format("fs4j-decompress-%d-%d", pool,
+					threadCount.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		};
+		this.workers = Executors.newFixedThreadPool(threads, factory);
+	}
+
+	/** Loads the content of the files into their caches, see {@link ArchiveNIOFSFile#load()}.
+	 *
+	 * @param files
+	 *            the files to load
+	 * @return a future completed with the number of files that were cached once all files have
+	 *         been processed */
+	public CompletableFuture<Integer> load(final Collection<ArchiveNIOFSFile> files) {
+		requireNonNull(files, "files must not be null");
+		final List<CompletableFuture<Boolean>> loads = new ArrayList<>(files.size());
+		for (final ArchiveNIOFSFile file : files)
+			loads.add(CompletableFuture.supplyAsync(file::load, workers));
+		return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).thenApply(
+				ignored -> {
+					int loaded = 0;
+					for (final CompletableFuture<Boolean> load : loads)
+						if (load.join()) loaded++;
+					LOGGER.debug("Loaded {} of {} archive files", loaded, loads.size());
+					return loaded;
+				});
+	}
+
+	/** Runs a task on one of the workers. */
+	void execute(final Runnable task) {
+		workers.execute(task);
+	}
+
+	/** Stops the workers once the loads that have already been submitted are done. New loads are
+	 * rejected. */
+	void shutdown() {
+		workers.shutdown();
+	}
+
+	/** Stops the workers. Loads that have not started yet are abandoned. */
+	@Override
+	public void close() {
+		workers.shutdownNow();
+	}
+}
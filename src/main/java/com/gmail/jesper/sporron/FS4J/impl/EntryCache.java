@@ -0,0 +1,230 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+import com.gmail.jesper.sporron.FS4J.cache.ContentSegment;
+
+/** The cached content of one archive entry. Every {@link ArchiveNIOFSFile} reads through one of
+ * these, and files of different file systems share one through {@link SharedResources}.
+ *
+ * @author Jesper Sporron */
+final class EntryCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(EntryCache.class);
+
+	private final Archive archive;
+	private final ArchiveEntry entry;
+	private final ContentArena arena;
+	private final boolean heapFallback;
+	private volatile boolean enabled;
+	private volatile byte[] content;
+	private volatile ContentSegment segment;
+	private volatile long lastUsed;
+
+	/** @param enabled
+	 *            if the content should be kept after it has been read once
+	 * @param arena
+	 *            where to keep cached content, or null to keep it on the heap
+	 * @param heapFallback
+	 *            if content should be kept on the heap when the arena is full */
+	EntryCache(final Archive archive, final ArchiveEntry entry, final boolean enabled,
+			final ContentArena arena, final boolean heapFallback) {
+		this.archive = requireNonNull(archive, "archive must not be null");
+		this.entry = requireNonNull(entry, "entry must not be null");
+		this.enabled = enabled;
+		this.arena = arena;
+		this.heapFallback = heapFallback;
+	}
+
+	Archive getArchive() {
+		return archive;
+	}
+
+	ArchiveEntry getEntry() {
+		return entry;
+	}
+
+	/** @return the content cached on the heap, which must not be modified, or null */
+	byte[] heap() {
+		final byte[] cached = content;
+		if (cached != null) lastUsed = System.nanoTime();
+		return cached;
+	}
+
+	/** Keeps content on the heap, if caching is enabled and content may be kept there. Holds the
+	 * lock {@link EntryCache#retire()} takes, so a retired cache never keeps content.
+	 *
+	 * @return true if the content was kept */
+	synchronized boolean keep(final byte[] bytes) {
+		if (!enabled || (arena != null && !heapFallback)) return false;
+		content = bytes;
+		lastUsed = System.nanoTime();
+		return true;
+	}
+
+	/** @return the off-heap content with an extra reference that the caller must release, or null
+	 *         if nothing is cached off the heap. Never loads content. */
+	ContentSegment retainCached() {
+		final ContentSegment cached = segment;
+		if (cached == null || !cached.tryRetain()) return null;
+		lastUsed = System.nanoTime();
+		return cached;
+	}
+
+	/** Returns the off-heap content with an extra reference that the caller must release. If
+	 * caching in an arena is enabled and nothing is cached yet, the entry is inflated straight
+	 * into a new segment so the content never passes through the heap.
+	 *
+	 * @return the retained segment, or null if the content is not cached off the heap */
+	ContentSegment retainSegment() {
+		final ContentSegment cached = retainCached();
+		if (cached != null) return cached;
+		if (!enabled || arena == null || content != null) return null;
+		return loadOffHeap();
+	}
+
+	private synchronized ContentSegment loadOffHeap() {
+		if (segment != null) return segment.tryRetain() ? segment : null;
+		if (!enabled) return null;
+		if (entry.getSize() > Integer.MAX_VALUE) return null;
+
+		final Optional<ContentSegment> allocated = arena.allocate((int) entry.getSize());
+		if (!allocated.isPresent()) {
+			LOGGER.debug("Arena is full, not caching '{}' off the heap", entry);
+			return null;
+		}
+		try {
+			archive.readEntry(entry, allocated.get().writableBuffer());
+		} catch (final IOException e) {
+			allocated.get().release();
+			LOGGER.error("Failed to read entry '{}' from archive '{}'", entry, archive.getPath(),
+					e);
+			return null;
+		}
+		segment = allocated.get();
+		lastUsed = System.nanoTime();
+		return segment.retain();
+	}
+
+	/** @return true if the content is cached after the call */
+	boolean load() {
+		if (!enabled) return false;
+		final ContentSegment cached = retainSegment();
+		if (cached != null) {
+			cached.release();
+			return true;
+		}
+		if (content != null) return true;
+		final byte[] bytes = readEntry();
+		return bytes != null && keep(bytes);
+	}
+
+	/** @return the content read from the archive, or null if it could not be read */
+	byte[] readEntry() {
+		try {
+			return archive.readEntry(entry);
+		} catch (final IOException e) {
+			LOGGER.error("Failed to read entry '{}' from archive '{}'", entry, archive.getPath(),
+					e);
+			return null;
+		}
+	}
+
+	synchronized void release() {
+		content = null;
+		final ContentSegment cached = segment;
+		segment = null;
+		if (cached != null) cached.release();
+	}
+
+	/** Stops caching and releases what is cached. */
+	synchronized void retire() {
+		enabled = false;
+		release();
+	}
+
+	/** @return the number of bytes cached on the heap */
+	long heapBytes() {
+		final byte[] heap = content;
+		return heap == null ? 0 : heap.length;
+	}
+
+	/** @return the number of bytes cached off the heap */
+	long offHeapBytes() {
+		final ContentSegment cached = segment;
+		return cached == null ? 0 : cached.size();
+	}
+
+	/** @return the number of bytes released from the heap */
+	private synchronized long releaseHeap() {
+		final long size = heapBytes();
+		content = null;
+		return size;
+	}
+
+	/** Releases content cached on the heap, least recently used first, until at most the target
+	 * number of bytes is cached on the heap by the given caches together. Content cached off the
+	 * heap is left alone.
+	 *
+	 * @return the number of bytes released */
+	static long shrinkHeap(final Collection<EntryCache> caches, final long targetBytes) {
+		return shrink(caches, targetBytes, EntryCache::heapBytes, EntryCache::releaseHeap);
+	}
+
+	/** Releases content cached off the heap, least recently used first, until at most the target
+	 * number of bytes is cached off the heap by the given caches together.
+	 *
+	 * @return the number of bytes released */
+	static long shrinkOffHeap(final Collection<EntryCache> caches, final long targetBytes) {
+		return shrink(caches, targetBytes, EntryCache::offHeapBytes, cache -> {
+			final long size = cache.offHeapBytes();
+			cache.release();
+			return size;
+		});
+	}
+
+	private static long shrink(final Collection<EntryCache> caches, final long targetBytes,
+			final ToLongFunction<EntryCache> size, final ToLongFunction<EntryCache> release) {
+		// Sorted on a copy of the access times, which change while other threads read
+		final List<EntryCache> cached = new ArrayList<>();
+		final Map<EntryCache, Long> used = new IdentityHashMap<>();
+		long total = 0;
+		for (final EntryCache cache : caches) {
+			final long bytes = size.applyAsLong(cache);
+			if (bytes == 0) continue;
+			cached.add(cache);
+			used.put(cache, cache.lastUsed);
+			total += bytes;
+		}
+		cached.sort(Comparator.comparingLong(used::get));
+		long released = 0;
+		for (final EntryCache cache : cached) {
+			if (total - released <= targetBytes) break;
+			released += release.applyAsLong(cache);
+		}
+		return released;
+	}
+
+	boolean isCached() {
+		return content != null || segment != null;
+	}
+
+	boolean isCachedOffHeap() {
+		return segment != null;
+	}
+}
@@ -0,0 +1,339 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.FSFile;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Runs reads from a {@link NIOFileSystem} on a pool of worker threads, highest priority first.
+ * Requests with the same priority are served in the order they were submitted. Requests that are
+ * still queued can be cancelled, so that bulk loads a program no longer needs do not delay the
+ * ones it does.
+ *
+ * <p>
+ * The number of requests that run at once against the same physical root is limited, where a
+ * root is either the search path registration the file was found in or the storage device that
+ * registration is on. A request whose root is at its limit waits, and a lower priority request
+ * for another root may run before it. Files are looked up on the workers too, in priority order,
+ * since the first lookup in an archive indexes it. The root of a request is only known once its
+ * file has been looked up, so lookups only count against the number of threads.
+ * </p>
+ *
+ * <code>
+ * <pre>
+ * IOScheduler scheduler = new IOScheduler(fs, 4, 2, IOScheduler.RootGrouping.DEVICE);
+ * ScheduledRead&lt;byte[]&gt; music = scheduler.read(FilePath.from("music/level2.ogg"), 0);
+ * ScheduledRead&lt;byte[]&gt; sound = scheduler.read(FilePath.from("sounds/door.ogg"), 10);
+ * </pre>
+ * </code>
+ *
+ * @author Jesper Sporron */
+public class IOScheduler implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(IOScheduler.class);
+	private static final AtomicInteger SCHEDULER_COUNT = new AtomicInteger();
+
+	/** How requests are grouped when limiting the number of concurrent requests per root. */
+	public enum RootGrouping {
+		/** Every search path registration is its own root. */
+		REGISTRATION,
+		/** Registrations on the same storage device share a root. */
+		DEVICE
+	}
+
+	private final NIOFileSystem fileSystem;
+	private final int maxPerRoot;
+	private final RootGrouping grouping;
+	private final TreeSet<ScheduledRead<?>> queue;
+	private final Map<Object, Integer> activePerRoot;
+	private final Map<NIOFSRegistration, Object> deviceKeys;
+	private final List<Thread> workers;
+	private final AtomicLong sequence;
+	private final AtomicLong started;
+	private final AtomicLong completed;
+	private final AtomicLong cancelled;
+	private final AtomicLong totalWaitNanos;
+	private final AtomicLong maxWaitNanos;
+	private int active;
+	private boolean closed;
+
+	/** @param fileSystem
+	 *            the file system to read from
+	 * @param threads
+	 *            the maximum number of requests to run at once
+	 * @param maxPerRoot
+	 *            the maximum number of requests to run at once against the same root
+	 * @param grouping
+	 *            what counts as the same root */
+	public IOScheduler(final NIOFileSystem fileSystem, final int threads, final int maxPerRoot,
+			final RootGrouping grouping) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be > 0");
+		if (maxPerRoot <= 0) throw new IllegalArgumentException("maxPerRoot must be > 0");
+		this.fileSystem = requireNonNull(fileSystem, "fileSystem must not be null");
+		this.grouping = requireNonNull(grouping, "grouping must not be null");
+		this.maxPerRoot = maxPerRoot;
+		this.queue = new TreeSet<>();
+		this.activePerRoot = new HashMap<>();
+		this.deviceKeys = new ConcurrentHashMap<>();
+		this.sequence = new AtomicLong();
+		this.started = new AtomicLong();
+		this.completed = new AtomicLong();
+		this.cancelled = new AtomicLong();
+		this.totalWaitNanos = new AtomicLong();
+		this.maxWaitNanos = new AtomicLong();
+
+		final int id = SCHEDULER_COUNT.incrementAndGet();
+		this.workers = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			final Thread worker = new Thread(this::work, String.format("fs4j-io-%d-%d", id, i + 1));
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/** Schedules reading the whole content of a file.
+	 *
+	 * @param path
+	 *            the path of the file on the search path
+	 * @param priority
+	 *            the priority, higher priorities are served first
+	 * @return the scheduled read, its future holds an empty optional if the file does not exist */
+	public ScheduledRead<byte[]> read(final FilePath path, final int priority) {
+		return submit(path, priority, FSFile::readBytes);
+	}
+
+	/** Schedules an operation on a file.
+	 *
+	 * @param path
+	 *            the path of the file on the search path
+	 * @param priority
+	 *            the priority, higher priorities are served first
+	 * @param operation
+	 *            what to do with the file once it is the request's turn
+	 * @return the scheduled operation, its future holds an empty optional if the file does not
+	 *         exist */
+	public <T> ScheduledRead<T> submit(final FilePath path, final int priority,
+			final Function<? super NIOFSFile, T> operation) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(operation, "operation must not be null");
+
+		final ScheduledRead<T> request = new ScheduledRead<>(this, path, priority, sequence
+				.getAndIncrement(), operation);
+		synchronized (this) {
+			if (closed) throw new IllegalStateException("Scheduler has been closed");
+			queue.add(request);
+			notifyAll();
+		}
+		return request;
+	}
+
+	/** Cancels all queued requests with a priority lower than the given one.
+	 *
+	 * @return the number of requests that were cancelled */
+	public synchronized int cancelBelow(final int priority) {
+		int count = 0;
+		for (final Iterator<ScheduledRead<?>> it = queue.iterator(); it.hasNext();) {
+			final ScheduledRead<?> request = it.next();
+			if (request.getPriority() >= priority) continue;
+			it.remove();
+			request.getFuture().cancel(false);
+			count++;
+		}
+		cancelled.addAndGet(count);
+		return count;
+	}
+
+	synchronized boolean cancel(final ScheduledRead<?> request) {
+		if (!queue.remove(request)) return false;
+		request.getFuture().cancel(false);
+		cancelled.incrementAndGet();
+		return true;
+	}
+
+	/** @return the number of requests waiting to run */
+	public synchronized int getQueueDepth() {
+		return queue.size();
+	}
+
+	/** @return the number of queued requests with at least the given priority */
+	public synchronized int getQueueDepth(final int minPriority) {
+		int count = 0;
+		for (final ScheduledRead<?> request : queue)
+			if (request.getPriority() >= minPriority) count++;
+		return count;
+	}
+
+	/** @return the number of requests that are running */
+	public synchronized int getActiveCount() {
+		return active;
+	}
+
+	/** @return the number of requests that have run to completion */
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	/** @return the number of requests that were cancelled while queued */
+	public long getCancelledCount() {
+		return cancelled.get();
+	}
+
+	/** @return the average time requests spent in the queue before they started running */
+	public long getAverageWaitTime(final TimeUnit unit) {
+		final long count = started.get();
+		return count == 0 ? 0 : unit.convert(totalWaitNanos.get() / count, TimeUnit.NANOSECONDS);
+	}
+
+	/** @return the longest time a request spent in the queue before it started running */
+	public long getMaxWaitTime(final TimeUnit unit) {
+		return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/** Stops the workers and cancels all queued requests. Requests that are running are allowed to
+	 * finish. */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			for (final ScheduledRead<?> request : queue)
+				request.getFuture().cancel(false);
+			cancelled.addAndGet(queue.size());
+			queue.clear();
+			notifyAll();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			final ScheduledRead<?> request;
+			boolean holdsRoot;
+			synchronized (this) {
+				ScheduledRead<?> next;
+				while ((next = nextRunnable()) == null) {
+					if (closed) return;
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						return;
+					}
+				}
+				request = next;
+				queue.remove(request);
+				holdsRoot = request.root != null;
+				if (holdsRoot) activePerRoot.merge(request.root, 1, Integer::sum);
+				active++;
+			}
+			try {
+				if (!holdsRoot) holdsRoot = resolve(request);
+				if (holdsRoot) run(request);
+			} finally {
+				synchronized (this) {
+					if (holdsRoot) activePerRoot.computeIfPresent(request.root, (root,
+							count) -> count == 1 ? null : count - 1);
+					active--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/** @return the highest priority request that has not been looked up yet or whose root has
+	 *         room, or null */
+	private ScheduledRead<?> nextRunnable() {
+		for (final ScheduledRead<?> request : queue) {
+			if (request.root == null) return request;
+			if (activePerRoot.getOrDefault(request.root, 0) < maxPerRoot) return request;
+		}
+		return null;
+	}
+
+	/** Looks up the file of a request on the search path.
+	 *
+	 * @return true if the root of the request had room and the request may run on this worker
+	 *         right away, false if it was completed or queued again to wait for its root */
+	private boolean resolve(final ScheduledRead<?> request) {
+		final Optional<NIOFileSystem.Found> found;
+		final Object root;
+		try {
+			found = fileSystem.find(request.getPath().minimize(), true);
+			root = found.isPresent() ? rootOf(found.get().registration) : null;
+		} catch (final RuntimeException e) {
+			LOGGER.error("Looking up '{}' failed", request.getPath(), e);
+			request.getFuture().completeExceptionally(e);
+			completed.incrementAndGet();
+			return false;
+		}
+		if (!found.isPresent()) {
+			request.getFuture().complete(Optional.empty());
+			completed.incrementAndGet();
+			return false;
+		}
+
+		synchronized (this) {
+			request.file = found.get().file;
+			request.root = root;
+			// The future may have been cancelled directly instead of through the scheduler.
+			if (request.getFuture().isDone()) return false;
+			if (closed) {
+				request.getFuture().cancel(false);
+				cancelled.incrementAndGet();
+				return false;
+			}
+			if (activePerRoot.getOrDefault(root, 0) < maxPerRoot) {
+				activePerRoot.merge(root, 1, Integer::sum);
+				return true;
+			}
+			queue.add(request);
+			return false;
+		}
+	}
+
+	private void run(final ScheduledRead<?> request) {
+		final long waited = System.nanoTime() - request.submitted;
+		started.incrementAndGet();
+		totalWaitNanos.addAndGet(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		try {
+			request.execute();
+		} catch (final RuntimeException e) {
+			LOGGER.error("Scheduled read of '{}' failed", request.getPath(), e);
+			request.getFuture().completeExceptionally(e);
+		} finally {
+			completed.incrementAndGet();
+		}
+	}
+
+	private Object rootOf(final NIOFSRegistration registration) {
+		if (grouping == RootGrouping.REGISTRATION) return registration;
+		return deviceKeys.computeIfAbsent(registration, reg -> {
+			try {
+				return Files.getFileStore(reg.getPath());
+			} catch (final IOException | RuntimeException e) {
+				LOGGER.debug("Could not find the device of '{}', treating it as its own root",
+						reg.getFilePath());
+				return reg;
+			}
+		});
+	}
+}
@@ -1,45 +1,177 @@
 package com.gmail.jesper.sporron.FS4J.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.gmail.jesper.sporron.FS4J.FSFile;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetricsListener;
+import com.gmail.jesper.sporron.FS4J.metrics.FSOperation;
+import com.gmail.jesper.sporron.FS4J.metrics.ReadEvent;
+import com.gmail.jesper.sporron.FS4J.metrics.WriteEvent;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
 
 public class NIOFSFile extends FSFile {
 	private static final Logger LOGGER = LoggerFactory.getLogger(NIOFSFile.class);
+	private static final OpenOption[] WRITE_OPTIONS = {};
+	private static final OpenOption[] APPEND_OPTIONS = { StandardOpenOption.APPEND };
+	private static final OpenOption[] WRITE_CHANNEL_OPTIONS = { StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING };
+	private static final OpenOption[] APPEND_CHANNEL_OPTIONS = { StandardOpenOption.WRITE,
+			StandardOpenOption.APPEND };
+
 	private final Path path;
+	private final PathLocks locks;
+	private final FilePath lockPath;
+	private volatile FSMetricsListener metricsListener = FSMetricsListener.NONE;
 
 	public NIOFSFile(final Path path, final boolean isInWritePath) {
+		this(path, isInWritePath, null, null);
+	}
+
+	/** Creates a file whose reads and writes are ordered with other operations on the same path
+	 * through <code>locks</code>.
+	 *
+	 * @param path
+	 *            the path to the file
+	 * @param isInWritePath
+	 *            if the file is in the write directory
+	 * @param locks
+	 *            the locks of the owning file system, or null
+	 * @param lockPath
+	 *            the minimized path of the file relative to the write directory, or null */
+	NIOFSFile(final Path path, final boolean isInWritePath, final PathLocks locks,
+			final FilePath lockPath) {
 		super(isInWritePath);
 		this.path = path;
+		this.locks = locks;
+		this.lockPath = lockPath;
 	}
 
 	@Override
+	@SuppressWarnings("try")
 	public byte[] readBytes() {
-		try {
-			return Files.readAllBytes(path);
+		final long start = System.nanoTime();
+		final ReadEvent event = new ReadEvent();
+		event.begin();
+		try (PathLocks.Handle lock = locks == null ? null : locks.lockForRead(lockPath)) {
+			final byte[] bytes = Files.readAllBytes(path);
+			commitRead(event, true, bytes.length);
+			recordOperation(FSOperation.READ, true, bytes.length, start);
+			return bytes;
 		} catch (final IOException e) {
 			LOGGER.error("Failed to read bytes", e);
+			commitRead(event, false, 0);
+			recordOperation(FSOperation.READ, false, 0, start);
 			return new byte[0];
 		}
 	}
 
+	/** Reads the range with positional reads, without touching the rest of the file. */
+	@Override
+	@SuppressWarnings("try")
+	public byte[] readRange(final long offset, final int length) {
+		checkRange(offset, length);
+		final long start = System.nanoTime();
+		final ReadEvent event = new ReadEvent();
+		event.begin();
+		try (PathLocks.Handle lock = locks == null ? null : locks.lockForRead(lockPath);
+				FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long available = Math.max(0, channel.size() - offset);
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, available));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0) break;
+			}
+			final byte[] bytes = buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer
+					.position()) : buffer.array();
+			commitRead(event, true, bytes.length);
+			recordOperation(FSOperation.READ, true, bytes.length, start);
+			return bytes;
+		} catch (final IOException e) {
+			LOGGER.error("Failed to read range", e);
+			commitRead(event, false, 0);
+			recordOperation(FSOperation.READ, false, 0, start);
+			return new byte[0];
+		}
+	}
+
+	/** Opens a channel straight to the file on disk. Every read from the channel is ordered with
+	 * other operations on the same path, but the channel does not keep the path locked between
+	 * reads. */
+	@Override
+	@SuppressWarnings("try")
+	public Optional<ReadableByteChannel> openReadableChannel() {
+		try (PathLocks.Handle lock = locks == null ? null : locks.lockForRead(lockPath)) {
+			return Optional.of(new ReadChannel(FileChannel.open(path, StandardOpenOption.READ)));
+		} catch (final IOException e) {
+			LOGGER.error("Failed to open '{}' for reading", path, e);
+			return Optional.empty();
+		}
+	}
+
 	@Override
+	@SuppressWarnings("try")
 	public boolean writeBytes(final byte[] bytes, final boolean append) {
 		Objects.requireNonNull(bytes, "bytes must not be null");
-		try {
-			if (!isWriteable()) return false;
-			Files.write(path, bytes, append ? StandardOpenOption.APPEND : null);
-			return true;
+		final long start = System.nanoTime();
+		final WriteEvent event = new WriteEvent();
+		event.begin();
+		boolean success = false;
+		try (PathLocks.Handle lock = locks == null ? null : locks.lockForWrite(lockPath)) {
+			if (!isWriteable()) return recordOperation(FSOperation.WRITE, false, 0, start);
+			Files.write(path, bytes, append ? APPEND_OPTIONS : WRITE_OPTIONS);
+			success = true;
+			return recordOperation(FSOperation.WRITE, true, bytes.length, start);
+		} catch (final NoSuchFileException e) {
+			// The directory was deleted, e.g. by another thread, before the write got its turn
+			LOGGER.warn("Could not write '{}' because its directory does not exist", path);
+			return recordOperation(FSOperation.WRITE, false, 0, start);
 		} catch (final IOException e) {
 			LOGGER.error("Failed to write bytes", e);
-			return false;
+			return recordOperation(FSOperation.WRITE, false, 0, start);
+		} finally {
+			if (event.shouldCommit()) {
+				event.path = describe();
+				event.bytes = success ? bytes.length : 0;
+				event.append = append;
+				event.success = success;
+				event.commit();
+			}
+		}
+	}
+
+	/** Opens a channel straight to the file on disk. Every write to the channel is ordered with
+	 * other operations on the same path, but the channel does not keep the path locked between
+	 * writes. */
+	@Override
+	@SuppressWarnings("try")
+	public Optional<WritableByteChannel> openWritableChannel(final boolean append) {
+		try (PathLocks.Handle lock = locks == null ? null : locks.lockForWrite(lockPath)) {
+			if (!isWriteable()) return Optional.empty();
+			final FileChannel channel = FileChannel.open(path, append ? APPEND_CHANNEL_OPTIONS
+					: WRITE_CHANNEL_OPTIONS);
+			return Optional.of(new FileWriteChannel(channel, append));
+		} catch (final NoSuchFileException e) {
+			// The file was deleted, e.g. by another thread, after it was checked
+			LOGGER.warn("Could not write '{}' because it does not exist", path);
+			return Optional.empty();
+		} catch (final IOException e) {
+			LOGGER.error("Failed to open '{}' for writing", path, e);
+			return Optional.empty();
 		}
 	}
 
@@ -47,4 +179,153 @@ public class NIOFSFile extends FSFile {
 	public boolean isWriteable() {
 		return super.isWriteable() && Files.isWritable(path);
 	}
+
+	void setMetricsListener(final FSMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	/** Tells the metrics listener about an operation on this file.
+	 *
+	 * @return <code>success</code> */
+	boolean recordOperation(final FSOperation operation, final boolean success, final long bytes,
+			final long start) {
+		metricsListener.onOperation(operation, null, success, bytes, System.nanoTime() - start);
+		return success;
+	}
+
+	/** Commits a flight recorder event for a read. The fields are only filled in if the event is
+	 * enabled. */
+	void commitRead(final ReadEvent event, final boolean success, final long bytes) {
+		if (!event.shouldCommit()) return;
+		event.path = describe();
+		event.bytes = bytes;
+		event.success = success;
+		event.commit();
+	}
+
+	/** @return how this file is named in flight recorder events */
+	String describe() {
+		return String.valueOf(path);
+	}
+
+	/** @return the path on disk, or null if the file is not backed by a file on disk */
+	Path getPath() {
+		return path;
+	}
+
+	/** Wraps a channel that reads the content of this file. Records one read with everything that
+	 * was read when the channel is closed.
+	 *
+	 * @param channel
+	 *            the channel to read from, closed when the returned channel is closed
+	 * @return the channel */
+	ReadableByteChannel trackReads(final ReadableByteChannel channel) {
+		return new ReadChannel(channel);
+	}
+
+	/** Reads from the file, taking the lock of the path for every read. */
+	private final class ReadChannel implements ReadableByteChannel {
+		private final ReadableByteChannel channel;
+		private final ReadEvent event;
+		private boolean success;
+		private long read;
+		private long nanos;
+
+		private ReadChannel(final ReadableByteChannel channel) {
+			this.channel = channel;
+			this.event = new ReadEvent();
+			this.success = true;
+			event.begin();
+		}
+
+		@Override
+		@SuppressWarnings("try")
+		public int read(final ByteBuffer destination) throws IOException {
+			final long start = System.nanoTime();
+			boolean done = false;
+			try (PathLocks.Handle lock = locks == null ? null : locks.lockForRead(lockPath)) {
+				final int count = channel.read(destination);
+				if (count > 0) read += count;
+				done = true;
+				return count;
+			} finally {
+				if (!done) success = false;
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!channel.isOpen()) return;
+			try {
+				channel.close();
+			} finally {
+				metricsListener.onOperation(FSOperation.READ, null, success, read, nanos);
+				commitRead(event, success, read);
+			}
+		}
+	}
+
+	/** Writes to the file, taking the lock of the path for every write. */
+	private final class FileWriteChannel implements WritableByteChannel {
+		private final FileChannel channel;
+		private final boolean append;
+		private final WriteEvent event;
+		private long written;
+		private long nanos;
+
+		private FileWriteChannel(final FileChannel channel, final boolean append) {
+			this.channel = channel;
+			this.append = append;
+			this.event = new WriteEvent();
+			event.begin();
+		}
+
+		@Override
+		@SuppressWarnings("try")
+		public int write(final ByteBuffer source) throws IOException {
+			if (!channel.isOpen()) throw new ClosedChannelException();
+			final long start = System.nanoTime();
+			try (PathLocks.Handle lock = locks == null ? null : locks.lockForWrite(lockPath)) {
+				int count = 0;
+				while (source.hasRemaining())
+					count += channel.write(source);
+				written += count;
+				return count;
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		@SuppressWarnings("try")
+		public void close() throws IOException {
+			if (!channel.isOpen()) return;
+			boolean success = false;
+			try (PathLocks.Handle lock = locks == null ? null : locks.lockForWrite(lockPath)) {
+				channel.close();
+				success = true;
+			} finally {
+				if (channel.isOpen()) channel.close();
+				metricsListener.onOperation(FSOperation.WRITE, null, success, written, nanos);
+				if (event.shouldCommit()) {
+					event.path = describe();
+					event.bytes = written;
+					event.append = append;
+					event.success = success;
+					event.commit();
+				}
+			}
+		}
+	}
 }
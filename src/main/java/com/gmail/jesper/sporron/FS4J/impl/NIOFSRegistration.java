@@ -4,32 +4,86 @@ import static com.gmail.jesper.sporron.FS4J.util.FSUtils.constructNIOPath;
 import static java.util.Objects.isNull;
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.gmail.jesper.sporron.FS4J.FileLocation;
 import com.gmail.jesper.sporron.FS4J.FileType;
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.archive.PackArchive;
+import com.gmail.jesper.sporron.FS4J.metrics.ArchiveOpenEvent;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetricsListener;
+import com.gmail.jesper.sporron.FS4J.metrics.FSOperation;
 import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FileEntry;
 import com.gmail.jesper.sporron.FS4J.util.FilePath;
 
+/** A path on the search path. Everything that identifies the registration is fixed when it is
+ * created, so it can be shared by lock-free readers once it is published in a
+ * {@link SearchPathSnapshot}. Only the archive index and the path hash indexes are filled in
+ * later, the first time they are needed, and never change after that.
+ *
+ * @author Jesper Sporron */
 public class NIOFSRegistration {
 	private static final Logger LOGGER = LoggerFactory.getLogger(NIOFSRegistration.class);
 
 	private final FilePath filePath;
 	private final FileLocation location;
-	private FileType type;
+	private final SharedResources resources;
+	private final FilePath mountPoint;
+	private final FileType type;
+	private volatile Archive archive;
+	private volatile PathHashIndex caseSensitiveIndex;
+	private volatile PathHashIndex caseInsensitiveIndex;
+	private volatile boolean released;
 
 	public NIOFSRegistration(final FilePath filePath, final FileLocation location)
 			throws URISyntaxException {
+		this(filePath, location, null, null);
+	}
+
+	/** @param resources
+	 *            where to get the archive from, or null to index it for this registration only
+	 * @param mountPoint
+	 *            the virtual directory the content is placed under, or null for the root */
+	NIOFSRegistration(final FilePath filePath, final FileLocation location,
+			final SharedResources resources, final FilePath mountPoint)
+			throws URISyntaxException {
 		requireNonNull(filePath, "filePath must not be null");
 		requireNonNull(location, "location must not be null");
 
 		this.filePath = filePath;
 		this.location = location;
-		this.type = FSUtils.tryPredictFileType(filePath);
+		this.resources = resources;
+		final String mount = mountPoint == null ? "" : FSUtils.toRelativeString(mountPoint
+				.minimize());
+		this.mountPoint = mount.isEmpty() ? null : FilePath.from(mount);
+		this.type = detectType(filePath, location);
+	}
+
+	/** Finds the type of the registered path once, when the registration is created. Lookups never
+	 * change it, a file inside a directory that looks like an archive must not turn the directory
+	 * into one. A path that does not exist (yet), or that is inside another archive, is typed by
+	 * its name. */
+	private static FileType detectType(final FilePath filePath, final FileLocation location)
+			throws URISyntaxException {
+		try {
+			final Path nioPath = constructNIOPath(filePath, location);
+			if (Files.exists(nioPath)) return FSUtils.getFileType(nioPath);
+		} catch (final NullPointerException | UncheckedIOException | InvalidPathException e) {
+			LOGGER.trace("Predicting the type of '{}' ({}) from its name: {}", filePath, location,
+					e.toString());
+		}
+		return FSUtils.tryPredictFileType(filePath);
 	}
 
 	public Path getPath() {
@@ -39,8 +93,11 @@ public class NIOFSRegistration {
 	public Path getPath(final FilePath appendPath) {
 		final FilePath path = isNull(appendPath) ? filePath : filePath.append(appendPath);
 		try {
-			final Path nioPath = constructNIOPath(path, location);
-			this.type = FSUtils.getFileType(nioPath);
+			// A missing class path resource has no path, so files that may not exist are resolved
+			// against the registration, which does
+			final Path nioPath = isNull(appendPath) || location != FileLocation.INTERNAL
+					? constructNIOPath(path, location) : constructNIOPath(filePath, location)
+							.resolve(FSUtils.toRelativeString(appendPath));
 			return nioPath;
 		} catch (final NullPointerException e) {
 			LOGGER.error("Could not create path for '{}' ({})", path, location);
@@ -51,6 +108,143 @@ public class NIOFSRegistration {
 		}
 	}
 
+	/** Returns the indexed archive this registration points to. The archive index is built the
+	 * first time this method is called and reused after that, so only the first call costs any
+	 * I/O.
+	 *
+	 * @return an optional containing the archive, or an empty optional if this registration is not
+	 *         an archive or the archive could not be read */
+	public Optional<Archive> getArchive() {
+		return getArchive(FSMetricsListener.NONE);
+	}
+
+	/** @see NIOFSRegistration#getArchive()
+	 * @param listener
+	 *            told about the archive being indexed, if it is */
+	public Optional<Archive> getArchive(final FSMetricsListener listener) {
+		requireNonNull(listener, "listener must not be null");
+		if (type != FileType.ARCHIVE) return Optional.empty();
+		Archive result = archive;
+		if (result != null) return Optional.of(result);
+
+		synchronized (this) {
+			if (archive != null) return Optional.of(archive);
+			try {
+				// Archives inside other archives or jars are extracted once and read from there
+				final Optional<Path> resolved = NestedArchives.resolve(filePath, location);
+				if (!resolved.isPresent()) return Optional.empty();
+				final Path nioPath = resolved.get();
+				final long start = System.nanoTime();
+				final ArchiveOpenEvent event = new ArchiveOpenEvent();
+				event.begin();
+				try {
+					// Once released, a registration that is still used by an old snapshot indexes
+					// the archive for itself so that it does not hold on to a shared one.
+					result = resources == null || released ? Archive.open(nioPath) : resources
+							.acquire(nioPath);
+				} catch (final IOException e) {
+					listener.onOperation(FSOperation.ARCHIVE_OPEN, toString(), false, 0, System
+							.nanoTime() - start);
+					commitOpen(event, null);
+					throw e;
+				}
+				listener.onOperation(FSOperation.ARCHIVE_OPEN, toString(), true, 0, System
+						.nanoTime() - start);
+				commitOpen(event, result);
+				LOGGER.debug("Indexed {} entries in archive '{}'", result.numEntries(), filePath);
+				archive = result;
+				return Optional.of(result);
+			} catch (final NullPointerException | URISyntaxException | IOException e) {
+				LOGGER.error("Could not index archive '{}' ({}): {}", filePath, location,
+						e.toString());
+				return Optional.empty();
+			}
+		}
+	}
+
+	/** Gives the archive back to the {@link SharedResources} it came from, once the registration
+	 * has been removed from the search path. The archive stays usable for old snapshots. */
+	synchronized void releaseArchive() {
+		if (released) return;
+		released = true;
+		if (resources != null && archive != null) resources.release(archive);
+	}
+
+	/** @return true once the registration has been removed from the search path, after that it
+	 *         is only used by old snapshots */
+	boolean isReleased() {
+		return released;
+	}
+
+	/** Looks up an entry of the archive by the hash of the path it is opened with, mount point
+	 * included. A pack without a mount point is looked up in its own hash table, since that is
+	 * keyed by the same case-sensitive hash. Other archives are looked up in an index that is
+	 * built the first time it is needed.
+	 *
+	 * @param path
+	 *            the path that was hashed, to rule out collisions, or null if only the hash is
+	 *            known
+	 * @param caseSensitive
+	 *            false if the hash is of the lower-cased path
+	 * @return the entry, or null if there is none or the archive could not be read */
+	ArchiveEntry getHashedEntry(final long hash, final CharSequence path,
+			final boolean caseSensitive, final FSMetricsListener listener) {
+		if (caseSensitive && mountPoint == null) {
+			final Optional<Archive> indexed = getArchive(listener);
+			if (!indexed.isPresent()) return null;
+			if (indexed.get() instanceof PackArchive) {
+				final PackArchive pack = (PackArchive) indexed.get();
+				return (path == null ? pack.getEntry(hash) : pack.getEntry(hash, path)).orElse(
+						null);
+			}
+		}
+		final PathHashIndex index = getHashIndex(caseSensitive, listener);
+		if (index == null) return null;
+		return path == null ? index.get(hash) : index.get(hash, path, caseSensitive);
+	}
+
+	/** @return the path the entry is opened with in relative string form, mount point included */
+	String getHashedPath(final ArchiveEntry entry) {
+		return mountPoint == null ? entry.getName() : mountPoint + "/" + entry.getName();
+	}
+
+	/** Returns the entries of the archive by the hash of the path they are opened with, mount
+	 * point included. The index is built the first time it is asked for.
+	 *
+	 * @param caseSensitive
+	 *            false for the index of lower-cased paths
+	 * @return the index, or null if this registration is not an archive or it could not be read */
+	private PathHashIndex getHashIndex(final boolean caseSensitive,
+			final FSMetricsListener listener) {
+		final PathHashIndex index = caseSensitive ? caseSensitiveIndex : caseInsensitiveIndex;
+		if (index != null) return index;
+		final Optional<Archive> indexed = getArchive(listener);
+		if (!indexed.isPresent()) return null;
+
+		synchronized (this) {
+			PathHashIndex built = caseSensitive ? caseSensitiveIndex : caseInsensitiveIndex;
+			if (built != null) return built;
+			built = new PathHashIndex(indexed.get().getEntries(), mountPoint == null ? null
+					: mountPoint.toString(), caseSensitive);
+			if (caseSensitive) caseSensitiveIndex = built;
+			else caseInsensitiveIndex = built;
+			return built;
+		}
+	}
+
+	/** @return the archive if it has been indexed, or null */
+	Archive getIndexedArchive() {
+		return archive;
+	}
+
+	private void commitOpen(final ArchiveOpenEvent event, final Archive opened) {
+		if (!event.shouldCommit()) return;
+		event.registration = toString();
+		event.entries = opened == null ? 0 : opened.numEntries();
+		event.success = opened != null;
+		event.commit();
+	}
+
 	public FilePath getFilePath() {
 		return filePath;
 	}
@@ -59,20 +253,56 @@ public class NIOFSRegistration {
 		return location;
 	}
 
-	/** Returns the type of the file. The type is only accurate after a call to
-	 * {@link NIOFSRegistration#getPath()} or {@link NIOFSRegistration#getPath(FilePath)}.
+	/** @return an {@link Optional} containing the virtual directory the content is placed under,
+	 *         or an empty optional if it is placed at the root */
+	public Optional<FilePath> getMountPoint() {
+		return Optional.ofNullable(mountPoint);
+	}
+
+	/** @return the number of entries in the mount point, 0 for the root */
+	int getMountDepth() {
+		return mountPoint == null ? 0 : mountPoint.numEntries();
+	}
+
+	/** Strips the mount point from a path it is a prefix of, e.g. "audio/sfx/jump.ogg" becomes
+	 * "jump.ogg" for a registration mounted at "audio/sfx". "." and empty entries are skipped.
 	 *
-	 * @return */
+	 * @return the path inside this registration */
+	FilePath relativize(final FilePath path) {
+		if (mountPoint == null) return path;
+		final int depth = mountPoint.numEntries();
+		int matched = 0;
+		int index = 0;
+		for (final FileEntry entry : path) {
+			index++;
+			if (entry.equals(".") || entry.equals("")) continue;
+			if (++matched == depth) break;
+		}
+		return path.subpath(index, path.numEntries());
+	}
+
+	/** Returns the type of the registered path, as found when the registration was created.
+	 *
+	 * @return the type */
 	public FileType getType() {
 		return type;
 	}
 
+	/** @return the location and path of the registration, e.g. "EXTERNAL:mods/base.zip", followed
+	 *         by the mount point if there is one, e.g. "EXTERNAL:sfx.zip@audio/sfx" */
+	@Override
+	public String toString() {
+		if (mountPoint == null) return location + ":" + filePath;
+		return location + ":" + filePath + "@" + mountPoint;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((filePath == null) ? 0 : filePath.hashCode());
 		result = prime * result + ((location == null) ? 0 : location.hashCode());
+		result = prime * result + ((mountPoint == null) ? 0 : mountPoint.hashCode());
 		return result;
 	}
 
@@ -86,6 +316,9 @@ public class NIOFSRegistration {
 			if (other.filePath != null) return false;
 		} else if (!filePath.equals(other.filePath)) return false;
 		if (location != other.location) return false;
+		if (mountPoint == null) {
+			if (other.mountPoint != null) return false;
+		} else if (!mountPoint.equals(other.mountPoint)) return false;
 		return true;
 	}
 
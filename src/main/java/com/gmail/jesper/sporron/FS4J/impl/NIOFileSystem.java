@@ -3,55 +3,385 @@ package com.gmail.jesper.sporron.FS4J.impl;
 import static com.gmail.jesper.sporron.FS4J.util.FSUtils.constructNIOPath;
 import static java.util.Objects.requireNonNull;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.gmail.jesper.sporron.FS4J.ChecksumAlgorithm;
 import com.gmail.jesper.sporron.FS4J.FileAccessType;
+import com.gmail.jesper.sporron.FS4J.FileChecksum;
 import com.gmail.jesper.sporron.FS4J.FileLocation;
 import com.gmail.jesper.sporron.FS4J.FileSystem;
+import com.gmail.jesper.sporron.FS4J.FileVerification;
 import com.gmail.jesper.sporron.FS4J.FileType;
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+import com.gmail.jesper.sporron.FS4J.cache.ShrinkableCache;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetricsListener;
+import com.gmail.jesper.sporron.FS4J.metrics.FSOperation;
+import com.gmail.jesper.sporron.FS4J.metrics.OpenEvent;
 import com.gmail.jesper.sporron.FS4J.util.FSUtils;
 import com.gmail.jesper.sporron.FS4J.util.FilePath;
+import com.gmail.jesper.sporron.FS4J.util.PathHash;
 
-public class NIOFileSystem implements FileSystem<NIOFSFile> {
+/** {@link FileSystem} implementation backed by <code>java.nio.file</code>. The file system is safe
+ * to use from several threads at once. The search path is kept as an immutable
+ * {@link SearchPathSnapshot} that is replaced as a whole whenever a registration is added or
+ * removed, so {@link NIOFileSystem#open} and {@link NIOFileSystem#isOnSearchPath} never block,
+ * they just read whichever search path was current when they were called.
+ *
+ * <p>
+ * Operations inside the write directory are ordered per path: creating, writing, or deleting a
+ * file waits for other operations on the same file and on any directory containing it, but
+ * operations on unrelated files run in parallel.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public class NIOFileSystem implements FileSystem<NIOFSFile>, Closeable, ShrinkableCache {
 	private static final Logger LOGGER = LoggerFactory.getLogger(NIOFileSystem.class);
+	private static final int LOCK_STRIPES = 64;
+	private static final int PREFETCH_BUFFER_SIZE = 64 * 1024;
 
-	private final List<NIOFSRegistration> registrations;
-	private FilePath writePath;
+	private final AtomicReference<SearchPathSnapshot> searchPath;
+	private final PathLocks writeLocks;
+	private final SharedResources resources;
+	private volatile FilePath writePath;
+	private volatile boolean cacheArchiveContent;
+	private volatile ContentArena contentArena;
+	private volatile DecompressionPipeline decompressionPipeline;
+	// The pipeline this file system created itself and has to shut down, guarded by this
+	private DecompressionPipeline ownedPipeline;
+	// Set by close(), after which no pipeline is created anymore, guarded by this
+	private boolean closed;
+	private volatile AccessTrace.Recorder traceRecorder;
+	private volatile TraceReplay traceReplay;
+	private volatile FSMetricsListener metricsListener;
+	private volatile boolean caseSensitiveHashes;
+	// While caching is enabled every open of an archive entry returns the same file, so content
+	// cached by one reader (or by a prefetch) is seen by all of them.
+	private final Map<ArchiveEntry, ArchiveNIOFSFile> archiveFiles;
+	private final ChecksumCache checksumCache;
 
 	public NIOFileSystem() {
-		this.registrations = new ArrayList<>();
+		this(null);
+	}
+
+	/** Creates a file system that shares archives and their cached content with the other file
+	 * systems created with the same resources. Archive content caching starts out enabled and
+	 * content is cached in the arena of the resources, see {@link SharedResources}. Each open of a
+	 * file in an archive returns a new instance, but all of them read through the same cache.
+	 * Close the file system when it is no longer used so that its archives can be released.
+	 *
+	 * @param resources
+	 *            the resources to share, or null to not share anything */
+	public NIOFileSystem(final SharedResources resources) {
+		this.searchPath = new AtomicReference<>(new SearchPathSnapshot(this, 0, Collections
+				.emptyList()));
+		this.writeLocks = new PathLocks(LOCK_STRIPES);
 		this.writePath = null;
+		this.resources = resources;
+		this.cacheArchiveContent = resources != null;
+		this.archiveFiles = new ConcurrentHashMap<>();
+		this.checksumCache = new ChecksumCache();
+		this.metricsListener = FSMetricsListener.NONE;
+		this.caseSensitiveHashes = true;
+	}
+
+	/** Sets the listener that is told about every operation on this file system and on the files
+	 * it opens. Only affects files opened after this call.
+	 *
+	 * @param metricsListener
+	 *            the listener, e.g. an {@link com.gmail.jesper.sporron.FS4J.metrics.FSMetrics}
+	 *            instance, or {@link FSMetricsListener#NONE} */
+	public void setMetricsListener(final FSMetricsListener metricsListener) {
+		this.metricsListener = requireNonNull(metricsListener, "metricsListener must not be null");
+	}
+
+	/** Sets whether files opened from archives should keep their content after it has been read
+	 * once. While caching is enabled, opening the same archive file twice returns the same
+	 * instance. Only affects files opened after this call.
+	 *
+	 * @param cacheArchiveContent
+	 *            true if archive content should be cached, false otherwise */
+	public void setCacheArchiveContent(final boolean cacheArchiveContent) {
+		this.cacheArchiveContent = cacheArchiveContent;
+		archiveFiles.clear();
+	}
+
+	/** Sets whether the path hashes given to {@link NIOFileSystem#open(long, FileAccessType)} are
+	 * case sensitive, see {@link PathHash#hash(CharSequence, boolean)}. When they are not, files
+	 * opened through {@link NIOFileSystem#open(CharSequence)} are also matched regardless of case
+	 * as long as they are in an archive.
+	 *
+	 * @param caseSensitiveHashes
+	 *            false to look up the hashes of lower-cased paths */
+	public void setCaseSensitiveHashes(final boolean caseSensitiveHashes) {
+		this.caseSensitiveHashes = caseSensitiveHashes;
+	}
+
+	/** @return true if path hashes are case sensitive */
+	public boolean isCaseSensitiveHashes() {
+		return caseSensitiveHashes;
+	}
+
+	/** @return true if files opened from archives keep their content after the first read */
+	public boolean isCachingArchiveContent() {
+		return cacheArchiveContent;
+	}
+
+	/** Sets the arena that cached archive content is stored in. Content is kept outside of the heap
+	 * while the arena has room and falls back to the heap once it is full. Pass null to always
+	 * cache on the heap. Only affects files opened after this call. File systems created with
+	 * {@link SharedResources} always cache in the arena of the resources.
+	 *
+	 * @param contentArena
+	 *            the arena, or null
+	 * @see NIOFileSystem#setCacheArchiveContent(boolean) */
+	public void setContentArena(final ContentArena contentArena) {
+		this.contentArena = contentArena;
+		archiveFiles.clear();
+	}
+
+	/** @return the number of bytes of archive content this file system caches on the heap, not
+	 *         counting content cached in a {@link ContentArena} */
+	@Override
+	public long getCachedBytes() {
+		long cached = 0;
+		for (final ArchiveNIOFSFile file : archiveFiles.values())
+			cached += file.getCache().heapBytes();
+		return cached;
+	}
+
+	/** Releases the heap content of the least recently read archive files until at most the
+	 * target number of bytes is cached on the heap. The files stay open and read their content
+	 * again when they are next read. Reported to the metrics listener as
+	 * {@link FSOperation#CACHE_SHRINK}. Register the file system with a
+	 * {@link com.gmail.jesper.sporron.FS4J.cache.MemoryPressureMonitor} to shrink it when the heap
+	 * runs full. Content cached in a {@link ContentArena} is bounded by the arena instead, see
+	 * {@link SharedResources#shrinkTo(long)}. */
+	@Override
+	public long shrinkTo(final long targetBytes) {
+		final long start = System.nanoTime();
+		final List<EntryCache> caches = new ArrayList<>(archiveFiles.size());
+		for (final ArchiveNIOFSFile file : archiveFiles.values())
+			caches.add(file.getCache());
+		final long released = EntryCache.shrinkHeap(caches, targetBytes);
+		metricsListener.onOperation(FSOperation.CACHE_SHRINK, null, true, released, System
+				.nanoTime() - start);
+		return released;
+	}
+
+	/** @return an {@link Optional} containing the arena cached content is stored in */
+	public Optional<ContentArena> getContentArena() {
+		return Optional.ofNullable(contentArena);
+	}
+
+	/** Sets the pipeline {@link NIOFileSystem#prefetch(Collection)} inflates archive content on. If
+	 * no pipeline is set, one with a worker per processor is created on the first prefetch and
+	 * shut down by {@link NIOFileSystem#close()}. A pipeline that is set here is never shut down by
+	 * the file system, the caller closes it.
+	 *
+	 * @param decompressionPipeline
+	 *            the pipeline */
+	public void setDecompressionPipeline(final DecompressionPipeline decompressionPipeline) {
+		requireNonNull(decompressionPipeline, "decompressionPipeline must not be null");
+		final DecompressionPipeline owned;
+		synchronized (this) {
+			this.decompressionPipeline = decompressionPipeline;
+			owned = ownedPipeline;
+			ownedPipeline = null;
+		}
+		if (owned != null) owned.shutdown();
+	}
+
+	/** Reads the given archive files into the cache in the background, inflating several of them
+	 * at once. Later calls to {@link NIOFileSystem#open} for these paths return the cached files.
+	 * Does nothing unless archive content caching is enabled, or once the file system has been
+	 * closed and no pipeline was set. Paths that can not be found, or that are not in an archive,
+	 * are skipped.
+	 *
+	 * @param paths
+	 *            the paths to prefetch
+	 * @return a future completed with the number of files that were cached
+	 * @see NIOFileSystem#setCacheArchiveContent(boolean) */
+	public CompletableFuture<Integer> prefetch(final Collection<FilePath> paths) {
+		requireNonNull(paths, "paths must not be null");
+		if (!cacheArchiveContent) return CompletableFuture.completedFuture(0);
+
+		final List<ArchiveNIOFSFile> files = new ArrayList<>(paths.size());
+		for (final FilePath path : paths) {
+			final Optional<NIOFSFile> file = open(path, FileAccessType.READ);
+			if (file.isPresent() && file.get() instanceof ArchiveNIOFSFile)
+				files.add((ArchiveNIOFSFile) file.get());
+		}
+		final DecompressionPipeline pipeline = getDecompressionPipeline();
+		if (pipeline == null) {
+			LOGGER.debug("File system is closed, not prefetching {} files", files.size());
+			return CompletableFuture.completedFuture(0);
+		}
+		return pipeline.load(files);
+	}
+
+	/** Starts recording the order in which files are read. Any recording that is already running
+	 * is discarded.
+	 *
+	 * @see NIOFileSystem#stopTraceRecording() */
+	public void startTraceRecording() {
+		traceRecorder = new AccessTrace.Recorder();
+	}
+
+	/** Stops recording.
+	 *
+	 * @return an {@link Optional} containing the recorded trace, or an empty optional if nothing
+	 *         was being recorded */
+	public Optional<AccessTrace> stopTraceRecording() {
+		final AccessTrace.Recorder recorder = traceRecorder;
+		traceRecorder = null;
+		return recorder == null ? Optional.empty() : Optional.of(recorder.toTrace());
+	}
+
+	/** Writes the trace to a file in the write directory, encoded as UTF-8. The directory the file
+	 * is in must exist.
+	 *
+	 * @param trace
+	 *            the trace
+	 * @param path
+	 *            the path of the file, relative to the write directory
+	 * @return true if the trace was written */
+	public boolean saveTrace(final AccessTrace trace, final FilePath path) {
+		requireNonNull(trace, "trace must not be null");
+		Optional<NIOFSFile> file = open(path, FileAccessType.WRITE);
+		if (file.isPresent() && !Files.exists(file.get().getPath())) file = createFile(path);
+		return file.isPresent() && file.get().writeBytes(trace.format().getBytes(
+				StandardCharsets.UTF_8), false);
+	}
+
+	/** Reads a trace written by {@link NIOFileSystem#saveTrace(AccessTrace, FilePath)}.
+	 *
+	 * @param path
+	 *            the path of the file, relative to the write directory
+	 * @return an {@link Optional} containing the trace, or an empty optional if the file does not
+	 *         exist */
+	public Optional<AccessTrace> loadTrace(final FilePath path) {
+		final Optional<NIOFSFile> file = open(path, FileAccessType.WRITE);
+		if (!file.isPresent() || !Files.isRegularFile(file.get().getPath())) return Optional
+				.empty();
+		return Optional.of(AccessTrace.parse(new String(file.get().readBytes(),
+				StandardCharsets.UTF_8)));
+	}
+
+	/** Starts prefetching the files of a recorded trace in the background, never more than
+	 * <code>readAhead</code> files ahead of the files the program has actually opened. Files in
+	 * archives are only prefetched if archive content caching is enabled. Replaces any replay
+	 * that is already running.
+	 *
+	 * @param trace
+	 *            the trace to replay
+	 * @param readAhead
+	 *            how many files to stay ahead of the program
+	 * @return the running replay
+	 * @throws IllegalStateException
+	 *             if the file system has been closed and no pipeline was set
+	 * @see NIOFileSystem#setCacheArchiveContent(boolean) */
+	public TraceReplay replayTrace(final AccessTrace trace, final int readAhead)
+			throws IllegalStateException {
+		final DecompressionPipeline pipeline = getDecompressionPipeline();
+		if (pipeline == null) throw new IllegalStateException("File system has been closed");
+		final TraceReplay replay = new TraceReplay(this, pipeline, trace, readAhead);
+		final TraceReplay previous = traceReplay;
+		if (previous != null) previous.cancel();
+		traceReplay = replay;
+		replay.start();
+		return replay;
+	}
+
+	/** @return the pipeline, or null if the file system has been closed and no pipeline was set,
+	 *         since a pipeline created after {@link NIOFileSystem#close()} would never be shut
+	 *         down */
+	private DecompressionPipeline getDecompressionPipeline() {
+		DecompressionPipeline pipeline = decompressionPipeline;
+		if (pipeline == null) {
+			synchronized (this) {
+				pipeline = decompressionPipeline;
+				if (pipeline == null && !closed) {
+					pipeline = new DecompressionPipeline();
+					decompressionPipeline = pipeline;
+					ownedPipeline = pipeline;
+				}
+			}
+		}
+		return pipeline;
 	}
 
 	@Override
 	public boolean addToSearchPath(final FilePath path, final FileLocation location) {
 		requireNonNull(path, "path must not be null");
 		requireNonNull(location, "location must not be null");
+		return addToSearchPathInternal(path, location, null);
+	}
 
+	/** Lookups are routed through a tree of the mount points, so opening a file only consults the
+	 * registrations mounted at the root and at directories containing the file. The same path may
+	 * be mounted at several mount points, {@link NIOFileSystem#removeFromSearchPath(FilePath)}
+	 * removes all of them. */
+	@Override
+	public boolean addToSearchPath(final FilePath path, final FileLocation location,
+			final FilePath mountPoint) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(location, "location must not be null");
+		requireNonNull(mountPoint, "mountPoint must not be null");
+		final FilePath minimizedMount = mountPoint.minimize();
+		if (!verifyFilePathAndLog(minimizedMount)) return false;
+		return addToSearchPathInternal(path, location, minimizedMount);
+	}
+
+	private boolean addToSearchPathInternal(final FilePath path, final FileLocation location,
+			final FilePath mountPoint) {
 		final FilePath minimized = path.minimize();
 		if (!verifyFilePathAndLog(minimized)) return false;
 
 		try {
 			LOGGER.debug("Attempting to add '{}' ({}) to the search path.", path, location);
-			final NIOFSRegistration reg = new NIOFSRegistration(minimized, location);
-			if (registrations.contains(reg)) return false;
-			registrations.add(reg);
-			LOGGER.info("'{}' ({}) added to search path", path, location);
+			final NIOFSRegistration reg = new NIOFSRegistration(minimized, location, resources,
+					mountPoint);
+			// Copy-on-write: readers keep using the old snapshot until the new one is published.
+			SearchPathSnapshot current;
+			do {
+				current = searchPath.get();
+				if (current.getRegistrations().contains(reg)) return false;
+			} while (!searchPath.compareAndSet(current, current.with(reg)));
+			LOGGER.info("'{}' added to search path", reg);
 			return true;
 		} catch (final URISyntaxException e) {
 			LOGGER.error("Could not add '{}' ({}) to the search path: {}", path.toString(),
@@ -66,7 +396,72 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 
 		final FilePath minimized = path.minimize();
 		if (!verifyFilePathAndLog(minimized)) return false;
-		return registrations.stream().anyMatch(reg -> reg.getFilePath().equals(minimized));
+		return searchPath.get().isOnSearchPath(minimized);
+	}
+
+	/** Removes a path from the search path. Files in an archive that is removed stop caching their
+	 * content and release what they have cached, but files that are already open, and snapshots
+	 * taken before the removal, can still read from it.
+	 *
+	 * @param path
+	 *            the path that was added to the search path
+	 * @return true if the path was on the search path and has been removed */
+	public boolean removeFromSearchPath(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+
+		SearchPathSnapshot current;
+		do {
+			current = searchPath.get();
+			if (!current.isOnSearchPath(minimized)) return false;
+		} while (!searchPath.compareAndSet(current, current.without(minimized)));
+		for (final NIOFSRegistration reg : current.getRegistrations()) {
+			if (!reg.getFilePath().equals(minimized)) continue;
+			reg.releaseArchive();
+			final Archive archive = reg.getIndexedArchive();
+			if (archive == null) continue;
+			archiveFiles.values().removeIf(file -> {
+				if (file.getArchive() != archive) return false;
+				file.retire();
+				return true;
+			});
+		}
+		LOGGER.info("'{}' removed from search path", path);
+		return true;
+	}
+
+	/** Empties the search path and gives the archives on it back to the {@link SharedResources}
+	 * this file system was created with. Files that are already open, and snapshots taken before,
+	 * can still be read. Stops any trace replay, and the workers of the decompression pipeline if
+	 * the file system created it, once the work already handed to them is done. */
+	@Override
+	public void close() {
+		final SearchPathSnapshot emptied = searchPath.getAndUpdate(current -> current
+				.getRegistrations().isEmpty() ? current : current.without(null));
+		emptied.getRegistrations().forEach(NIOFSRegistration::releaseArchive);
+
+		final TraceReplay replay = traceReplay;
+		traceReplay = null;
+		if (replay != null) replay.cancel();
+		final DecompressionPipeline owned;
+		synchronized (this) {
+			closed = true;
+			owned = ownedPipeline;
+			ownedPipeline = null;
+			if (owned != null) decompressionPipeline = null;
+		}
+		if (owned != null) owned.shutdown();
+	}
+
+	/** Returns the current version of the search path. Taking a snapshot costs nothing, the
+	 * search path is already kept as an immutable snapshot that is replaced as a whole when it
+	 * changes. Hold on to the snapshot for as long as files must be looked up consistently, e.g.
+	 * while loading a level, and open them with {@link SearchPathSnapshot#open(FilePath)}.
+	 *
+	 * @return the current version of the search path */
+	public SearchPathSnapshot snapshot() {
+		return searchPath.get();
 	}
 
 	@Override
@@ -131,6 +526,117 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 
 	@Override
 	public Optional<NIOFSFile> open(final FilePath path, final FileAccessType accessType) {
+		// Reads are timed and recorded where the file is looked up, since only that knows the
+		// registration.
+		if (accessType != FileAccessType.WRITE) return openInternal(path, accessType);
+
+		final long start = System.nanoTime();
+		final OpenEvent event = new OpenEvent();
+		event.begin();
+		final Optional<NIOFSFile> file = openInternal(path, accessType);
+		final FSMetricsListener listener = metricsListener;
+		file.ifPresent(f -> f.setMetricsListener(listener));
+		listener.onOperation(FSOperation.OPEN, null, file.isPresent(), 0, System.nanoTime()
+				- start);
+		commitOpen(event, path, accessType, null, file.isPresent());
+		return file;
+	}
+
+	/** Opens a file for reading by the {@link PathHash} of its path, e.g. a hash computed when the
+	 * assets of a game were built. No path is built for the lookup, archives on the search path
+	 * are looked up in an index by hash that is built the first time it is needed. Files that are
+	 * not in an archive have no such index and are never found by hash, open them with
+	 * {@link NIOFileSystem#open(CharSequence)} instead.
+	 *
+	 * <p>
+	 * Since only the hash is compared, two paths with the same 64-bit hash can not be told apart.
+	 * The first one on the search path is opened.
+	 * </p>
+	 *
+	 * @param pathHash
+	 *            the hash of the path, including the mount point of the archive if it has one
+	 * @param accessType
+	 *            must be {@link FileAccessType#READ}
+	 * @return an optional containing the file, or an empty optional if no archive has a file with
+	 *         the hash
+	 * @throws IllegalArgumentException
+	 *             if the access type is not {@link FileAccessType#READ}
+	 * @see NIOFileSystem#setCaseSensitiveHashes(boolean) */
+	public Optional<NIOFSFile> open(final long pathHash, final FileAccessType accessType)
+			throws IllegalArgumentException {
+		requireNonNull(accessType, "accessType must not be null");
+		if (accessType != FileAccessType.READ)
+			throw new IllegalArgumentException("Files can only be opened for reading by hash");
+		return findHashed(searchPath.get(), pathHash, null);
+	}
+
+	/** Opens a file for reading without building a {@link FilePath}, as long as the file is found
+	 * in an archive that is on the search path before any directory. The path is hashed and looked
+	 * up like in {@link NIOFileSystem#open(long, FileAccessType)}, then compared to the path of the
+	 * entry to rule out collisions. Once a directory is reached the path is built and looked up
+	 * like in {@link NIOFileSystem#open(FilePath, FileAccessType)} in the rest of the search path.
+	 * Paths with ".." entries are always built and looked up that way.
+	 *
+	 * @param path
+	 *            the path, e.g. <code>"music/theme.ogg"</code>
+	 * @return an optional containing the file, or an empty optional if the file does not exist */
+	public Optional<NIOFSFile> open(final CharSequence path) {
+		requireNonNull(path, "path must not be null");
+		final SearchPathSnapshot snapshot = searchPath.get();
+		// The hash skips "." entries but can not resolve "..", minimizing the path does
+		if (hasParentEntry(path)) return find(snapshot, FilePath.from(path.toString()).minimize(),
+				true).map(found -> found.file);
+		return findHashed(snapshot, PathHash.hash(path, caseSensitiveHashes), path);
+	}
+
+	private static boolean hasParentEntry(final CharSequence path) {
+		int start = 0;
+		for (int i = 0; i <= path.length(); i++) {
+			if (i < path.length() && path.charAt(i) != '/') continue;
+			if (i - start == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.')
+				return true;
+			start = i + 1;
+		}
+		return false;
+	}
+
+	/** Looks for a file in the path hash indexes of the archives on the search path.
+	 *
+	 * @param path
+	 *            the path that was hashed, or null if only the hash is known
+	 * @return the file */
+	private Optional<NIOFSFile> findHashed(final SearchPathSnapshot snapshot, final long hash,
+			final CharSequence path) {
+		final long start = System.nanoTime();
+		final OpenEvent event = new OpenEvent();
+		event.begin();
+		final FSMetricsListener listener = metricsListener;
+		final boolean caseSensitive = caseSensitiveHashes;
+		final List<NIOFSRegistration> registrations = snapshot.getRegistrations();
+		for (int i = 0; i < registrations.size(); i++) {
+			final NIOFSRegistration reg = registrations.get(i);
+			if (reg.getType() != FileType.ARCHIVE) {
+				// Files on disk are not indexed, they can only be looked up by their path. The
+				// archives before this directory have already been looked in.
+				if (path == null) continue;
+				return find(snapshot, FilePath.from(path.toString()).minimize(), true,
+						registrations.subList(0, i)).map(found -> found.file);
+			}
+			final ArchiveEntry entry = reg.getHashedEntry(hash, path, caseSensitive, listener);
+			if (entry == null) continue;
+			onDemand(reg.getHashedPath(entry), reg, entry.getSize(), start, event);
+			final NIOFSFile file = openArchiveFile(reg, reg.getIndexedArchive(), entry);
+			file.setMetricsListener(listener);
+			return Optional.of(file);
+		}
+		listener.onOperation(FSOperation.OPEN, null, false, 0, System.nanoTime() - start);
+		if (event.shouldCommit()) commitOpen(event, path == null ? Long.toHexString(hash) : path
+				.toString(), FileAccessType.READ, null, false);
+		return Optional.empty();
+	}
+
+	private Optional<NIOFSFile> openInternal(final FilePath path,
+			final FileAccessType accessType) {
 		requireNonNull(path, "path must not be null");
 		requireNonNull(accessType, "accessType must not be null");
 
@@ -141,39 +647,21 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 			LOGGER.debug("Attempting to open file '{}' ({})", path, accessType);
 			switch (accessType) {
 			case READ:
-				LOGGER.trace("Number of registered input directories: {}", registrations.size());
-				for (final NIOFSRegistration reg : registrations) {
-					LOGGER.trace("Looking for file '{}' in '{}'", path, reg.getFilePath());
-					if (reg.getType() == FileType.ARCHIVE) {
-						final Path zipFile = reg.getPath();
-						if (!Files.exists(zipFile)) continue;
-
-						try (java.nio.file.FileSystem fs = FileSystems.newFileSystem(zipFile,
-								null)) {
-							final Path filePath = fs.getPath(path.toString());
-							if (!Files.exists(filePath)) continue;
-							LOGGER.trace("Found file '{}' in '{}'", path, reg.getFilePath());
-							return Optional.of(new PreReadNIOFSFile(Files.readAllBytes(filePath)));
-						} catch (final IOException e) {
-							LOGGER.error("Could not fetch file '{}' from archive '{}': {}", path,
-									zipFile, e);
-							return Optional.empty();
-						}
-					}
-
-					final Path nioPath = reg.getPath(minimized);
-					if (!Files.exists(nioPath)) continue;
-					LOGGER.trace("Found file '{}' in '{}'", path, nioPath);
-					return Optional.of(new NIOFSFile(nioPath, false));
-				}
-				LOGGER.debug("Could not find file '{}'", path);
-				return Optional.empty();
+				final Optional<NIOFSFile> file = find(minimized, true).map(found -> found.file);
+				if (!file.isPresent()) LOGGER.debug("Could not find file '{}'", path);
+				return file;
 			case WRITE:
-				final FilePath fqPath = writePath.append(minimized);
+				final FilePath writeDir = writePath;
+				if (Objects.isNull(writeDir)) {
+					LOGGER.debug("Trying to open file {} but no write path is set.", minimized);
+					return Optional.empty();
+				}
+				final FilePath fqPath = writeDir.append(minimized);
 				final Path nioPath = constructNIOPath(fqPath, FileLocation.EXTERNAL);
-				LOGGER.trace("Looking for file '{}' in '{}' ({})", path, writePath,
+				LOGGER.trace("Looking for file '{}' in '{}' ({})", path, writeDir,
 						nioPath.toAbsolutePath());
-				return Optional.of(new NIOFSFile(nioPath, false));
+				return Optional.of(new NIOFSFile(nioPath, true, writeLocks, canonicalPath(
+						minimized)));
 			default:
 				throw new IllegalArgumentException("Cannot handle accessType " + accessType);
 			}
@@ -185,17 +673,24 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 
 	@Override
 	public boolean createDirectory(final FilePath path) {
+		final long start = System.nanoTime();
+		return record(FSOperation.CREATE_DIRECTORY, start, createDirectoryInternal(path));
+	}
+
+	@SuppressWarnings("try")
+	private boolean createDirectoryInternal(final FilePath path) {
 		requireNonNull(path, "path must not be null");
 
 		final FilePath minimized = path.minimize();
 		if (!verifyFilePathAndLog(minimized)) return false;
-		if (Objects.isNull(writePath)) {
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
 			LOGGER.debug("Trying to create directory {} but no write path is set.", minimized);
 			return false;
 		}
 
-		try {
-			final FilePath fqPath = writePath.append(minimized);
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(canonicalPath(minimized))) {
+			final FilePath fqPath = writeDir.append(minimized);
 			final Path nioPath = constructNIOPath(fqPath, FileLocation.EXTERNAL);
 			final Path createdPath = Files.createDirectories(nioPath);
 			LOGGER.debug("Created directory at '{}'", createdPath.toString());
@@ -208,25 +703,40 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 
 	@Override
 	public Optional<NIOFSFile> createFile(final FilePath path) {
+		final long start = System.nanoTime();
+		final Optional<NIOFSFile> file = createFileInternal(path);
+		final FSMetricsListener listener = metricsListener;
+		file.ifPresent(f -> f.setMetricsListener(listener));
+		record(FSOperation.CREATE_FILE, start, file.isPresent());
+		return file;
+	}
+
+	@SuppressWarnings("try")
+	private Optional<NIOFSFile> createFileInternal(final FilePath path) {
 		requireNonNull(path, "path must not be null");
 
 		final FilePath minimized = path.minimize();
 		if (!verifyFilePathAndLog(minimized)) return Optional.empty();
-		if (Objects.isNull(writePath)) {
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
 			LOGGER.debug("Trying to create file {} but no write path is set.", minimized);
 			return Optional.empty();
 		}
 
-		try {
-			final FilePath fqPath = writePath.append(minimized);
+		final FilePath lockPath = canonicalPath(minimized);
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(lockPath)) {
+			final FilePath fqPath = writeDir.append(minimized);
 			final Path nioPath = constructNIOPath(fqPath, FileLocation.EXTERNAL);
 			LOGGER.debug("Trying to create file at '{}'", nioPath.toAbsolutePath());
 			final Path createdFilePath = Files.createFile(nioPath);
 			LOGGER.debug("Created file at '{}'", createdFilePath);
-			return Optional.of(new NIOFSFile(createdFilePath, true));
+			return Optional.of(new NIOFSFile(createdFilePath, true, writeLocks, lockPath));
 		} catch (final FileAlreadyExistsException e) {
 			LOGGER.warn("Could not create file '{}' because it already exists", path);
 			return open(minimized, FileAccessType.WRITE);
+		} catch (final NoSuchFileException e) {
+			LOGGER.warn("Could not create file '{}' because its directory does not exist", path);
+			return Optional.empty();
 		} catch (URISyntaxException | IOException e) {
 			LOGGER.error("Could not create file '{}': {}", path, e);
 			return Optional.empty();
@@ -235,26 +745,259 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 
 	@Override
 	public boolean delete(final FilePath path) {
-		return deleteInternal(path, false);
+		final long start = System.nanoTime();
+		return record(FSOperation.DELETE, start, deleteInternal(path, false));
 	}
 
 	@Override
 	public boolean forceDelete(final FilePath path) {
-		return deleteInternal(path, true);
+		final long start = System.nanoTime();
+		return record(FSOperation.DELETE, start, deleteInternal(path, true));
+	}
+
+	/** Copies the file without reading it onto the heap. Plain files are transferred channel to
+	 * channel, files inside archives are streamed from the archive and inflated on the way. The
+	 * copy is written next to the destination first and then renamed over it, so the destination
+	 * never holds a partial copy. */
+	@Override
+	public boolean copy(final FilePath from, final FilePath to) {
+		final long start = System.nanoTime();
+		final long bytes = copyInternal(from, to);
+		metricsListener.onOperation(FSOperation.COPY, null, bytes >= 0, Math.max(0, bytes), System
+				.nanoTime() - start);
+		return bytes >= 0;
+	}
+
+	/** Moves the file or directory by renaming it, atomically if the operating system supports
+	 * it. */
+	@Override
+	public boolean move(final FilePath from, final FilePath to) {
+		final long start = System.nanoTime();
+		return record(FSOperation.MOVE, start, moveInternal(from, to));
+	}
+
+	/** Returns the CRC-32 a zip archive or pack recorded for files inside archives without reading
+	 * them. Other checksums are computed from the content and remembered until the file, or the
+	 * archive it is in, changes size or modification time. */
+	@Override
+	public Optional<FileChecksum> checksum(final FilePath path,
+			final ChecksumAlgorithm algorithm) {
+		final FileVerification verification = checksumInternal(path, algorithm, false);
+		return verification.isOk() ? verification.getChecksum() : Optional.empty();
+	}
+
+	/** Checks the files on the workers of the {@link DecompressionPipeline}, or on the calling
+	 * thread once the file system has been closed. Checksums are remembered until the file, or the
+	 * archive it is in, changes size or modification time, so verifying unchanged files again
+	 * costs no reads. */
+	@Override
+	public Map<FilePath, FileVerification> verify(final Collection<FilePath> paths,
+			final ChecksumAlgorithm algorithm) {
+		requireNonNull(paths, "paths must not be null");
+		requireNonNull(algorithm, "algorithm must not be null");
+		final DecompressionPipeline pipeline = getDecompressionPipeline();
+		final Executor executor = pipeline == null ? Runnable::run : pipeline::execute;
+		final Map<FilePath, CompletableFuture<FileVerification>> checks = new LinkedHashMap<>();
+		for (final FilePath path : paths)
+			checks.put(path, CompletableFuture.supplyAsync(() -> checksumInternal(path, algorithm,
+					true), executor));
+		final Map<FilePath, FileVerification> verifications = new LinkedHashMap<>();
+		checks.forEach((path, check) -> verifications.put(path, check.join()));
+		return verifications;
+	}
+
+	/** Forgets all checksums computed by {@link NIOFileSystem#checksum(FilePath,
+	 * ChecksumAlgorithm)} and {@link NIOFileSystem#verify(Collection, ChecksumAlgorithm)}. */
+	public void clearChecksumCache() {
+		checksumCache.clear();
+	}
+
+	private FileVerification checksumInternal(final FilePath path,
+			final ChecksumAlgorithm algorithm, final boolean verify) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(algorithm, "algorithm must not be null");
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return FileVerification.missing();
+		final Optional<Found> found = find(minimized, false);
+		if (!found.isPresent()) return FileVerification.missing();
+
+		final NIOFSFile file = found.get().file;
+		final ArchiveEntry entry = file instanceof ArchiveNIOFSFile ? ((ArchiveNIOFSFile) file)
+				.getEntry() : null;
+		if (entry != null && algorithm == ChecksumAlgorithm.CRC32 && !verify)
+			return FileVerification.ok(FileChecksum.ofCrc32(entry.getCrc(), entry.getSize()));
+
+		final Path source = entry != null ? ((ArchiveNIOFSFile) file).getArchive().getPath()
+				: file.getPath();
+		try {
+			final BasicFileAttributes attributes = Files.readAttributes(source,
+					BasicFileAttributes.class);
+			final Optional<FileChecksum> cached = checksumCache.get(file.describe(), algorithm,
+					attributes);
+			if (cached.isPresent()) return FileVerification.ok(cached.get());
+
+			final Optional<ReadableByteChannel> channel = file.openReadableChannel();
+			if (!channel.isPresent()) return FileVerification.missing();
+			final FileChecksum checksum;
+			try (ReadableByteChannel in = channel.get()) {
+				checksum = FileChecksum.compute(algorithm, in);
+			}
+			if (entry != null && algorithm == ChecksumAlgorithm.CRC32 && !checksum.equals(
+					FileChecksum.ofCrc32(entry.getCrc(), entry.getSize()))) {
+				LOGGER.warn("Content of '{}' does not match the CRC-32 recorded in '{}'", path,
+						source);
+				return FileVerification.mismatch(checksum);
+			}
+			checksumCache.put(file.describe(), attributes, checksum);
+			return FileVerification.ok(checksum);
+		} catch (final IOException e) {
+			LOGGER.error("Could not compute the checksum of '{}': {}", path, e.toString());
+			return FileVerification.missing();
+		}
+	}
+
+	/** @return the number of bytes copied, or -1 if the file could not be copied */
+	@SuppressWarnings("try")
+	private long copyInternal(final FilePath from, final FilePath to) {
+		requireNonNull(from, "from must not be null");
+		requireNonNull(to, "to must not be null");
+
+		final FilePath source = from.minimize();
+		final FilePath target = to.minimize();
+		if (!verifyFilePathAndLog(source) || !verifyFilePathAndLog(target)) return -1;
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
+			LOGGER.debug("Trying to copy {} but no write path is set.", source);
+			return -1;
+		}
+		final FilePath targetKey = canonicalPath(target);
+		if (targetKey.numEntries() == 0) {
+			LOGGER.warn("Could not copy '{}' to '{}', the write directory can not be replaced",
+					from, to);
+			return -1;
+		}
+		final Optional<Found> found = find(source, true);
+		if (!found.isPresent()) {
+			LOGGER.debug("Could not find file '{}' to copy", from);
+			return -1;
+		}
+
+		Path temp = null;
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(targetKey)) {
+			final Path destination = constructNIOPath(writeDir.append(target),
+					FileLocation.EXTERNAL);
+			final NIOFSFile file = found.get().file;
+			if (file.getPath() != null && Files.exists(destination) && Files.isSameFile(file
+					.getPath(), destination))
+				return Files.size(destination);
+
+			temp = Files.createTempFile(destination.getParent(), ".fs4j-copy", ".tmp");
+			final long bytes;
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				bytes = transfer(file, out);
+			}
+			replace(temp, destination);
+			temp = null;
+			LOGGER.debug("Copied '{}' to '{}' ({} bytes)", from, destination, bytes);
+			return bytes;
+		} catch (final NoSuchFileException e) {
+			LOGGER.warn("Could not copy '{}' to '{}' because its directory does not exist", from,
+					to);
+			return -1;
+		} catch (final URISyntaxException | IOException | SecurityException e) {
+			LOGGER.error("Could not copy '{}' to '{}': {}", from, to, e);
+			return -1;
+		} finally {
+			if (temp != null) deleteQuietly(temp);
+		}
+	}
+
+	private static long transfer(final NIOFSFile file, final FileChannel out) throws IOException {
+		if (file instanceof ArchiveNIOFSFile) {
+			final ArchiveNIOFSFile archived = (ArchiveNIOFSFile) file;
+			return archived.getArchive().transferEntry(archived.getEntry(), out);
+		}
+		try (FileChannel in = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+			final long size = in.size();
+			long transferred = 0;
+			while (transferred < size) {
+				final long n = in.transferTo(transferred, size - transferred, out);
+				if (n <= 0) break;
+				transferred += n;
+			}
+			return transferred;
+		}
+	}
+
+	@SuppressWarnings("try")
+	private boolean moveInternal(final FilePath from, final FilePath to) {
+		requireNonNull(from, "from must not be null");
+		requireNonNull(to, "to must not be null");
+
+		final FilePath source = from.minimize();
+		final FilePath target = to.minimize();
+		if (!verifyFilePathAndLog(source) || !verifyFilePathAndLog(target)) return false;
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
+			LOGGER.debug("Trying to move {} but no write path is set.", source);
+			return false;
+		}
+		final FilePath sourceKey = canonicalPath(source);
+		final FilePath targetKey = canonicalPath(target);
+		if (sourceKey.numEntries() == 0 || targetKey.numEntries() == 0) {
+			LOGGER.warn("Could not move '{}' to '{}', the write directory can not be moved", from,
+					to);
+			return false;
+		}
+
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(sourceKey, targetKey)) {
+			final Path sourcePath = constructNIOPath(writeDir.append(source),
+					FileLocation.EXTERNAL);
+			final Path targetPath = constructNIOPath(writeDir.append(target),
+					FileLocation.EXTERNAL);
+			replace(sourcePath, targetPath);
+			LOGGER.debug("Moved '{}' to '{}'", sourcePath, targetPath);
+			return true;
+		} catch (final URISyntaxException | IOException | SecurityException e) {
+			LOGGER.error("Could not move '{}' to '{}': {}", from, to, e);
+			return false;
+		}
+	}
+
+	/** Renames <code>source</code> to <code>target</code>, replacing the target if it is a file.
+	 * The rename is atomic if the operating system supports it. */
+	private static void replace(final Path source, final Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			LOGGER.debug("Atomic move of '{}' not supported, moving it normally", source);
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
 	}
 
+	private static void deleteQuietly(final Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (final IOException e) {
+			LOGGER.warn("Could not delete temporary file '{}': {}", path, e.toString());
+		}
+	}
+
+	@SuppressWarnings("try")
 	private boolean deleteInternal(final FilePath path, final boolean force) {
 		requireNonNull(path, "path must not be null");
 
 		final FilePath minimized = path.minimize();
 		if (!verifyFilePathAndLog(minimized)) return false;
-		if (Objects.isNull(writePath)) {
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
 			LOGGER.debug("Trying to remove {} but no write path is set.", minimized);
 			return false;
 		}
 
-		final FilePath fqPath = writePath.append(minimized);
-		try {
+		final FilePath fqPath = writeDir.append(minimized);
+		// Locking the directory itself also orders the delete with everything inside of it.
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(canonicalPath(minimized))) {
 			final Path nioPath = constructNIOPath(fqPath, FileLocation.EXTERNAL);
 			LOGGER.debug("Trying to delete '{}'", nioPath.toAbsolutePath());
 			if (force) {
@@ -272,6 +1015,9 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 						"Fatal error trying to delete {}, directory not empty error even though delete was forced!",
 						path);
 			return false;
+		} catch (final NoSuchFileException e) {
+			LOGGER.debug("Could not delete '{}' because it does not exist", path);
+			return false;
 		} catch (final URISyntaxException | IOException | SecurityException e) {
 			LOGGER.error("Could not delete '{}': {}", path, e);
 			return false;
@@ -312,8 +1058,192 @@ public class NIOFileSystem implements FileSystem<NIOFSFile> {
 		return success;
 	}
 
+	/** Looks for the file on the search path. Paths that would reach outside the search path,
+	 * e.g. <code>"../x"</code>, are never found.
+	 *
+	 * @param minimized
+	 *            the minimized path
+	 * @param demand
+	 *            true if the program asked for the file, false if it is being prefetched. Only
+	 *            files the program asked for are recorded and drive trace replay.
+	 * @return the file and the registration it was found in */
+	Optional<Found> find(final FilePath minimized, final boolean demand) {
+		return find(searchPath.get(), minimized, demand);
+	}
+
+	/** Looks for the file on a version of the search path.
+	 *
+	 * @see NIOFileSystem#find(FilePath, boolean) */
+	Optional<Found> find(final SearchPathSnapshot snapshot, final FilePath minimized,
+			final boolean demand) {
+		return find(snapshot, minimized, demand, Collections.emptyList());
+	}
+
+	/** @param searched
+	 *            the registrations at the start of the search path that have already been looked
+	 *            in, and are skipped */
+	private Optional<Found> find(final SearchPathSnapshot snapshot, final FilePath minimized,
+			final boolean demand, final List<NIOFSRegistration> searched) {
+		// Every lookup goes through here, so no caller can reach outside the search path roots
+		if (!verifyFilePathAndLog(minimized)) return Optional.empty();
+		final long start = System.nanoTime();
+		final OpenEvent event = new OpenEvent();
+		event.begin();
+		final FSMetricsListener listener = metricsListener;
+		final List<NIOFSRegistration> registrations = snapshot.route(minimized);
+		LOGGER.trace("Number of registered input directories: {}", registrations.size());
+		for (final NIOFSRegistration reg : registrations) {
+			if (searched.contains(reg)) continue;
+			LOGGER.trace("Looking for file '{}' in '{}'", minimized, reg.getFilePath());
+			final FilePath inner = reg.relativize(minimized);
+			if (reg.getType() == FileType.ARCHIVE) {
+				// The archive is indexed once, after that finding an entry costs no I/O. The
+				// content itself is only read when the file is.
+				final Optional<Archive> archive = reg.getArchive(listener);
+				if (!archive.isPresent()) continue;
+				final Optional<ArchiveEntry> entry = archive.get().getEntry(inner);
+				if (!entry.isPresent()) continue;
+				LOGGER.trace("Found file '{}' in '{}'", minimized, reg.getFilePath());
+				if (demand) onDemand(minimized, reg, entry.get().getSize(), start, event);
+				final NIOFSFile file = openArchiveFile(reg, archive.get(), entry.get());
+				file.setMetricsListener(listener);
+				return Optional.of(new Found(reg, file));
+			}
+
+			final Path nioPath = reg.getPath(inner);
+			if (!Files.exists(nioPath)) continue;
+			LOGGER.trace("Found file '{}' in '{}'", minimized, nioPath);
+			if (demand) onDemand(minimized, reg, -1, start, event);
+			final NIOFSFile file = new NIOFSFile(nioPath, false);
+			file.setMetricsListener(listener);
+			return Optional.of(new Found(reg, file));
+		}
+		if (demand) {
+			listener.onOperation(FSOperation.OPEN, null, false, 0, System.nanoTime() - start);
+			commitOpen(event, minimized, FileAccessType.READ, null, false);
+		}
+		return Optional.empty();
+	}
+
+	private void onDemand(final FilePath minimized, final NIOFSRegistration reg, final long size,
+			final long start, final OpenEvent event) {
+		metricsListener.onOperation(FSOperation.OPEN, reg.toString(), true, 0, System.nanoTime()
+				- start);
+		commitOpen(event, minimized, FileAccessType.READ, reg, true);
+
+		final FilePath key = canonicalPath(minimized);
+		final AccessTrace.Recorder recorder = traceRecorder;
+		if (recorder != null && !recorder.isRecorded(key)) {
+			long recordedSize = size;
+			if (recordedSize < 0) {
+				try {
+					recordedSize = Files.size(reg.getPath(reg.relativize(minimized)));
+				} catch (final IOException e) {
+					recordedSize = -1;
+				}
+			}
+			recorder.record(key, reg.toString(), recordedSize);
+		}
+		final TraceReplay replay = traceReplay;
+		if (replay != null) replay.onOpen(key);
+	}
+
+	/** Records an open of a file found by hash. The path is only built if a trace is being
+	 * recorded or replayed.
+	 *
+	 * @param relativePath
+	 *            the path of the file in relative string form */
+	private void onDemand(final String relativePath, final NIOFSRegistration reg, final long size,
+			final long start, final OpenEvent event) {
+		if (traceRecorder != null || traceReplay != null) {
+			onDemand(FilePath.from(relativePath), reg, size, start, event);
+			return;
+		}
+		metricsListener.onOperation(FSOperation.OPEN, reg.toString(), true, 0, System.nanoTime()
+				- start);
+		if (event.shouldCommit()) commitOpen(event, relativePath, FileAccessType.READ, reg, true);
+	}
+
+	/** Prefetches a single file for a {@link TraceReplay}.
+	 *
+	 * @return true if the file was found and prefetched */
+	boolean prefetch(final FilePath minimized) {
+		final Optional<NIOFSFile> file = find(minimized, false).map(found -> found.file);
+		if (!file.isPresent()) return false;
+		if (file.get() instanceof ArchiveNIOFSFile) return ((ArchiveNIOFSFile) file.get()).load();
+
+		// Reading the file once is enough for the operating system to keep it in its page cache.
+		try (FileChannel channel = FileChannel.open(file.get().getPath(),
+				StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(PREFETCH_BUFFER_SIZE);
+			while (channel.read(buffer) >= 0)
+				buffer.clear();
+			return true;
+		} catch (final IOException e) {
+			LOGGER.debug("Could not prefetch '{}': {}", minimized, e.toString());
+			return false;
+		}
+	}
+
+	private ArchiveNIOFSFile openArchiveFile(final NIOFSRegistration reg, final Archive archive,
+			final ArchiveEntry entry) {
+		final SharedResources shared = resources;
+		if (shared != null && cacheArchiveContent)
+			return new ArchiveNIOFSFile(shared.cache(archive, entry));
+		final ContentArena arena = contentArena;
+		// A registration that has been removed is only used by old snapshots. Its files would never
+		// be retired, so they are not cached.
+		if (!cacheArchiveContent || reg.isReleased()) return new ArchiveNIOFSFile(archive, entry,
+				false, arena);
+		final ArchiveNIOFSFile file = archiveFiles.computeIfAbsent(entry, e -> new ArchiveNIOFSFile(
+				archive, e, true, arena));
+		// The registration may have been removed in the meantime, without the removal seeing the
+		// new file
+		if (reg.isReleased() && archiveFiles.remove(entry, file)) file.retire();
+		return file;
+	}
+
+	/** Returns the key used for a path in locks and access traces. "." entries are dropped so that
+	 * e.g. "./saves/a.sav" and "saves/a.sav" use the same key. */
+	private static FilePath canonicalPath(final FilePath minimized) {
+		return FilePath.from(FSUtils.toRelativeString(minimized));
+	}
+
+	private boolean record(final FSOperation operation, final long start, final boolean success) {
+		metricsListener.onOperation(operation, null, success, 0, System.nanoTime() - start);
+		return success;
+	}
+
+	/** Commits a flight recorder event for an open. The fields are only filled in if the event is
+	 * enabled, so a disabled event costs nothing but the check. */
+	private static void commitOpen(final OpenEvent event, final FilePath path,
+			final FileAccessType accessType, final NIOFSRegistration reg, final boolean found) {
+		if (!event.shouldCommit()) return;
+		commitOpen(event, FSUtils.toRelativeString(path), accessType, reg, found);
+	}
+
+	private static void commitOpen(final OpenEvent event, final String path,
+			final FileAccessType accessType, final NIOFSRegistration reg, final boolean found) {
+		event.path = path;
+		event.accessType = accessType.name();
+		event.registration = reg == null ? null : reg.toString();
+		event.found = found;
+		event.commit();
+	}
+
 	private static boolean verifyFilePathAndLog(final FilePath path) {
 		requireNonNull(path, "path must not be null");
 		return FSUtils.isSafePath(path, LOGGER);
 	}
+
+	/** A file found on the search path. */
+	static final class Found {
+		final NIOFSRegistration registration;
+		final NIOFSFile file;
+
+		private Found(final NIOFSRegistration registration, final NIOFSFile file) {
+			this.registration = registration;
+			this.file = file;
+		}
+	}
 }
@@ -0,0 +1,162 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static com.gmail.jesper.sporron.FS4J.util.FSUtils.constructNIOPath;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.FileLocation;
+import com.gmail.jesper.sporron.FS4J.FileType;
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Finds archives for the search path that can not be read in place, e.g.
+ * <code>"mods/pack.zip/maps.zip"</code>, an archive inside another archive, or an archive inside
+ * a jar on the class path. Such an archive is extracted once into a temporary directory and then
+ * indexed and read like any other archive, so looking up its entries costs the same as for an
+ * archive on disk.
+ *
+ * <p>
+ * Extracted archives are kept for the lifetime of the JVM and reused by every registration and
+ * file system that mounts the same nested archive, as long as the outer archive has not changed
+ * on disk. The temporary directory is deleted when the JVM exits.
+ * </p>
+ *
+ * @author Jesper Sporron */
+final class NestedArchives {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NestedArchives.class);
+	private static final Map<String, Path> EXTRACTED = new ConcurrentHashMap<>();
+	private static Path directory;
+
+	private NestedArchives() {
+	}
+
+	/** Finds the archive at the path. If the path does not exist, the longest part of it that is
+	 * an archive is looked up and the rest of the path is looked for inside of it.
+	 *
+	 * @return an optional containing a path on the default file system that the archive can be
+	 *         read from, or an empty optional if there is no archive at the path
+	 * @throws IOException
+	 *             if an outer archive could not be read or the archive could not be extracted */
+	static Optional<Path> resolve(final FilePath path, final FileLocation location)
+			throws URISyntaxException, IOException {
+		final Optional<Path> direct = construct(path, location);
+		if (direct.isPresent() && Files.isRegularFile(direct.get()))
+			return Optional.of(local(direct.get()));
+
+		for (int i = path.numEntries() - 1; i > 0; i--) {
+			final FilePath outerPath = path.subpath(0, i);
+			if (FSUtils.tryPredictFileType(outerPath) != FileType.ARCHIVE) continue;
+			final Optional<Path> outer = construct(outerPath, location);
+			if (!outer.isPresent() || !Files.isRegularFile(outer.get())) continue;
+			return resolveInside(local(outer.get()), path.subpath(i, path.numEntries()));
+		}
+		return Optional.empty();
+	}
+
+	/** Looks for the path inside the archive, which may go through more nested archives. */
+	private static Optional<Path> resolveInside(final Path archivePath, final FilePath path)
+			throws IOException {
+		final String key = key(archivePath, path.toString());
+		final Path cached = EXTRACTED.get(key);
+		if (cached != null && Files.exists(cached)) return Optional.of(cached);
+
+		final Archive archive = Archive.open(archivePath);
+		for (int i = 1; i <= path.numEntries(); i++) {
+			final Optional<ArchiveEntry> entry = archive.getEntry(path.subpath(0, i));
+			if (!entry.isPresent()) continue;
+			final Path extracted = extract(archive, entry.get());
+			final Optional<Path> resolved = i == path.numEntries() ? Optional.of(extracted)
+					: resolveInside(extracted, path.subpath(i, path.numEntries()));
+			resolved.ifPresent(result -> EXTRACTED.put(key, result));
+			return resolved;
+		}
+		return Optional.empty();
+	}
+
+	/** @return the path, or a copy of the file on the default file system if it is e.g. inside a
+	 *         jar */
+	private static Path local(final Path path) throws IOException {
+		if (path.getFileSystem() == FileSystems.getDefault()) return path;
+		return extract(key(path, ""), path.getFileName().toString(), target -> Files.copy(path,
+				target, StandardCopyOption.REPLACE_EXISTING));
+	}
+
+	private static Path extract(final Archive archive, final ArchiveEntry entry)
+			throws IOException {
+		return extract(key(archive.getPath(), entry.getName()), entry.getName(), target -> {
+			try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				archive.transferEntry(entry, out);
+			}
+		});
+	}
+
+	private static synchronized Path extract(final String key, final String name,
+			final Extraction extraction) throws IOException {
+		final Path cached = EXTRACTED.get(key);
+		if (cached != null && Files.exists(cached)) return cached;
+
+		final String fileName = name.substring(name.lastIndexOf('/') + 1);
+		final Path target = Files.createTempFile(directory(), "nested-", "-" + fileName);
+		target.toFile().deleteOnExit();
+		try {
+			extraction.extract(target);
+		} catch (final IOException | RuntimeException e) {
+			Files.deleteIfExists(target);
+			throw e;
+		}
+		LOGGER.debug("Extracted nested archive '{}' to '{}'", key, target);
+		EXTRACTED.put(key, target);
+		return target;
+	}
+
+	private static synchronized Path directory() throws IOException {
+		if (directory == null) {
+			directory = Files.createTempDirectory("fs4j-nested");
+			directory.toFile().deleteOnExit();
+		}
+		return directory;
+	}
+
+	/** @return a key that changes when the file at the path is modified */
+	private static String key(final Path path, final String name) throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(path,
+				BasicFileAttributes.class);
+		return path.toUri() + "|" + attributes.size() + "|" + attributes.lastModifiedTime()
+				.toMillis() + "!" + name;
+	}
+
+	private static Optional<Path> construct(final FilePath path, final FileLocation location)
+			throws URISyntaxException, IOException {
+		try {
+			return Optional.of(constructNIOPath(path, location));
+		} catch (final NullPointerException e) {
+			// INTERNAL resources that do not exist have no path
+			return Optional.empty();
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@FunctionalInterface
+	private interface Extraction {
+		void extract(Path target) throws IOException;
+	}
+}
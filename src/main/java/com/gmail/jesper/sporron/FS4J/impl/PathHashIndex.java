@@ -0,0 +1,80 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.util.PathHash;
+
+/** The entries of an archive by the {@link PathHash} of the path they are opened with, for
+ * lookups that do not build a path. An open addressing table of primitive hashes, so a lookup
+ * allocates nothing.
+ *
+ * @author Jesper Sporron */
+final class PathHashIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PathHashIndex.class);
+
+	private final long[] hashes;
+	private final ArchiveEntry[] entries;
+	private final String[] paths;
+	private final int mask;
+
+	/** @param entries
+	 *            the entries of the archive
+	 * @param mountPoint
+	 *            the relative string form of the mount point of the archive, or null for the root
+	 * @param caseSensitive
+	 *            false to index the hashes of lower-cased paths */
+	PathHashIndex(final Collection<ArchiveEntry> entries, final String mountPoint,
+			final boolean caseSensitive) {
+		final int capacity = Integer.highestOneBit(Math.max(2, entries.size()) * 2 - 1) << 1;
+		this.hashes = new long[capacity];
+		this.entries = new ArchiveEntry[capacity];
+		this.paths = new String[capacity];
+		this.mask = capacity - 1;
+		for (final ArchiveEntry entry : entries) {
+			final String path = mountPoint == null ? entry.getName() : mountPoint + "/" + entry
+					.getName();
+			final long hash = PathHash.hash(path, caseSensitive);
+			int slot = slot(hash);
+			while (this.entries[slot] != null) {
+				if (hashes[slot] == hash) break;
+				slot = (slot + 1) & mask;
+			}
+			if (this.entries[slot] != null) {
+				// Only paths that differ in case, or a genuine 64-bit collision
+				LOGGER.debug("'{}' has the same hash as '{}', only the first can be opened by "
+						+ "hash", path, paths[slot]);
+				continue;
+			}
+			hashes[slot] = hash;
+			this.entries[slot] = entry;
+			paths[slot] = path;
+		}
+	}
+
+	/** @return the entry, or null if no entry has the hash */
+	ArchiveEntry get(final long hash) {
+		for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+			final ArchiveEntry entry = entries[slot];
+			if (entry == null || hashes[slot] == hash) return entry;
+		}
+	}
+
+	/** @return the entry whose path matches, see {@link PathHash#matches}, or null if there is
+	 *         none */
+	ArchiveEntry get(final long hash, final CharSequence path, final boolean caseSensitive) {
+		for (int slot = slot(hash);; slot = (slot + 1) & mask) {
+			final ArchiveEntry entry = entries[slot];
+			if (entry == null) return null;
+			if (hashes[slot] == hash) return PathHash.matches(path, paths[slot], caseSensitive)
+					? entry : null;
+		}
+	}
+
+	private int slot(final long hash) {
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+}
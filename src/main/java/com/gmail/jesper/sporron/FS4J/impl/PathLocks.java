@@ -0,0 +1,124 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Striped read/write locks keyed on {@link FilePath}s. Locking a path also takes a shared lock on
+ * every ancestor of that path, so an operation on a directory (like a recursive delete) is
+ * ordered with operations on anything inside it, while operations on unrelated paths only
+ * contend if they happen to share a stripe.
+ *
+ * <p>
+ * All stripes needed by one operation are acquired in ascending order, which makes it impossible
+ * for two operations to deadlock each other.
+ * </p>
+ *
+ * @author Jesper Sporron */
+final class PathLocks {
+	private static final byte NONE = 0;
+	private static final byte SHARED = 1;
+	private static final byte EXCLUSIVE = 2;
+
+	private final ReentrantReadWriteLock[] stripes;
+
+	PathLocks(final int numStripes) {
+		if (numStripes <= 0) throw new IllegalArgumentException("numStripes must be > 0");
+		this.stripes = new ReentrantReadWriteLock[numStripes];
+		for (int i = 0; i < numStripes; i++)
+			stripes[i] = new ReentrantReadWriteLock();
+	}
+
+	/** Locks the path for writing. Anything else reading or writing the path, any of its
+	 * ancestors, or any of its descendants has to wait until the returned handle is closed.
+	 *
+	 * @param path
+	 *            the minimized path
+	 * @return the handle that releases the locks */
+	Handle lockForWrite(final FilePath path) {
+		return lock(path, EXCLUSIVE);
+	}
+
+	/** Locks the path for reading. Other readers may hold the same path at the same time.
+	 *
+	 * @param path
+	 *            the minimized path
+	 * @return the handle that releases the locks */
+	Handle lockForRead(final FilePath path) {
+		return lock(path, SHARED);
+	}
+
+	/** Locks two paths for writing at once, e.g. the source and target of a move. Locking them one
+	 * after the other could deadlock with another operation locking them in the opposite order.
+	 *
+	 * @param first
+	 *            the first minimized path
+	 * @param second
+	 *            the second minimized path
+	 * @return the handle that releases the locks of both paths */
+	Handle lockForWrite(final FilePath first, final FilePath second) {
+		requireNonNull(first, "first must not be null");
+		requireNonNull(second, "second must not be null");
+		final byte[] modes = new byte[stripes.length];
+		addModes(modes, first, EXCLUSIVE);
+		addModes(modes, second, EXCLUSIVE);
+		return lock(modes);
+	}
+
+	private Handle lock(final FilePath path, final byte mode) {
+		requireNonNull(path, "path must not be null");
+		final byte[] modes = new byte[stripes.length];
+		addModes(modes, path, mode);
+		return lock(modes);
+	}
+
+	private void addModes(final byte[] modes, final FilePath path, final byte mode) {
+		// Ancestors, including the empty root path, are only ever held shared. If an ancestor
+		// shares a stripe with the path itself the stronger mode wins, a read lock can not be
+		// upgraded later.
+		for (int i = 0; i < path.numEntries(); i++) {
+			final int stripe = stripeOf(path.subpath(0, i));
+			if (modes[stripe] == NONE) modes[stripe] = SHARED;
+		}
+		final int own = stripeOf(path);
+		if (modes[own] < mode) modes[own] = mode;
+	}
+
+	private Handle lock(final byte[] modes) {
+		int count = 0;
+		final Lock[] acquired = new Lock[stripes.length];
+		for (int i = 0; i < stripes.length; i++) {
+			if (modes[i] == NONE) continue;
+			final Lock lock = modes[i] == EXCLUSIVE ? stripes[i].writeLock()
+					: stripes[i].readLock();
+			lock.lock();
+			acquired[count++] = lock;
+		}
+		return new Handle(Arrays.copyOf(acquired, count));
+	}
+
+	private int stripeOf(final FilePath path) {
+		// Spread the bits so paths with similar hash codes don't end up in neighbouring stripes.
+		final int h = path.hashCode();
+		return Math.floorMod(h ^ (h >>> 16), stripes.length);
+	}
+
+	/** Releases the locks of one operation when closed. */
+	static final class Handle implements AutoCloseable {
+		private final Lock[] locks;
+
+		private Handle(final Lock[] locks) {
+			this.locks = locks;
+		}
+
+		@Override
+		public void close() {
+			for (int i = locks.length - 1; i >= 0; i--)
+				locks[i].unlock();
+		}
+	}
+}
@@ -2,23 +2,50 @@ package com.gmail.jesper.sporron.FS4J.impl;
 
 import static java.util.Objects.requireNonNull;
 
+import java.nio.ByteBuffer;
+
+import com.gmail.jesper.sporron.FS4J.cache.ContentSegment;
+
 public class PreReadNIOFSFile extends NIOFSFile {
 	private final byte[] bytes;
+	private final ContentSegment segment;
+	private boolean released;
 
 	public PreReadNIOFSFile(final byte[] readBytes) {
 		super(null, false);
 		requireNonNull(readBytes, "readBytes must not be null (but can be empty)");
 		this.bytes = readBytes;
+		this.segment = null;
+	}
+
+	/** Creates a file whose content is kept off the heap. The file takes over the reference to the
+	 * segment and releases it in {@link PreReadNIOFSFile#release()}. Reading the file after that
+	 * still works since views of a released segment stay valid.
+	 *
+	 * @param readSegment
+	 *            the content of the file */
+	public PreReadNIOFSFile(final ContentSegment readSegment) {
+		super(null, false);
+		requireNonNull(readSegment, "readSegment must not be null");
+		this.bytes = null;
+		this.segment = readSegment;
 	}
 
 	@Override
 	public byte[] readBytes() {
+		if (segment != null) return segment.toArray();
 		if (bytes == null) return new byte[0];
 		final byte[] newBytes = new byte[bytes.length];
 		System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
 		return newBytes;
 	}
 
+	@Override
+	public ByteBuffer readBuffer() {
+		if (segment != null) return segment.asReadOnlyBuffer();
+		return super.readBuffer();
+	}
+
 	@Override
 	public boolean writeBytes(final byte[] bytes, final boolean append) {
 		return false;
@@ -28,4 +55,11 @@ public class PreReadNIOFSFile extends NIOFSFile {
 	public boolean isWriteable() {
 		return false;
 	}
+
+	@Override
+	public synchronized void release() {
+		if (segment == null || released) return;
+		released = true;
+		segment.release();
+	}
 }
@@ -0,0 +1,112 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.FSFile;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** A file in a {@link RAMFileSystem}. Files on the search path are bound to the file they were
+ * opened from. Files in the write directory are looked up by path on every access, just like a
+ * file on disk, so they see files that are created or deleted after they were opened.
+ *
+ * @author Jesper Sporron */
+public class RAMFSFile extends FSFile {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RAMFSFile.class);
+
+	private final RAMNode node;
+	private final RAMFileSystem fileSystem;
+	private final FilePath treePath;
+	private final FilePath lockPath;
+
+	RAMFSFile(final RAMNode node) {
+		super(false);
+		this.node = requireNonNull(node, "node must not be null");
+		this.fileSystem = null;
+		this.treePath = null;
+		this.lockPath = null;
+	}
+
+	RAMFSFile(final RAMFileSystem fileSystem, final FilePath treePath, final FilePath lockPath) {
+		super(true);
+		this.node = null;
+		this.fileSystem = requireNonNull(fileSystem, "fileSystem must not be null");
+		this.treePath = requireNonNull(treePath, "treePath must not be null");
+		this.lockPath = requireNonNull(lockPath, "lockPath must not be null");
+	}
+
+	@Override
+	public byte[] readBytes() {
+		return toArray(content());
+	}
+
+	/** Returns a view of the content without copying it. The view does not change if the file is
+	 * written to afterwards. */
+	@Override
+	public ByteBuffer readBuffer() {
+		return content();
+	}
+
+	/** Copies only the range out of the content. */
+	@Override
+	public byte[] readRange(final long offset, final int length) {
+		checkRange(offset, length);
+		return toArray(content(), offset, length);
+	}
+
+	@Override
+	@SuppressWarnings("try")
+	public boolean writeBytes(final byte[] bytes, final boolean append) {
+		requireNonNull(bytes, "bytes must not be null");
+		if (node != null) return false;
+		try (PathLocks.Handle lock = fileSystem.getLocks().lockForWrite(lockPath)) {
+			return fileSystem.writeContent(treePath, bytes, append);
+		}
+	}
+
+	@Override
+	public boolean isWriteable() {
+		if (!super.isWriteable() || node != null) return false;
+		final RAMNode current = fileSystem.find(treePath);
+		return current != null && !current.isDirectory();
+	}
+
+	/** @return the size of the file in bytes, or 0 if the file does not exist */
+	public long getSize() {
+		if (node != null) return node.size();
+		final RAMNode current = fileSystem.find(treePath);
+		return current == null || current.isDirectory() ? 0 : current.size();
+	}
+
+	/** @return a read-only view of the current content, or an empty buffer if the file does not
+	 *         exist */
+	@SuppressWarnings("try")
+	private ByteBuffer content() {
+		if (node != null) return node.getContent();
+		try (PathLocks.Handle lock = fileSystem.getLocks().lockForRead(lockPath)) {
+			final RAMNode current = fileSystem.find(treePath);
+			if (current == null || current.isDirectory()) {
+				LOGGER.error("Failed to read, '{}' is not a file", treePath);
+				return ByteBuffer.allocate(0).asReadOnlyBuffer();
+			}
+			return current.getContent();
+		}
+	}
+
+	private static byte[] toArray(final ByteBuffer content, final long offset, final int length) {
+		if (offset >= content.remaining()) return new byte[0];
+		content.position(content.position() + (int) offset);
+		if (length < content.remaining()) content.limit(content.position() + length);
+		return toArray(content);
+	}
+
+	private static byte[] toArray(final ByteBuffer content) {
+		final byte[] bytes = new byte[content.remaining()];
+		content.get(bytes);
+		return bytes;
+	}
+}
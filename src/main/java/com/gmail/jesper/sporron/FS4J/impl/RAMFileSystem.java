@@ -0,0 +1,588 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static com.gmail.jesper.sporron.FS4J.util.FSUtils.constructNIOPath;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.FileAccessType;
+import com.gmail.jesper.sporron.FS4J.FileLocation;
+import com.gmail.jesper.sporron.FS4J.FileSystem;
+import com.gmail.jesper.sporron.FS4J.FileType;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FileEntry;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** {@link FileSystem} implementation that keeps the entire directory tree in memory. The search
+ * path and write directory work exactly like they do for {@link NIOFileSystem}, and the same
+ * paths are rejected as unsafe.
+ *
+ * <p>
+ * Directories and archives that are added to the search path but don't exist in memory yet are
+ * loaded from disk first, so a <code>RAMFileSystem</code> can be set up with the same calls as a
+ * <code>NIOFileSystem</code>. Content can also be loaded explicitly with
+ * {@link RAMFileSystem#preload(FilePath, FileLocation, FilePath)}. Archives are extracted when
+ * they are added to the search path.
+ * </p>
+ *
+ * <p>
+ * File content is kept on the Java heap by default, or in direct buffers outside of the heap if
+ * the file system is created with <code>offHeap</code> set.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public class RAMFileSystem implements FileSystem<RAMFSFile> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RAMFileSystem.class);
+	private static final int LOCK_STRIPES = 64;
+
+	private final RAMNode root;
+	private final boolean offHeap;
+	private final AtomicReference<List<Registration>> registrations;
+	private final PathLocks writeLocks;
+	private volatile FilePath writePath;
+
+	public RAMFileSystem() {
+		this(false);
+	}
+
+	/** @param offHeap
+	 *            true if file content should be stored in direct buffers outside of the heap */
+	public RAMFileSystem(final boolean offHeap) {
+		this.root = RAMNode.directory();
+		this.offHeap = offHeap;
+		this.registrations = new AtomicReference<>(Collections.emptyList());
+		this.writeLocks = new PathLocks(LOCK_STRIPES);
+		this.writePath = null;
+	}
+
+	/** @return true if file content is stored outside of the heap */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/** Copies a directory, archive, or single file from disk into memory. Archives are extracted
+	 * so that their entries end up below <code>target</code>.
+	 *
+	 * @param source
+	 *            the path on disk
+	 * @param location
+	 *            where the source resides
+	 * @param target
+	 *            where to put the content in memory
+	 * @return true if everything was loaded, false otherwise */
+	public boolean preload(final FilePath source, final FileLocation location,
+			final FilePath target) {
+		requireNonNull(source, "source must not be null");
+		requireNonNull(location, "location must not be null");
+		requireNonNull(target, "target must not be null");
+
+		final FilePath minimizedSource = source.minimize();
+		final FilePath minimizedTarget = target.minimize();
+		if (!verifyFilePathAndLog(minimizedSource) || !verifyFilePathAndLog(minimizedTarget))
+			return false;
+
+		try {
+			final Path nioPath = constructNIOPath(minimizedSource, location);
+			if (!Files.exists(nioPath)) {
+				LOGGER.warn("Could not preload '{}' ({}) because it does not exist", source,
+						location);
+				return false;
+			}
+
+			LOGGER.debug("Preloading '{}' ({}) into '{}'", source, location, target);
+			if (Files.isDirectory(nioPath)) return preloadDirectory(nioPath, minimizedTarget);
+			if (FSUtils.tryPredictFileType(minimizedSource) == FileType.ARCHIVE)
+				return preloadArchive(nioPath, minimizedTarget);
+			return putFile(minimizedTarget, loadFile(nioPath));
+		} catch (final NullPointerException | URISyntaxException | IOException e) {
+			LOGGER.error("Could not preload '{}' ({}): {}", source, location, e.toString());
+			return false;
+		}
+	}
+
+	/** Convenience function that converts strings to {@link FilePath}s then calls
+	 * {@link RAMFileSystem#preload(FilePath, FileLocation, FilePath)}.
+	 *
+	 * @param source
+	 *            the path on disk
+	 * @param location
+	 *            where the source resides
+	 * @param target
+	 *            where to put the content in memory
+	 * @return true if everything was loaded, false otherwise */
+	public boolean preload(final String source, final FileLocation location,
+			final String target) {
+		return preload(FilePath.from(source), location, FilePath.from(target));
+	}
+
+	@Override
+	public boolean addToSearchPath(final FilePath path, final FileLocation location) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(location, "location must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+		if (isOnSearchPath(minimized)) return false;
+
+		LOGGER.debug("Attempting to add '{}' ({}) to the search path.", path, location);
+		RAMNode node = find(minimized);
+		if (node == null) {
+			if (!preload(minimized, location, minimized)) return false;
+			node = find(minimized);
+		} else if (!node.isDirectory()) {
+			if (FSUtils.tryPredictFileType(minimized) != FileType.ARCHIVE) {
+				LOGGER.warn("Could not add '{}' to the search path, it is a file", path);
+				return false;
+			}
+			node = extractArchive(minimized, node);
+		}
+		if (node == null) return false;
+
+		final Registration reg = new Registration(minimized, node);
+		List<Registration> current;
+		List<Registration> updated;
+		do {
+			current = registrations.get();
+			if (current.contains(reg)) return false;
+			updated = new ArrayList<>(current.size() + 1);
+			updated.addAll(current);
+			updated.add(reg);
+			updated = Collections.unmodifiableList(updated);
+		} while (!registrations.compareAndSet(current, updated));
+		LOGGER.info("'{}' ({}) added to search path", path, location);
+		return true;
+	}
+
+	@Override
+	public boolean isOnSearchPath(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+		return registrations.get().stream().anyMatch(reg -> reg.path.equals(minimized));
+	}
+
+	@Override
+	public boolean addAllArchivesToSearchPath(final FilePath path, final FileLocation location) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(location, "location must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+
+		LOGGER.debug("Adding all archives in path '{}' ({})", path, location);
+		final List<FilePath> archives;
+		final RAMNode directory = find(minimized);
+		if (directory != null && directory.isDirectory()) {
+			archives = directory.getChildren().entrySet().stream()
+					.filter(e -> !e.getValue().isDirectory())
+					.map(e -> minimized.append(new FileEntry(e.getKey())))
+					.filter(p -> FSUtils.tryPredictFileType(p) == FileType.ARCHIVE)
+					.collect(Collectors.toList());
+		} else {
+			try (Stream<Path> children = Files.list(constructNIOPath(minimized, location))) {
+				archives = children.filter(p -> FSUtils.getFileType(p) == FileType.ARCHIVE)
+						.map(p -> minimized.append(new FileEntry(p.getFileName().toString())))
+						.collect(Collectors.toList());
+			} catch (final NullPointerException | URISyntaxException | IOException e) {
+				LOGGER.error("Could not list archives in '{}': {}", path, e.toString());
+				return false;
+			}
+		}
+
+		boolean success = true;
+		for (final FilePath archive : archives)
+			if (!addToSearchPath(archive, location)) success = false;
+		return success;
+	}
+
+	@Override
+	public boolean setWriteDirectory(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+		if (mkdirs(minimized) == null) {
+			LOGGER.warn("Could not set write directory '{}', a file is in the way", path);
+			return false;
+		}
+		this.writePath = minimized;
+		return true;
+	}
+
+	@Override
+	public Optional<FilePath> getWriteDirectory() {
+		return Optional.ofNullable(writePath);
+	}
+
+	@Override
+	public Optional<RAMFSFile> open(final FilePath path, final FileAccessType accessType) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(accessType, "accessType must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return Optional.empty();
+
+		LOGGER.debug("Attempting to open file '{}' ({})", path, accessType);
+		switch (accessType) {
+		case READ:
+			for (final Registration reg : registrations.get()) {
+				final RAMNode node = find(reg.root, minimized);
+				if (node == null || node.isDirectory()) continue;
+				LOGGER.trace("Found file '{}' in '{}'", path, reg.path);
+				return Optional.of(new RAMFSFile(node));
+			}
+			LOGGER.debug("Could not find file '{}'", path);
+			return Optional.empty();
+		case WRITE:
+			final FilePath writeDir = writePath;
+			if (Objects.isNull(writeDir)) {
+				LOGGER.debug("Trying to open file {} but no write path is set.", minimized);
+				return Optional.empty();
+			}
+			return Optional.of(
+					new RAMFSFile(this, writeDir.append(minimized), lockPath(minimized)));
+		default:
+			throw new IllegalArgumentException("Cannot handle accessType " + accessType);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("try")
+	public boolean createDirectory(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
+			LOGGER.debug("Trying to create directory {} but no write path is set.", minimized);
+			return false;
+		}
+
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(lockPath(minimized))) {
+			if (mkdirs(writeDir.append(minimized)) == null) {
+				LOGGER.error("Could not create directory '{}', a file is in the way", path);
+				return false;
+			}
+			LOGGER.debug("Created directory at '{}'", minimized);
+			return true;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("try")
+	public Optional<RAMFSFile> createFile(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return Optional.empty();
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
+			LOGGER.debug("Trying to create file {} but no write path is set.", minimized);
+			return Optional.empty();
+		}
+
+		final FilePath lockPath = lockPath(minimized);
+		if (lockPath.numEntries() == 0) {
+			LOGGER.error("Could not create file '{}', it is the write directory", path);
+			return Optional.empty();
+		}
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(lockPath)) {
+			final FilePath treePath = writeDir.append(lockPath);
+			final RAMNode parent = find(treePath.subpath(0, treePath.numEntries() - 1));
+			if (parent == null || !parent.isDirectory()) {
+				LOGGER.error("Could not create file '{}', its directory does not exist", path);
+				return Optional.empty();
+			}
+			final String name = treePath.subpath(treePath.numEntries() - 1, treePath.numEntries())
+					.toString();
+			final RAMNode created = RAMNode.emptyFile();
+			if (parent.putChildIfAbsent(name, created) != created) {
+				LOGGER.warn("Could not create file '{}' because it already exists", path);
+			} else {
+				LOGGER.debug("Created file at '{}'", treePath);
+			}
+			return Optional.of(new RAMFSFile(this, treePath, lockPath));
+		}
+	}
+
+	@Override
+	public boolean delete(final FilePath path) {
+		return deleteInternal(path, false);
+	}
+
+	@Override
+	public boolean forceDelete(final FilePath path) {
+		return deleteInternal(path, true);
+	}
+
+	@SuppressWarnings("try")
+	private boolean deleteInternal(final FilePath path, final boolean force) {
+		requireNonNull(path, "path must not be null");
+
+		final FilePath minimized = path.minimize();
+		if (!verifyFilePathAndLog(minimized)) return false;
+		final FilePath writeDir = writePath;
+		if (Objects.isNull(writeDir)) {
+			LOGGER.debug("Trying to remove {} but no write path is set.", minimized);
+			return false;
+		}
+
+		final FilePath lockPath = lockPath(minimized);
+		if (lockPath.numEntries() == 0) {
+			LOGGER.warn("Could not delete '{}', it is the write directory", path);
+			return false;
+		}
+		try (PathLocks.Handle lock = writeLocks.lockForWrite(lockPath)) {
+			final FilePath treePath = writeDir.append(lockPath);
+			final RAMNode parent = find(treePath.subpath(0, treePath.numEntries() - 1));
+			final String name = treePath.subpath(treePath.numEntries() - 1, treePath.numEntries())
+					.toString();
+			final RAMNode node = parent == null ? null : parent.getChild(name);
+			if (node == null) {
+				LOGGER.warn("Failed to delete file '{}'", treePath);
+				return false;
+			}
+			if (!force && !node.getChildren().isEmpty()) {
+				LOGGER.warn(
+						"Could not delete {} because it is a non-empty directory. Use FileSystem#forceDelete instead.",
+						path);
+				return false;
+			}
+			final boolean success = parent.removeChild(name, node);
+			if (success) LOGGER.info("Deleted '{}'", treePath);
+			return success;
+		}
+	}
+
+	PathLocks getLocks() {
+		return writeLocks;
+	}
+
+	/** Looks up the node at the given path, starting at the root of the tree.
+	 *
+	 * @return the node, or null if it does not exist */
+	RAMNode find(final FilePath path) {
+		return find(root, path);
+	}
+
+	/** Replaces or appends to the content of an existing file. The caller must hold the write lock
+	 * of the file.
+	 *
+	 * @return true if the file exists and the content was written, false otherwise */
+	boolean writeContent(final FilePath treePath, final byte[] bytes, final boolean append) {
+		final RAMNode node = find(treePath);
+		if (node == null || node.isDirectory()) return false;
+
+		final ByteBuffer old = append ? node.getContent() : null;
+		final long size = (old == null ? 0 : old.remaining()) + (long) bytes.length;
+		if (size > Integer.MAX_VALUE) {
+			LOGGER.error("Failed to write bytes, '{}' would exceed {} bytes", treePath,
+					Integer.MAX_VALUE);
+			return false;
+		}
+		final ByteBuffer content = allocate((int) size);
+		if (old != null) content.put(old);
+		content.put(bytes);
+		content.flip();
+		node.setContent(content);
+		return true;
+	}
+
+	private boolean preloadDirectory(final Path nioPath, final FilePath target)
+			throws IOException {
+		if (mkdirs(target) == null) return false;
+		final String separator = nioPath.getFileSystem().getSeparator();
+		boolean success = true;
+		try (Stream<Path> files = Files.walk(nioPath)) {
+			final Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+			while (it.hasNext()) {
+				final Path file = it.next();
+				final FilePath relative = FilePath.from(nioPath.relativize(file).toString(),
+						separator);
+				if (!putFile(target.append(relative), loadFile(file))) success = false;
+			}
+		}
+		return success;
+	}
+
+	private boolean preloadArchive(final Path nioPath, final FilePath target) throws IOException {
+		final RAMNode directory = readArchive(Archive.open(nioPath));
+		return directory != null && putNode(target, directory);
+	}
+
+	/** Extracts an archive that already is in memory so that it can be searched. The extracted
+	 * entries are not visible in the tree, only through the search path. Archives are only read
+	 * from files, so the content is written to a temporary file first, which handles every format
+	 * {@link Archive#open(Path)} does. */
+	private RAMNode extractArchive(final FilePath path, final RAMNode archive) {
+		final ByteBuffer content = archive.getContent();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile("fs4j-ram", ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (content.hasRemaining())
+					channel.write(content);
+			}
+			return readArchive(Archive.open(temp));
+		} catch (final IOException e) {
+			LOGGER.error("Could not extract archive '{}': {}", path, e.toString());
+			return null;
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (final IOException e) {
+					LOGGER.warn("Could not delete temporary file '{}': {}", temp, e.toString());
+				}
+			}
+		}
+	}
+
+	/** @return a directory with the entries of the archive, or null if an entry has an unsafe
+	 *         path */
+	private RAMNode readArchive(final Archive archive) throws IOException {
+		final RAMNode directory = RAMNode.directory();
+		for (final ArchiveEntry entry : archive.getEntries()) {
+			final FilePath entryPath = FilePath.from(entry.getName()).minimize();
+			if (!verifyFilePathAndLog(entryPath)) return null;
+			if (!putFile(directory, entryPath, wrap(archive.readEntry(entry)))) return null;
+		}
+		return directory;
+	}
+
+	private ByteBuffer loadFile(final Path file) throws IOException {
+		try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(String.format("'%s' is too large to be loaded", file));
+			final ByteBuffer content = allocate((int) channel.size());
+			while (content.hasRemaining())
+				if (channel.read(content) < 0) break;
+			content.flip();
+			return content;
+		}
+	}
+
+	private ByteBuffer wrap(final byte[] bytes) {
+		if (!offHeap) return ByteBuffer.wrap(bytes);
+		final ByteBuffer content = allocate(bytes.length);
+		content.put(bytes);
+		content.flip();
+		return content;
+	}
+
+	private ByteBuffer allocate(final int size) {
+		return offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	private boolean putFile(final FilePath path, final ByteBuffer content) {
+		return putFile(root, path, content);
+	}
+
+	private static boolean putFile(final RAMNode from, final FilePath path,
+			final ByteBuffer content) {
+		final FilePath relative = FilePath.from(FSUtils.toRelativeString(path));
+		if (relative.numEntries() == 0) return false;
+		final RAMNode parent = mkdirs(from, relative.subpath(0, relative.numEntries() - 1));
+		if (parent == null) return false;
+		final String name = relative.subpath(relative.numEntries() - 1, relative.numEntries())
+				.toString();
+		final RAMNode existing = parent.getChild(name);
+		if (existing != null && existing.isDirectory()) return false;
+		parent.putChild(name, RAMNode.file(content));
+		return true;
+	}
+
+	private boolean putNode(final FilePath path, final RAMNode node) {
+		final FilePath relative = FilePath.from(FSUtils.toRelativeString(path));
+		if (relative.numEntries() == 0) return false;
+		final RAMNode parent = mkdirs(relative.subpath(0, relative.numEntries() - 1));
+		if (parent == null) return false;
+		parent.putChild(relative.subpath(relative.numEntries() - 1, relative.numEntries())
+				.toString(), node);
+		return true;
+	}
+
+	private RAMNode mkdirs(final FilePath path) {
+		return mkdirs(root, path);
+	}
+
+	/** Creates all directories in the path that don't exist yet.
+	 *
+	 * @return the directory at the end of the path, or null if a file is in the way */
+	private static RAMNode mkdirs(final RAMNode from, final FilePath path) {
+		RAMNode current = from;
+		for (final FileEntry entry : path) {
+			if (entry.equals(".") || entry.equals("")) continue;
+			current = current.putChildIfAbsent(entry.toString(), RAMNode.directory());
+			if (!current.isDirectory()) return null;
+		}
+		return current;
+	}
+
+	private static RAMNode find(final RAMNode from, final FilePath path) {
+		RAMNode current = from;
+		for (final FileEntry entry : path) {
+			if (entry.equals(".") || entry.equals("")) continue;
+			current = current.getChild(entry.toString());
+			if (current == null) return null;
+		}
+		return current;
+	}
+
+	private static FilePath lockPath(final FilePath minimized) {
+		return FilePath.from(FSUtils.toRelativeString(minimized));
+	}
+
+	private static boolean verifyFilePathAndLog(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+		return FSUtils.isSafePath(path, LOGGER);
+	}
+
+	/** A directory on the search path, together with the node its files are looked up in. */
+	private static final class Registration {
+		private final FilePath path;
+		private final RAMNode root;
+
+		private Registration(final FilePath path, final RAMNode root) {
+			this.path = path;
+			this.root = root;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) return true;
+			if (obj == null) return false;
+			if (getClass() != obj.getClass()) return false;
+			final Registration other = (Registration) obj;
+			return path.equals(other.path);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A directory or file in the tree of a {@link RAMFileSystem}. Directories can be modified by
+ * several threads at once. The content of a file is never modified in place, writing to a file
+ * replaces its content buffer as a whole, so a reader always sees either the old or the new
+ * content.
+ *
+ * @author Jesper Sporron */
+final class RAMNode {
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final Map<String, RAMNode> children;
+	private volatile ByteBuffer content;
+
+	private RAMNode(final Map<String, RAMNode> children, final ByteBuffer content) {
+		this.children = children;
+		this.content = content == null ? null : content.asReadOnlyBuffer();
+	}
+
+	static RAMNode directory() {
+		return new RAMNode(new ConcurrentHashMap<>(), null);
+	}
+
+	static RAMNode file(final ByteBuffer content) {
+		requireNonNull(content, "content must not be null");
+		return new RAMNode(null, content);
+	}
+
+	static RAMNode emptyFile() {
+		return file(EMPTY);
+	}
+
+	boolean isDirectory() {
+		return children != null;
+	}
+
+	/** @return the child with the given name, or null if this is not a directory or there is no
+	 *         such child */
+	RAMNode getChild(final String name) {
+		return children == null ? null : children.get(name);
+	}
+
+	/** Adds the child unless a child with the same name already exists.
+	 *
+	 * @return the child that is in the directory after the call */
+	RAMNode putChildIfAbsent(final String name, final RAMNode child) {
+		final RAMNode existing = children.putIfAbsent(name, child);
+		return existing == null ? child : existing;
+	}
+
+	void putChild(final String name, final RAMNode child) {
+		children.put(name, child);
+	}
+
+	boolean removeChild(final String name, final RAMNode child) {
+		return children.remove(name, child);
+	}
+
+	/** @return an unmodifiable view of the children of this directory */
+	Map<String, RAMNode> getChildren() {
+		return children == null ? Collections.emptyMap() : Collections.unmodifiableMap(children);
+	}
+
+	/** @return a read-only view of the content with its own position and limit */
+	ByteBuffer getContent() {
+		return content.duplicate();
+	}
+
+	void setContent(final ByteBuffer newContent) {
+		this.content = requireNonNull(newContent, "newContent must not be null").asReadOnlyBuffer();
+	}
+
+	long size() {
+		return content.remaining();
+	}
+}
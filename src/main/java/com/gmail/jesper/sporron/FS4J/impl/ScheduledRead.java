@@ -0,0 +1,72 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** A request submitted to an {@link IOScheduler}.
+ *
+ * @author Jesper Sporron */
+public final class ScheduledRead<T> implements Comparable<ScheduledRead<?>> {
+	private final IOScheduler scheduler;
+	private final FilePath path;
+	private final int priority;
+	private final long sequence;
+	private final Function<? super NIOFSFile, T> operation;
+	private final CompletableFuture<Optional<T>> future;
+	final long submitted;
+	NIOFSFile file;
+	Object root;
+
+	ScheduledRead(final IOScheduler scheduler, final FilePath path, final int priority,
+			final long sequence, final Function<? super NIOFSFile, T> operation) {
+		this.scheduler = scheduler;
+		this.path = path;
+		this.priority = priority;
+		this.sequence = sequence;
+		this.operation = operation;
+		this.future = new CompletableFuture<>();
+		this.submitted = System.nanoTime();
+	}
+
+	/** @return the future that is completed with the result, or with an empty optional if the
+	 *         file does not exist */
+	public CompletableFuture<Optional<T>> getFuture() {
+		return future;
+	}
+
+	/** Cancels the request if it has not started running yet.
+	 *
+	 * @return true if the request was cancelled, false if it is running or already done */
+	public boolean cancel() {
+		return scheduler.cancel(this);
+	}
+
+	public FilePath getPath() {
+		return path;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	void execute() {
+		// The future may have been cancelled directly instead of through the scheduler.
+		if (future.isDone()) return;
+		future.complete(Optional.ofNullable(operation.apply(file)));
+	}
+
+	/** Higher priorities first, then first come first served. */
+	@Override
+	public int compareTo(final ScheduledRead<?> other) {
+		if (priority != other.priority) return Integer.compare(other.priority, priority);
+		return Long.compare(sequence, other.sequence);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (priority %d)", path, priority);
+	}
+}
@@ -0,0 +1,169 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.util.FSUtils;
+import com.gmail.jesper.sporron.FS4J.util.FileEntry;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** An immutable version of the search path of a {@link NIOFileSystem}, see
+ * {@link NIOFileSystem#snapshot()}. Files opened through a snapshot are always looked up in the
+ * registrations the search path had when the snapshot was taken, in the same order, and with the
+ * same archive indexes, however the search path of the file system changes in the meantime. A
+ * snapshot holds no resources of its own, it is freed like any other object once it is no longer
+ * referenced.
+ *
+ * <p>
+ * Directories on the search path are still read from disk, so a snapshot does not hide changes
+ * made to the files in them.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class SearchPathSnapshot {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SearchPathSnapshot.class);
+
+	private final NIOFileSystem fileSystem;
+	private final long version;
+	private final List<NIOFSRegistration> registrations;
+	// Registrations by mount point, so a lookup only visits the mount points along its path
+	private final MountNode mounts;
+
+	SearchPathSnapshot(final NIOFileSystem fileSystem, final long version,
+			final List<NIOFSRegistration> registrations) {
+		this.fileSystem = fileSystem;
+		this.version = version;
+		this.registrations = registrations;
+		this.mounts = new MountNode();
+		for (int i = 0; i < registrations.size(); i++) {
+			MountNode node = mounts;
+			final Optional<FilePath> mountPoint = registrations.get(i).getMountPoint();
+			if (mountPoint.isPresent()) {
+				for (final FileEntry entry : mountPoint.get())
+					node = node.children.computeIfAbsent(entry.toString(), e -> new MountNode());
+			}
+			node.add(i);
+		}
+	}
+
+	/** Returns the registrations that can hold the path, in lookup order. Those are the ones
+	 * mounted at the root and the ones mounted at a directory that contains the path. Only the
+	 * mount points along the path are visited, however many registrations are mounted elsewhere.
+	 *
+	 * @param minimized
+	 *            the minimized path
+	 * @return the registrations to look for the path in */
+	List<NIOFSRegistration> route(final FilePath minimized) {
+		if (mounts.children.isEmpty()) return registrations;
+
+		int[] routed = mounts.indices;
+		int count = mounts.count;
+		MountNode node = mounts;
+		int remaining = 0;
+		for (final FileEntry entry : minimized)
+			if (!entry.equals(".") && !entry.equals("")) remaining++;
+		for (final FileEntry entry : minimized) {
+			if (entry.equals(".") || entry.equals("")) continue;
+			// A registration is never asked for its own mount point
+			if (--remaining == 0) break;
+			node = node.children.get(entry.toString());
+			if (node == null) break;
+			if (node.count == 0) continue;
+			final int[] merged = Arrays.copyOf(routed, count + node.count);
+			System.arraycopy(node.indices, 0, merged, count, node.count);
+			routed = merged;
+			count += node.count;
+		}
+		// The root positions are already in order, and shared with other lookups
+		if (routed != mounts.indices) Arrays.sort(routed, 0, count);
+		final List<NIOFSRegistration> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			result.add(registrations.get(routed[i]));
+		return result;
+	}
+
+	/** @return a snapshot of the next version with the registration added at the end */
+	SearchPathSnapshot with(final NIOFSRegistration registration) {
+		final List<NIOFSRegistration> updated = new ArrayList<>(registrations.size() + 1);
+		updated.addAll(registrations);
+		updated.add(registration);
+		return new SearchPathSnapshot(fileSystem, version + 1, Collections.unmodifiableList(
+				updated));
+	}
+
+	/** @return a snapshot of the next version without the registrations of <code>path</code>, or
+	 *         without any registrations if <code>path</code> is null */
+	SearchPathSnapshot without(final FilePath path) {
+		final List<NIOFSRegistration> updated = new ArrayList<>(registrations);
+		updated.removeIf(reg -> path == null || reg.getFilePath().equals(path));
+		return new SearchPathSnapshot(fileSystem, version + 1, Collections.unmodifiableList(
+				updated));
+	}
+
+	/** Opens a file for reading, from the search path as it was when this snapshot was taken.
+	 *
+	 * @param path
+	 *            the path to the file
+	 * @return an optional containing the file, or an empty optional if the file does not exist */
+	public Optional<NIOFSFile> open(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+		final FilePath minimized = path.minimize();
+		if (!FSUtils.isSafePath(minimized, LOGGER)) return Optional.empty();
+		return fileSystem.find(this, minimized, true).map(found -> found.file);
+	}
+
+	/** @see SearchPathSnapshot#open(FilePath) */
+	public Optional<NIOFSFile> open(final String path) {
+		return open(FilePath.from(path));
+	}
+
+	/** @return true if the path was on the search path when this snapshot was taken */
+	public boolean isOnSearchPath(final FilePath path) {
+		requireNonNull(path, "path must not be null");
+		final FilePath minimized = path.minimize();
+		return registrations.stream().anyMatch(reg -> reg.getFilePath().equals(minimized));
+	}
+
+	/** @return the version of the search path, incremented by every change to it */
+	public long getVersion() {
+		return version;
+	}
+
+	/** @return the registrations in the order files are looked up in */
+	public List<NIOFSRegistration> getRegistrations() {
+		return registrations;
+	}
+
+	/** @return true if this is still the current version of the search path */
+	public boolean isCurrent() {
+		return fileSystem.snapshot() == this;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchPathSnapshot [version=" + version + ", registrations=" + registrations + "]";
+	}
+
+	/** A directory in the tree of mount points, with the positions of the registrations mounted
+	 * at it. */
+	private static final class MountNode {
+		private final Map<String, MountNode> children = new HashMap<>();
+		private int[] indices = new int[0];
+		private int count;
+
+		private void add(final int index) {
+			if (count == indices.length) indices = Arrays.copyOf(indices, Math.max(4, count * 2));
+			indices[count++] = index;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+
+/** Archives and cached archive content shared by several {@link NIOFileSystem}s, e.g. one file
+ * system per hosted match that all mount the same base archives. Every archive is indexed once no
+ * matter how many file systems have it on their search path, and the content of an entry is
+ * cached once for all of them. Cached content is kept off the heap in a single
+ * {@link ContentArena}, whose capacity is the memory budget of all file systems together. Content
+ * that does not fit is read from the archive every time instead of being cached on the heap.
+ *
+ * <p>
+ * Archives are counted by reference. When the last file system removes an archive from its
+ * search path, or is closed, the archive is dropped and its cached content released.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class SharedResources {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedResources.class);
+
+	private final ContentArena arena;
+	private final Map<Path, Shared> archives;
+
+	/** @param memoryBudget
+	 *            the number of bytes of content that may be cached, for all file systems
+	 *            together */
+	public SharedResources(final long memoryBudget) {
+		this.arena = new ContentArena(memoryBudget);
+		this.archives = new HashMap<>();
+	}
+
+	/** @return the arena all shared content is cached in */
+	public ContentArena getArena() {
+		return arena;
+	}
+
+	/** @return the number of archives currently held by at least one file system */
+	public synchronized int numArchives() {
+		return archives.size();
+	}
+
+	/** @return the number of bytes of content cached in the arena for all file systems together */
+	public long getCachedBytes() {
+		return arena.getUsed();
+	}
+
+	/** Releases the least recently used content of all archives until at most the target number
+	 * of bytes is cached in the arena, e.g. before a level transition. Content that a file is
+	 * still reading from only counts as released once the file is done with it. None of it is on
+	 * the heap, so the resources are not a
+	 * {@link com.gmail.jesper.sporron.FS4J.cache.ShrinkableCache}; the capacity of the arena is
+	 * their budget.
+	 *
+	 * @param targetBytes
+	 *            the number of bytes that may stay cached
+	 * @return the number of bytes released */
+	public long shrinkTo(final long targetBytes) {
+		final List<EntryCache> caches = new ArrayList<>();
+		synchronized (this) {
+			for (final Shared shared : archives.values())
+				caches.addAll(shared.caches.values());
+		}
+		final long released = EntryCache.shrinkOffHeap(caches, targetBytes);
+		if (released > 0) LOGGER.debug("Released {} bytes of shared content", released);
+		return released;
+	}
+
+	/** Returns the archive at the path, indexing it if no file system holds it yet. Every call
+	 * must be matched by a call to {@link SharedResources#release(Archive)}.
+	 *
+	 * @throws IOException
+	 *             if the archive could not be indexed */
+	synchronized Archive acquire(final Path path) throws IOException {
+		final Path key = path.toRealPath();
+		Shared shared = archives.get(key);
+		if (shared == null) {
+			shared = new Shared(Archive.open(key));
+			archives.put(key, shared);
+			LOGGER.debug("Sharing archive '{}'", key);
+		}
+		shared.references++;
+		return shared.archive;
+	}
+
+	/** Gives up a reference to an archive returned by {@link SharedResources#acquire(Path)}. */
+	void release(final Archive archive) {
+		final Shared shared;
+		synchronized (this) {
+			final Shared current = archives.get(archive.getPath());
+			if (current == null || current.archive != archive) return;
+			if (--current.references > 0) return;
+			archives.remove(archive.getPath());
+			shared = current;
+		}
+		LOGGER.debug("No longer sharing archive '{}'", archive.getPath());
+		shared.caches.values().forEach(EntryCache::retire);
+	}
+
+	/** @return the cache of the entry that all file systems share, or a cache that caches nothing
+	 *         if the archive is no longer shared */
+	EntryCache cache(final Archive archive, final ArchiveEntry entry) {
+		final Shared shared;
+		synchronized (this) {
+			shared = archives.get(archive.getPath());
+		}
+		if (shared == null || shared.archive != archive)
+			return new EntryCache(archive, entry, false, null, false);
+		return shared.caches.computeIfAbsent(entry, e -> new EntryCache(archive, e, true, arena,
+				false));
+	}
+
+	private static final class Shared {
+		private final Archive archive;
+		private final Map<ArchiveEntry, EntryCache> caches;
+		private int references;
+
+		private Shared(final Archive archive) {
+			this.archive = archive;
+			this.caches = new ConcurrentHashMap<>();
+		}
+	}
+}
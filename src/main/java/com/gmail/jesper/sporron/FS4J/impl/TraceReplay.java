@@ -0,0 +1,126 @@
+package com.gmail.jesper.sporron.FS4J.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+/** Prefetches the files of an {@link AccessTrace} in the background, staying a bounded number of
+ * files ahead of the program. Every time the program opens a file that is in the trace, files up
+ * to <code>readAhead</code> positions after it are prefetched. Files inside archives are read
+ * into the content cache, other files are read once so that the operating system keeps them in
+ * its page cache.
+ *
+ * @author Jesper Sporron
+ * @see NIOFileSystem#replayTrace(AccessTrace, int) */
+public final class TraceReplay {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TraceReplay.class);
+
+	private final NIOFileSystem fileSystem;
+	private final DecompressionPipeline pipeline;
+	private final List<FilePath> paths;
+	private final Map<FilePath, Integer> positions;
+	private final int readAhead;
+	private final Set<FilePath> prefetched;
+	private final AtomicInteger hits;
+	private final AtomicInteger inFlight;
+	private int demanded;
+	private int issued;
+	private volatile boolean cancelled;
+
+	TraceReplay(final NIOFileSystem fileSystem, final DecompressionPipeline pipeline,
+			final AccessTrace trace, final int readAhead) {
+		if (readAhead <= 0) throw new IllegalArgumentException("readAhead must be > 0");
+		this.fileSystem = requireNonNull(fileSystem, "fileSystem must not be null");
+		this.pipeline = requireNonNull(pipeline, "pipeline must not be null");
+		requireNonNull(trace, "trace must not be null");
+		this.paths = new ArrayList<>(trace.size());
+		this.positions = new HashMap<>();
+		for (final AccessTrace.Access access : trace.getAccesses()) {
+			if (positions.putIfAbsent(access.getPath(), paths.size()) == null)
+				paths.add(access.getPath());
+		}
+		this.readAhead = readAhead;
+		this.prefetched = ConcurrentHashMap.newKeySet();
+		this.hits = new AtomicInteger();
+		this.inFlight = new AtomicInteger();
+	}
+
+	void start() {
+		advance();
+	}
+
+	/** Called by the file system every time the program opens a file for reading. */
+	void onOpen(final FilePath minimized) {
+		final Integer position = positions.get(minimized);
+		if (position == null || cancelled) return;
+		if (prefetched.contains(minimized)) hits.incrementAndGet();
+		synchronized (this) {
+			if (position + 1 > demanded) demanded = position + 1;
+		}
+		advance();
+	}
+
+	private synchronized void advance() {
+		while (!cancelled && issued < paths.size() && issued < demanded + readAhead) {
+			final FilePath path = paths.get(issued++);
+			inFlight.incrementAndGet();
+			try {
+				pipeline.execute(() -> prefetch(path));
+			} catch (final RejectedExecutionException e) {
+				inFlight.decrementAndGet();
+				LOGGER.debug("Decompression pipeline is closed, stopping trace replay");
+				cancelled = true;
+			}
+		}
+	}
+
+	private void prefetch(final FilePath path) {
+		try {
+			if (!cancelled && fileSystem.prefetch(path)) prefetched.add(path);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	/** Stops prefetching. Prefetches that are already running are allowed to finish. */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** @return true if every file in the trace has been prefetched, or the replay was cancelled,
+	 *         and no prefetch is running */
+	public synchronized boolean isComplete() {
+		return (cancelled || issued == paths.size()) && inFlight.get() == 0;
+	}
+
+	/** @return the number of files that have been prefetched */
+	public int getPrefetched() {
+		return prefetched.size();
+	}
+
+	/** @return the number of times the program opened a file that had already been prefetched */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/** @return the number of distinct files in the trace */
+	public int size() {
+		return paths.size();
+	}
+
+	public int getReadAhead() {
+		return readAhead;
+	}
+}
@@ -0,0 +1,26 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight Recorder event for indexing an archive on the search path.
+ *
+ * @author Jesper Sporron */
+@Name("fs4j.ArchiveOpen")
+@Label("FS4J Archive Open")
+@Category({ "FS4J" })
+@Description("An archive on the search path was opened and its index read")
+@StackTrace(false)
+public final class ArchiveOpenEvent extends jdk.jfr.Event {
+	@Label("Registration")
+	public String registration;
+
+	@Label("Entries")
+	public int entries;
+
+	@Label("Success")
+	public boolean success;
+}
@@ -0,0 +1,34 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight Recorder event for a lookup in the content cache of an archive file. The duration of a
+ * miss includes reading and inflating the content.
+ *
+ * @author Jesper Sporron */
+@Name("fs4j.Cache")
+@Label("FS4J Cache Lookup")
+@Category({ "FS4J" })
+@Description("Cached archive content was looked up")
+@StackTrace(false)
+public final class CacheEvent extends jdk.jfr.Event {
+	@Label("Path")
+	@Description("archive!entry")
+	public String path;
+
+	@Label("Hit")
+	public boolean hit;
+
+	@Label("Off Heap")
+	@Description("If the content is cached outside of the heap")
+	public boolean offHeap;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+}
@@ -0,0 +1,34 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight Recorder event for cached content released to make room on the heap.
+ *
+ * @author Jesper Sporron */
+@Name("fs4j.CacheShrink")
+@Label("FS4J Cache Shrink")
+@Category({ "FS4J" })
+@Description("Cached content was released because the heap was running full")
+@StackTrace(false)
+public final class CacheShrinkEvent extends jdk.jfr.Event {
+	@Label("Reason")
+	@Description("The memory pool that crossed its threshold, or \"requested\"")
+	public String reason;
+
+	@Label("Cached Before")
+	@DataAmount
+	public long before;
+
+	@Label("Cached After")
+	@DataAmount
+	public long after;
+
+	@Label("Heap Used")
+	@DataAmount
+	public long heapUsed;
+}
@@ -0,0 +1,186 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import static java.util.Objects.requireNonNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** A {@link FSMetricsListener} that keeps counts, byte totals and latency histograms per
+ * operation, and the number of files found per search path registration. The metrics can be
+ * read directly or through JMX.
+ *
+ * <code>
+ * <pre>
+ * FSMetrics metrics = new FSMetrics();
+ * fileSystem.setMetricsListener(metrics);
+ * metrics.register("game");
+ * </pre>
+ * </code>
+ *
+ * @author Jesper Sporron */
+public class FSMetrics implements FSMetricsListener, FSMetricsMXBean {
+	/** The JMX domain metrics are registered under. */
+	public static final String JMX_DOMAIN = "com.gmail.jesper.sporron.FS4J";
+
+	private final Map<FSOperation, Counters> counters;
+	private final Map<String, LongAdder> openHits;
+
+	public FSMetrics() {
+		this.counters = new EnumMap<>(FSOperation.class);
+		for (final FSOperation operation : FSOperation.values())
+			counters.put(operation, new Counters());
+		this.openHits = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public void onOperation(final FSOperation operation, final String registration,
+			final boolean success, final long bytes, final long nanos) {
+		final Counters counter = counters.get(operation);
+		counter.latency.record(nanos);
+		if (!success) counter.failures.increment();
+		if (bytes > 0) counter.bytes.add(bytes);
+		if (operation == FSOperation.OPEN && success && registration != null)
+			openHits.computeIfAbsent(registration, key -> new LongAdder()).increment();
+	}
+
+	/** @return the counters of the operation */
+	public OperationSnapshot getSnapshot(final FSOperation operation) {
+		requireNonNull(operation, "operation must not be null");
+		return counters.get(operation).snapshot();
+	}
+
+	/** @return the latency histogram of the operation */
+	public LatencyHistogram getHistogram(final FSOperation operation) {
+		requireNonNull(operation, "operation must not be null");
+		return counters.get(operation).latency;
+	}
+
+	@Override
+	public OperationSnapshot getOpen() {
+		return getSnapshot(FSOperation.OPEN);
+	}
+
+	@Override
+	public OperationSnapshot getRead() {
+		return getSnapshot(FSOperation.READ);
+	}
+
+	@Override
+	public OperationSnapshot getWrite() {
+		return getSnapshot(FSOperation.WRITE);
+	}
+
+	@Override
+	public OperationSnapshot getCreateFile() {
+		return getSnapshot(FSOperation.CREATE_FILE);
+	}
+
+	@Override
+	public OperationSnapshot getCreateDirectory() {
+		return getSnapshot(FSOperation.CREATE_DIRECTORY);
+	}
+
+	@Override
+	public OperationSnapshot getDelete() {
+		return getSnapshot(FSOperation.DELETE);
+	}
+
+	@Override
+	public OperationSnapshot getCopy() {
+		return getSnapshot(FSOperation.COPY);
+	}
+
+	@Override
+	public OperationSnapshot getMove() {
+		return getSnapshot(FSOperation.MOVE);
+	}
+
+	@Override
+	public OperationSnapshot getArchiveOpen() {
+		return getSnapshot(FSOperation.ARCHIVE_OPEN);
+	}
+
+	@Override
+	public OperationSnapshot getCacheShrink() {
+		return getSnapshot(FSOperation.CACHE_SHRINK);
+	}
+
+	@Override
+	public Map<String, Long> getOpenHitsByRegistration() {
+		final Map<String, Long> hits = new TreeMap<>();
+		openHits.forEach((registration, count) -> hits.put(registration, count.sum()));
+		return hits;
+	}
+
+	@Override
+	public void reset() {
+		for (final Counters counter : counters.values())
+			counter.reset();
+		openHits.clear();
+	}
+
+	/** Registers these metrics with the platform MBean server.
+	 *
+	 * @param name
+	 *            the name to tell this file system apart from others in the same program
+	 * @return the name the metrics were registered under
+	 * @throws JMException
+	 *             if the metrics could not be registered, e.g. because the name is taken */
+	public ObjectName register(final String name) throws JMException {
+		requireNonNull(name, "name must not be null");
+		final ObjectName objectName = objectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/** Removes metrics registered with {@link FSMetrics#register(String)}.
+	 *
+	 * @param name
+	 *            the name the metrics were registered with
+	 * @throws JMException
+	 *             if nothing is registered under the name */
+	public static void unregister(final String name) throws JMException {
+		requireNonNull(name, "name must not be null");
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.unregisterMBean(objectName(name));
+	}
+
+	private static ObjectName objectName(final String name) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=FileSystem,name=" + ObjectName.quote(name));
+	}
+
+	private static final class Counters {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+
+		private OperationSnapshot snapshot() {
+			final long mean = micros(latency.getMean());
+			final long p50 = micros(latency.getPercentile(50));
+			final long p90 = micros(latency.getPercentile(90));
+			final long p99 = micros(latency.getPercentile(99));
+			final long max = micros(latency.getMax());
+			return new OperationSnapshot(latency.getCount(), failures.sum(), bytes.sum(), mean,
+					p50, p90, p99, max);
+		}
+
+		private void reset() {
+			latency.reset();
+			failures.reset();
+			bytes.reset();
+		}
+
+		private static long micros(final long nanos) {
+			return TimeUnit.NANOSECONDS.toMicros(nanos);
+		}
+	}
+}
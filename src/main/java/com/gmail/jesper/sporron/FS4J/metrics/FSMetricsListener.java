@@ -0,0 +1,27 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+/** Receives a call for every operation a file system performs. Listeners are called on the thread
+ * that performed the operation, right after it finished, so they must be thread safe and fast.
+ *
+ * @author Jesper Sporron
+ * @see FSMetrics */
+@FunctionalInterface
+public interface FSMetricsListener {
+	/** A listener that ignores everything. */
+	FSMetricsListener NONE = (operation, registration, success, bytes, nanos) -> {};
+
+	/** @param operation
+	 *            the operation
+	 * @param registration
+	 *            the search path entry the operation was served from, or null if there is none
+	 *            (e.g. a file that could not be found, or anything in the write directory)
+	 * @param success
+	 *            true if the operation succeeded, for {@link FSOperation#OPEN} true if the file
+	 *            was found
+	 * @param bytes
+	 *            the number of bytes read or written, 0 for operations that do not transfer any
+	 * @param nanos
+	 *            how long the operation took */
+	void onOperation(FSOperation operation, String registration, boolean success, long bytes,
+			long nanos);
+}
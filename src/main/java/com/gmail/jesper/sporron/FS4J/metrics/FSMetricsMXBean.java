@@ -0,0 +1,34 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import java.util.Map;
+
+/** The management interface of {@link FSMetrics}, see {@link FSMetrics#register(String)}.
+ *
+ * @author Jesper Sporron */
+public interface FSMetricsMXBean {
+	OperationSnapshot getOpen();
+
+	OperationSnapshot getRead();
+
+	OperationSnapshot getWrite();
+
+	OperationSnapshot getCreateFile();
+
+	OperationSnapshot getCreateDirectory();
+
+	OperationSnapshot getDelete();
+
+	OperationSnapshot getCopy();
+
+	OperationSnapshot getMove();
+
+	OperationSnapshot getArchiveOpen();
+
+	OperationSnapshot getCacheShrink();
+
+	/** @return the number of files found in each search path registration */
+	Map<String, Long> getOpenHitsByRegistration();
+
+	/** Clears all counters. */
+	void reset();
+}
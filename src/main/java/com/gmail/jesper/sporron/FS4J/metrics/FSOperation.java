@@ -0,0 +1,28 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+/** The operations reported to a {@link FSMetricsListener}.
+ *
+ * @author Jesper Sporron */
+public enum FSOperation {
+	/** Opening a file. Succeeds if the file was found. */
+	OPEN,
+	/** Reading the content of a file. */
+	READ,
+	/** Writing to a file. */
+	WRITE,
+	/** Creating a file in the write directory. */
+	CREATE_FILE,
+	/** Creating a directory in the write directory. */
+	CREATE_DIRECTORY,
+	/** Deleting a file or directory in the write directory. */
+	DELETE,
+	/** Copying a file from the search path to the write directory. */
+	COPY,
+	/** Moving a file or directory within the write directory. */
+	MOVE,
+	/** Indexing an archive on the search path, which happens once per archive. */
+	ARCHIVE_OPEN,
+	/** Releasing cached archive content to make room on the heap. The bytes are the number of
+	 * bytes released. */
+	CACHE_SHRINK
+}
@@ -0,0 +1,93 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A histogram of latencies with one bucket per power of two nanoseconds. Recording is lock-free
+ * and costs a couple of atomic additions, percentiles are accurate to within a factor of two,
+ * which is plenty to tell a page cache hit from a disk seek.
+ *
+ * @author Jesper Sporron */
+public final class LatencyHistogram {
+	private static final int NUM_BUCKETS = 64;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong total;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(NUM_BUCKETS);
+		this.count = new AtomicLong();
+		this.total = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/** @param nanos
+	 *            the latency to record, negative values are recorded as 0 */
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/** @return the mean latency in nanoseconds, or 0 if nothing has been recorded */
+	public long getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	/** @return the highest recorded latency in nanoseconds */
+	public long getMax() {
+		return max.get();
+	}
+
+	/** Estimates a percentile. The estimate is the upper bound of the bucket the percentile falls
+	 * in, capped at the highest recorded latency.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the estimated latency in nanoseconds, or 0 if nothing has been recorded */
+	public long getPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		final long[] snapshot = new long[NUM_BUCKETS];
+		long n = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/** Clears all recorded latencies. Latencies recorded while resetting may be partially lost. */
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	private static int bucketOf(final long nanos) {
+		return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	private static long upperBound(final int bucket) {
+		return bucket >= 62 ? Long.MAX_VALUE : (2L << bucket) - 1;
+	}
+}
@@ -0,0 +1,30 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight Recorder event for opening a file.
+ *
+ * @author Jesper Sporron */
+@Name("fs4j.Open")
+@Label("FS4J Open")
+@Category({ "FS4J" })
+@Description("A file was opened through a file system")
+@StackTrace(false)
+public final class OpenEvent extends jdk.jfr.Event {
+	@Label("Path")
+	public String path;
+
+	@Label("Access Type")
+	public String accessType;
+
+	@Label("Registration")
+	@Description("The search path entry the file was found in")
+	public String registration;
+
+	@Label("Found")
+	public boolean found;
+}
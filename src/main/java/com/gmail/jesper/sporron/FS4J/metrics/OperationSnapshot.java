@@ -0,0 +1,71 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+/** The counters of a single {@link FSOperation} at one point in time. Latencies are in
+ * microseconds.
+ *
+ * @author Jesper Sporron */
+public final class OperationSnapshot {
+	private final long count;
+	private final long failures;
+	private final long bytes;
+	private final long meanMicros;
+	private final long p50Micros;
+	private final long p90Micros;
+	private final long p99Micros;
+	private final long maxMicros;
+
+	public OperationSnapshot(final long count, final long failures, final long bytes,
+			final long meanMicros, final long p50Micros, final long p90Micros,
+			final long p99Micros, final long maxMicros) {
+		this.count = count;
+		this.failures = failures;
+		this.bytes = bytes;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	/** @return how many times the operation was performed */
+	public long getCount() {
+		return count;
+	}
+
+	/** @return how many times the operation failed, or for opens, did not find the file */
+	public long getFailures() {
+		return failures;
+	}
+
+	/** @return the number of bytes transferred */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getMeanMicros() {
+		return meanMicros;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP90Micros() {
+		return p90Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d failures=%d bytes=%d mean=%dus p50=%dus p90=%dus p99=%dus "
+				+ "max=%dus", count, failures, bytes, meanMicros, p50Micros, p90Micros, p99Micros,
+				maxMicros);
+	}
+}
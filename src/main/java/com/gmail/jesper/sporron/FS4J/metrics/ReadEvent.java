@@ -0,0 +1,27 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for reading the content of a file.
+ *
+ * @author Jesper Sporron */
+@Name("fs4j.Read")
+@Label("FS4J Read")
+@Category({ "FS4J" })
+@Description("The content of a file was read")
+public final class ReadEvent extends jdk.jfr.Event {
+	@Label("Path")
+	@Description("The file on disk, or archive!entry for files inside archives")
+	public String path;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+	@Label("Success")
+	public boolean success;
+}
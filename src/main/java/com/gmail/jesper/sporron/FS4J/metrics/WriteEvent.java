@@ -0,0 +1,29 @@
+package com.gmail.jesper.sporron.FS4J.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder event for writing to a file.
+ *
+ * @author Jesper Sporron */
+@Name("fs4j.Write")
+@Label("FS4J Write")
+@Category({ "FS4J" })
+@Description("Content was written to a file")
+public final class WriteEvent extends jdk.jfr.Event {
+	@Label("Path")
+	public String path;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+	@Label("Append")
+	public boolean append;
+
+	@Label("Success")
+	public boolean success;
+}
@@ -0,0 +1,56 @@
+package com.gmail.jesper.sporron.FS4J.util;
+
+import static java.util.Objects.requireNonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/** A {@link ReadableByteChannel} that reads content that is already in memory, from the position
+ * to the limit of a {@link ByteBuffer}. The buffer itself is never modified.
+ *
+ * @author Jesper Sporron */
+public final class ByteBufferChannel implements ReadableByteChannel {
+	private final ByteBuffer content;
+	private final Runnable onClose;
+	private boolean open;
+
+	public ByteBufferChannel(final ByteBuffer content) {
+		this(content, null);
+	}
+
+	/** @param content
+	 *            the content to read
+	 * @param onClose
+	 *            called once when the channel is closed, e.g. to release the memory the content
+	 *            is in, or null */
+	public ByteBufferChannel(final ByteBuffer content, final Runnable onClose) {
+		this.content = requireNonNull(content, "content must not be null").duplicate();
+		this.onClose = onClose;
+		this.open = true;
+	}
+
+	@Override
+	public int read(final ByteBuffer destination) throws ClosedChannelException {
+		if (!open) throw new ClosedChannelException();
+		if (!content.hasRemaining()) return -1;
+		final int count = Math.min(destination.remaining(), content.remaining());
+		final ByteBuffer chunk = content.duplicate();
+		chunk.limit(chunk.position() + count);
+		destination.put(chunk);
+		content.position(content.position() + count);
+		return count;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		if (!open) return;
+		open = false;
+		if (onClose != null) onClose.run();
+	}
+}
@@ -0,0 +1,84 @@
+package com.gmail.jesper.sporron.FS4J.util;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/** A buffered {@link OutputStream} on top of a {@link WritableByteChannel}. Bytes are collected in
+ * a direct buffer, so a file channel can write them without copying them again, and arrays at
+ * least as large as the buffer are written straight to the channel.
+ *
+ * @author Jesper Sporron */
+public final class ChannelOutputStream extends OutputStream {
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private boolean closed;
+
+	/** @param channel
+	 *            the channel to write to, closed when the stream is closed
+	 * @param bufferSize
+	 *            the size of the buffer in bytes */
+	public ChannelOutputStream(final WritableByteChannel channel, final int bufferSize) {
+		if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be > 0");
+		this.channel = requireNonNull(channel, "channel must not be null");
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		ensureOpen();
+		if (!buffer.hasRemaining()) drain();
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		requireNonNull(bytes, "bytes must not be null");
+		if (offset < 0 || length < 0 || length > bytes.length - offset)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		if (length >= buffer.capacity()) {
+			drain();
+			writeFully(ByteBuffer.wrap(bytes, offset, length));
+			return;
+		}
+		if (length > buffer.remaining()) drain();
+		buffer.put(bytes, offset, length);
+	}
+
+	/** Writes the buffered bytes to the channel. */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		try {
+			drain();
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(final ByteBuffer source) throws IOException {
+		while (source.hasRemaining())
+			channel.write(source);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Stream is closed");
+	}
+}
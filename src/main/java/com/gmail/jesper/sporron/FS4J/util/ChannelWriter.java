@@ -0,0 +1,139 @@
+package com.gmail.jesper.sporron.FS4J.util;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/** A {@link Writer} that encodes characters straight into the buffer of a
+ * {@link WritableByteChannel}. Strings, arrays and other character sequences are encoded where
+ * they are, without being copied into intermediate strings or arrays first. Characters that can
+ * not be encoded are replaced, like {@link String#getBytes(Charset)} does.
+ *
+ * @author Jesper Sporron */
+public final class ChannelWriter extends Writer {
+	private final WritableByteChannel channel;
+	private final CharsetEncoder encoder;
+	private final ByteBuffer buffer;
+	/** Holds the first half of a surrogate pair that was split between two writes. */
+	private final CharBuffer carry;
+	private boolean closed;
+
+	/** @param channel
+	 *            the channel to write to, closed when the writer is closed
+	 * @param charset
+	 *            the charset to encode characters with
+	 * @param bufferSize
+	 *            the size of the buffer in bytes */
+	public ChannelWriter(final WritableByteChannel channel, final Charset charset,
+			final int bufferSize) {
+		requireNonNull(charset, "charset must not be null");
+		this.channel = requireNonNull(channel, "channel must not be null");
+		this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final int minimum = (int) Math.ceil(encoder.maxBytesPerChar()) * 2;
+		if (bufferSize < minimum)
+			throw new IllegalArgumentException("bufferSize must be at least " + minimum);
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.carry = CharBuffer.allocate(2);
+	}
+
+	@Override
+	public void write(final int c) throws IOException {
+		encode(CharBuffer.wrap(new char[] { (char) c }), false);
+	}
+
+	@Override
+	public void write(final char[] chars, final int offset, final int length) throws IOException {
+		encode(CharBuffer.wrap(chars, offset, length), false);
+	}
+
+	@Override
+	public void write(final String str, final int offset, final int length) throws IOException {
+		encode(CharBuffer.wrap(str, offset, offset + length), false);
+	}
+
+	@Override
+	public Writer append(final CharSequence csq) throws IOException {
+		encode(CharBuffer.wrap(csq == null ? "null" : csq), false);
+		return this;
+	}
+
+	@Override
+	public Writer append(final CharSequence csq, final int start, final int end)
+			throws IOException {
+		encode(CharBuffer.wrap(csq == null ? "null" : csq, start, end), false);
+		return this;
+	}
+
+	/** Writes the encoded bytes to the channel. A surrogate whose other half has not been written
+	 * yet stays buffered. */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		try {
+			encode(CharBuffer.allocate(0), true);
+			while (encoder.flush(buffer).isOverflow())
+				drain();
+			drain();
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	private void encode(final CharBuffer input, final boolean endOfInput) throws IOException {
+		ensureOpen();
+		while (carry.position() > 0 && input.hasRemaining()) {
+			carry.put(input.get());
+			carry.flip();
+			encodeFully(carry, false);
+			carry.compact();
+		}
+		if (carry.position() > 0 && endOfInput) {
+			carry.flip();
+			encodeFully(carry, true);
+			carry.clear();
+		}
+		encodeFully(input, endOfInput);
+		// Only a lone high surrogate at the very end is left, keep it for the next write.
+		if (input.hasRemaining()) carry.put(input);
+	}
+
+	private void encodeFully(final CharBuffer input, final boolean endOfInput)
+			throws IOException {
+		while (true) {
+			final CoderResult result = encoder.encode(input, buffer, endOfInput);
+			if (result.isUnderflow()) return;
+			if (result.isOverflow()) {
+				drain();
+			} else {
+				result.throwException();
+			}
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Writer is closed");
+	}
+}
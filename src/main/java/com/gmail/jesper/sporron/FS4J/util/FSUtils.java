@@ -1,13 +1,17 @@
 package com.gmail.jesper.sporron.FS4J.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Objects;
 
 import org.slf4j.Logger;
@@ -32,6 +36,25 @@ public final class FSUtils {
 		return true;
 	}
 
+	/** Joins the entries of the path with "/", skipping any "." and empty entries. Two paths that
+	 * point to the same file relative to the same root give the same string, e.g.
+	 * <code>"./music/theme.ogg"</code> and <code>"music/theme.ogg"</code>. The path should be
+	 * minimized first.
+	 *
+	 * @param path
+	 *            the path
+	 * @return the joined entries */
+	public static String toRelativeString(final FilePath path) {
+		Objects.requireNonNull(path, "path must not be null");
+		final StringBuilder builder = new StringBuilder();
+		for (final FileEntry entry : path) {
+			if (entry.equals(".") || entry.equals("")) continue;
+			if (builder.length() > 0) builder.append('/');
+			builder.append(entry.toString());
+		}
+		return builder.toString();
+	}
+
 	public static Path constructNIOPath(final FilePath path, final FileLocation location)
 			throws NullPointerException, URISyntaxException {
 		Objects.requireNonNull(path, "path must not be null");
@@ -44,17 +67,16 @@ public final class FSUtils {
 			return nioPath;
 		}
 		case INTERNAL: {
-			if (!strPath.startsWith("/")) strPath = "/" + strPath;
+			// Class loader resource names never start with "/", with one the lookup always fails
+			while (strPath.startsWith("/"))
+				strPath = strPath.substring(1);
 			final URL resource = FSUtils.class.getClassLoader().getResource(strPath);
 			Objects.requireNonNull(resource, String.format("Could not find resource %s", strPath));
 
-			try {
-				final URI uri = resource.toURI();
-				final Path nioPath = Paths.get(uri);
-				return nioPath;
-			} catch (final URISyntaxException e) {
-				throw e;
-			}
+			final URI uri = resource.toURI();
+			if ("jar".equals(uri.getScheme())) return jarPath(uri);
+			final Path nioPath = Paths.get(uri);
+			return nioPath;
 		}
 		default:
 			throw new UnsupportedOperationException(
@@ -62,21 +84,45 @@ public final class FSUtils {
 		}
 	}
 
+	/** Resources inside a jar can only be reached through the zip file system of the jar, which is
+	 * opened the first time a resource in the jar is looked up and then kept open.
+	 *
+	 * @throws UncheckedIOException
+	 *             if the jar could not be opened */
+	private static Path jarPath(final URI uri) {
+		try {
+			return Paths.get(uri);
+		} catch (final FileSystemNotFoundException e) {
+			try {
+				FileSystems.newFileSystem(uri, Collections.emptyMap());
+			} catch (final FileSystemAlreadyExistsException e2) {
+				// Opened by another thread in the meantime
+			} catch (final IOException e2) {
+				throw new UncheckedIOException(e2);
+			}
+			return Paths.get(uri);
+		}
+	}
+
 	/** Tries to predict the file type from the {@link FilePath}. This method is not always 100%
 	 * accurate. If you need an accurate file type use {@link FSUtils#getFileType(Path)}.
 	 *
 	 * @param path
 	 * @return */
 	public static FileType tryPredictFileType(final FilePath path) {
-		if (path.toString().endsWith(".zip")) return FileType.ARCHIVE;
+		if (isArchiveName(path.toString())) return FileType.ARCHIVE;
 		if (path.toString().matches(".*[.].+$")) return FileType.FILE;
 		return FileType.DIRECTORY;
 	}
 
 	public static FileType getFileType(final Path path) {
 		if (Files.isDirectory(path)) return FileType.DIRECTORY;
-		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:*/*.zip");
-		if (matcher.matches(path)) return FileType.ARCHIVE;
+		final Path fileName = path.getFileName();
+		if (fileName != null && isArchiveName(fileName.toString())) return FileType.ARCHIVE;
 		return FileType.FILE;
 	}
+
+	private static boolean isArchiveName(final String name) {
+		return name.endsWith(".zip") || name.endsWith(".fpk");
+	}
 }
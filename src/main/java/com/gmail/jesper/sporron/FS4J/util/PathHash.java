@@ -0,0 +1,142 @@
+package com.gmail.jesper.sporron.FS4J.util;
+
+import static java.util.Objects.requireNonNull;
+
+/** Stable 64-bit hash of a path, used to look up files in indexes without comparing strings. The
+ * hash is FNV-1a over the UTF-16 code units of the path as returned by
+ * {@link FSUtils#toRelativeString(FilePath)}, i.e. with entries separated by <code>'/'</code> and
+ * without any "." entries. The value never changes between runs or JVMs, so it can be stored on
+ * disk.
+ *
+ * <p>
+ * A case-insensitive hash lower-cases every code unit with {@link Character#toLowerCase(char)}
+ * first, so it does not depend on the default locale. For a path that is already lower case both
+ * hashes are the same.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class PathHash {
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private PathHash() {
+	}
+
+	/** Hashes a path that is already in relative string form, e.g. <code>"music/theme.ogg"</code>.
+	 *
+	 * @param relativePath
+	 *            the path
+	 * @return the hash */
+	public static long hash(final CharSequence relativePath) {
+		requireNonNull(relativePath, "relativePath must not be null");
+		return mix(OFFSET_BASIS, relativePath, 0, relativePath.length(), true);
+	}
+
+	/** Hashes a path in any string form, e.g. <code>"./music//theme.ogg"</code>, without building
+	 * its relative string form first. "." and empty entries are skipped, so the result is the same
+	 * as for the relative string form.
+	 *
+	 * @param path
+	 *            the path, entries separated by <code>'/'</code>
+	 * @param caseSensitive
+	 *            false to ignore the case of the path
+	 * @return the hash */
+	public static long hash(final CharSequence path, final boolean caseSensitive) {
+		requireNonNull(path, "path must not be null");
+		long hash = OFFSET_BASIS;
+		boolean first = true;
+		int start = 0;
+		for (int i = 0; i <= path.length(); i++) {
+			if (i < path.length() && path.charAt(i) != '/') continue;
+			if (!isSkipped(path, start, i)) {
+				if (!first) hash = mix(hash, '/');
+				hash = mix(hash, path, start, i, caseSensitive);
+				first = false;
+			}
+			start = i + 1;
+		}
+		return hash;
+	}
+
+	/** Hashes a {@link FilePath} entry by entry. Gives the same result as hashing its relative
+	 * string form.
+	 *
+	 * @param path
+	 *            the path, should be minimized
+	 * @return the hash */
+	public static long hash(final FilePath path) {
+		return hash(path, true);
+	}
+
+	/** @see PathHash#hash(FilePath)
+	 * @param caseSensitive
+	 *            false to ignore the case of the path */
+	public static long hash(final FilePath path, final boolean caseSensitive) {
+		requireNonNull(path, "path must not be null");
+		long hash = OFFSET_BASIS;
+		boolean first = true;
+		for (final FileEntry entry : path) {
+			final String name = entry.toString();
+			if (isSkipped(name, 0, name.length())) continue;
+			if (!first) hash = mix(hash, '/');
+			hash = mix(hash, name, 0, name.length(), caseSensitive);
+			first = false;
+		}
+		return hash;
+	}
+
+	/** Compares a path in any string form to a path in relative string form without building the
+	 * relative string form of the first, see {@link PathHash#hash(CharSequence, boolean)}.
+	 *
+	 * @param path
+	 *            the path, entries separated by <code>'/'</code>
+	 * @param relativePath
+	 *            the path in relative string form
+	 * @param caseSensitive
+	 *            false to ignore the case of the paths
+	 * @return true if both are the same path */
+	public static boolean matches(final CharSequence path, final CharSequence relativePath,
+			final boolean caseSensitive) {
+		requireNonNull(path, "path must not be null");
+		requireNonNull(relativePath, "relativePath must not be null");
+		int position = 0;
+		int start = 0;
+		for (int i = 0; i <= path.length(); i++) {
+			if (i < path.length() && path.charAt(i) != '/') continue;
+			if (!isSkipped(path, start, i)) {
+				if (position > 0) {
+					if (position >= relativePath.length() || relativePath.charAt(position) != '/')
+						return false;
+					position++;
+				}
+				if (position + i - start > relativePath.length()) return false;
+				for (int j = start; j < i; j++)
+					if (!same(path.charAt(j), relativePath.charAt(position++), caseSensitive))
+						return false;
+			}
+			start = i + 1;
+		}
+		return position == relativePath.length();
+	}
+
+	private static boolean isSkipped(final CharSequence path, final int start, final int end) {
+		return end == start || (end == start + 1 && path.charAt(start) == '.');
+	}
+
+	private static boolean same(final char a, final char b, final boolean caseSensitive) {
+		return a == b || (!caseSensitive && Character.toLowerCase(a) == Character.toLowerCase(b));
+	}
+
+	private static long mix(final long hash, final char c) {
+		return (hash ^ c) * PRIME;
+	}
+
+	private static long mix(final long hash, final CharSequence chars, final int start,
+			final int end, final boolean caseSensitive) {
+		long result = hash;
+		for (int i = start; i < end; i++)
+			result = mix(result, caseSensitive ? chars.charAt(i) : Character.toLowerCase(chars
+					.charAt(i)));
+		return result;
+	}
+}
@@ -0,0 +1,210 @@
+package com.gmail.jesper.sporron.FS4J.util;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** Splits text read from a {@link ReadableByteChannel} into records, e.g. lines. The text is
+ * decoded a buffer at a time as records are asked for, so only the record being read is ever held
+ * in memory, however large the content is. The byte and character buffers are reused for the
+ * whole content. Bytes that can not be decoded are replaced, like {@link String#String(byte[],
+ * Charset)} does.
+ *
+ * <p>
+ * A delimiter at the very end of the content does not start another, empty, record. Reading
+ * failures are thrown as {@link UncheckedIOException}.
+ * </p>
+ *
+ * @author Jesper Sporron */
+public final class RecordReader implements Iterator<String>, Closeable {
+	/** The smallest buffer size a reader can be created with. */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	private final ReadableByteChannel channel;
+	private final CharsetDecoder decoder;
+	/** The delimiter between records, or null if records are lines. */
+	private final String delimiter;
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+	private final StringBuilder record;
+	private boolean endOfInput;
+	private boolean flushed;
+	/** Set after a carriage return, so that a line feed right after it does not end a line. */
+	private boolean skipLineFeed;
+	private boolean closed;
+	private String next;
+
+	/** Creates a reader that splits records on a delimiter.
+	 *
+	 * @param channel
+	 *            the channel to read from, closed when the reader is closed
+	 * @param charset
+	 *            the charset to decode the content with
+	 * @param delimiter
+	 *            the text between two records, e.g. <code>","</code>
+	 * @param bufferSize
+	 *            the number of bytes to read from the channel at a time */
+	public RecordReader(final ReadableByteChannel channel, final Charset charset,
+			final String delimiter, final int bufferSize) {
+		this(channel, charset, delimiter, bufferSize, false);
+		if (delimiter.isEmpty()) throw new IllegalArgumentException("delimiter must not be empty");
+	}
+
+	private RecordReader(final ReadableByteChannel channel, final Charset charset,
+			final String delimiter, final int bufferSize, final boolean lines) {
+		requireNonNull(charset, "charset must not be null");
+		if (!lines) requireNonNull(delimiter, "delimiter must not be null");
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("bufferSize must be at least " + MIN_BUFFER_SIZE);
+		this.channel = requireNonNull(channel, "channel must not be null");
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.delimiter = delimiter;
+		this.bytes = ByteBuffer.allocateDirect(bufferSize);
+		this.chars = CharBuffer.allocate(bufferSize);
+		this.chars.flip();
+		this.record = new StringBuilder();
+	}
+
+	/** Creates a reader that splits records into lines. A line ends with a line feed, a carriage
+	 * return or a carriage return followed by a line feed, like
+	 * {@link java.io.BufferedReader#readLine()}.
+	 *
+	 * @param channel
+	 *            the channel to read from, closed when the reader is closed
+	 * @param charset
+	 *            the charset to decode the content with
+	 * @param bufferSize
+	 *            the number of bytes to read from the channel at a time
+	 * @return the reader */
+	public static RecordReader lines(final ReadableByteChannel channel, final Charset charset,
+			final int bufferSize) {
+		return new RecordReader(channel, charset, null, bufferSize, true);
+	}
+
+	/** @return true if there is another record, false if the content has been read or the reader
+	 *         has been closed */
+	@Override
+	public boolean hasNext() {
+		if (next == null && !closed) {
+			try {
+				next = readRecord();
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		final String result = next;
+		next = null;
+		return result;
+	}
+
+	/** Returns a sequential stream of the remaining records. Closing the stream closes this
+	 * reader.
+	 *
+	 * @return the stream */
+	public Stream<String> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED
+				| Spliterator.NONNULL), false).onClose(() -> {
+					try {
+						close();
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		next = null;
+		channel.close();
+	}
+
+	/** @return the next record, or null if there are no more records */
+	private String readRecord() throws IOException {
+		record.setLength(0);
+		boolean found = false;
+		while (chars.hasRemaining() || decode()) {
+			final char[] array = chars.array();
+			int start = chars.position();
+			final int end = chars.limit();
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (array[start] == '\n') {
+					chars.position(start + 1);
+					continue;
+				}
+			}
+			for (int i = start; i < end; i++) {
+				final char c = array[i];
+				if (delimiter == null) {
+					if (c == '\n' || c == '\r') {
+						record.append(array, start, i - start);
+						chars.position(i + 1);
+						skipLineFeed = c == '\r';
+						return record.toString();
+					}
+				} else if (c == delimiter.charAt(delimiter.length() - 1)) {
+					record.append(array, start, i + 1 - start);
+					start = i + 1;
+					if (endsWithDelimiter()) {
+						chars.position(start);
+						record.setLength(record.length() - delimiter.length());
+						return record.toString();
+					}
+				}
+			}
+			record.append(array, start, end - start);
+			chars.position(end);
+			found = true;
+		}
+		return found ? record.toString() : null;
+	}
+
+	private boolean endsWithDelimiter() {
+		final int offset = record.length() - delimiter.length();
+		if (offset < 0) return false;
+		for (int i = 0; i < delimiter.length(); i++) {
+			if (record.charAt(offset + i) != delimiter.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/** Decodes the next characters into the character buffer.
+	 *
+	 * @return false if the whole content has been decoded */
+	private boolean decode() throws IOException {
+		chars.clear();
+		while (chars.position() == 0 && !flushed) {
+			if (!endOfInput && channel.read(bytes) < 0) endOfInput = true;
+			bytes.flip();
+			decoder.decode(bytes, chars, endOfInput);
+			final boolean drained = !bytes.hasRemaining();
+			bytes.compact();
+			if (endOfInput && drained) flushed = decoder.flush(chars).isUnderflow();
+		}
+		chars.flip();
+		return chars.hasRemaining();
+	}
+}
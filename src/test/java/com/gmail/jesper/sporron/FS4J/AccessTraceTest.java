@@ -0,0 +1,145 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.AccessTrace;
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.DecompressionPipeline;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.TraceReplay;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class AccessTraceTest {
+	private static final int NUM_ENTRIES = 10;
+	private static final long TIMEOUT_MILLIS = 10_000;
+
+	@TempDir
+	Path tempDir;
+	private Path zipPath;
+	private Path writeDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		zipPath = tempDir.resolve("level.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < NUM_ENTRIES; i++) {
+				zip.putNextEntry(new ZipEntry("level/" + i + ".txt"));
+				zip.write(("content " + i).getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+			zip.putNextEntry(new ZipEntry("level/\u00e9t\u00e9.txt"));
+			zip.write("summer".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		Files.write(tempDir.resolve("loose.txt"), "loose".getBytes(StandardCharsets.UTF_8));
+		writeDir = Files.createDirectory(tempDir.resolve("write"));
+	}
+
+	@Test
+	void testRecordAndSave() throws IOException {
+		final NIOFileSystem fs = newFileSystem();
+		fs.startTraceRecording();
+		fs.open("level/3.txt", FileAccessType.READ);
+		fs.open("loose.txt", FileAccessType.READ);
+		fs.open("./level/3.txt", FileAccessType.READ);
+		fs.open("level/1.txt", FileAccessType.READ);
+		fs.open("level/\u00e9t\u00e9.txt", FileAccessType.READ);
+		fs.open("dne.txt", FileAccessType.READ);
+		final AccessTrace trace = fs.stopTraceRecording().get();
+		assertFalse(fs.stopTraceRecording().isPresent());
+
+		assertEquals(4, trace.size());
+		assertEquals(FilePath.from("level/3.txt"), trace.getAccesses().get(0)
+				.getPath());
+		assertEquals("content 3".length(), trace.getAccesses().get(0).getSize());
+		assertEquals("loose".length(), trace.getAccesses().get(1).getSize());
+		assertTrue(trace.getAccesses().get(0).getRegistration().endsWith("level.zip"));
+
+		assertTrue(fs.saveTrace(trace, FilePath.from("load.trace")));
+		final AccessTrace loaded = fs.loadTrace(FilePath.from("load.trace")).get();
+		assertEquals(trace.format(), loaded.format());
+		assertEquals(FilePath.from("level/\u00e9t\u00e9.txt"), loaded.getAccesses().get(3)
+				.getPath());
+		assertArrayEquals(trace.format().getBytes(StandardCharsets.UTF_8), Files.readAllBytes(
+				writeDir.resolve("load.trace")));
+		assertFalse(fs.loadTrace(FilePath.from("dne.trace")).isPresent());
+	}
+
+	@Test
+	void testReplay() throws Exception {
+		final NIOFileSystem recording = newFileSystem();
+		recording.startTraceRecording();
+		for (int i = 0; i < NUM_ENTRIES; i++)
+			recording.open("level/" + i + ".txt", FileAccessType.READ);
+		recording.open("loose.txt", FileAccessType.READ);
+		final AccessTrace trace = recording.stopTraceRecording().get();
+
+		final NIOFileSystem fs = newFileSystem();
+		fs.setCacheArchiveContent(true);
+		try (DecompressionPipeline pipeline = new DecompressionPipeline(2)) {
+			fs.setDecompressionPipeline(pipeline);
+			final TraceReplay replay = fs.replayTrace(trace, 3);
+			assertEquals(NUM_ENTRIES + 1, replay.size());
+
+			// Without any demand the replay stops at the read-ahead distance.
+			awaitComplete(replay, 3);
+			assertEquals(3, replay.getPrefetched());
+			assertFalse(replay.isComplete());
+
+			for (int i = 0; i < NUM_ENTRIES; i++) {
+				final Optional<NIOFSFile> file = fs.open("level/" + i + ".txt",
+						FileAccessType.READ);
+				assertEquals("content " + i, file.get().readString());
+				awaitComplete(replay, Math.min(i + 4, NUM_ENTRIES + 1));
+			}
+			fs.open("loose.txt", FileAccessType.READ);
+
+			assertTrue(replay.isComplete());
+			assertEquals(NUM_ENTRIES + 1, replay.getPrefetched());
+			assertEquals(NUM_ENTRIES + 1, replay.getHits());
+			assertTrue(((ArchiveNIOFSFile) fs.open("level/9.txt", FileAccessType.READ).get())
+					.isCached());
+		}
+	}
+
+	@Test
+	void testParse() {
+		final AccessTrace trace = AccessTrace.parse("# comment\nlevel/a.txt\tEXTERNAL:x\t5\t10\n"
+				+ "broken line\nlevel/b.txt\tEXTERNAL:x\tnot a number\t0\n"
+				+ "../secret.txt\tEXTERNAL:x\t5\t10\nlevel/../../secret.txt\tEXTERNAL:x\t5\t10\n");
+		assertEquals(1, trace.size());
+		assertEquals(5, trace.getAccesses().get(0).getSize());
+		assertEquals(10, trace.getAccesses().get(0).getTime());
+	}
+
+	private NIOFileSystem newFileSystem() {
+		final NIOFileSystem fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(tempDir.toString(), FileLocation.EXTERNAL));
+		fs.setWriteDirectory(FilePath.from(writeDir.toString()));
+		return fs;
+	}
+
+	private static void awaitComplete(final TraceReplay replay, final int prefetched)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (replay.getPrefetched() < prefetched && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		assertEquals(prefetched, replay.getPrefetched());
+	}
+}
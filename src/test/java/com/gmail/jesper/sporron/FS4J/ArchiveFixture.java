@@ -0,0 +1,140 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.gmail.jesper.sporron.FS4J.archive.PackWriter;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+
+/** The search path shared by the tests that read the same content from every kind of source: a
+ * zip archive, a pack and a directory of loose files, searched in that order by a
+ * {@link NIOFileSystem} that reports to a {@link FSMetrics}.
+ *
+ * @author Jesper Sporron */
+final class ArchiveFixture {
+	private final Path tempDir;
+	private final Map<String, byte[]> loose = new LinkedHashMap<>();
+	private final Map<String, byte[]> deflated = new LinkedHashMap<>();
+	private final Map<String, byte[]> stored = new LinkedHashMap<>();
+	private final Map<String, byte[]> packed = new LinkedHashMap<>();
+	private Path readDir;
+	private Path zipPath;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+
+	/** @param tempDir
+	 *            the directory to create the archives and the directory of loose files in */
+	ArchiveFixture(final Path tempDir) {
+		this.tempDir = tempDir;
+	}
+
+	/** @return 300 KiB, larger than the chunks archive content is inflated and streamed in. The
+	 *         first half is random and the second half compressible. */
+	static byte[] largeContent() {
+		final byte[] large = new byte[300 * 1024];
+		final byte[] noise = new byte[large.length / 2];
+		new Random(1).nextBytes(noise);
+		System.arraycopy(noise, 0, large, 0, noise.length);
+		for (int i = noise.length; i < large.length; i++)
+			large[i] = (byte) (i % 7);
+		return large;
+	}
+
+	static long crc32(final byte[] content) {
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+		return crc.getValue();
+	}
+
+	/** Adds a file to the directory of loose files. */
+	ArchiveFixture loose(final String name, final byte[] content) {
+		loose.put(name, content);
+		return this;
+	}
+
+	/** Adds a deflated entry to the zip archive. */
+	ArchiveFixture deflated(final String name, final byte[] content) {
+		deflated.put(name, content);
+		return this;
+	}
+
+	/** Adds a stored entry to the zip archive. */
+	ArchiveFixture stored(final String name, final byte[] content) {
+		stored.put(name, content);
+		return this;
+	}
+
+	/** Adds a compressed entry to the pack. */
+	ArchiveFixture packed(final String name, final byte[] content) {
+		packed.put(name, content);
+		return this;
+	}
+
+	/** Writes the archives and the loose files, and adds them to the search path of a new file
+	 * system. */
+	ArchiveFixture create() throws IOException {
+		readDir = Files.createDirectory(tempDir.resolve("read"));
+		for (final Map.Entry<String, byte[]> file : loose.entrySet())
+			Files.write(readDir.resolve(file.getKey()), file.getValue());
+
+		zipPath = tempDir.resolve("test.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (final Map.Entry<String, byte[]> file : deflated.entrySet()) {
+				zip.putNextEntry(new ZipEntry(file.getKey()));
+				zip.write(file.getValue());
+				zip.closeEntry();
+			}
+			for (final Map.Entry<String, byte[]> file : stored.entrySet()) {
+				final ZipEntry entry = new ZipEntry(file.getKey());
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(file.getValue().length);
+				entry.setCrc(crc32(file.getValue()));
+				zip.putNextEntry(entry);
+				zip.write(file.getValue());
+				zip.closeEntry();
+			}
+		}
+
+		final Path packPath = tempDir.resolve("test.fpk");
+		try (PackWriter writer = new PackWriter(packPath)) {
+			for (final Map.Entry<String, byte[]> file : packed.entrySet())
+				writer.add(file.getKey(), file.getValue(), true);
+		}
+
+		fs = new NIOFileSystem();
+		metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(packPath.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(readDir.toString(), FileLocation.EXTERNAL));
+		return this;
+	}
+
+	NIOFileSystem getFileSystem() {
+		return fs;
+	}
+
+	FSMetrics getMetrics() {
+		return metrics;
+	}
+
+	Path getReadDirectory() {
+		return readDir;
+	}
+
+	Path getZipPath() {
+		return zipPath;
+	}
+}
@@ -0,0 +1,158 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static com.gmail.jesper.sporron.FS4J.ArchiveFixture.crc32;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.AccessTrace;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class ChecksumTest {
+	@TempDir
+	Path tempDir;
+	private Path readDir;
+	private Path zipPath;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+	private byte[] large;
+	private byte[] stored;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		large = ArchiveFixture.largeContent();
+		stored = "stored content".getBytes(StandardCharsets.UTF_8);
+		final ArchiveFixture fixture = new ArchiveFixture(tempDir).loose("loose.bin", large)
+				.deflated("deflated.bin", large).stored("stored.txt", stored)
+				.packed("packed.bin", large).create();
+		readDir = fixture.getReadDirectory();
+		zipPath = fixture.getZipPath();
+		fs = fixture.getFileSystem();
+		metrics = fixture.getMetrics();
+	}
+
+	@Test
+	void testChecksum() throws NoSuchAlgorithmException {
+		final FileChecksum expected = FileChecksum.ofCrc32(crc32(large), large.length);
+		for (final String path : new String[] { "loose.bin", "deflated.bin", "packed.bin" })
+			assertEquals(expected, fs.checksum(FilePath.from(path)).get(), path);
+		// Only the loose file had to be read, archives record the CRC-32 of their entries.
+		assertEquals(1, metrics.getRead().getCount());
+
+		final CRC32C crc32c = new CRC32C();
+		crc32c.update(large);
+		final FileChecksum checksum = fs.checksum(FilePath.from("deflated.bin"),
+				ChecksumAlgorithm.CRC32C).get();
+		assertEquals(String.format("%08x", crc32c.getValue()), checksum.toHex());
+		assertEquals(large.length, checksum.getSize());
+
+		final byte[] sha = MessageDigest.getInstance("SHA-256").digest(large);
+		for (final String path : new String[] { "loose.bin", "deflated.bin", "packed.bin" }) {
+			final FileChecksum digest = fs.checksum(FilePath.from(path), ChecksumAlgorithm.SHA_256)
+					.get();
+			assertArrayEquals(sha, digest.getValue(), path);
+			assertTrue(digest.toString().startsWith("SHA-256:"));
+		}
+		assertFalse(fs.checksum(FilePath.from("dne.bin")).isPresent());
+	}
+
+	@Test
+	void testVerify() throws IOException {
+		final Map<FilePath, FileVerification> verifications = fs.verify(Arrays.asList(FilePath
+				.from("loose.bin"), FilePath.from("deflated.bin"), FilePath.from("stored.txt"),
+				FilePath.from("packed.bin"), FilePath.from("dne.bin")));
+		assertEquals(Arrays.asList(FilePath.from("loose.bin"), FilePath.from("deflated.bin"),
+				FilePath.from("stored.txt"), FilePath.from("packed.bin"), FilePath.from("dne.bin")),
+				Arrays.asList(verifications.keySet().toArray()));
+		assertEquals(FileVerification.ok(FileChecksum.ofCrc32(crc32(stored), stored.length)),
+				verifications.get(FilePath.from("stored.txt")));
+		assertEquals(FileVerification.missing(), verifications.get(FilePath.from("dne.bin")));
+		final long reads = metrics.getRead().getCount();
+		assertEquals(4, reads);
+
+		// Nothing has changed, so nothing is read again.
+		assertEquals(verifications, fs.verify(verifications.keySet()));
+		assertEquals(reads, metrics.getRead().getCount());
+
+		final Path loose = readDir.resolve("loose.bin");
+		Files.write(loose, stored);
+		Files.setLastModifiedTime(loose, FileTime.fromMillis(Files.getLastModifiedTime(loose)
+				.toMillis() + 2000));
+		assertEquals(FileChecksum.ofCrc32(crc32(stored), stored.length), fs.verify(Arrays.asList(
+				FilePath.from("loose.bin"))).get(FilePath.from("loose.bin")).getChecksum().get());
+		assertEquals(reads + 1, metrics.getRead().getCount());
+	}
+
+	@Test
+	void testVerifyDetectsTampering() throws IOException {
+		final byte[] zip = Files.readAllBytes(zipPath);
+		final int offset = indexOf(zip, stored);
+		zip[offset] ^= 1;
+		Files.write(zipPath, zip);
+
+		// The recorded checksum is unchanged, only verifying reads the content.
+		assertEquals(FileChecksum.ofCrc32(crc32(stored), stored.length), fs.checksum(FilePath
+				.from("stored.txt")).get());
+		final Map<FilePath, FileVerification> verifications = fs.verify(Arrays.asList(FilePath
+				.from("stored.txt"), FilePath.from("deflated.bin")));
+		final FileVerification tampered = verifications.get(FilePath.from("stored.txt"));
+		assertEquals(FileVerification.Status.MISMATCH, tampered.getStatus());
+		assertNotEquals(FileChecksum.ofCrc32(crc32(stored), stored.length), tampered.getChecksum()
+				.get());
+		assertTrue(verifications.get(FilePath.from("deflated.bin")).isOk());
+	}
+
+	@Test
+	void testVerifyAfterClose() {
+		final FilePath loose = FilePath.from("loose.bin");
+		final FileChecksum expected = fs.checksum(loose).get();
+		fs.close();
+		// Nothing is left on the search path, and no pipeline is created to find that out
+		assertEquals(FileVerification.missing(), fs.verify(Arrays.asList(loose)).get(loose));
+		assertEquals(0, fs.prefetch(Arrays.asList(loose)).join());
+		assertThrows(IllegalStateException.class, () -> fs.replayTrace(AccessTrace.parse(""),
+				1));
+
+		assertTrue(fs.addToSearchPath(readDir.toString(), FileLocation.EXTERNAL));
+		assertEquals(FileVerification.ok(expected), fs.verify(Arrays.asList(loose)).get(loose));
+	}
+
+	@Test
+	void testDefaultImplementation() {
+		final RAMFileSystem ram = new RAMFileSystem();
+		assertTrue(ram.setWriteDirectory("save"));
+		assertTrue(ram.createFile(FilePath.from("slot1.sav")).get().writeBytes(stored, false));
+		assertTrue(ram.addToSearchPath("save", FileLocation.INTERNAL));
+		final FileChecksum expected = FileChecksum.ofCrc32(crc32(stored), stored.length);
+		assertEquals(expected, ram.checksum(FilePath.from("slot1.sav")).get());
+		final Map<FilePath, FileVerification> verifications = ram.verify(Arrays.asList(FilePath
+				.from("slot1.sav"), FilePath.from("dne.sav")));
+		assertEquals(FileVerification.ok(expected), verifications.get(FilePath.from("slot1.sav")));
+		assertEquals(FileVerification.missing(), verifications.get(FilePath.from("dne.sav")));
+	}
+
+	private static int indexOf(final byte[] haystack, final byte[] needle) {
+		outer: for (int i = 0; i <= haystack.length - needle.length; i++) {
+			for (int j = 0; j < needle.length; j++)
+				if (haystack[i + j] != needle[j]) continue outer;
+			return i;
+		}
+		throw new AssertionError("not found");
+	}
+}
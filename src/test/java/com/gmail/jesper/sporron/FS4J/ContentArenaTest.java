@@ -0,0 +1,110 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+import com.gmail.jesper.sporron.FS4J.cache.ContentSegment;
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+
+class ContentArenaTest {
+	private ContentArena arena;
+
+	@BeforeEach
+	void setUp() {
+		arena = new ContentArena(16);
+	}
+
+	@Test
+	void testCapacity() {
+		final Optional<ContentSegment> first = arena.store(new byte[10]);
+		assertTrue(first.isPresent());
+		assertEquals(10, arena.getUsed());
+		assertFalse(arena.store(new byte[10]).isPresent());
+
+		first.get().release();
+		assertEquals(0, arena.getUsed());
+		assertTrue(arena.store(new byte[10]).isPresent());
+
+		assertThrows(IllegalArgumentException.class, () -> new ContentArena(-1));
+		assertThrows(NullPointerException.class, () -> arena.store((byte[]) null));
+	}
+
+	@Test
+	void testReferenceCounting() {
+		final ContentSegment segment = arena.store("content".getBytes(StandardCharsets.UTF_8))
+				.get();
+		final ByteBuffer view = segment.asReadOnlyBuffer();
+		assertTrue(view.isDirect());
+		assertTrue(view.isReadOnly());
+
+		segment.retain();
+		segment.release();
+		assertFalse(segment.isReleased());
+		assertEquals(7, arena.getUsed());
+
+		segment.release();
+		assertTrue(segment.isReleased());
+		assertEquals(0, arena.getUsed());
+		assertFalse(segment.tryRetain());
+		assertThrows(IllegalStateException.class, segment::retain);
+		assertThrows(IllegalStateException.class, segment::release);
+
+		// Views outlive the segment.
+		final byte[] bytes = new byte[view.remaining()];
+		view.get(bytes);
+		assertEquals("content", new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testArchiveContentOffHeap(@TempDir final Path tempDir) throws IOException {
+		final Path zipPath = tempDir.resolve("assets.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("small.txt"));
+			zip.write("small".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("large.txt"));
+			zip.write(new byte[64]);
+			zip.closeEntry();
+		}
+
+		final NIOFileSystem fs = new NIOFileSystem();
+		fs.setCacheArchiveContent(true);
+		fs.setContentArena(arena);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+
+		final ArchiveNIOFSFile small = (ArchiveNIOFSFile) fs
+				.open("small.txt", FileAccessType.READ).get();
+		assertEquals("small", small.readString());
+		assertTrue(small.isCachedOffHeap());
+		assertTrue(small.readBuffer().isDirect());
+		assertEquals(5, arena.getUsed());
+
+		// Does not fit in the arena, so it is cached on the heap instead.
+		final ArchiveNIOFSFile large = (ArchiveNIOFSFile) fs
+				.open("large.txt", FileAccessType.READ).get();
+		assertEquals(64, large.readBytes().length);
+		assertTrue(large.isCached());
+		assertFalse(large.isCachedOffHeap());
+
+		small.release();
+		assertFalse(small.isCached());
+		assertEquals(0, arena.getUsed());
+		assertEquals("small", small.readString());
+	}
+}
@@ -0,0 +1,97 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class CopyMoveTest {
+	@TempDir
+	Path tempDir;
+	private Path writeDir;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+	private byte[] large;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		large = ArchiveFixture.largeContent();
+		final ArchiveFixture fixture = new ArchiveFixture(tempDir).loose("loose.txt", "loose"
+				.getBytes(StandardCharsets.UTF_8)).deflated("deflated.bin", large).stored(
+						"stored.txt", "stored".getBytes(StandardCharsets.UTF_8)).packed(
+								"packed.bin", large).create();
+		fs = fixture.getFileSystem();
+		metrics = fixture.getMetrics();
+		writeDir = Files.createDirectory(tempDir.resolve("write"));
+		assertTrue(fs.setWriteDirectory(FilePath.from(writeDir.toString())));
+	}
+
+	@Test
+	void testCopy() throws IOException {
+		assertTrue(fs.copy(FilePath.from("loose.txt"), FilePath.from("loose-copy.txt")));
+		assertEquals("loose", read("loose-copy.txt"));
+		assertTrue(fs.copy(FilePath.from("stored.txt"), FilePath.from("stored-copy.txt")));
+		assertEquals("stored", read("stored-copy.txt"));
+		assertTrue(fs.copy(FilePath.from("deflated.bin"), FilePath.from("deflated-copy.bin")));
+		assertArrayEquals(large, Files.readAllBytes(writeDir.resolve("deflated-copy.bin")));
+		assertTrue(fs.copy(FilePath.from("packed.bin"), FilePath.from("packed-copy.bin")));
+		assertArrayEquals(large, Files.readAllBytes(writeDir.resolve("packed-copy.bin")));
+
+		// Replaces the destination and leaves no temporary files behind.
+		assertTrue(fs.copy(FilePath.from("stored.txt"), FilePath.from("loose-copy.txt")));
+		assertEquals("stored", read("loose-copy.txt"));
+		try (Stream<Path> files = Files.list(writeDir)) {
+			assertEquals(4, files.count());
+		}
+
+		assertFalse(fs.copy(FilePath.from("dne.txt"), FilePath.from("dne.txt")));
+		assertFalse(fs.copy(FilePath.from("loose.txt"), FilePath.from("../outside.txt")));
+		assertFalse(fs.copy(FilePath.from("loose.txt"), FilePath.from("missing/loose.txt")));
+		assertFalse(fs.copy(FilePath.from("loose.txt"), FilePath.from(".")));
+		assertFalse(Files.exists(tempDir.resolve("outside.txt")));
+
+		assertEquals(9, metrics.getCopy().getCount());
+		assertEquals(4, metrics.getCopy().getFailures());
+		assertEquals(5 + 6 + 2L * large.length + 6, metrics.getCopy().getBytes());
+	}
+
+	@Test
+	void testMove() throws IOException {
+		assertTrue(fs.createFile(FilePath.from("a.txt")).get().writeString("a", false));
+		assertTrue(fs.createFile(FilePath.from("b.txt")).get().writeString("b", false));
+		assertTrue(fs.createDirectory(FilePath.from("dir")));
+
+		assertTrue(fs.move(FilePath.from("a.txt"), FilePath.from("dir/a.txt")));
+		assertFalse(Files.exists(writeDir.resolve("a.txt")));
+		assertEquals("a", read("dir/a.txt"));
+
+		// Replaces an existing file.
+		assertTrue(fs.move(FilePath.from("b.txt"), FilePath.from("dir/a.txt")));
+		assertEquals("b", read("dir/a.txt"));
+
+		assertTrue(fs.move(FilePath.from("dir"), FilePath.from("renamed")));
+		assertEquals("b", read("renamed/a.txt"));
+
+		assertFalse(fs.move(FilePath.from("dne.txt"), FilePath.from("other.txt")));
+		assertFalse(fs.move(FilePath.from("renamed/a.txt"), FilePath.from("../outside.txt")));
+		assertFalse(fs.move(FilePath.from("renamed"), FilePath.from(".")));
+		assertEquals("b", read("renamed/a.txt"));
+		assertEquals(6, metrics.getMove().getCount());
+		assertEquals(3, metrics.getMove().getFailures());
+	}
+
+	private String read(final String path) throws IOException {
+		return new String(Files.readAllBytes(writeDir.resolve(path)), StandardCharsets.UTF_8);
+	}
+}
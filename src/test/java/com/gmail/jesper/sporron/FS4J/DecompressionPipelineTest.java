@@ -0,0 +1,149 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveStatistics;
+import com.gmail.jesper.sporron.FS4J.archive.CodecPool;
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.DecompressionPipeline;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class DecompressionPipelineTest {
+	private static final int NUM_ENTRIES = 32;
+
+	@TempDir
+	Path tempDir;
+	private Path zipPath;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		zipPath = tempDir.resolve("test.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < NUM_ENTRIES; i++) {
+				zip.putNextEntry(new ZipEntry("entry" + i + ".txt"));
+				zip.write(content(i).getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+	}
+
+	@Test
+	void testCodecPoolReuse() {
+		final CodecPool pool = new CodecPool(1);
+		final Inflater inflater = pool.acquireInflater();
+		pool.release(inflater);
+		assertEquals(1, pool.numIdleInflaters());
+		assertSame(inflater, pool.acquireInflater());
+		assertEquals(0, pool.numIdleInflaters());
+
+		final Deflater first = pool.acquireDeflater();
+		final Deflater second = pool.acquireDeflater();
+		assertNotSame(first, second);
+		pool.release(first);
+		pool.release(second);
+		assertEquals(1, pool.numIdleDeflaters());
+	}
+
+	@Test
+	void testPrefetch() throws Exception {
+		final NIOFileSystem fs = new NIOFileSystem();
+		fs.setCacheArchiveContent(true);
+		try (DecompressionPipeline pipeline = new DecompressionPipeline(4)) {
+			fs.setDecompressionPipeline(pipeline);
+			assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+
+			final List<FilePath> paths = new ArrayList<>();
+			for (int i = 0; i < NUM_ENTRIES; i++)
+				paths.add(FilePath.from("entry" + i + ".txt"));
+			paths.add(FilePath.from("dne.txt"));
+			assertEquals(NUM_ENTRIES, (int) fs.prefetch(paths).get(10, TimeUnit.SECONDS));
+
+			final ArchiveNIOFSFile file = (ArchiveNIOFSFile) fs.open("entry3.txt",
+					FileAccessType.READ).get();
+			assertTrue(file.isCached());
+			assertEquals(content(3), file.readString());
+			assertSame(file, fs.open("entry3.txt", FileAccessType.READ).get());
+
+			final ArchiveStatistics statistics = file.getArchive().getStatistics();
+			assertEquals(NUM_ENTRIES, statistics.getEntriesRead());
+			assertTrue(statistics.getBytesInflated() > 0);
+			assertTrue(statistics.getThroughput() > 0);
+		}
+	}
+
+	@Test
+	void testPrefetchWithoutCaching() throws Exception {
+		final NIOFileSystem fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		final List<FilePath> paths = new ArrayList<>();
+		paths.add(FilePath.from("entry0.txt"));
+		assertEquals(0, (int) fs.prefetch(paths).get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testCloseStopsOwnPipeline() throws Exception {
+		final Set<Thread> before = decompressThreads();
+		final NIOFileSystem fs = new NIOFileSystem();
+		fs.setCacheArchiveContent(true);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		final List<FilePath> paths = new ArrayList<>();
+		for (int i = 0; i < NUM_ENTRIES; i++)
+			paths.add(FilePath.from("entry" + i + ".txt"));
+		assertEquals(NUM_ENTRIES, (int) fs.prefetch(paths).get(10, TimeUnit.SECONDS));
+
+		final Set<Thread> started = decompressThreads();
+		started.removeAll(before);
+		assertFalse(started.isEmpty());
+		fs.close();
+		for (final Thread thread : started) {
+			thread.join(10_000);
+			assertFalse(thread.isAlive(), thread.getName());
+		}
+	}
+
+	@Test
+	void testStatistics() throws IOException {
+		final Archive archive = Archive.open(zipPath);
+		archive.readEntry(archive.getEntry(FilePath.from("entry0.txt")).get());
+		final ArchiveStatistics statistics = archive.getStatistics();
+		assertEquals(1, statistics.getEntriesRead());
+		assertEquals(content(0).length(), statistics.getBytesDelivered());
+		assertTrue(statistics.getBytesRead() > 0);
+	}
+
+	private static Set<Thread> decompressThreads() {
+		final Set<Thread> threads = new HashSet<>();
+		for (final Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().startsWith("fs4j-decompress-")) threads.add(thread);
+		return threads;
+	}
+
+	private static String content(final int i) {
+		final StringBuilder builder = new StringBuilder();
+		for (int j = 0; j < 100; j++)
+			builder.append("entry ").append(i).append(' ');
+		return builder.toString();
+	}
+}
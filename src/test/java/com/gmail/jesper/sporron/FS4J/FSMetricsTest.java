@@ -0,0 +1,123 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.metrics.LatencyHistogram;
+import com.gmail.jesper.sporron.FS4J.metrics.OperationSnapshot;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class FSMetricsTest {
+	@TempDir
+	Path tempDir;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		final Path readDir = Files.createDirectory(tempDir.resolve("read"));
+		Files.write(readDir.resolve("loose.txt"), "loose".getBytes(StandardCharsets.UTF_8));
+		final Path zipPath = tempDir.resolve("test.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("zipped.txt"));
+			zip.write("zipped".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		final Path writeDir = Files.createDirectory(tempDir.resolve("write"));
+
+		fs = new NIOFileSystem();
+		metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(readDir.toString(), FileLocation.EXTERNAL));
+		fs.setWriteDirectory(FilePath.from(writeDir.toString()));
+	}
+
+	@Test
+	void testOperations() {
+		assertEquals("zipped", fs.open("zipped.txt", FileAccessType.READ).get().readString());
+		assertEquals("zipped", fs.open("zipped.txt", FileAccessType.READ).get().readString());
+		assertEquals("loose", fs.open("loose.txt", FileAccessType.READ).get().readString());
+		assertFalse(fs.open("dne.txt", FileAccessType.READ).isPresent());
+
+		final NIOFSFile created = fs.createFile(FilePath.from("new.txt")).get();
+		assertTrue(created.writeString("written", false));
+		assertTrue(fs.createDirectory(FilePath.from("dir")));
+		assertTrue(fs.delete(FilePath.from("new.txt")));
+		assertFalse(fs.delete(FilePath.from("new.txt")));
+
+		final OperationSnapshot open = metrics.getOpen();
+		assertEquals(4, open.getCount());
+		assertEquals(1, open.getFailures());
+		final Map<String, Long> hits = metrics.getOpenHitsByRegistration();
+		assertEquals(2, hits.size());
+		assertTrue(hits.containsValue(2L));
+		assertTrue(hits.containsValue(1L));
+
+		assertEquals(3, metrics.getRead().getCount());
+		assertEquals("zipped".length() * 2 + "loose".length(), metrics.getRead().getBytes());
+		assertEquals(1, metrics.getWrite().getCount());
+		assertEquals("written".length(), metrics.getWrite().getBytes());
+		assertEquals(1, metrics.getCreateFile().getCount());
+		assertEquals(1, metrics.getCreateDirectory().getCount());
+		assertEquals(2, metrics.getDelete().getCount());
+		assertEquals(1, metrics.getDelete().getFailures());
+		assertEquals(1, metrics.getArchiveOpen().getCount());
+
+		metrics.reset();
+		assertEquals(0, metrics.getOpen().getCount());
+		assertTrue(metrics.getOpenHitsByRegistration().isEmpty());
+	}
+
+	@Test
+	void testHistogram() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(50));
+		for (int i = 0; i < 99; i++)
+			histogram.record(1_000);
+		histogram.record(1_000_000);
+		assertEquals(100, histogram.getCount());
+		assertEquals(1_000_000, histogram.getMax());
+		assertTrue(histogram.getPercentile(50) >= 1_000 && histogram.getPercentile(50) < 2_000);
+		assertTrue(histogram.getPercentile(99) < 2_000);
+		assertEquals(1_000_000, histogram.getPercentile(100));
+		assertThrows(IllegalArgumentException.class, () -> histogram.getPercentile(101));
+	}
+
+	@Test
+	void testJmx() throws JMException {
+		fs.open("zipped.txt", FileAccessType.READ).get().readBytes();
+		final ObjectName name = metrics.register("test");
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final CompositeData read = (CompositeData) server.getAttribute(name, "Read");
+			assertEquals(1L, read.get("count"));
+			assertEquals((long) "zipped".length(), read.get("bytes"));
+			assertThrows(JMException.class, () -> metrics.register("test"));
+		} finally {
+			FSMetrics.unregister("test");
+		}
+	}
+}
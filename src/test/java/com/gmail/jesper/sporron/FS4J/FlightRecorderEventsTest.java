@@ -0,0 +1,98 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class FlightRecorderEventsTest {
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testEvents() throws IOException {
+		final Path readDir = Files.createDirectory(tempDir.resolve("read"));
+		Files.write(readDir.resolve("loose.txt"), "loose".getBytes(StandardCharsets.UTF_8));
+		final Path zipPath = tempDir.resolve("test.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("zipped.txt"));
+			zip.write("zipped".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		final Path writeDir = Files.createDirectory(tempDir.resolve("write"));
+
+		final NIOFileSystem fs = new NIOFileSystem();
+		fs.setCacheArchiveContent(true);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(readDir.toString(), FileLocation.EXTERNAL));
+		fs.setWriteDirectory(FilePath.from(writeDir.toString()));
+
+		final Path dump = tempDir.resolve("events.jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("fs4j.Open");
+			recording.enable("fs4j.Read");
+			recording.enable("fs4j.Write");
+			recording.enable("fs4j.ArchiveOpen");
+			recording.enable("fs4j.Cache");
+			recording.start();
+
+			assertEquals("zipped", fs.open("zipped.txt", FileAccessType.READ).get().readString());
+			assertEquals("zipped", fs.open("zipped.txt", FileAccessType.READ).get().readString());
+			assertEquals("loose", fs.open("loose.txt", FileAccessType.READ).get().readString());
+			assertFalse(fs.open("dne.txt", FileAccessType.READ).isPresent());
+			assertTrue(fs.createFile(FilePath.from("new.txt")).get().writeString("new", false));
+
+			recording.stop();
+			recording.dump(dump);
+		}
+
+		final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		final List<RecordedEvent> opens = byType(events, "fs4j.Open");
+		assertEquals(4, opens.stream().filter(e -> e.getString("accessType").equals("READ"))
+				.count());
+		assertEquals(1, opens.stream().filter(e -> !e.getBoolean("found")).count());
+		assertTrue(opens.stream().anyMatch(e -> e.getString("path").equals("zipped.txt") && e
+				.getString("registration").endsWith("test.zip")));
+
+		final List<RecordedEvent> archives = byType(events, "fs4j.ArchiveOpen");
+		assertEquals(1, archives.size());
+		assertEquals(1, archives.get(0).getInt("entries"));
+
+		final List<RecordedEvent> reads = byType(events, "fs4j.Read");
+		assertEquals(3, reads.size());
+		assertTrue(reads.stream().anyMatch(e -> e.getString("path").endsWith("!zipped.txt") && e
+				.getLong("bytes") == 6));
+
+		final List<RecordedEvent> cache = byType(events, "fs4j.Cache");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.stream().filter(e -> e.getBoolean("hit")).count());
+
+		final List<RecordedEvent> writes = byType(events, "fs4j.Write");
+		assertEquals(1, writes.size());
+		assertEquals(3, writes.get(0).getLong("bytes"));
+		assertTrue(writes.get(0).getBoolean("success"));
+	}
+
+	private static List<RecordedEvent> byType(final List<RecordedEvent> events, final String name) {
+		return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(
+				Collectors.toList());
+	}
+}
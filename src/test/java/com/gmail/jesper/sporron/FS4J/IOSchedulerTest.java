@@ -0,0 +1,217 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.IOScheduler;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.ScheduledRead;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class IOSchedulerTest {
+	private static final long TIMEOUT_SECONDS = 10;
+
+	@TempDir
+	Path tempDir;
+	private NIOFileSystem fs;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		for (final String name : new String[] { "block", "low", "high", "bulk" })
+			Files.write(tempDir.resolve(name + ".txt"), name.getBytes(StandardCharsets.UTF_8));
+		fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath(tempDir.toString(), FileLocation.EXTERNAL));
+	}
+
+	@Test
+	void testPriorityOrder() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = new CopyOnWriteArrayList<>();
+		try (IOScheduler scheduler = new IOScheduler(fs, 1, 1,
+				IOScheduler.RootGrouping.REGISTRATION)) {
+			final ScheduledRead<String> blocker = scheduler.submit(FilePath.from("block.txt"), 0,
+					file -> {
+						started.countDown();
+						await(release);
+						return file.readString();
+					});
+			assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+			final ScheduledRead<String> low = scheduler.submit(FilePath.from("low.txt"), 1,
+					file -> record(order, file));
+			final ScheduledRead<String> bulk = scheduler.submit(FilePath.from("bulk.txt"), 1,
+					file -> record(order, file));
+			final ScheduledRead<String> high = scheduler.submit(FilePath.from("high.txt"), 5,
+					file -> record(order, file));
+			final ScheduledRead<String> bulk2 = scheduler.submit(FilePath.from("bulk.txt"), 0,
+					file -> record(order, file));
+			assertEquals(4, scheduler.getQueueDepth());
+			assertEquals(3, scheduler.getQueueDepth(1));
+			assertEquals(1, scheduler.getActiveCount());
+
+			assertTrue(bulk.cancel());
+			assertFalse(blocker.cancel());
+			release.countDown();
+
+			assertEquals("block", blocker.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get());
+			assertEquals("high", high.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get());
+			assertEquals("low", low.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get());
+			assertEquals("bulk", bulk2.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get());
+			assertThrows(CancellationException.class, () -> bulk.getFuture().get());
+			assertFalse(bulk.cancel());
+
+			assertEquals(3, order.size());
+			assertEquals("high", order.get(0));
+			assertEquals("low", order.get(1));
+			assertEquals(1, scheduler.getCancelledCount());
+			final long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+			while (scheduler.getCompletedCount() < 4 && System.currentTimeMillis() < deadline)
+				Thread.sleep(5);
+			assertEquals(4, scheduler.getCompletedCount());
+			assertTrue(scheduler.getMaxWaitTime(TimeUnit.NANOSECONDS) > 0);
+		}
+	}
+
+	@Test
+	void testCancelBelow() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (IOScheduler scheduler = new IOScheduler(fs, 1, 1,
+				IOScheduler.RootGrouping.DEVICE)) {
+			scheduler.submit(FilePath.from("block.txt"), 0, file -> {
+				started.countDown();
+				await(release);
+				return null;
+			});
+			assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			final ScheduledRead<byte[]> low = scheduler.read(FilePath.from("low.txt"), 1);
+			final ScheduledRead<byte[]> bulk = scheduler.read(FilePath.from("bulk.txt"), 0);
+			final ScheduledRead<byte[]> high = scheduler.read(FilePath.from("high.txt"), 5);
+			assertEquals(2, scheduler.cancelBelow(5));
+			release.countDown();
+
+			assertArrayEquals("high".getBytes(StandardCharsets.UTF_8), high.getFuture().get(
+					TIMEOUT_SECONDS, TimeUnit.SECONDS).get());
+			assertTrue(low.getFuture().isCancelled());
+			assertTrue(bulk.getFuture().isCancelled());
+		}
+	}
+
+	@Test
+	void testLimitPerRoot() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (IOScheduler scheduler = new IOScheduler(fs, 4, 1,
+				IOScheduler.RootGrouping.REGISTRATION)) {
+			final ScheduledRead<byte[]> first = scheduler.submit(FilePath.from("block.txt"), 0,
+					file -> {
+						started.countDown();
+						await(release);
+						return file.readBytes();
+					});
+			assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			final ScheduledRead<byte[]> second = scheduler.read(FilePath.from("low.txt"), 10);
+
+			// Free workers are available, but the root is busy.
+			Thread.sleep(50);
+			assertEquals(1, scheduler.getActiveCount());
+			assertEquals(1, scheduler.getQueueDepth());
+			assertFalse(second.getFuture().isDone());
+
+			release.countDown();
+			assertTrue(first.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).isPresent());
+			assertTrue(second.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).isPresent());
+		}
+	}
+
+	@Test
+	void testMissingFile() throws Exception {
+		try (IOScheduler scheduler = new IOScheduler(fs, 1, 1,
+				IOScheduler.RootGrouping.REGISTRATION)) {
+			assertFalse(scheduler.read(FilePath.from("dne.txt"), 0).getFuture().get(
+					TIMEOUT_SECONDS, TimeUnit.SECONDS).isPresent());
+		}
+	}
+
+	@Test
+	void testUnsafePath() throws Exception {
+		final Path root = Files.createDirectory(tempDir.resolve("root"));
+		final NIOFileSystem sandboxed = new NIOFileSystem();
+		assertTrue(sandboxed.addToSearchPath(root.toString(), FileLocation.EXTERNAL));
+		try (IOScheduler scheduler = new IOScheduler(sandboxed, 1, 1,
+				IOScheduler.RootGrouping.REGISTRATION)) {
+			assertFalse(scheduler.read(FilePath.from("../low.txt"), 0).getFuture().get(
+					TIMEOUT_SECONDS, TimeUnit.SECONDS).isPresent());
+		}
+	}
+
+	@Test
+	void testLookupOnWorker() throws Exception {
+		final Path zipPath = tempDir.resolve("archive.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("zipped.txt"));
+			zip.write("zipped".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		final NIOFileSystem archived = new NIOFileSystem();
+		final FSMetrics metrics = new FSMetrics();
+		archived.setMetricsListener(metrics);
+		assertTrue(archived.addToSearchPath(tempDir.toString(), FileLocation.EXTERNAL));
+		assertTrue(archived.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try (IOScheduler scheduler = new IOScheduler(archived, 1, 1,
+				IOScheduler.RootGrouping.REGISTRATION)) {
+			scheduler.submit(FilePath.from("block.txt"), 0, file -> {
+				started.countDown();
+				await(release);
+				return null;
+			});
+			assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+			final ScheduledRead<String> zipped = scheduler.submit(FilePath.from("zipped.txt"), 0,
+					NIOFSFile::readString);
+
+			// The archive is only indexed once a worker gets to the request
+			assertEquals(0, metrics.getArchiveOpen().getCount());
+			release.countDown();
+			assertEquals("zipped", zipped.getFuture().get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+					.get());
+			assertEquals(1, metrics.getArchiveOpen().getCount());
+		}
+	}
+
+	private static String record(final List<String> order, final NIOFSFile file) {
+		final String content = file.readString();
+		order.add(content);
+		return content;
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+import com.gmail.jesper.sporron.FS4J.cache.MemoryPressureMonitor;
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.SharedResources;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+
+class MemoryPressureMonitorTest {
+	@TempDir
+	Path tempDir;
+	private Path zipPath;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		zipPath = tempDir.resolve("assets.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (final String name : new String[] { "a.bin", "b.bin", "c.bin" }) {
+				zip.putNextEntry(new ZipEntry(name));
+				zip.write(new byte[1000]);
+				zip.closeEntry();
+			}
+		}
+	}
+
+	@Test
+	void testShrinkLeastRecentlyUsed() {
+		final NIOFileSystem fs = new NIOFileSystem();
+		final FSMetrics metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+		fs.setCacheArchiveContent(true);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		final ArchiveNIOFSFile a = open(fs, "a.bin");
+		final ArchiveNIOFSFile b = open(fs, "b.bin");
+		final ArchiveNIOFSFile c = open(fs, "c.bin");
+		b.readBytes();
+		a.readBytes();
+		c.readBytes();
+		a.readBytes();
+		assertEquals(3000, fs.getCachedBytes());
+
+		final MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.9, 1500);
+		monitor.register(fs);
+		assertEquals(2000, monitor.shrink());
+		assertEquals(1000, fs.getCachedBytes());
+		assertTrue(a.isCached());
+		assertFalse(b.isCached());
+		assertFalse(c.isCached());
+		assertEquals(1, monitor.getShrinkCount());
+		assertEquals(2000, monitor.getReleasedBytes());
+		assertEquals(1, metrics.getCacheShrink().getCount());
+		assertEquals(2000, metrics.getCacheShrink().getBytes());
+
+		assertEquals(1000, b.readBytes().length);
+		assertTrue(b.isCached());
+		assertEquals(1000, monitor.shrink());
+		assertFalse(a.isCached());
+		assertTrue(b.isCached());
+		assertTrue(monitor.unregister(fs));
+	}
+
+	@Test
+	void testShrinkSharedResources() {
+		final SharedResources resources = new SharedResources(4096);
+		try (NIOFileSystem fs = new NIOFileSystem(resources)) {
+			assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+			open(fs, "a.bin").readBytes();
+			open(fs, "b.bin").readBytes();
+			assertEquals(2000, resources.getCachedBytes());
+			assertEquals(0, fs.getCachedBytes());
+
+			// Shared content is off the heap, so heap pressure leaves it to the arena budget
+			final MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.9, 0);
+			monitor.register(fs);
+			assertEquals(0, monitor.shrink());
+			assertEquals(2000, resources.getArena().getUsed());
+
+			assertEquals(1000, resources.shrinkTo(1000));
+			assertEquals(1000, resources.getArena().getUsed());
+			assertEquals(1000, resources.shrinkTo(0));
+			assertEquals(0, resources.getArena().getUsed());
+			assertEquals(1000, open(fs, "a.bin").readBytes().length);
+		}
+	}
+
+	@Test
+	void testShrinkOnlyHeapContent() {
+		final NIOFileSystem fs = new NIOFileSystem();
+		fs.setCacheArchiveContent(true);
+		fs.setContentArena(new ContentArena(1500));
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+		final ArchiveNIOFSFile a = open(fs, "a.bin");
+		final ArchiveNIOFSFile b = open(fs, "b.bin");
+		a.readBytes();
+		b.readBytes();
+		assertTrue(a.isCachedOffHeap());
+		assertTrue(b.isCached());
+		assertFalse(b.isCachedOffHeap());
+		assertEquals(1000, fs.getCachedBytes());
+
+		final MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.9, 0);
+		monitor.register(fs);
+		assertEquals(1000, monitor.shrink());
+		assertEquals(0, fs.getCachedBytes());
+		assertTrue(a.isCachedOffHeap());
+		assertFalse(b.isCached());
+	}
+
+	@Test
+	void testThresholdsRestored() {
+		final Map<String, Long> before = thresholds();
+		try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.99, 0)) {
+			if (!monitor.start()) return;
+			assertNotEquals(before, thresholds());
+		}
+		assertEquals(before, thresholds());
+	}
+
+	@Test
+	void testArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new MemoryPressureMonitor(0, 0));
+		assertThrows(IllegalArgumentException.class, () -> new MemoryPressureMonitor(1.5, 0));
+		assertThrows(IllegalArgumentException.class, () -> new MemoryPressureMonitor(0.5, -1));
+	}
+
+	private static Map<String, Long> thresholds() {
+		final Map<String, Long> thresholds = new HashMap<>();
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.isUsageThresholdSupported())
+				thresholds.put(pool.getName(), pool.getUsageThreshold());
+		return thresholds;
+	}
+
+	private static ArchiveNIOFSFile open(final NIOFileSystem fs, final String path) {
+		return (ArchiveNIOFSFile) fs.open(path, FileAccessType.READ).get();
+	}
+}
@@ -0,0 +1,121 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSRegistration;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class MountPointTest {
+	@TempDir
+	Path tempDir;
+	private Path sfx;
+	private Path music;
+	private Path base;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		sfx = Files.createDirectory(tempDir.resolve("sfx"));
+		write(sfx.resolve("jump.ogg"), "mounted jump");
+		music = tempDir.resolve("music.zip");
+		try (OutputStream out = Files.newOutputStream(music);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("theme.ogg"));
+			zip.write("theme".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		base = Files.createDirectory(tempDir.resolve("base"));
+		Files.createDirectories(base.resolve("audio/sfx"));
+		write(base.resolve("audio/sfx/jump.ogg"), "base jump");
+		write(base.resolve("texture.png"), "texture");
+
+		fs = new NIOFileSystem();
+		metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+	}
+
+	@Test
+	void testMount() {
+		assertTrue(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "audio/sfx"));
+		assertTrue(fs.addToSearchPath(music.toString(), FileLocation.EXTERNAL, "./audio/music/"));
+		assertEquals("mounted jump", read("audio/sfx/jump.ogg"));
+		assertEquals("mounted jump", read("./audio/sfx/jump.ogg"));
+		assertEquals("theme", read("audio/music/theme.ogg"));
+		assertFalse(fs.open("jump.ogg", FileAccessType.READ).isPresent());
+		assertFalse(fs.open("audio/jump.ogg", FileAccessType.READ).isPresent());
+		assertFalse(fs.open("audio/sfx", FileAccessType.READ).isPresent());
+		assertFalse(fs.open("audio/music/jump.ogg", FileAccessType.READ).isPresent());
+
+		final NIOFSRegistration reg = fs.snapshot().getRegistrations().get(1);
+		assertEquals(FilePath.from("audio/music"), reg.getMountPoint().get());
+		assertTrue(reg.toString().endsWith("@audio/music"));
+	}
+
+	@Test
+	void testOrder() {
+		assertTrue(fs.addToSearchPath(base.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "audio/sfx"));
+		assertEquals("base jump", read("audio/sfx/jump.ogg"));
+
+		assertTrue(fs.removeFromSearchPath(FilePath.from(base.toString())));
+		assertTrue(fs.addToSearchPath(base.toString(), FileLocation.EXTERNAL));
+		assertEquals("mounted jump", read("audio/sfx/jump.ogg"));
+	}
+
+	@Test
+	void testRouting() {
+		assertTrue(fs.addToSearchPath(music.toString(), FileLocation.EXTERNAL, "audio/music"));
+		assertTrue(fs.addToSearchPath(base.toString(), FileLocation.EXTERNAL));
+		assertEquals("texture", read("texture.png"));
+		assertEquals(0, metrics.getArchiveOpen().getCount());
+		assertEquals("theme", read("audio/music/theme.ogg"));
+		assertEquals(1, metrics.getArchiveOpen().getCount());
+	}
+
+	@Test
+	void testSeveralMountPoints() {
+		assertTrue(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "a"));
+		assertTrue(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "b/c"));
+		assertFalse(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "a"));
+		assertFalse(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "../a"));
+		assertEquals("mounted jump", read("a/jump.ogg"));
+		assertEquals("mounted jump", read("b/c/jump.ogg"));
+
+		assertTrue(fs.removeFromSearchPath(FilePath.from(sfx.toString())));
+		assertFalse(fs.open("a/jump.ogg", FileAccessType.READ).isPresent());
+		assertFalse(fs.open("b/c/jump.ogg", FileAccessType.READ).isPresent());
+	}
+
+	@Test
+	void testDefaultImplementation() {
+		final RAMFileSystem ram = new RAMFileSystem();
+		assertTrue(ram.setWriteDirectory("save"));
+		assertTrue(ram.addToSearchPath("save", FileLocation.INTERNAL, "."));
+		assertThrows(UnsupportedOperationException.class, () -> ram.addToSearchPath("other",
+				FileLocation.INTERNAL, "mounted"));
+	}
+
+	private String read(final String path) {
+		return fs.open(path, FileAccessType.READ).get().readString();
+	}
+
+	private static void write(final Path path, final String content) throws IOException {
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+}
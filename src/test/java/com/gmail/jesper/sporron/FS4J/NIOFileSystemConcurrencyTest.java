@@ -0,0 +1,265 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class NIOFileSystemConcurrencyTest {
+	private static final int THREADS = 16;
+	private static final int DIRECTORIES = 32;
+
+	@TempDir
+	Path tempDir;
+	private NIOFileSystem fs;
+	private ExecutorService executor;
+	private List<FilePath> directories;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		fs = new NIOFileSystem();
+		executor = Executors.newFixedThreadPool(THREADS);
+		directories = new ArrayList<>();
+		for (int i = 0; i < DIRECTORIES; i++) {
+			final Path dir = Files.createDirectory(tempDir.resolve("dir" + i));
+			Files.write(dir.resolve("file" + i + ".txt"),
+					("content" + i).getBytes(StandardCharsets.UTF_8));
+			directories.add(FilePath.from(dir.toString()));
+		}
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		executor.shutdownNow();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testConcurrentAddsAreLinearizable() throws Exception {
+		final AtomicInteger[] added = new AtomicInteger[DIRECTORIES];
+		for (int i = 0; i < DIRECTORIES; i++)
+			added[i] = new AtomicInteger();
+
+		runConcurrently(() -> {
+			final List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < DIRECTORIES; i++)
+				order.add(i);
+			Collections.shuffle(order);
+			for (final int i : order)
+				if (fs.addToSearchPath(directories.get(i), FileLocation.EXTERNAL))
+					added[i].incrementAndGet();
+			return null;
+		});
+
+		for (int i = 0; i < DIRECTORIES; i++) {
+			assertEquals(1, added[i].get(), "each path must be added exactly once");
+			assertTrue(fs.isOnSearchPath(directories.get(i)));
+		}
+	}
+
+	@Test
+	void testReadersSeeRegistrationsOnceVisible() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Future<?> writer = executor.submit(() -> {
+			start.await();
+			for (final FilePath dir : directories)
+				assertTrue(fs.addToSearchPath(dir, FileLocation.EXTERNAL));
+			return null;
+		});
+
+		final List<Future<?>> readers = new ArrayList<>();
+		for (int t = 0; t < THREADS - 1; t++) {
+			readers.add(executor.submit(() -> {
+				start.await();
+				while (!writer.isDone()) {
+					for (int i = 0; i < DIRECTORIES; i++) {
+						// Once a registration is visible it must stay visible and its files must
+						// be found.
+						if (!fs.isOnSearchPath(directories.get(i))) continue;
+						final Optional<NIOFSFile> file = fs.open("file" + i + ".txt",
+								FileAccessType.READ);
+						assertTrue(file.isPresent());
+						assertEquals("content" + i, file.get().readString());
+					}
+				}
+				return null;
+			}));
+		}
+
+		start.countDown();
+		writer.get(30, TimeUnit.SECONDS);
+		for (final Future<?> reader : readers)
+			reader.get(30, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void testConcurrentFirstArchiveOpen() throws Exception {
+		final Path zipPath = tempDir.resolve("concurrent.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < DIRECTORIES; i++) {
+				zip.putNextEntry(new ZipEntry("zipped" + i + ".txt"));
+				zip.write(("zipped" + i).getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+
+		runConcurrently(() -> {
+			for (int i = 0; i < DIRECTORIES; i++) {
+				final Optional<NIOFSFile> file = fs.open("zipped" + i + ".txt",
+						FileAccessType.READ);
+				assertTrue(file.isPresent());
+				assertEquals("zipped" + i, file.get().readString());
+			}
+			return null;
+		});
+	}
+
+	@Test
+	void testArchiveNamedFileDoesNotChangeRegistration() throws Exception {
+		final Path dir = tempDir.resolve("dir0");
+		try (OutputStream out = Files.newOutputStream(dir.resolve("inner.zip"));
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("zipped.txt"));
+			zip.closeEntry();
+		}
+		assertTrue(fs.addToSearchPath(directories.get(0), FileLocation.EXTERNAL));
+		assertEquals("content0", fs.open("file0.txt", FileAccessType.READ).get().readString());
+
+		// Looking up a file named like an archive must not turn the directory into an archive
+		runConcurrently(() -> {
+			for (int i = 0; i < DIRECTORIES; i++) {
+				assertTrue(fs.open("inner.zip", FileAccessType.READ).isPresent());
+				final Optional<NIOFSFile> sibling = fs.open("file0.txt", FileAccessType.READ);
+				assertTrue(sibling.isPresent());
+				assertEquals("content0", sibling.get().readString());
+			}
+			return null;
+		});
+		assertEquals(FileType.DIRECTORY, fs.snapshot().getRegistrations().get(0).getType());
+	}
+
+	@Test
+	void testWriteDirectoryChangesDuringOpen() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Future<?> writer = executor.submit(() -> {
+			start.await();
+			for (final FilePath dir : directories)
+				assertTrue(fs.setWriteDirectory(dir));
+			return null;
+		});
+
+		final List<Future<?>> readers = new ArrayList<>();
+		for (int t = 0; t < THREADS - 1; t++) {
+			readers.add(executor.submit(() -> {
+				start.await();
+				while (!writer.isDone()) {
+					// Must never fail with a NullPointerException while the write directory is
+					// being set, and must succeed once a write directory is visible.
+					final boolean hasWriteDirectory = fs.getWriteDirectory().isPresent();
+					final Optional<NIOFSFile> file = fs.open("file.txt", FileAccessType.WRITE);
+					if (hasWriteDirectory) assertTrue(file.isPresent());
+				}
+				return null;
+			}));
+		}
+
+		start.countDown();
+		writer.get(30, TimeUnit.SECONDS);
+		for (final Future<?> reader : readers)
+			reader.get(30, TimeUnit.SECONDS);
+		assertEquals(directories.get(DIRECTORIES - 1), fs.getWriteDirectory().get());
+	}
+
+	@Test
+	void testConcurrentWritesToSameFile() throws Exception {
+		assertTrue(fs.setWriteDirectory(FilePath.from(tempDir.toString())));
+		assertTrue(fs.createFile(FilePath.from("shared.txt")).isPresent());
+		final String line = "0123456789abcdef\n";
+		final int linesPerThread = 50;
+
+		runConcurrently(() -> {
+			for (int i = 0; i < linesPerThread; i++) {
+				final Optional<NIOFSFile> file = fs.open("shared.txt", FileAccessType.WRITE);
+				assertTrue(file.get().writeString(line, true));
+			}
+			return null;
+		});
+
+		final String content = fs.open("shared.txt", FileAccessType.WRITE).get().readString();
+		assertEquals(THREADS * linesPerThread * line.length(), content.length());
+		for (final String written : content.split("\n"))
+			assertEquals(line.trim(), written);
+	}
+
+	@Test
+	void testForceDeleteIsOrderedWithWritesInside() throws Exception {
+		assertTrue(fs.setWriteDirectory(FilePath.from(tempDir.toString())));
+		// Large enough that a delete in the middle of a write would leave a partial file
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 16 * 1024; i++)
+			builder.append("save");
+		final String save = builder.toString();
+
+		// Every forceDelete ran while no write inside the directory was in progress, so every file
+		// left behind is complete. Odd rounds leave their file for the check.
+		runConcurrently(() -> {
+			for (int i = 0; i < DIRECTORIES; i++) {
+				fs.createDirectory(FilePath.from("saves"));
+				fs.createFile(FilePath.from("saves/save" + i + ".sav"))
+						.ifPresent(file -> file.writeString(save, false));
+				if (i % 2 == 0) fs.forceDelete(FilePath.from("saves"));
+			}
+			return null;
+		});
+		final Path saves = tempDir.resolve("saves");
+		if (Files.exists(saves)) {
+			try (Stream<Path> files = Files.list(saves)) {
+				for (final Path file : (Iterable<Path>) files::iterator)
+					assertEquals(save, new String(Files.readAllBytes(file),
+							StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private void runConcurrently(final Callable<Void> task) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Void>> futures = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			futures.add(executor.submit(() -> {
+				start.await();
+				return task.call();
+			}));
+		}
+		start.countDown();
+		for (final Future<Void> future : futures)
+			future.get(30, TimeUnit.SECONDS);
+	}
+}
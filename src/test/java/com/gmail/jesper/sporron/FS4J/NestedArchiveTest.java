@@ -0,0 +1,103 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+
+class NestedArchiveTest {
+	@TempDir
+	Path tempDir;
+	private Path outer;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		final byte[] innermost = zip("deepest.txt", "deepest".getBytes(StandardCharsets.UTF_8));
+		final ByteArrayOutputStream inner = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(inner)) {
+			zip.putNextEntry(new ZipEntry("maps/level1.txt"));
+			zip.write("level1".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("more/innermost.zip"));
+			zip.write(innermost);
+			zip.closeEntry();
+		}
+		outer = tempDir.resolve("pack.zip");
+		Files.write(outer, zip("mods/inner.zip", inner.toByteArray()));
+	}
+
+	@Test
+	void testNested() {
+		final NIOFileSystem fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath(outer + "/mods/inner.zip", FileLocation.EXTERNAL));
+		assertEquals("level1", fs.open("maps/level1.txt", FileAccessType.READ).get()
+				.readString());
+		assertFalse(fs.open("mods/inner.zip", FileAccessType.READ).isPresent());
+
+		assertTrue(fs.addToSearchPath(outer + "/mods/inner.zip/more/innermost.zip",
+				FileLocation.EXTERNAL));
+		assertEquals("deepest", fs.open("deepest.txt", FileAccessType.READ).get().readString());
+	}
+
+	@Test
+	void testExtractedOnce() throws IOException {
+		final NIOFileSystem fs1 = new NIOFileSystem();
+		final NIOFileSystem fs2 = new NIOFileSystem();
+		assertTrue(fs1.addToSearchPath(outer + "/mods/inner.zip", FileLocation.EXTERNAL));
+		assertTrue(fs2.addToSearchPath(outer + "/mods/inner.zip", FileLocation.EXTERNAL));
+		final Path extracted = open(fs1, "maps/level1.txt").getArchive().getPath();
+		assertEquals(extracted, open(fs2, "maps/level1.txt").getArchive().getPath());
+		assertNotEquals(outer, extracted);
+
+		// A changed outer archive is extracted again
+		Files.setLastModifiedTime(outer, FileTime.fromMillis(Files.getLastModifiedTime(outer)
+				.toMillis() - 60_000));
+		final NIOFileSystem fs3 = new NIOFileSystem();
+		assertTrue(fs3.addToSearchPath(outer + "/mods/inner.zip", FileLocation.EXTERNAL));
+		assertNotEquals(extracted, open(fs3, "maps/level1.txt").getArchive().getPath());
+	}
+
+	@Test
+	void testMissing() {
+		final NIOFileSystem fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath(outer + "/mods/dne.zip", FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(tempDir + "/dne.zip/inner.zip", FileLocation.EXTERNAL));
+		assertFalse(fs.open("maps/level1.txt", FileAccessType.READ).isPresent());
+	}
+
+	@Test
+	void testInternal() {
+		final NIOFileSystem fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath("read", FileLocation.INTERNAL));
+		assertEquals("the file is read/test.txt", fs.open("test.txt", FileAccessType.READ).get()
+				.readString().trim());
+		assertFalse(fs.open("dne.txt", FileAccessType.READ).isPresent());
+	}
+
+	private static ArchiveNIOFSFile open(final NIOFileSystem fs, final String path) {
+		return (ArchiveNIOFSFile) fs.open(path, FileAccessType.READ).get();
+	}
+
+	private static byte[] zip(final String name, final byte[] content) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry(name));
+			zip.write(content);
+			zip.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+}
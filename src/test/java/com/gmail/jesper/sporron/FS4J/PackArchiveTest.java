@@ -0,0 +1,179 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.archive.PackArchive;
+import com.gmail.jesper.sporron.FS4J.archive.PackWriter;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class PackArchiveTest {
+	private static final String DEFLATED_TEXT = "hello hello hello hello hello hello";
+	private static final String STORED_TEXT = "stored content";
+	private static final int NUM_GENERATED = 200;
+
+	@TempDir
+	Path tempDir;
+	private Path packPath;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		packPath = tempDir.resolve("test.fpk");
+		try (PackWriter writer = new PackWriter(packPath)) {
+			writer.add("folder/deflated.txt", DEFLATED_TEXT.getBytes(StandardCharsets.UTF_8), true);
+			writer.add("./stored.txt", STORED_TEXT.getBytes(StandardCharsets.UTF_8), false);
+			writer.add("empty.txt", new byte[0], true);
+			for (int i = 0; i < NUM_GENERATED; i++)
+				writer.add("generated/" + i + ".txt", ("file " + i).getBytes(StandardCharsets.UTF_8),
+						i % 2 == 0);
+
+			assertThrows(IllegalArgumentException.class,
+					() -> writer.add("stored.txt", new byte[1], false));
+			assertThrows(IllegalArgumentException.class,
+					() -> writer.add("../outside.txt", new byte[1], false));
+		}
+	}
+
+	@Test
+	void testIndex() throws IOException {
+		assertTrue(PackArchive.isPack(packPath));
+		final Archive archive = Archive.open(packPath);
+		assertTrue(archive instanceof PackArchive);
+		assertEquals(NUM_GENERATED + 3, archive.numEntries());
+		assertEquals(NUM_GENERATED + 3, archive.getEntries().size());
+		assertTrue(archive.getEntry(FilePath.from("folder/deflated.txt")).isPresent());
+		assertTrue(archive.getEntry(FilePath.from("./stored.txt")).isPresent());
+		assertFalse(archive.getEntry(FilePath.from("folder")).isPresent());
+		assertFalse(archive.getEntry(FilePath.from("dne.txt")).isPresent());
+
+		assertThrows(NullPointerException.class, () -> archive.getEntry(null));
+	}
+
+	@Test
+	void testReadEntry() throws IOException {
+		final Archive archive = Archive.open(packPath);
+		final ArchiveEntry deflated = archive.getEntry(FilePath.from("folder/deflated.txt")).get();
+		assertEquals(ArchiveEntry.DEFLATED, deflated.getMethod());
+		assertEquals(DEFLATED_TEXT, new String(archive.readEntry(deflated), StandardCharsets.UTF_8));
+
+		final ArchiveEntry stored = archive.getEntry(FilePath.from("stored.txt")).get();
+		assertTrue(stored.isStored());
+		assertEquals(STORED_TEXT, new String(archive.readEntry(stored), StandardCharsets.UTF_8));
+
+		final ArchiveEntry empty = archive.getEntry(FilePath.from("empty.txt")).get();
+		assertEquals(0, archive.readEntry(empty).length);
+
+		for (int i = 0; i < NUM_GENERATED; i++) {
+			final ArchiveEntry entry = archive.getEntry(FilePath.from("generated/" + i + ".txt"))
+					.get();
+			assertEquals("file " + i, new String(archive.readEntry(entry), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void testPageAlignment() throws IOException {
+		final PackArchive archive = (PackArchive) Archive.open(packPath);
+		assertEquals(PackWriter.DEFAULT_PAGE_SIZE, archive.getPageSize());
+		for (final ArchiveEntry entry : archive.getEntries())
+			assertEquals(0, entry.getHeaderOffset() % archive.getPageSize(), entry.getName());
+	}
+
+	@Test
+	void testMapEntry() throws IOException {
+		final Archive archive = Archive.open(packPath);
+		final ArchiveEntry stored = archive.getEntry(FilePath.from("stored.txt")).get();
+		final ByteBuffer mapped = archive.mapEntry(stored).get();
+		assertTrue(mapped.isReadOnly());
+		final byte[] bytes = new byte[mapped.remaining()];
+		mapped.get(bytes);
+		assertEquals(STORED_TEXT, new String(bytes, StandardCharsets.UTF_8));
+
+		final ArchiveEntry deflated = archive.getEntry(FilePath.from("folder/deflated.txt")).get();
+		assertFalse(archive.mapEntry(deflated).isPresent());
+	}
+
+	@Test
+	void testOpenThroughFileSystem() throws IOException {
+		final NIOFileSystem fs = new NIOFileSystem();
+		assertTrue(fs.addToSearchPath(FilePath.from(packPath.toString()), FileLocation.EXTERNAL));
+
+		final Optional<NIOFSFile> deflated = fs.open("folder/deflated.txt", FileAccessType.READ);
+		assertTrue(deflated.isPresent());
+		assertEquals(DEFLATED_TEXT, deflated.get().readString());
+
+		final Optional<NIOFSFile> stored = fs.open("stored.txt", FileAccessType.READ);
+		assertTrue(stored.isPresent());
+		final ByteBuffer buffer = stored.get().readBuffer();
+		assertEquals(STORED_TEXT.length(), buffer.remaining());
+		assertEquals(STORED_TEXT, stored.get().readString());
+
+		assertFalse(fs.open("dne.txt", FileAccessType.READ).isPresent());
+	}
+
+	@Test
+	void testNotAPack() throws IOException {
+		final Path text = tempDir.resolve("text.fpk");
+		Files.write(text, "not a pack".getBytes(StandardCharsets.UTF_8));
+		assertFalse(PackArchive.isPack(text));
+		assertThrows(IOException.class, () -> PackArchive.open(text));
+	}
+
+	@Test
+	void testCorruptPack() throws IOException {
+		final byte[] original = Files.readAllBytes(packPath);
+		final ByteBuffer pack = ByteBuffer.wrap(original).order(ByteOrder.LITTLE_ENDIAN);
+		int slot = 64;
+		while (pack.getLong(slot) == 0)
+			slot += 48;
+
+		// Name table overlapping the header, or at a negative offset
+		assertCorrupt(original, 24, 0L);
+		assertCorrupt(original, 24, -1L);
+		// Negative name table size
+		assertCorrupt(original, 32, -1L);
+		// Name outside of the name table
+		assertCorrupt(original, slot + 32, Integer.MAX_VALUE);
+		// Data before the data section, and past the end of the file
+		assertCorrupt(original, slot + 8, 0L);
+		assertCorrupt(original, slot + 8, (long) original.length + 1);
+		// Compressed data running past the end of the file
+		assertCorrupt(original, slot + 16, (long) original.length);
+		assertCorrupt(original, slot + 16, -1L);
+
+		Files.write(packPath, original);
+		assertNotNull(PackArchive.open(packPath));
+	}
+
+	private void assertCorrupt(final byte[] original, final int position, final long value)
+			throws IOException {
+		final ByteBuffer corrupt = ByteBuffer.wrap(original.clone())
+				.order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putLong(position, value);
+		Files.write(packPath, corrupt.array());
+		assertThrows(IOException.class, () -> PackArchive.open(packPath));
+	}
+
+	private void assertCorrupt(final byte[] original, final int position, final int value)
+			throws IOException {
+		final ByteBuffer corrupt = ByteBuffer.wrap(original.clone())
+				.order(ByteOrder.LITTLE_ENDIAN);
+		corrupt.putInt(position, value);
+		Files.write(packPath, corrupt.array());
+		assertThrows(IOException.class, () -> PackArchive.open(packPath));
+	}
+}
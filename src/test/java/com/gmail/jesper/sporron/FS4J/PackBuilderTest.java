@@ -0,0 +1,152 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.archive.Archive;
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.archive.PackBuilder;
+import com.gmail.jesper.sporron.FS4J.archive.PackWriter;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class PackBuilderTest {
+	private static final String SHARED_TEXT = "shared content shared content shared content";
+
+	@TempDir
+	Path tempDir;
+	private Path directory;
+	private Path zipPath;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		directory = tempDir.resolve("mod");
+		Files.createDirectories(directory.resolve("sub"));
+		Files.write(directory.resolve("a.txt"), SHARED_TEXT.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("sub/b.txt"), "b".getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("sub/c.txt"), "c".getBytes(StandardCharsets.UTF_8));
+
+		zipPath = tempDir.resolve("extra.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("copy.txt"));
+			zip.write(SHARED_TEXT.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("a.txt"));
+			zip.write("shadowed".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+	}
+
+	@Test
+	void testBuild() throws IOException {
+		final PackBuilder builder = new PackBuilder();
+		builder.addSource(directory, FilePath.from(""));
+		builder.addSource(zipPath, FilePath.from("extra"));
+		builder.addSource(zipPath, FilePath.from(""));
+		builder.setThreads(3);
+		final Path output = tempDir.resolve("out.fpk");
+		assertEquals(6, builder.build(output));
+
+		final Archive archive = Archive.open(output);
+		assertEquals(6, archive.numEntries());
+		assertEquals(SHARED_TEXT, read(archive, "a.txt"));
+		assertEquals(SHARED_TEXT, read(archive, "extra/copy.txt"));
+		assertEquals("shadowed", read(archive, "extra/a.txt"));
+		assertEquals(SHARED_TEXT, read(archive, "copy.txt"));
+		assertEquals("b", read(archive, "sub/b.txt"));
+
+		// Identical content is only stored once.
+		assertEquals(entry(archive, "a.txt").getHeaderOffset(),
+				entry(archive, "extra/copy.txt").getHeaderOffset());
+		assertEquals(entry(archive, "a.txt").getHeaderOffset(),
+				entry(archive, "copy.txt").getHeaderOffset());
+	}
+
+	@Test
+	void testManifestOrder() throws IOException {
+		final PackBuilder builder = new PackBuilder();
+		builder.addSource(directory, FilePath.from(""));
+		builder.setManifest(Arrays.asList("sub/c.txt", "./a.txt", "dne.txt"));
+		final Path output = tempDir.resolve("out.fpk");
+		builder.build(output);
+
+		final Archive archive = Archive.open(output);
+		final long c = entry(archive, "sub/c.txt").getHeaderOffset();
+		final long a = entry(archive, "a.txt").getHeaderOffset();
+		final long b = entry(archive, "sub/b.txt").getHeaderOffset();
+		assertTrue(c < a);
+		assertTrue(a < b);
+	}
+
+	@Test
+	void testFailedBuildKeepsOutput() throws IOException {
+		final Path corrupt = tempDir.resolve("corrupt.zip");
+		try (OutputStream out = Files.newOutputStream(corrupt);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("bad.txt"));
+			zip.write(SHARED_TEXT.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		// Reserved block type right where the deflated data of the entry starts
+		final byte[] bytes = Files.readAllBytes(corrupt);
+		bytes[30 + "bad.txt".length()] = (byte) 0xFF;
+		Files.write(corrupt, bytes);
+
+		final Path output = tempDir.resolve("out.fpk");
+		Files.write(output, "previous".getBytes(StandardCharsets.UTF_8));
+		final PackBuilder builder = new PackBuilder();
+		builder.addSource(directory, FilePath.from(""));
+		builder.addSource(corrupt, FilePath.from("corrupt"));
+		assertThrows(IOException.class, () -> builder.build(output));
+
+		assertEquals("previous", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+		}
+	}
+
+	@Test
+	void testAbortedWriterKeepsOutput() throws IOException {
+		final Path output = tempDir.resolve("out.fpk");
+		Files.write(output, "previous".getBytes(StandardCharsets.UTF_8));
+		final PackWriter writer = new PackWriter(output);
+		writer.add("a.txt", SHARED_TEXT.getBytes(StandardCharsets.UTF_8), true);
+		writer.abort();
+		writer.close();
+
+		assertEquals("previous", new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+		}
+		assertThrows(IllegalStateException.class,
+				() -> writer.add("b.txt", new byte[1], false));
+	}
+
+	@Test
+	void testUnsafeRoot() {
+		final PackBuilder builder = new PackBuilder();
+		assertThrows(IllegalArgumentException.class,
+				() -> builder.addSource(directory, FilePath.from("../outside")));
+	}
+
+	private static ArchiveEntry entry(final Archive archive, final String name) {
+		return archive.getEntry(FilePath.from(name)).get();
+	}
+
+	private static String read(final Archive archive, final String name) throws IOException {
+		return new String(archive.readEntry(entry(archive, name)), StandardCharsets.UTF_8);
+	}
+}
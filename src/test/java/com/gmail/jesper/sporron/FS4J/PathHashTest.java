@@ -0,0 +1,146 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.archive.PackArchive;
+import com.gmail.jesper.sporron.FS4J.archive.PackWriter;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+import com.gmail.jesper.sporron.FS4J.util.PathHash;
+
+class PathHashTest {
+	@TempDir
+	Path tempDir;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		final Path assets = tempDir.resolve("assets.zip");
+		zip(assets, "music/theme.ogg", "theme");
+		final Path sfx = tempDir.resolve("sfx.zip");
+		zip(sfx, "jump.ogg", "jump");
+		final Path loose = Files.createDirectory(tempDir.resolve("loose"));
+		Files.write(loose.resolve("loose.txt"), "loose".getBytes(StandardCharsets.UTF_8));
+
+		fs = new NIOFileSystem();
+		metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+		assertTrue(fs.addToSearchPath(assets.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.addToSearchPath(sfx.toString(), FileLocation.EXTERNAL, "audio"));
+		assertTrue(fs.addToSearchPath(loose.toString(), FileLocation.EXTERNAL));
+	}
+
+	@Test
+	void testHash() {
+		// FNV-1a of "a", the value must never change
+		assertEquals(0xaf63dc4c8601ec8cL, PathHash.hash("a"));
+		final long hash = PathHash.hash("music/theme.ogg");
+		assertEquals(hash, PathHash.hash("./music//theme.ogg/", true));
+		assertEquals(hash, PathHash.hash(FilePath.from("./music/theme.ogg")));
+		assertEquals(hash, PathHash.hash("Music/THEME.ogg", false));
+		assertEquals(hash, PathHash.hash(FilePath.from("MUSIC/theme.ogg"), false));
+		assertNotEquals(hash, PathHash.hash("Music/THEME.ogg", true));
+
+		assertTrue(PathHash.matches("./music//theme.ogg", "music/theme.ogg", true));
+		assertTrue(PathHash.matches("MUSIC/theme.ogg", "music/theme.ogg", false));
+		assertFalse(PathHash.matches("MUSIC/theme.ogg", "music/theme.ogg", true));
+		assertFalse(PathHash.matches("music/theme", "music/theme.ogg", true));
+		assertFalse(PathHash.matches("music/theme.ogg.bak", "music/theme.ogg", true));
+		assertFalse(PathHash.matches("musictheme.ogg", "music/theme.ogg", true));
+		assertTrue(PathHash.matches("./", "", true));
+	}
+
+	@Test
+	void testOpenByHash() {
+		assertEquals("theme", fs.open(PathHash.hash("music/theme.ogg"), FileAccessType.READ)
+				.get().readString());
+		assertEquals("jump", fs.open(PathHash.hash("audio/jump.ogg"), FileAccessType.READ).get()
+				.readString());
+		assertFalse(fs.open(PathHash.hash("jump.ogg"), FileAccessType.READ).isPresent());
+		assertFalse(fs.open(PathHash.hash("loose.txt"), FileAccessType.READ).isPresent());
+		assertThrows(IllegalArgumentException.class, () -> fs.open(PathHash.hash(
+				"music/theme.ogg"), FileAccessType.WRITE));
+
+		assertEquals(4, metrics.getOpen().getCount());
+		assertEquals(2, metrics.getOpen().getFailures());
+	}
+
+	@Test
+	void testOpenByName() {
+		assertEquals("theme", fs.open(new StringBuilder("./music/theme.ogg")).get()
+				.readString());
+		assertEquals("jump", fs.open("audio/jump.ogg").get().readString());
+		assertEquals("loose", fs.open("loose.txt").get().readString());
+		assertFalse(fs.open("music/dne.ogg").isPresent());
+		assertFalse(fs.open("Music/Theme.ogg").isPresent());
+		assertFalse(fs.open("../loose.txt").isPresent());
+
+		// ".." entries are resolved before the lookup, and never leave the search path
+		assertEquals("theme", fs.open("music/../music/theme.ogg").get().readString());
+		assertEquals("loose", fs.open("music/../loose.txt").get().readString());
+		assertFalse(fs.open("music/../../loose.txt").isPresent());
+	}
+
+	@Test
+	void testOpenPack() throws IOException {
+		final Path packPath = tempDir.resolve("patch.fpk");
+		try (PackWriter writer = new PackWriter(packPath)) {
+			writer.add("music/theme.ogg", "patched".getBytes(StandardCharsets.UTF_8), false);
+			writer.add("maps/start.map", "start".getBytes(StandardCharsets.UTF_8), true);
+		}
+		final PackArchive pack = PackArchive.open(packPath);
+		assertEquals("maps/start.map", pack.getEntry(PathHash.hash("maps/start.map")).get()
+				.getName());
+		assertTrue(pack.getEntry(PathHash.hash("maps/start.map"), "./maps//start.map")
+				.isPresent());
+		assertFalse(pack.getEntry(PathHash.hash("maps/start.map"), "maps/other.map")
+				.isPresent());
+		assertFalse(pack.getEntry(PathHash.hash("maps/dne.map")).isPresent());
+
+		// Looked up in the hash table of the pack, in front of the other archives
+		final NIOFileSystem patched = new NIOFileSystem();
+		assertTrue(patched.addToSearchPath(packPath.toString(), FileLocation.EXTERNAL));
+		assertTrue(patched.addToSearchPath(tempDir.resolve("assets.zip").toString(),
+				FileLocation.EXTERNAL));
+		assertEquals("patched", patched.open("music/theme.ogg").get().readString());
+		assertEquals("start", patched.open(PathHash.hash("maps/start.map"), FileAccessType.READ)
+				.get().readString());
+		assertFalse(patched.open("Maps/Start.map").isPresent());
+		patched.setCaseSensitiveHashes(false);
+		assertEquals("start", patched.open("Maps/Start.map").get().readString());
+	}
+
+	@Test
+	void testCaseInsensitive() {
+		fs.setCaseSensitiveHashes(false);
+		assertEquals("theme", fs.open(PathHash.hash("MUSIC/Theme.ogg", false),
+				FileAccessType.READ).get().readString());
+		assertEquals("jump", fs.open("Audio/JUMP.ogg").get().readString());
+		assertFalse(fs.open(PathHash.hash("MUSIC/Theme.ogg", true), FileAccessType.READ)
+				.isPresent());
+	}
+
+	private static void zip(final Path path, final String name, final String content)
+			throws IOException {
+		try (OutputStream out = Files.newOutputStream(path);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry(name));
+			zip.write(content.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+	}
+}
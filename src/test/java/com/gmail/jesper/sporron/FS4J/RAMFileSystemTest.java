@@ -0,0 +1,160 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.gmail.jesper.sporron.FS4J.archive.PackWriter;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class RAMFileSystemTest {
+	private RAMFileSystem fs;
+
+	@BeforeEach
+	void setUp() {
+		fs = new RAMFileSystem();
+		assertTrue(fs.setWriteDirectory("save"));
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testWriteAndRead(final boolean offHeap) {
+		fs = new RAMFileSystem(offHeap);
+		assertTrue(fs.setWriteDirectory("save"));
+
+		final RAMFSFile file = fs.createFile(FilePath.from("slot1.sav")).get();
+		assertTrue(file.isWriteable());
+		assertTrue(file.writeString("hello", false));
+		assertTrue(file.writeString(" world", true));
+		assertEquals("hello world", file.readString());
+		assertEquals(11, file.getSize());
+
+		assertTrue(file.writeString("replaced", false));
+		assertEquals("replaced", fs.open("slot1.sav", FileAccessType.WRITE).get().readString());
+	}
+
+	@Test
+	void testReadRange() {
+		final RAMFSFile file = fs.createFile(FilePath.from("slot1.sav")).get();
+		assertTrue(file.writeString("hello world", false));
+		assertEquals("world", new String(file.readRange(6, 100), StandardCharsets.UTF_8));
+		assertEquals("lo w", new String(file.readRange(3, 4), StandardCharsets.UTF_8));
+		assertEquals(0, file.readRange(11, 1).length);
+		assertThrows(IllegalArgumentException.class, () -> file.readRange(-1, 1));
+
+		assertTrue(fs.addToSearchPath("save", FileLocation.INTERNAL));
+		assertEquals("hello", new String(fs.open("slot1.sav", FileAccessType.READ).get()
+				.readRange(0, 5), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testCreateFileNeedsDirectory() {
+		assertFalse(fs.createFile(FilePath.from("dne/slot1.sav")).isPresent());
+		assertTrue(fs.createDirectory(FilePath.from("dne")));
+		assertTrue(fs.createFile(FilePath.from("dne/slot1.sav")).isPresent());
+	}
+
+	@Test
+	void testDelete() {
+		assertTrue(fs.createDirectory(FilePath.from("logs/crashes")));
+		assertTrue(fs.createFile(FilePath.from("logs/crashes/1.log")).isPresent());
+
+		assertFalse(fs.delete("logs"));
+		assertTrue(fs.forceDelete("logs"));
+		assertFalse(fs.open("logs/crashes/1.log", FileAccessType.WRITE).get().isWriteable());
+		assertFalse(fs.delete("logs"));
+	}
+
+	@Test
+	void testUnsafePaths() {
+		assertFalse(fs.createFile(FilePath.from("../escape.txt")).isPresent());
+		assertFalse(fs.open("../escape.txt", FileAccessType.READ).isPresent());
+		assertFalse(fs.addToSearchPath("../", FileLocation.EXTERNAL));
+	}
+
+	@Test
+	void testSearchPathFromDisk(@TempDir final Path tempDir) throws IOException {
+		final Path read = Files.createDirectories(tempDir.resolve("read/subfolder"))
+				.getParent();
+		Files.write(read.resolve("test.txt"), "read/test.txt".getBytes(StandardCharsets.UTF_8));
+		Files.write(read.resolve("subfolder/test2.txt"),
+				"read/subfolder/test2.txt".getBytes(StandardCharsets.UTF_8));
+
+		assertTrue(fs.addToSearchPath(read.toString(), FileLocation.EXTERNAL));
+		assertTrue(fs.isOnSearchPath(FilePath.from(read.toString())));
+		assertFalse(fs.addToSearchPath(read.toString(), FileLocation.EXTERNAL));
+
+		// Changes on disk are not visible once the directory has been loaded.
+		Files.delete(read.resolve("test.txt"));
+		assertEquals("read/test.txt", fs.open("test.txt", FileAccessType.READ).get().readString());
+		assertEquals("read/subfolder/test2.txt",
+				fs.open("subfolder/test2.txt", FileAccessType.READ).get().readString());
+		assertFalse(fs.open("test.txt", FileAccessType.READ).get().isWriteable());
+	}
+
+	@Test
+	void testSearchPathArchiveInMemory() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			zip.putNextEntry(new ZipEntry("textures/grass.txt"));
+			zip.write("grass".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		assertTrue(fs.createDirectory(FilePath.from("mods")));
+		assertTrue(fs.createFile(FilePath.from("mods/grass.zip")).get()
+				.writeBytes(bytes.toByteArray(), false));
+
+		assertTrue(fs.addAllArchivesToSearchPath("save/mods", FileLocation.EXTERNAL));
+		final Optional<RAMFSFile> grass = fs.open("textures/grass.txt", FileAccessType.READ);
+		assertTrue(grass.isPresent());
+		assertEquals("grass", grass.get().readString());
+	}
+
+	@Test
+	void testSearchPathPackInMemory(@TempDir final Path tempDir) throws IOException {
+		final Path pack = tempDir.resolve("water.fpk");
+		try (PackWriter writer = new PackWriter(pack)) {
+			writer.add("textures/water.txt", "water".getBytes(StandardCharsets.UTF_8), true);
+		}
+		assertTrue(fs.createDirectory(FilePath.from("mods")));
+		assertTrue(fs.createFile(FilePath.from("mods/water.fpk")).get()
+				.writeBytes(Files.readAllBytes(pack), false));
+
+		assertTrue(fs.addToSearchPath("save/mods/water.fpk", FileLocation.EXTERNAL));
+		final Optional<RAMFSFile> water = fs.open("textures/water.txt", FileAccessType.READ);
+		assertTrue(water.isPresent());
+		assertEquals("water", water.get().readString());
+	}
+
+	@Test
+	void testCopyAndMove() {
+		assertTrue(fs.createFile(FilePath.from("slot1.sav")).get().writeString("saved", false));
+		assertTrue(fs.addToSearchPath("save", FileLocation.INTERNAL));
+		assertTrue(fs.createDirectory(FilePath.from("export")));
+
+		assertTrue(fs.copy(FilePath.from("slot1.sav"), FilePath.from("export/slot1.sav")));
+		assertEquals("saved", fs.open("export/slot1.sav", FileAccessType.READ).get()
+				.readString());
+		assertFalse(fs.copy(FilePath.from("dne.sav"), FilePath.from("export/dne.sav")));
+
+		assertTrue(fs.move(FilePath.from("export/slot1.sav"), FilePath.from("slot2.sav")));
+		assertFalse(fs.open("export/slot1.sav", FileAccessType.READ).isPresent());
+		assertEquals("saved", fs.open("slot2.sav", FileAccessType.READ).get().readString());
+		assertFalse(fs.move(FilePath.from("dne.sav"), FilePath.from("slot3.sav")));
+	}
+}
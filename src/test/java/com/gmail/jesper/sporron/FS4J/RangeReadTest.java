@@ -0,0 +1,85 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.gmail.jesper.sporron.FS4J.cache.ContentArena;
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+
+class RangeReadTest {
+	@TempDir
+	Path tempDir;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+	private byte[] large;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		large = ArchiveFixture.largeContent();
+		final ArchiveFixture fixture = new ArchiveFixture(tempDir).loose("loose.bin", large)
+				.deflated("deflated.bin", large).stored("stored.bin", large)
+				.packed("packed.bin", large).create();
+		fs = fixture.getFileSystem();
+		metrics = fixture.getMetrics();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "loose.bin", "stored.bin", "deflated.bin", "packed.bin" })
+	void testRanges(final String path) {
+		final NIOFSFile file = fs.open(path, FileAccessType.READ).get();
+		assertRange(file, 0, 16);
+		assertRange(file, 1000, 5000);
+		// Crosses from the random half into the compressible half, and several chunks.
+		assertRange(file, 100 * 1024, 150 * 1024);
+		assertRange(file, large.length - 10, 10);
+		assertRange(file, 12345, 0);
+
+		assertArrayEquals(Arrays.copyOfRange(large, large.length - 10, large.length), file
+				.readRange(large.length - 10, 100));
+		assertEquals(0, file.readRange(large.length, 10).length);
+		assertEquals(0, file.readRange(Long.MAX_VALUE, 10).length);
+		assertThrows(IllegalArgumentException.class, () -> file.readRange(-1, 10));
+		assertThrows(IllegalArgumentException.class, () -> file.readRange(0, -1));
+	}
+
+	@Test
+	void testRangeDoesNotCache() {
+		final ArchiveNIOFSFile file = (ArchiveNIOFSFile) fs.open("deflated.bin",
+				FileAccessType.READ).get();
+		assertRange(file, 2000, 3000);
+		assertFalse(file.isCached());
+		assertEquals(1, metrics.getRead().getCount());
+		assertEquals(3000, metrics.getRead().getBytes());
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testRangeFromCache(final boolean offHeap) {
+		fs.setCacheArchiveContent(true);
+		if (offHeap) fs.setContentArena(new ContentArena(1024 * 1024));
+		final ArchiveNIOFSFile file = (ArchiveNIOFSFile) fs.open("deflated.bin",
+				FileAccessType.READ).get();
+		assertTrue(file.load());
+		assertEquals(offHeap, file.isCachedOffHeap());
+		assertRange(file, 0, 10);
+		assertRange(file, 200 * 1024, 4096);
+		assertEquals(0, file.readRange(large.length + 1, 1).length);
+	}
+
+	private void assertRange(final FSFile file, final int offset, final int length) {
+		assertArrayEquals(Arrays.copyOfRange(large, offset, offset + length), file.readRange(
+				offset, length));
+	}
+}
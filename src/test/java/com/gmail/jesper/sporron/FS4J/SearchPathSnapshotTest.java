@@ -0,0 +1,153 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.SearchPathSnapshot;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class SearchPathSnapshotTest {
+	@TempDir
+	Path tempDir;
+	private Path oldMod;
+	private Path newMod;
+	private NIOFileSystem fs;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		oldMod = zip("old.zip", "version 1");
+		newMod = zip("new.zip", "version 2");
+		fs = new NIOFileSystem();
+	}
+
+	@Test
+	void testVersions() {
+		final SearchPathSnapshot empty = fs.snapshot();
+		assertEquals(0, empty.getVersion());
+		assertSame(empty, fs.snapshot());
+		assertTrue(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+		assertFalse(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+
+		final SearchPathSnapshot snapshot = fs.snapshot();
+		assertEquals(1, snapshot.getVersion());
+		assertTrue(snapshot.isCurrent());
+		assertFalse(empty.isCurrent());
+		assertEquals(1, snapshot.getRegistrations().size());
+		assertThrows(UnsupportedOperationException.class, () -> snapshot.getRegistrations()
+				.clear());
+		assertFalse(empty.open("asset.txt").isPresent());
+		assertFalse(empty.isOnSearchPath(FilePath.from(oldMod.toString())));
+		assertTrue(snapshot.isOnSearchPath(FilePath.from(oldMod.toString())));
+	}
+
+	@Test
+	void testSnapshotIsUnaffectedByChanges() {
+		assertTrue(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+		final SearchPathSnapshot loading = fs.snapshot();
+
+		assertTrue(fs.removeFromSearchPath(FilePath.from(oldMod.toString())));
+		assertFalse(fs.removeFromSearchPath(FilePath.from(oldMod.toString())));
+		assertTrue(fs.addToSearchPath(newMod.toString(), FileLocation.EXTERNAL));
+		assertEquals(3, fs.snapshot().getVersion());
+
+		assertEquals("version 2", fs.open("asset.txt", FileAccessType.READ).get().readString());
+		assertEquals("version 1", loading.open("asset.txt").get().readString());
+		assertFalse(fs.isOnSearchPath(FilePath.from(oldMod.toString())));
+		assertTrue(loading.isOnSearchPath(FilePath.from(oldMod.toString())));
+		assertFalse(loading.isCurrent());
+	}
+
+	@Test
+	void testRemovedArchiveReleasesCache() {
+		fs.setCacheArchiveContent(true);
+		assertTrue(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+		final ArchiveNIOFSFile file = (ArchiveNIOFSFile) fs.open("asset.txt",
+				FileAccessType.READ).get();
+		assertEquals("version 1", file.readString());
+		assertTrue(file.isCached());
+
+		assertTrue(fs.removeFromSearchPath(FilePath.from(oldMod.toString())));
+		assertFalse(file.isCached());
+		assertEquals("version 1", file.readString());
+		assertFalse(file.isCached());
+		assertFalse(file.load());
+		assertFalse(fs.open("asset.txt", FileAccessType.READ).isPresent());
+	}
+
+	@Test
+	void testRemovedArchiveIsNotCachedForOldSnapshots() {
+		fs.setCacheArchiveContent(true);
+		assertTrue(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+		final SearchPathSnapshot loading = fs.snapshot();
+		assertTrue(fs.removeFromSearchPath(FilePath.from(oldMod.toString())));
+
+		final ArchiveNIOFSFile file = (ArchiveNIOFSFile) loading.open("asset.txt").get();
+		assertEquals("version 1", file.readString());
+		assertFalse(file.isCached());
+		assertNotSame(file, loading.open("asset.txt").get());
+		assertEquals(0, fs.getCachedBytes());
+	}
+
+	@Test
+	void testConcurrentLoads() throws InterruptedException {
+		assertTrue(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger inconsistent = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(2);
+		final Thread[] loaders = new Thread[2];
+		for (int i = 0; i < loaders.length; i++) {
+			loaders[i] = new Thread(() -> {
+				started.countDown();
+				while (running.get()) {
+					final SearchPathSnapshot level = fs.snapshot();
+					final String first = level.open("asset.txt").map(FSFile::readString)
+							.orElse("");
+					for (int j = 0; j < 5; j++) {
+						if (!first.equals(level.open("asset.txt").map(FSFile::readString).orElse(
+								""))) inconsistent.incrementAndGet();
+					}
+				}
+			});
+			loaders[i].start();
+		}
+		started.await();
+		for (int i = 0; i < 50; i++) {
+			assertTrue(fs.removeFromSearchPath(FilePath.from(oldMod.toString())));
+			assertTrue(fs.addToSearchPath(newMod.toString(), FileLocation.EXTERNAL));
+			assertTrue(fs.removeFromSearchPath(FilePath.from(newMod.toString())));
+			assertTrue(fs.addToSearchPath(oldMod.toString(), FileLocation.EXTERNAL));
+		}
+		running.set(false);
+		for (final Thread loader : loaders)
+			loader.join();
+		assertEquals(0, inconsistent.get());
+		assertEquals(201, fs.snapshot().getVersion());
+	}
+
+	private Path zip(final String name, final String content) throws IOException {
+		final Path path = tempDir.resolve(name);
+		try (OutputStream out = Files.newOutputStream(path);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("asset.txt"));
+			zip.write(content.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		return path;
+	}
+}
@@ -0,0 +1,108 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.SharedResources;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class SharedResourcesTest {
+	@TempDir
+	Path tempDir;
+	private Path base;
+	private SharedResources resources;
+	private NIOFileSystem match1;
+	private NIOFileSystem match2;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		base = tempDir.resolve("base.zip");
+		try (OutputStream out = Files.newOutputStream(base);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("map.txt"));
+			zip.write("map".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("large.bin"));
+			zip.write(new byte[4096]);
+			zip.closeEntry();
+		}
+		resources = new SharedResources(1024);
+		match1 = new NIOFileSystem(resources);
+		match2 = new NIOFileSystem(resources);
+		assertTrue(match1.addToSearchPath(base.toString(), FileLocation.EXTERNAL));
+		assertTrue(match2.addToSearchPath(base.toString(), FileLocation.EXTERNAL));
+	}
+
+	@Test
+	void testSharing() {
+		final FSMetrics metrics1 = new FSMetrics();
+		final FSMetrics metrics2 = new FSMetrics();
+		match1.setMetricsListener(metrics1);
+		match2.setMetricsListener(metrics2);
+
+		final ArchiveNIOFSFile file1 = open(match1, "map.txt");
+		final ArchiveNIOFSFile file2 = open(match2, "map.txt");
+		assertEquals(1, resources.numArchives());
+		assertNotSame(file1, file2);
+		assertSame(file1.getArchive(), file2.getArchive());
+
+		assertEquals("map", file1.readString());
+		assertTrue(file2.isCachedOffHeap());
+		assertEquals(3, resources.getArena().getUsed());
+		assertEquals("map", file2.readString());
+		assertEquals(1, file1.getArchive().getStatistics().getEntriesRead());
+		assertEquals(1, metrics1.getRead().getCount());
+		assertEquals(1, metrics2.getRead().getCount());
+	}
+
+	@Test
+	void testBudget() {
+		final ArchiveNIOFSFile large = open(match1, "large.bin");
+		assertEquals(4096, large.readBytes().length);
+		assertFalse(large.isCached());
+		assertFalse(large.load());
+		assertEquals(0, resources.getArena().getUsed());
+	}
+
+	@Test
+	void testRelease() {
+		final ArchiveNIOFSFile file = open(match2, "map.txt");
+		assertTrue(file.load());
+		assertTrue(match1.removeFromSearchPath(FilePath.from(base.toString())));
+		assertEquals(1, resources.numArchives());
+		assertTrue(file.isCached());
+
+		match2.close();
+		assertEquals(0, resources.numArchives());
+		assertEquals(0, resources.getArena().getUsed());
+		assertFalse(file.isCached());
+		assertEquals("map", file.readString());
+		assertFalse(match2.open("map.txt", FileAccessType.READ).isPresent());
+
+		// A new file system indexes the archive again.
+		try (NIOFileSystem match3 = new NIOFileSystem(resources)) {
+			assertTrue(match3.addToSearchPath(base.toString(), FileLocation.EXTERNAL));
+			assertEquals("map", open(match3, "map.txt").readString());
+			assertEquals(1, resources.numArchives());
+		}
+		assertEquals(0, resources.numArchives());
+	}
+
+	private static ArchiveNIOFSFile open(final NIOFileSystem fs, final String path) {
+		return (ArchiveNIOFSFile) fs.open(path, FileAccessType.READ).get();
+	}
+}
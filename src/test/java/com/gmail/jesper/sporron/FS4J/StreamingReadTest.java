@@ -0,0 +1,144 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.ByteBufferChannel;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+import com.gmail.jesper.sporron.FS4J.util.RecordReader;
+
+class StreamingReadTest {
+	// An accented letter and an emoji made of a surrogate pair, so multi-byte characters end up
+	// split between reads with small buffers.
+	private static final String TEXT = "first\ncaf\u00e9\r\n\nsmile \ud83d\ude00\rlast";
+	private static final List<String> LINES = Arrays.asList("first", "caf\u00e9", "",
+			"smile \ud83d\ude00", "last");
+
+	@TempDir
+	Path tempDir;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+	private List<String> csv;
+	private int csvSize;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		csv = new ArrayList<>();
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 20_000; i++) {
+			final String row = i + ",row " + i + "," + (i * 31 % 1000);
+			csv.add(row);
+			content.append(row).append('\n');
+		}
+		final byte[] large = content.toString().getBytes(StandardCharsets.UTF_8);
+		csvSize = large.length;
+		final byte[] text = TEXT.getBytes(StandardCharsets.UTF_8);
+
+		final ArchiveFixture fixture = new ArchiveFixture(tempDir).loose("loose.txt", text)
+				.loose("loose.csv", large).deflated("zipped.txt", text)
+				.deflated("zipped.csv", large).packed("packed.csv", large).create();
+		fs = fixture.getFileSystem();
+		metrics = fixture.getMetrics();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "loose.txt", "zipped.txt" })
+	void testLines(final String path) {
+		final FSFile file = fs.open(path, FileAccessType.READ).get();
+		for (final int bufferSize : new int[] { RecordReader.MIN_BUFFER_SIZE, 17, 4096 }) {
+			try (Stream<String> lines = file.lines(StandardCharsets.UTF_8, bufferSize).get()) {
+				assertEquals(LINES, lines.collect(Collectors.toList()));
+			}
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "loose.csv", "zipped.csv", "packed.csv" })
+	void testLargeLines(final String path) {
+		final FSFile file = fs.open(path, FileAccessType.READ).get();
+		try (Stream<String> lines = file.lines(StandardCharsets.UTF_8).get()) {
+			assertEquals(csv, lines.collect(Collectors.toList()));
+		}
+		assertEquals(1, metrics.getRead().getCount());
+		assertEquals(csvSize, metrics.getRead().getBytes());
+	}
+
+	@Test
+	void testStopEarly() throws IOException {
+		final FSFile file = fs.open("zipped.csv", FileAccessType.READ).get();
+		try (Stream<String> lines = file.lines(StandardCharsets.UTF_8).get()) {
+			assertEquals(csv.subList(0, 10), lines.limit(10).collect(Collectors.toList()));
+		}
+		try (ReadableByteChannel channel = file.openReadableChannel().get()) {
+			final ByteBuffer buffer = ByteBuffer.allocate(5);
+			assertEquals(5, channel.read(buffer));
+			assertEquals("0,row", new String(buffer.array(), StandardCharsets.UTF_8));
+		}
+		assertEquals(2, metrics.getRead().getCount());
+	}
+
+	@Test
+	void testRecords() throws IOException {
+		final FSFile file = fs.open("zipped.csv", FileAccessType.READ).get();
+		try (RecordReader records = file.openRecordReader(StandardCharsets.UTF_8, ",row ").get()) {
+			assertEquals("0", records.next());
+			assertEquals("0,0\n1", records.next());
+		}
+
+		final String text = "a::b:::c::::";
+		final ByteBuffer content = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+		try (RecordReader records = new RecordReader(new ByteBufferChannel(content),
+				StandardCharsets.UTF_8, "::", RecordReader.MIN_BUFFER_SIZE)) {
+			final List<String> read = new ArrayList<>();
+			records.forEachRemaining(read::add);
+			assertEquals(Arrays.asList("a", "b", ":c", ""), read);
+			assertFalse(records.hasNext());
+			assertThrows(NoSuchElementException.class, records::next);
+		}
+		assertThrows(IllegalArgumentException.class, () -> new RecordReader(new ByteBufferChannel(
+				content), StandardCharsets.UTF_8, "", RecordReader.MIN_BUFFER_SIZE));
+		assertThrows(IllegalArgumentException.class, () -> RecordReader.lines(new ByteBufferChannel(
+				content), StandardCharsets.UTF_8, 1));
+	}
+
+	@Test
+	void testCachedArchiveContent() {
+		fs.setCacheArchiveContent(true);
+		final FSFile file = fs.open("zipped.txt", FileAccessType.READ).get();
+		file.readBytes();
+		try (Stream<String> lines = file.lines(StandardCharsets.UTF_8).get()) {
+			assertEquals(LINES, lines.collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	void testRAMFile() {
+		final RAMFileSystem ram = new RAMFileSystem();
+		assertTrue(ram.setWriteDirectory("save"));
+		final FSFile file = ram.createFile(FilePath.from("notes.txt")).get();
+		assertTrue(file.writeBytes(TEXT.getBytes(StandardCharsets.UTF_8), false));
+		try (Stream<String> lines = file.lines(StandardCharsets.UTF_8).get()) {
+			assertEquals(LINES, lines.collect(Collectors.toList()));
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.RAMFileSystem;
+import com.gmail.jesper.sporron.FS4J.metrics.FSMetrics;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class StreamingWriteTest {
+	@TempDir
+	Path tempDir;
+	private Path writeDir;
+	private NIOFileSystem fs;
+	private FSMetrics metrics;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		writeDir = Files.createDirectory(tempDir.resolve("write"));
+		fs = new NIOFileSystem();
+		metrics = new FSMetrics();
+		fs.setMetricsListener(metrics);
+		assertTrue(fs.setWriteDirectory(FilePath.from(writeDir.toString())));
+	}
+
+	@Test
+	void testChannel() throws IOException {
+		final NIOFSFile file = fs.createFile(FilePath.from("replay.bin")).get();
+		assertTrue(file.writeString("old content", false));
+
+		try (WritableByteChannel channel = file.openWritableChannel(false).get()) {
+			channel.write(ByteBuffer.wrap("first ".getBytes(StandardCharsets.UTF_8)));
+			channel.write(ByteBuffer.wrap("second".getBytes(StandardCharsets.UTF_8)));
+		}
+		assertEquals("first second", read("replay.bin"));
+
+		try (WritableByteChannel channel = file.openWritableChannel(true).get()) {
+			channel.write(ByteBuffer.wrap(" third".getBytes(StandardCharsets.UTF_8)));
+		}
+		assertEquals("first second third", read("replay.bin"));
+		assertEquals(3, metrics.getWrite().getCount());
+		assertEquals(11 + 12 + 6, metrics.getWrite().getBytes());
+
+		// Like writeBytes, the channel does not create a file that does not exist
+		final NIOFSFile missing = fs.open("missing.bin", FileAccessType.WRITE).get();
+		assertFalse(missing.openWritableChannel(false).isPresent());
+		assertFalse(missing.openOutputStream(true).isPresent());
+		assertFalse(missing.openWriter(false, StandardCharsets.UTF_8).isPresent());
+		assertFalse(Files.exists(writeDir.resolve("missing.bin")));
+		assertFalse(fs.open("missing/missing.bin", FileAccessType.WRITE).get()
+				.openWritableChannel(false).isPresent());
+	}
+
+	@Test
+	void testOutputStream() throws IOException {
+		final byte[] content = new byte[200 * 1024];
+		new Random(1).nextBytes(content);
+		final NIOFSFile file = fs.createFile(FilePath.from("large.bin")).get();
+		try (OutputStream out = file.openOutputStream(false, 4096).get()) {
+			out.write(content, 0, 10);
+			out.write(content[10]);
+			out.write(content, 11, 5000);
+			out.write(content, 5011, content.length - 5011);
+		}
+		assertArrayEquals(content, Files.readAllBytes(writeDir.resolve("large.bin")));
+	}
+
+	@Test
+	void testWriter() throws IOException {
+		final NIOFSFile file = fs.createFile(FilePath.from("text.txt")).get();
+		final String text = "h\u00e9llo \ud83d\ude00 w\u00f6rld";
+		final int split = text.indexOf('\ude00');
+		// A small buffer so that encoding overflows it, and a surrogate pair split between writes.
+		try (Writer writer = file.openWriter(false, StandardCharsets.UTF_8, 8).get()) {
+			writer.write(text, 0, split);
+			writer.flush();
+			writer.append(new StringBuilder(text), split, text.length());
+			writer.write('!');
+		}
+		assertEquals(text + "!", read("text.txt"));
+
+		try (Writer writer = file.openWriter(true, StandardCharsets.UTF_16BE).get()) {
+			writer.write("\u00e5\u00e4\u00f6".toCharArray());
+		}
+		final byte[] bytes = Files.readAllBytes(writeDir.resolve("text.txt"));
+		assertEquals("\u00e5\u00e4\u00f6", new String(bytes, bytes.length - 6, 6,
+				StandardCharsets.UTF_16BE));
+	}
+
+	@Test
+	void testInMemory() throws IOException {
+		final RAMFileSystem ram = new RAMFileSystem();
+		assertTrue(ram.setWriteDirectory("save"));
+		final RAMFSFile file = ram.createFile(FilePath.from("slot.sav")).get();
+		try (Writer writer = file.openWriter(false, StandardCharsets.UTF_8).get()) {
+			writer.write("saved");
+		}
+		try (OutputStream out = file.openOutputStream(true).get()) {
+			out.write(" game".getBytes(StandardCharsets.UTF_8));
+		}
+		assertEquals("saved game", file.readString());
+
+		final RAMFSFile missing = ram.open("missing.sav", FileAccessType.WRITE).get();
+		assertFalse(missing.openWritableChannel(false).isPresent());
+		assertFalse(missing.openOutputStream(true).isPresent());
+		assertFalse(missing.openWriter(false, StandardCharsets.UTF_8).isPresent());
+		assertFalse(missing.writeBytes(new byte[1], false));
+		assertFalse(ram.open("missing.sav", FileAccessType.READ).isPresent());
+	}
+
+	private String read(final String path) throws IOException {
+		return new String(Files.readAllBytes(writeDir.resolve(path)), StandardCharsets.UTF_8);
+	}
+}
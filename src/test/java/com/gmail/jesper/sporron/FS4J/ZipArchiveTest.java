@@ -0,0 +1,100 @@
+package com.gmail.jesper.sporron.FS4J;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.gmail.jesper.sporron.FS4J.archive.ArchiveEntry;
+import com.gmail.jesper.sporron.FS4J.archive.ZipArchive;
+import com.gmail.jesper.sporron.FS4J.impl.ArchiveNIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFSFile;
+import com.gmail.jesper.sporron.FS4J.impl.NIOFileSystem;
+import com.gmail.jesper.sporron.FS4J.util.FilePath;
+
+class ZipArchiveTest {
+	private static final String DEFLATED_TEXT = "hello hello hello hello hello hello";
+	private static final String STORED_TEXT = "stored content";
+
+	@TempDir
+	Path tempDir;
+	private Path zipPath;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		zipPath = tempDir.resolve("test.zip");
+		try (OutputStream out = Files.newOutputStream(zipPath);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("folder/"));
+			zip.closeEntry();
+
+			zip.putNextEntry(new ZipEntry("folder/deflated.txt"));
+			zip.write(DEFLATED_TEXT.getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+
+			final byte[] stored = STORED_TEXT.getBytes(StandardCharsets.UTF_8);
+			final CRC32 crc = new CRC32();
+			crc.update(stored);
+			final ZipEntry storedEntry = new ZipEntry("stored.txt");
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(stored.length);
+			storedEntry.setCrc(crc.getValue());
+			zip.putNextEntry(storedEntry);
+			zip.write(stored);
+			zip.closeEntry();
+		}
+	}
+
+	@Test
+	void testIndex() throws IOException {
+		final ZipArchive archive = ZipArchive.open(zipPath);
+		assertEquals(2, archive.numEntries());
+		assertTrue(archive.getEntry(FilePath.from("folder/deflated.txt")).isPresent());
+		assertTrue(archive.getEntry(FilePath.from("./stored.txt")).isPresent());
+		assertFalse(archive.getEntry(FilePath.from("folder")).isPresent());
+		assertFalse(archive.getEntry(FilePath.from("dne.txt")).isPresent());
+
+		assertThrows(NullPointerException.class, () -> archive.getEntry(null));
+	}
+
+	@Test
+	void testReadEntry() throws IOException {
+		final ZipArchive archive = ZipArchive.open(zipPath);
+		final ArchiveEntry deflated = archive.getEntry(FilePath.from("folder/deflated.txt")).get();
+		assertEquals(ArchiveEntry.DEFLATED, deflated.getMethod());
+		assertEquals(DEFLATED_TEXT, new String(archive.readEntry(deflated), StandardCharsets.UTF_8));
+
+		final ArchiveEntry stored = archive.getEntry(FilePath.from("stored.txt")).get();
+		assertTrue(stored.isStored());
+		assertEquals(STORED_TEXT, new String(archive.readEntry(stored), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testOpenIsLazy() throws IOException {
+		final NIOFileSystem fs = new NIOFileSystem();
+		fs.setCacheArchiveContent(true);
+		assertTrue(fs.addToSearchPath(zipPath.toString(), FileLocation.EXTERNAL));
+
+		final Optional<NIOFSFile> file = fs.open("folder/deflated.txt", FileAccessType.READ);
+		assertTrue(file.isPresent());
+		final ArchiveNIOFSFile archiveFile = (ArchiveNIOFSFile) file.get();
+		assertFalse(archiveFile.isCached());
+		assertEquals(DEFLATED_TEXT.length(), archiveFile.getSize());
+		assertEquals(DEFLATED_TEXT, archiveFile.readString());
+		assertTrue(archiveFile.isCached());
+		assertNotSame(archiveFile.readBytes(), archiveFile.readBytes());
+
+		assertFalse(fs.open("folder/dne.txt", FileAccessType.READ).isPresent());
+	}
+}